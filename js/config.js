@@ -143,21 +143,26 @@ export function createConfig(adminConfig = null) {
  * @param {Object} bookDetail - Полная информация о книге из GET /api/books/:bookId
  * @param {Object|null} globalSettings - Глобальные настройки из GET /api/settings
  * @param {Array} readingFonts - Шрифты для чтения из GET /api/fonts
+ * @param {Map<string, string|null>} [chapterContents] - HTML глав, уже полученный в bundle
+ *   (такие главы встраиваются inline и не запрашиваются ContentLoader повторно)
  * @returns {Readonly<import('./types.js').AppConfig>}
  */
-export function createConfigFromAPI(bookDetail, globalSettings, readingFonts) {
+export function createConfigFromAPI(bookDetail, globalSettings, readingFonts, chapterContents = null) {
   // Главы: из API (id, title, filePath, hasHtmlContent, bg, bgMobile)
   const CHAPTERS = bookDetail.chapters?.length
-    ? bookDetail.chapters.map(ch => ({
-        id: ch.id,
-        title: ch.title || '',
-        file: resolveAssetPath(ch.filePath),
-        htmlContent: null,
-        _idb: false,
-        _hasHtmlContent: ch.hasHtmlContent,
-        bg: resolveAssetPath(ch.bg),
-        bgMobile: resolveAssetPath(ch.bgMobile),
-      }))
+    ? bookDetail.chapters.map(ch => {
+        const prefetched = chapterContents?.get(ch.id) ?? null;
+        return {
+          id: ch.id,
+          title: ch.title || '',
+          file: resolveAssetPath(ch.filePath),
+          htmlContent: prefetched,
+          _idb: false,
+          _hasHtmlContent: prefetched ? false : ch.hasHtmlContent,
+          bg: resolveAssetPath(ch.bg),
+          bgMobile: resolveAssetPath(ch.bgMobile),
+        };
+      })
     : [];
 
   const cover = bookDetail.cover || {};
@@ -253,6 +258,26 @@ export async function loadPublicConfigFromAPI(apiClient, bookId) {
   return { config, owner: bookDetail.owner || null };
 }
 
+/**
+ * Загрузить всё для открытия ридера одним запросом (reader bundle).
+ *
+ * Вместо getBook + getSettings + getFonts + getProgress + N запросов
+ * контента — один NDJSON-ответ; HTML первых глав встраивается в CHAPTERS.
+ *
+ * @param {import('./utils/ApiClient.js').ApiClient} apiClient
+ * @param {string} bookId - ID книги
+ * @param {Object} [options]
+ * @param {boolean} [options.publicMode=false] - Публичный эндпоинт (guest/embed)
+ * @returns {Promise<{ config: Readonly<Object>, owner: Object|null, progress: Object|null }>}
+ */
+export async function loadReaderBundleFromAPI(apiClient, bookId, { publicMode = false } = {}) {
+  const bundle = await apiClient.getReaderBundle(bookId, { publicMode });
+  const config = createConfigFromAPI(
+    bundle.book, bundle.settings, bundle.fonts || [], bundle.chapters,
+  );
+  return { config, owner: bundle.book.owner || null, progress: bundle.progress };
+}
+
 // ─── Управляемый синглтон ────────────────────────────────────────────────────
 
 /**
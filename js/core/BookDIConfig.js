@@ -39,7 +39,7 @@ import {
 export function createBookDelegates({ core, audio, render, content, stateMachine, settings, debugPanel, state }) {
   const { dom, eventManager } = core;
   const { soundManager, ambientManager } = audio;
-  const { renderer, animator, paginator, loadingIndicator } = render;
+  const { renderer, animator, paginator, paginationCache, textLayout, loadingIndicator } = render;
   const { contentLoader, backgroundManager } = content;
 
   return {
@@ -64,6 +64,8 @@ export function createBookDelegates({ core, audio, render, content, stateMachine
       backgroundManager,
       contentLoader,
       paginator,
+      paginationCache,
+      textLayout,
       renderer,
       animator,
       loadingIndicator,
@@ -10,6 +10,7 @@
  */
 
 import { BoolStr } from '../config.js';
+import { t } from '@i18n';
 
 /** @constant {number} Максимальное количество URL изображений в кэше */
 const IMAGE_URL_CACHE_LIMIT = 100;
@@ -40,6 +41,10 @@ export class BookRenderer {
     this._pageHeight = 0;
     /** @type {boolean} Есть ли оглавление (TOC) на первой странице */
     this._hasTOC = false;
+    /** @type {number} Индекс страницы, с которой начинается исходный элемент */
+    this._firstPage = 0;
+    /** @type {number} Сколько страниц содержит исходный элемент */
+    this._sourcePages = 0;
     /** @type {boolean} Запланирован ли pre-warm viewport'ов */
     this._preWarmScheduled = false;
 
@@ -74,6 +79,9 @@ export class BookRenderer {
    * @param {number} pageData.pageWidth - Ширина страницы
    * @param {number} pageData.pageHeight - Высота страницы
    * @param {boolean} [pageData.hasTOC=false] - Есть ли оглавление на первой странице
+   * @param {number} [pageData.firstPage=0] - Индекс первой страницы исходного элемента
+   *   (прогрессивная пагинация: пока измерена одна глава, на остальных страницах заглушка)
+   * @param {number} [pageData.sourcePages=pageCount] - Сколько страниц в исходном элементе
    */
   setPaginationData(pageData) {
     this._sourceElement = pageData?.sourceElement || null;
@@ -81,6 +89,8 @@ export class BookRenderer {
     this._pageWidth = pageData?.pageWidth || 0;
     this._pageHeight = pageData?.pageHeight || 0;
     this._hasTOC = pageData?.hasTOC || false;
+    this._firstPage = pageData?.firstPage || 0;
+    this._sourcePages = pageData?.sourcePages ?? this._totalPages;
     // Очищаем все viewport'ы — при смене контента нужны новые клоны
     this._clearAllViewports();
     // Очищаем loadedImageUrls при смене контента для предотвращения утечки памяти
@@ -100,9 +110,15 @@ export class BookRenderer {
   fill(container, pageIndex) {
     if (!container) return;
 
-    // Невалидный индекс — очищаем контейнер
-    if (pageIndex < 0 || pageIndex >= this._totalPages || !this._sourceElement) {
-      this._clearViewport(container);
+    // Невалидный индекс или страница вне исходного элемента — очищаем контейнер
+    if (pageIndex < 0 || pageIndex >= this._totalPages || !this._sourceElement
+      || !this._hasSourcePage(pageIndex)) {
+      if (this._sourceElement && pageIndex >= 0 && pageIndex < this._totalPages) {
+        // Глава ещё измеряется в фоне — показываем заглушку, а не пустую страницу
+        this._fillPlaceholder(container);
+      } else {
+        this._clearViewport(container);
+      }
       const page = container.closest(".page");
       if (page) page.classList.remove("page--toc");
       return;
@@ -113,7 +129,7 @@ export class BookRenderer {
     if (viewport && viewport._isBookViewport) {
       // Viewport уже есть — обновляем только translate3d (мгновенно, GPU-слой)
       viewport.firstChild.style.transform =
-        `translate3d(${-pageIndex * this._pageWidth}px, 0px, 0px)`;
+        `translate3d(${-(pageIndex - this._firstPage) * this._pageWidth}px, 0px, 0px)`;
     } else {
       // Первый раз для этого контейнера — создаём viewport с клоном
       const newViewport = this._createViewport(pageIndex);
@@ -128,6 +144,33 @@ export class BookRenderer {
     }
   }
 
+  /**
+   * Есть ли страница в исходном элементе
+   * @param {number} pageIndex
+   * @returns {boolean}
+   * @private
+   */
+  _hasSourcePage(pageIndex) {
+    return pageIndex >= this._firstPage && pageIndex < this._firstPage + this._sourcePages;
+  }
+
+  /**
+   * Показать заглушку на странице, которой ещё нет в исходном элементе
+   * (прогрессивная пагинация до завершения фоновой)
+   * @param {HTMLElement} container - Контейнер страницы
+   * @private
+   */
+  _fillPlaceholder(container) {
+    if (container.firstElementChild?._isPagePlaceholder) return;
+
+    const placeholder = document.createElement("div");
+    placeholder._isPagePlaceholder = true;
+    placeholder.className = "page-placeholder";
+    placeholder.setAttribute("aria-busy", "true");
+    placeholder.textContent = t("common.loading");
+    container.replaceChildren(placeholder);
+  }
+
   /**
    * Создать viewport с клоном исходного элемента
    *
@@ -147,13 +190,13 @@ export class BookRenderer {
       `width:${this._pageWidth}px;height:${this._pageHeight}px;overflow:hidden;contain:strict;`;
 
     const clone = this._sourceElement.cloneNode(true);
-    clone.style.width = `${this._totalPages * this._pageWidth}px`;
+    clone.style.width = `${this._sourcePages * this._pageWidth}px`;
     // Фиксированная высота вместо height:100% из клона —
     // предотвращает проблему в PWA, где contain:strict + dvh
     // могут привести к некорректному разрешению процентной высоты
     clone.style.height = `${this._pageHeight}px`;
     // translate3d форсирует GPU-слой, will-change подсказывает браузеру
-    clone.style.transform = `translate3d(${-pageIndex * this._pageWidth}px, 0px, 0px)`;
+    clone.style.transform = `translate3d(${-(pageIndex - this._firstPage) * this._pageWidth}px, 0px, 0px)`;
     clone.style.willChange = "transform";
     snap.appendChild(clone);
 
@@ -216,7 +259,7 @@ export class BookRenderer {
       if (container.firstElementChild?._isBookViewport) continue;
 
       // Создаём ОДИН viewport и планируем следующий на следующий кадр
-      container.replaceChildren(this._createViewport(0));
+      container.replaceChildren(this._createViewport(this._firstPage));
       this._schedulePreWarm();
       return;
     }
@@ -442,6 +485,8 @@ export class BookRenderer {
     this._pageWidth = 0;
     this._pageHeight = 0;
     this._hasTOC = false;
+    this._firstPage = 0;
+    this._sourcePages = 0;
     this.elements = null;
   }
 }
\ No newline at end of file
@@ -7,6 +7,7 @@
 import { CONFIG } from "../../config.js";
 import { cssVars, announce, isValidFontSize, sanitizeFontSize } from "../../utils/index.js";
 import { trackFontChanged } from "../../utils/Analytics.js";
+import { rememberFontSource } from "../../utils/FontSources.js";
 
 /** Названия шрифтов для объявления screen reader */
 const FONT_NAMES = {
@@ -143,6 +144,7 @@ export class FontController {
     const fontFace = new FontFace(familyName, `url(${dataUrl})`);
     return fontFace.load().then((loaded) => {
       document.fonts.add(loaded);
+      rememberFontSource(familyName, dataUrl);
     }).catch((err) => {
       console.warn(`Не удалось загрузить шрифт ${familyName}:`, err.message);
     });
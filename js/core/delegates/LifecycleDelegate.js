@@ -6,14 +6,35 @@
  * - open()       → Открыть книгу с анимацией и загрузкой контента
  * - close()      → Закрыть книгу с анимацией
  * - repaginate() → Пересчитать страницы (при смене шрифта/размера)
+ *
+ * Раскладка страниц кэшируется в IndexedDB (PaginationCache): при повторном
+ * открытии с теми же контентом и настройками страницы строятся по
+ * сохранённой раскладке сразу, а полная пагинация перепроверяет её
+ * в idle-время.
+ *
+ * Без кэша раскладку сначала пробует рассчитать TextLayoutPaginator —
+ * по метрикам шрифтов в Web Worker, без reflow; её тоже перепроверяет
+ * полная пагинация, пока для этих настроек она не совпала с ней несколько
+ * раз подряд. Чтение с середины книги, пока совпадение не подтверждено
+ * (или если контент TextLayoutPaginator не подходит), использует
+ * прогрессивную пагинацию: сначала показывается глава с позицией чтения,
+ * остальные главы измеряются в фоне, и затем индексы страниц сверяются без
+ * сдвига текста.
  */
 
 import { getConfig, BookState } from '../../config.js';
 import { ErrorHandler } from '../../utils/ErrorHandler.js';
 import { AmbientManager } from '../../managers/AmbientManager.js';
+import { AsyncPaginator } from '../../managers/AsyncPaginator.js';
 import { BaseDelegate, DelegateEvents } from './BaseDelegate.js';
 import { trackReadingSessionStart, trackReadingSessionEnd } from '../../utils/Analytics.js';
 
+/** Крайний срок idle-перепроверки раскладки из кэша (мс) */
+const LAYOUT_VALIDATION_TIMEOUT = 2000;
+
+/** Пауза перед повторной попыткой применить раскладку, пока идёт анимация (мс) */
+const LAYOUT_APPLY_RETRY_DELAY = 250;
+
 export class LifecycleDelegate extends BaseDelegate {
   /**
    * @param {Object} deps
@@ -21,6 +42,8 @@ export class LifecycleDelegate extends BaseDelegate {
    * @param {BackgroundManager} deps.backgroundManager
    * @param {ContentLoader} deps.contentLoader
    * @param {AsyncPaginator} deps.paginator
+   * @param {PaginationCache} [deps.paginationCache] - Кэш раскладки (без него — всегда полная пагинация)
+   * @param {TextLayoutPaginator} [deps.textLayout] - Раскладка в Web Worker (без неё — только DOM-пагинация)
    * @param {BookRenderer} deps.renderer
    * @param {BookAnimator} deps.animator
    * @param {LoadingIndicator} deps.loadingIndicator
@@ -33,7 +56,14 @@ export class LifecycleDelegate extends BaseDelegate {
     super(deps);
     this.contentLoader = deps.contentLoader;
     this.paginator = deps.paginator;
+    this.paginationCache = deps.paginationCache || null;
+    this.textLayout = deps.textLayout || null;
     this.loadingIndicator = deps.loadingIndicator;
+
+    /** @type {number} Номер текущей пагинации (устаревшие перепроверки отбрасываются) */
+    this._paginationGeneration = 0;
+    /** @type {AsyncPaginator|null} Отдельный пагинатор для перепроверки — без событий прогресса */
+    this._layoutValidator = null;
   }
 
   /**
@@ -134,7 +164,8 @@ export class LifecycleDelegate extends BaseDelegate {
 
       // ─── Этап 5: Пагинация контента ───
       const chapterTitles = getConfig().CHAPTERS.map(c => c.title || '');
-      const { pageData, chapterStarts } = await this.paginator.paginate(html, rightA, { chapterTitles });
+      const { pageData, chapterStarts, startIndex: resolvedIndex = startIndex } =
+        await this._paginate(html, rightA, chapterTitles, { startIndex });
 
       if (this.isDestroyed) return;
 
@@ -142,7 +173,7 @@ export class LifecycleDelegate extends BaseDelegate {
 
       // ─── Этап 6: Рендеринг начального разворота ───
       const maxIndex = this.renderer.getMaxIndex(this.isMobile);
-      const safeStartIndex = Math.max(0, Math.min(startIndex, maxIndex));
+      const safeStartIndex = Math.max(0, Math.min(resolvedIndex, maxIndex));
 
       this.renderer.renderSpread(safeStartIndex, this.isMobile);
 
@@ -193,6 +224,10 @@ export class LifecycleDelegate extends BaseDelegate {
       return;
     }
 
+    // Перепроверка раскладки и фоновая пагинация закрытой книге не нужны
+    this._layoutValidator?.abort();
+    this.paginator.abort();
+
     // ─── Этап 2: Звук закрытия ───
     if (this.soundManager) {
       this.soundManager.play('bookClose');
@@ -263,6 +298,10 @@ export class LifecycleDelegate extends BaseDelegate {
       this.renderer.clearCache();
 
       const prevIndex = keepIndex ? this.currentIndex : 0;
+      // Прежняя раскладка — чтобы найти главу с позицией в новой
+      const previous = keepIndex
+        ? { chapterStarts: [...this.chapterStarts], pageCount: this.renderer.totalPages }
+        : undefined;
 
       const rightA = this.dom.get('rightA');
       if (!rightA) {
@@ -285,7 +324,8 @@ export class LifecycleDelegate extends BaseDelegate {
 
       // ─── Этап 3: Пагинация ───
       const chapterTitles = getConfig().CHAPTERS.map(c => c.title || '');
-      const { pageData, chapterStarts } = await this.paginator.paginate(html, rightA, { chapterTitles });
+      const { pageData, chapterStarts, startIndex: resolvedIndex = prevIndex } =
+        await this._paginate(html, rightA, chapterTitles, { startIndex: prevIndex, previous });
 
       if (this.isDestroyed) return;
 
@@ -293,7 +333,7 @@ export class LifecycleDelegate extends BaseDelegate {
 
       // ─── Этап 4: Рендеринг с сохранением позиции ───
       const maxIndex = this.renderer.getMaxIndex(this.isMobile);
-      const newIndex = keepIndex ? Math.min(prevIndex, maxIndex) : 0;
+      const newIndex = keepIndex ? Math.min(resolvedIndex, maxIndex) : 0;
 
       this.renderer.renderSpread(newIndex, this.isMobile);
 
@@ -315,6 +355,279 @@ export class LifecycleDelegate extends BaseDelegate {
     }
   }
 
+  /**
+   * Пагинация с кэшем раскладки
+   *
+   * Если для этого контента и настроек есть сохранённая раскладка, страницы
+   * строятся по ней без измерений, а полная пагинация запускается позже
+   * в idle-время (_validateLayout). Иначе — раскладка TextLayoutPaginator:
+   * без перепроверки, если при этих настройках она уже совпадала с полной
+   * пагинацией (PaginationCache.hasTextLayoutParity), с перепроверкой —
+   * при чтении с начала. При чтении с середины без подтверждённого
+   * совпадения ошибка оценки сдвинула бы читателя, поэтому тогда, как и для
+   * неподходящего контента, — прогрессивная пагинация (первой измеряется
+   * глава с позицией чтения, найденная по оценке), а сама оценка сверяется
+   * с итогом; с начала — обычная. В кэш попадает только раскладка полной пагинации: результат
+   * прогрессивной собран из глав, измеренных по отдельности, и сначала тоже
+   * перепроверяется.
+   *
+   * @private
+   * @param {string} html - HTML-контент книги
+   * @param {HTMLElement} measureElement - Элемент для размеров страницы
+   * @param {string[]} chapterTitles - Заголовки глав
+   * @param {Object} [position={}] - Позиция чтения
+   * @param {number} [position.startIndex=0] - Индекс страницы, к которой надо вернуться
+   * @param {{chapterStarts: number[], pageCount: number}} [position.previous] - Раскладка, к которой относится startIndex
+   * @returns {Promise<import('../../managers/AsyncPaginator.js').PaginationResult & {startIndex?: number}>}
+   *   `startIndex` — позиция в новой нумерации (только у прогрессивной пагинации)
+   */
+  async _paginate(html, measureElement, chapterTitles, { startIndex = 0, previous } = {}) {
+    const generation = ++this._paginationGeneration;
+    this._layoutValidator?.abort();
+
+    const cache = this.paginationCache;
+    const params = this._layoutParams(measureElement, chapterTitles);
+    const key = cache ? await cache.keyFor(html, params) : null;
+    const layout = key ? await cache.get(key) : null;
+
+    if (this.isDestroyed) return { pageData: null, chapterStarts: [] };
+
+    if (layout) {
+      const restored = await this.paginator.restore(html, measureElement, layout, { chapterTitles });
+      if (restored) {
+        this._scheduleLayoutValidation({
+          html, measureElement, chapterTitles, key, layout, source: 'cache', params, generation,
+        });
+        return restored;
+      }
+    }
+
+    const estimated = this.textLayout
+      ? await this.textLayout.layout(html, measureElement, { chapterTitles, isMobile: this.isMobile })
+      : null;
+    const trusted = estimated && cache ? await cache.hasTextLayoutParity(params) : false;
+
+    if (this.isDestroyed) return { pageData: null, chapterStarts: [] };
+
+    if (estimated && (trusted || startIndex === 0)) {
+      const restored = await this.paginator.restore(html, measureElement, estimated, { chapterTitles });
+      if (restored) {
+        if (trusted) {
+          if (key) cache.put(key, estimated);
+        } else {
+          this._scheduleLayoutValidation({
+            html, measureElement, chapterTitles, key, layout: estimated, source: 'text-layout', params, generation,
+          });
+        }
+        return restored;
+      }
+    }
+
+    if (startIndex > 0) {
+      // Сохранённая позиция относится к раскладке при этих же настройках —
+      // оценка TextLayoutPaginator найдёт её главу точнее, чем объём текста
+      const { first, rest } = await this.paginator.paginateProgressive(html, measureElement, {
+        chapterTitles, startPage: startIndex, previous: previous ?? estimated,
+      });
+
+      // Без прежней раскладки startIndex — страница полной раскладки при этих же
+      // настройках (сохранённая позиция): в измеренной она та же самая, а глава
+      // и смещение в first — лишь оценка, и переносить их нельзя
+      const target = previous ? null : { index: startIndex, shown: first.startIndex };
+
+      rest.then((result) => {
+        if (!result.layout) return;
+        this._applyRecomputedLayout(result, first.chapterStarts, generation, target);
+        this._scheduleLayoutValidation({
+          html, measureElement, chapterTitles, key, layout: result.layout, source: 'progressive',
+          estimated, params, generation,
+        });
+      }).catch((error) => {
+        console.warn('LifecycleDelegate: фоновая пагинация не удалась', error);
+      });
+
+      return first;
+    }
+
+    const result = await this.paginator.paginate(html, measureElement, { chapterTitles });
+    if (key && result.layout) {
+      cache.put(key, result.layout);
+    }
+    return result;
+  }
+
+  /**
+   * Параметры, от которых зависит раскладка (для ключа кэша)
+   * @private
+   * @param {HTMLElement} measureElement
+   * @param {string[]} chapterTitles
+   * @returns {import('../../managers/PaginationCache.js').LayoutKeyParams}
+   */
+  _layoutParams(measureElement, chapterTitles) {
+    return {
+      chapterTitles,
+      font: this.settings?.get("font"),
+      fontSize: this.settings?.get("fontSize"),
+      pageWidth: measureElement.clientWidth,
+      pageHeight: measureElement.clientHeight,
+      theme: this.settings?.get("theme"),
+      isMobile: this.isMobile,
+    };
+  }
+
+  /**
+   * Запланировать перепроверку показанной раскладки в idle-время
+   * @private
+   * @param {Object} job - Параметры перепроверки (см. _validateLayout)
+   */
+  _scheduleLayoutValidation(job) {
+    const run = () => {
+      this._validateLayout(job).catch((error) => {
+        console.warn('LifecycleDelegate: перепроверка раскладки не удалась', error);
+      });
+    };
+
+    if (typeof requestIdleCallback === 'function') {
+      requestIdleCallback(run, { timeout: LAYOUT_VALIDATION_TIMEOUT });
+    } else {
+      setTimeout(run, LAYOUT_APPLY_RETRY_DELAY);
+    }
+  }
+
+  /**
+   * Полная пагинация для проверки показанной раскладки.
+   *
+   * Раскладка из кэша могла устареть (например, другой набор системных
+   * шрифтов или обновлённый браузер), расчётная — разойтись с браузером
+   * из-за метрик, а у прогрессивной начала глав сложены арифметически из
+   * отдельно измеренных глав. Если результат отличается — он применяется
+   * с сохранением позиции внутри текущей главы. Результат сохраняется в кэш,
+   * если его там ещё нет. Перепроверка отбрасывается, если с тех пор
+   * началась новая пагинация.
+   *
+   * @private
+   * @param {Object} job
+   * @param {string} job.html
+   * @param {HTMLElement} job.measureElement
+   * @param {string[]} job.chapterTitles
+   * @param {string|null} job.key - Ключ раскладки (null — кэша нет)
+   * @param {import('../../managers/AsyncPaginator.js').PaginationLayout} job.layout - Показанная раскладка
+   * @param {'cache'|'text-layout'|'progressive'} [job.source='cache'] - Откуда раскладка:
+   *   из кэша, от TextLayoutPaginator или из прогрессивной пагинации
+   * @param {import('../../managers/AsyncPaginator.js').PaginationLayout|null} [job.estimated] - Раскладка
+   *   TextLayoutPaginator, которую надо сверить с результатом (для source 'text-layout' — сама layout)
+   * @param {import('../../managers/PaginationCache.js').LayoutKeyParams} [job.params] - Настройки, к которым относится сверка
+   * @param {number} job.generation - Номер пагинации, к которой относится проверка
+   */
+  async _validateLayout({
+    html, measureElement, chapterTitles, key, layout, source = 'cache',
+    estimated = source === 'text-layout' ? layout : null, params, generation,
+  }) {
+    if (this.isDestroyed || generation !== this._paginationGeneration) return;
+
+    this._layoutValidator ??= new AsyncPaginator({ sanitizer: this.paginator.sanitizer });
+    const result = await this._layoutValidator.paginate(html, measureElement, { chapterTitles });
+
+    if (this.isDestroyed || generation !== this._paginationGeneration || !result.layout) return;
+
+    if (estimated) {
+      const parity = isSameLayout(result.layout, estimated);
+      markTextLayoutParity(parity, estimated, result.layout);
+      if (params) this.paginationCache?.recordTextLayoutParity(params, parity);
+    }
+
+    const same = isSameLayout(result.layout, layout);
+    if (same && source === 'cache') return;
+    // Устаревшая запись кэша — признак смены шрифтов или браузера (и её могла
+    // положить туда доверенная оценка): совпадение движков подтверждаем заново
+    if (!same && source === 'cache' && params) this.paginationCache?.recordTextLayoutParity(params, false);
+
+    if (key) await this.paginationCache.put(key, result.layout);
+    if (!same) this._applyRecomputedLayout(result, layout.chapterStarts, generation);
+  }
+
+  /**
+   * Применить пересчитанную раскладку к открытой книге
+   *
+   * Текущая позиция переносится в ту же главу с тем же смещением, поэтому
+   * на экране остаётся тот же текст — меняется только нумерация страниц.
+   * Исключение — `target`: пока читатель не листал, показывается страница,
+   * на которой он был в полной раскладке.
+   *
+   * @private
+   * @param {import('../../managers/AsyncPaginator.js').PaginationResult} result
+   * @param {number[]} previousStarts - Начала глав в показанной раскладке
+   * @param {number} generation
+   * @param {{index: number, shown: number}|null} [target] - Страница, которую надо показать
+   *   в новой раскладке (`index`), если читатель ещё на показанной вместо неё (`shown`)
+   */
+  _applyRecomputedLayout(result, previousStarts, generation, target = null) {
+    if (this.isDestroyed || generation !== this._paginationGeneration) return;
+
+    // Посреди открытия или перелистывания страницы не подменяем
+    if (this.isBusy) {
+      setTimeout(
+        () => this._applyRecomputedLayout(result, previousStarts, generation, target),
+        LAYOUT_APPLY_RETRY_DELAY
+      );
+      return;
+    }
+    if (!this.isOpened) return;
+
+    const { pageData, chapterStarts } = result;
+    const stayed = target
+      && this.currentIndex === Math.min(target.shown, this.renderer.getMaxIndex(this.isMobile));
+    const mapped = stayed
+      ? this._alignIndex(target.index)
+      : this._remapIndex(this.currentIndex, previousStarts, chapterStarts);
+
+    this.emit(DelegateEvents.PAGINATION_COMPLETE, { pageData, chapterStarts });
+
+    const newIndex = Math.min(mapped, this.renderer.getMaxIndex(this.isMobile));
+    this.renderer.renderSpread(newIndex, this.isMobile);
+
+    this.emit(DelegateEvents.INDEX_CHANGE, newIndex);
+    this.emit(DelegateEvents.CHAPTER_UPDATE);
+  }
+
+  /**
+   * Перенести индекс страницы в новую раскладку: та же глава,
+   * то же смещение от её начала (но не дальше её конца)
+   * @private
+   * @param {number} index - Индекс в старой раскладке
+   * @param {number[]} oldStarts - Начала глав в старой раскладке
+   * @param {number[]} newStarts - Начала глав в новой раскладке
+   * @returns {number}
+   */
+  _remapIndex(index, oldStarts, newStarts) {
+    let chapter = -1;
+    for (let i = 0; i < oldStarts.length && oldStarts[i] <= index; i++) {
+      chapter = i;
+    }
+
+    let mapped = chapter < 0 || newStarts[chapter] === undefined
+      ? index
+      : newStarts[chapter] + (index - oldStarts[chapter]);
+
+    const nextStart = newStarts[chapter + 1];
+    if (nextStart !== undefined && mapped >= nextStart) {
+      mapped = nextStart - 1;
+    }
+
+    return this._alignIndex(mapped);
+  }
+
+  /**
+   * Индекс разворота для страницы
+   * @private
+   * @param {number} index
+   * @returns {number}
+   */
+  _alignIndex(index) {
+    // Desktop: индекс разворота — всегда левая (чётная) страница
+    return Math.max(0, this.isMobile ? index : index - (index % 2));
+  }
+
   /**
    * Восстановить state machine в безопасное состояние после ошибки
    *
@@ -404,9 +717,42 @@ export class LifecycleDelegate extends BaseDelegate {
    * Очистка
    */
   destroy() {
+    this._layoutValidator?.destroy();
+    this._layoutValidator = null;
     this.contentLoader = null;
     this.paginator = null;
+    this.paginationCache = null;
+    this.textLayout = null;
     this.loadingIndicator = null;
     super.destroy();
   }
 }
+
+/**
+ * Совпадают ли две раскладки
+ * @param {import('../../managers/AsyncPaginator.js').PaginationLayout} a
+ * @param {import('../../managers/AsyncPaginator.js').PaginationLayout} b
+ * @returns {boolean}
+ */
+function isSameLayout(a, b) {
+  return a.pageCount === b.pageCount
+    && a.chapterStarts.length === b.chapterStarts.length
+    && a.chapterStarts.every((start, i) => start === b.chapterStarts[i])
+    && a.spacers.length === b.spacers.length
+    && a.spacers.every((chapter, i) => chapter === b.spacers[i]);
+}
+
+/**
+ * Отметить, совпала ли раскладка TextLayoutPaginator с DOM-пагинацией
+ *
+ * performance mark виден в DevTools Performance и читается e2e-проверкой
+ * паритета движков.
+ *
+ * @param {boolean} same
+ * @param {import('../../managers/AsyncPaginator.js').PaginationLayout} estimated
+ * @param {import('../../managers/AsyncPaginator.js').PaginationLayout} measured
+ */
+function markTextLayoutParity(same, estimated, measured) {
+  if (typeof performance?.mark !== 'function') return;
+  performance.mark(same ? 'text-layout:match' : 'text-layout:drift', { detail: { estimated, measured } });
+}
@@ -6,6 +6,8 @@
  * - BookRenderer - рендеринг страниц (double buffering, viewport reuse)
  * - BookAnimator - CSS анимации (lift, rotate, drop)
  * - AsyncPaginator - пагинация контента
+ * - PaginationCache - кэш раскладки страниц в IndexedDB
+ * - TextLayoutPaginator - расчёт раскладки в Web Worker без reflow
  * - LoadingIndicator - индикатор загрузки
  */
 
@@ -13,6 +15,8 @@ import { BookRenderer } from '../BookRenderer.js';
 import { BookAnimator } from '../BookAnimator.js';
 import { LoadingIndicator } from '../LoadingIndicator.js';
 import { AsyncPaginator } from '../../managers/AsyncPaginator.js';
+import { PaginationCache } from '../../managers/PaginationCache.js';
+import { TextLayoutPaginator } from '../../managers/TextLayoutPaginator.js';
 import { sanitizer } from '../../utils/HTMLSanitizer.js';
 
 export class RenderServices {
@@ -23,6 +27,8 @@ export class RenderServices {
     this.renderer = this._createRenderer(core.dom);
     this.animator = this._createAnimator(core.dom, core.timerManager);
     this.paginator = this._createPaginator();
+    this.paginationCache = this._createPaginationCache();
+    this.textLayout = this._createTextLayout();
     this.loadingIndicator = this._createLoadingIndicator(core.dom);
   }
 
@@ -80,6 +86,23 @@ export class RenderServices {
     return new AsyncPaginator({ sanitizer });
   }
 
+  /**
+   * Создать кэш раскладки (null, если IndexedDB недоступен)
+   * @private
+   */
+  _createPaginationCache() {
+    return typeof indexedDB === 'undefined' ? null : new PaginationCache();
+  }
+
+  /**
+   * Создать расчёт раскладки в воркере (null без Worker или OffscreenCanvas)
+   * @private
+   */
+  _createTextLayout() {
+    if (typeof Worker === 'undefined' || typeof OffscreenCanvas === 'undefined') return null;
+    return new TextLayoutPaginator({ sanitizer });
+  }
+
   /**
    * Создать индикатор загрузки
    * @private
@@ -99,10 +122,14 @@ export class RenderServices {
   destroy() {
     this.animator?.destroy?.();
     this.paginator?.destroy?.();
+    this.paginationCache?.destroy();
+    this.textLayout?.destroy();
 
     this.renderer = null;
     this.animator = null;
     this.paginator = null;
+    this.paginationCache = null;
+    this.textLayout = null;
     this.loadingIndicator = null;
   }
 }
@@ -22,6 +22,10 @@
 import { EventEmitter } from '../utils/EventEmitter.js';
 import { sanitizer } from '../utils/HTMLSanitizer.js';
 import { mediaQueries } from '../utils/MediaQueryManager.js';
+import { computeChapterLayout } from './TextLayoutEngine.js';
+
+/** Заголовок оглавления */
+export const TOC_TITLE = "Содержание";
 
 /**
  * @typedef {Object} PageData
@@ -32,10 +36,18 @@ import { mediaQueries } from '../utils/MediaQueryManager.js';
  * @property {boolean} hasTOC - Есть ли оглавление (TOC) на первой странице
  */
 
+/**
+ * @typedef {Object} PaginationLayout
+ * @property {number} pageCount - Общее количество страниц
+ * @property {number[]} chapterStarts - Индексы страниц, с которых начинаются главы
+ * @property {number[]} spacers - Индексы глав, перед которыми вставлен спейсер выравнивания
+ */
+
 /**
  * @typedef {Object} PaginationResult
  * @property {PageData|null} pageData - Данные для ленивой материализации страниц
  * @property {number[]} chapterStarts - Индексы страниц, с которых начинаются главы
+ * @property {PaginationLayout} [layout] - Результаты измерений (для PaginationCache)
  */
 
 /**
@@ -139,9 +151,10 @@ export class AsyncPaginator extends EventEmitter {
         }
 
         // Выравнивание глав
+        let spacers = [];
         if (!isMobile) {
           this.emit("progress", { phase: "align", progress: 65 });
-          this._alignChapters(container, pageWidth);
+          spacers = this._alignChapters(container, pageWidth);
           await this._yieldToUI(signal);
         }
 
@@ -156,6 +169,11 @@ export class AsyncPaginator extends EventEmitter {
         result.pageData = this._buildPageData(
           cols, pageContent, pageWidth, pageHeight, hasTOC
         );
+        result.layout = {
+          pageCount: result.pageData.pageCount,
+          chapterStarts: result.chapterStarts,
+          spacers,
+        };
 
       } finally {
         document.body.removeChild(container);
@@ -175,6 +193,219 @@ export class AsyncPaginator extends EventEmitter {
     }
   }
 
+  /**
+   * Восстановить результат пагинации по сохранённой раскладке
+   *
+   * Строит тот же multi-column элемент, что и paginate(), но ничего не
+   * измеряет: спейсеры выравнивания вставляются перед сохранёнными главами,
+   * pageCount и chapterStarts берутся из раскладки. Контейнер не попадает
+   * в document, поэтому reflow нет — это один проход sanitize + parse + clone.
+   *
+   * Раскладка должна быть получена для того же HTML, шрифта и размеров
+   * страницы (за это отвечает ключ PaginationCache).
+   *
+   * @param {string} html - HTML-контент (тот же, что передавался в paginate)
+   * @param {HTMLElement} measureElement - Элемент для размеров страницы
+   * @param {PaginationLayout} layout - Сохранённая раскладка
+   * @param {Object} [options={}] - Опции, как у paginate
+   * @param {string[]} [options.chapterTitles] - Заголовки глав для TOC
+   * @returns {Promise<PaginationResult|null>} null, если раскладка не подходит к контенту
+   */
+  async restore(html, measureElement, layout, options = {}) {
+    this.abort();
+
+    const sanitizedHtml = this.sanitizer.sanitize(html);
+    const doc = new DOMParser().parseFromString(sanitizedHtml, "text/html");
+    this._restoreAlbumPhotoStyles(doc);
+    const articles = [...doc.querySelectorAll("article")];
+
+    if (!articles.length || articles.length !== layout.chapterStarts.length) {
+      return null;
+    }
+
+    const hasTOC = articles.length > 1;
+    const { cols, pageWidth, pageHeight } = this._buildSource(measureElement, articles, {
+      toc: hasTOC ? articles : null,
+      chapterTitles: options.chapterTitles,
+      spacers: layout.spacers,
+    });
+
+    return {
+      pageData: { sourceElement: cols, pageCount: layout.pageCount, pageWidth, pageHeight, hasTOC },
+      chapterStarts: [...layout.chapterStarts],
+      layout,
+    };
+  }
+
+  /**
+   * Прогрессивная пагинация: сначала глава с позицией чтения, затем остальные
+   *
+   * Каждая глава начинается с новой колонки, поэтому её число страниц не
+   * зависит от соседних глав и измеряется отдельно, а начала глав и
+   * спейсеры выравнивания вычисляются арифметически.
+   *
+   * Сразу измеряются оглавление и глава, содержащая startPage; длины
+   * остальных глав оцениваются по объёму текста. Этого хватает для первого
+   * результата (`first`): в нём только эта глава, с предварительными
+   * индексами страниц. Остальные главы измеряются в idle-время, и `rest`
+   * разрешается полным результатом. Его chapterStarts сложены из отдельно
+   * измеренных глав, а не из одного прохода по всей книге, поэтому перед
+   * сохранением в кэш его стоит перепроверить полной пагинацией.
+   *
+   * Глава определяется по прежней раскладке (`previous`: при репагинации —
+   * показанная, при открытии — расчёт TextLayoutPaginator), а без неё —
+   * по оценке объёма текста с калибровкой на первой главе.
+   *
+   * @param {string} html - HTML-контент для пагинации
+   * @param {HTMLElement} measureElement - Элемент для измерения размеров страницы
+   * @param {Object} options
+   * @param {number} options.startPage - Индекс страницы, с которой продолжается чтение
+   * @param {string[]} [options.chapterTitles] - Заголовки глав для TOC
+   * @param {{chapterStarts: number[], pageCount: number}} [options.previous] - Прежняя раскладка того же контента
+   * @returns {Promise<{first: PaginationResult & {startIndex: number}, rest: Promise<PaginationResult>}>}
+   *   `first.startIndex` — индекс startPage в предварительной нумерации
+   */
+  async paginateProgressive(html, measureElement, options) {
+    this.abort();
+    this.abortController = new AbortController();
+    const { signal } = this.abortController;
+
+    this.emit("start");
+    this.emit("progress", { phase: "sanitize", progress: 0 });
+    const sanitizedHtml = this.sanitizer.sanitize(html);
+
+    this.emit("progress", { phase: "parse", progress: 10 });
+    const doc = new DOMParser().parseFromString(sanitizedHtml, "text/html");
+    this._restoreAlbumPhotoStyles(doc);
+    const articles = [...doc.querySelectorAll("article")];
+
+    if (!articles.length) {
+      console.warn("No articles found");
+      const empty = { pageData: null, chapterStarts: [] };
+      return { first: { ...empty, startIndex: 0 }, rest: Promise.resolve(empty) };
+    }
+
+    // Размеры фиксируются один раз: все главы должны мериться одинаково
+    const page = { clientWidth: measureElement.clientWidth, clientHeight: measureElement.clientHeight };
+    const isMobile = mediaQueries.isMobile;
+    const hasTOC = articles.length > 1;
+    const lengths = articles.map(article => article.textContent.length);
+    /** @type {(number|null)[]} Измеренное число страниц по главам */
+    const counts = articles.map(() => null);
+
+    this.emit("progress", { phase: "layout", progress: 20 });
+    const tocPages = hasTOC
+      ? this._measureColumns(page, (pageContent) => this._addTOC(pageContent, articles, options.chapterTitles))
+      : 0;
+
+    let previous = options.previous;
+    if (!isUsableLayout(previous, articles.length)) {
+      counts[0] = this._measureChapter(page, articles[0], 0);
+      previous = this._computeLayout(tocPages, this._estimateCounts(counts, lengths), isMobile);
+    }
+
+    const startPage = Math.max(0, options.startPage);
+    const inTOC = startPage < previous.chapterStarts[0];
+    const chapter = inTOC ? 0 : findChapter(previous.chapterStarts, startPage);
+    counts[chapter] ??= this._measureChapter(page, articles[chapter], chapter);
+
+    this.emit("progress", { phase: "chapters", progress: 70 });
+    const provisional = this._computeLayout(tocPages, this._estimateCounts(counts, lengths), isMobile);
+    const chapterStart = provisional.chapterStarts[chapter];
+
+    let startIndex;
+    if (inTOC) {
+      startIndex = Math.min(startPage, Math.max(0, chapterStart - 1));
+    } else {
+      // Та же доля главы — при смене шрифта число страниц в ней другое
+      const prevEnd = previous.chapterStarts[chapter + 1] ?? previous.pageCount;
+      const fraction = (startPage - previous.chapterStarts[chapter]) / Math.max(1, prevEnd - previous.chapterStarts[chapter]);
+      startIndex = chapterStart + Math.min(counts[chapter] - 1, Math.floor(fraction * counts[chapter]));
+    }
+    if (!isMobile) startIndex -= startIndex % 2;
+
+    // В первом результате — только эта глава (и оглавление перед первой)
+    const withTOC = hasTOC && chapter === 0;
+    const { cols, pageWidth, pageHeight } = this._buildSource(page, [articles[chapter]], {
+      toc: withTOC ? articles : null,
+      chapterTitles: options.chapterTitles,
+      startIndex: chapter,
+      spacers: chapter === 0 ? provisional.spacers.filter(i => i === 0) : [],
+    });
+    const firstPage = chapter === 0 ? 0 : chapterStart;
+
+    const first = {
+      pageData: {
+        sourceElement: cols,
+        pageCount: provisional.pageCount,
+        pageWidth,
+        pageHeight,
+        hasTOC: withTOC,
+        firstPage,
+        sourcePages: chapterStart + counts[chapter] - firstPage,
+      },
+      chapterStarts: provisional.chapterStarts,
+      startIndex,
+    };
+
+    this.emit("progress", { phase: "complete", progress: 100 });
+
+    const rest = this._paginateRemaining(signal, page, articles, counts, {
+      tocPages, isMobile, hasTOC, chapter, chapterTitles: options.chapterTitles,
+    });
+
+    return { first, rest };
+  }
+
+  /**
+   * Измерить оставшиеся главы (ближайшие к текущей — первыми) в idle-время
+   * и собрать полный результат
+   *
+   * @param {AbortSignal} signal
+   * @param {{clientWidth: number, clientHeight: number}} page - Размеры страницы
+   * @param {HTMLElement[]} articles - Все главы
+   * @param {(number|null)[]} counts - Уже измеренные главы
+   * @param {Object} context
+   * @returns {Promise<PaginationResult>}
+   * @private
+   */
+  async _paginateRemaining(signal, page, articles, counts, { tocPages, isMobile, hasTOC, chapter, chapterTitles }) {
+    try {
+      const order = articles
+        .map((_, i) => i)
+        .filter(i => counts[i] === null)
+        .sort((a, b) => Math.abs(a - chapter) - Math.abs(b - chapter) || a - b);
+
+      for (const i of order) {
+        await this._yieldToIdle(signal);
+        counts[i] = this._measureChapter(page, articles[i], i);
+      }
+      await this._yieldToIdle(signal);
+
+      const layout = this._computeLayout(tocPages, counts, isMobile);
+      const { cols, pageWidth, pageHeight } = this._buildSource(page, articles, {
+        toc: hasTOC ? articles : null,
+        chapterTitles,
+        spacers: layout.spacers,
+      });
+
+      const result = {
+        pageData: { sourceElement: cols, pageCount: layout.pageCount, pageWidth, pageHeight, hasTOC },
+        chapterStarts: layout.chapterStarts,
+        layout,
+      };
+      this.emit("complete", result);
+      return result;
+
+    } catch (error) {
+      if (error.name === "AbortError") {
+        this.emit("abort");
+        return { pageData: null, chapterStarts: [] };
+      }
+      throw error;
+    }
+  }
+
   /**
    * Отменить текущую операцию пагинации
    *
@@ -220,46 +451,50 @@ export class AsyncPaginator extends EventEmitter {
   }
 
   /**
-   * Создать контейнер для измерения пагинации
+   * Передать управление браузеру до idle-времени
    *
-   * Создаёт скрытый off-screen контейнер с CSS multi-column layout
-   * для расчёта разбиения контента на страницы.
+   * Для фоновой работы, которая не должна конкурировать с анимациями.
+   * Без requestIdleCallback (Safari < 16) — обычный _yieldToUI.
+   *
+   * @param {AbortSignal} [signal] - Сигнал для отмены
+   * @returns {Promise<void>}
+   * @throws {DOMException} AbortError при отмене
+   * @private
+   */
+  async _yieldToIdle(signal) {
+    if (typeof requestIdleCallback !== 'function') {
+      return this._yieldToUI(signal);
+    }
+
+    return new Promise((resolve, reject) => {
+      if (signal?.aborted) {
+        reject(new DOMException("Aborted", "AbortError"));
+        return;
+      }
+
+      const onAbort = () => {
+        cancelIdleCallback(idleId);
+        reject(new DOMException("Aborted", "AbortError"));
+      };
+
+      const idleId = requestIdleCallback(() => {
+        signal?.removeEventListener("abort", onAbort);
+        resolve();
+      }, { timeout: 1000 });
+
+      signal?.addEventListener("abort", onAbort, { once: true });
+    });
+  }
+
+  /**
+   * Создать контейнер для измерения пагинации (см. createPaginationContainer)
    *
    * @param {HTMLElement} measureElement - Элемент-образец для размеров страницы
    * @returns {{container: HTMLDivElement, cols: HTMLDivElement, pageContent: HTMLDivElement, pageWidth: number, pageHeight: number}}
    * @private
    */
   _createPaginationContainer(measureElement) {
-    const pageWidth = measureElement.clientWidth;
-    const pageHeight = measureElement.clientHeight;
-
-    const container = document.createElement("div");
-    container.style.cssText = `
-      position: absolute;
-      left: -99999px;
-      top: 0;
-      height: ${pageHeight}px;
-      overflow: visible;
-    `;
-
-    const cols = document.createElement("div");
-    cols.style.cssText = `
-      height: 100%;
-      column-gap: 0;
-      column-width: ${pageWidth}px;
-      column-fill: auto;
-    `;
-    cols.className = "cols";
-
-    const flow = document.createElement("div");
-    const pageContent = document.createElement("div");
-    pageContent.className = "page-content";
-
-    flow.appendChild(pageContent);
-    cols.appendChild(flow);
-    container.appendChild(cols);
-
-    return { container, cols, pageContent, pageWidth, pageHeight };
+    return createPaginationContainer(measureElement);
   }
 
   /**
@@ -280,7 +515,7 @@ export class AsyncPaginator extends EventEmitter {
     toc.className = "toc";
 
     const tocTitle = document.createElement("h2");
-    tocTitle.textContent = "Содержание";
+    tocTitle.textContent = TOC_TITLE;
 
     const tocList = document.createElement("ol");
 
@@ -339,6 +574,7 @@ export class AsyncPaginator extends EventEmitter {
    *
    * @param {HTMLElement} container - Контейнер пагинации
    * @param {number} pageWidth - Ширина одной страницы
+   * @returns {number[]} Индексы глав, перед которыми вставлен спейсер
    * @private
    */
   _alignChapters(container, pageWidth) {
@@ -351,16 +587,28 @@ export class AsyncPaginator extends EventEmitter {
     // - Аналогично тому, что делает _calculateChapterStarts
     // Layout thrashing при вставке spacer'ов неизбежен — каждый spacer меняет
     // раскладку и влияет на позицию следующих маркеров (это намеренно).
-    markers.forEach((marker) => {
+    const spacers = [];
+    markers.forEach((marker, i) => {
       const colIndex = Math.round(marker.offsetLeft / pageWidth);
 
       if (colIndex % 2 !== 0) {
-        const spacer = document.createElement("div");
-        spacer.style.height = "100%";
-        spacer.style.breakBefore = "column";
-        marker.before(spacer);
+        this._insertSpacer(marker);
+        spacers.push(i);
       }
     });
+    return spacers;
+  }
+
+  /**
+   * Вставить пустую колонку перед маркером главы
+   * @param {HTMLElement} marker - Маркер начала главы
+   * @private
+   */
+  _insertSpacer(marker) {
+    const spacer = document.createElement("div");
+    spacer.style.height = "100%";
+    spacer.style.breakBefore = "column";
+    marker.before(spacer);
   }
 
   /**
@@ -379,6 +627,125 @@ export class AsyncPaginator extends EventEmitter {
     return markers.map(m => Math.round(m.offsetLeft / pageWidth));
   }
 
+  /**
+   * Собрать multi-column элемент без измерений
+   *
+   * @param {HTMLElement|{clientWidth: number, clientHeight: number}} measureElement - Размеры страницы
+   * @param {HTMLElement[]} articles - Главы для добавления
+   * @param {Object} options
+   * @param {HTMLElement[]|null} [options.toc] - Все главы, если нужно оглавление
+   * @param {string[]} [options.chapterTitles] - Заголовки глав для TOC
+   * @param {number} [options.startIndex=0] - Индекс первой из articles в книге
+   * @param {number[]} [options.spacers=[]] - Главы, перед которыми нужен спейсер
+   * @returns {{cols: HTMLElement, pageWidth: number, pageHeight: number}}
+   * @private
+   */
+  _buildSource(measureElement, articles, { toc = null, chapterTitles, startIndex = 0, spacers = [] }) {
+    const { cols, pageContent, pageWidth, pageHeight } =
+      this._createPaginationContainer(measureElement);
+
+    if (toc) {
+      this._addTOC(pageContent, toc, chapterTitles);
+    }
+    this._addArticlesChunk(pageContent, articles, startIndex);
+
+    const markers = pageContent.querySelectorAll("[data-chapter-start]");
+    for (const chapterIndex of spacers) {
+      const marker = markers[chapterIndex - startIndex];
+      if (marker) this._insertSpacer(marker);
+    }
+
+    // Отцепляем от временного контейнера — он больше не нужен
+    cols.remove();
+
+    return { cols, pageWidth, pageHeight };
+  }
+
+  /**
+   * Измерить число колонок (страниц), которое занимает контент
+   *
+   * @param {HTMLElement|{clientWidth: number, clientHeight: number}} measureElement - Размеры страницы
+   * @param {function(HTMLElement): void} fill - Заполняет page-content
+   * @returns {number}
+   * @private
+   */
+  _measureColumns(measureElement, fill) {
+    const { container, cols, pageContent, pageWidth, pageHeight } =
+      this._createPaginationContainer(measureElement);
+
+    fill(pageContent);
+    pageContent.appendChild(this._createProbe(pageHeight));
+
+    document.body.appendChild(container);
+    try {
+      return Math.max(1, Math.ceil(cols.scrollWidth / pageWidth) - 1);
+    } finally {
+      document.body.removeChild(container);
+    }
+  }
+
+  /**
+   * Измерить число страниц одной главы
+   * @param {HTMLElement|{clientWidth: number, clientHeight: number}} measureElement
+   * @param {HTMLElement} article
+   * @param {number} index - Индекс главы
+   * @returns {number}
+   * @private
+   */
+  _measureChapter(measureElement, article, index) {
+    return this._measureColumns(measureElement, (pageContent) => {
+      this._addArticlesChunk(pageContent, [article], index);
+    });
+  }
+
+  /**
+   * Оценить число страниц неизмеренных глав по объёму текста
+   * (плотность берётся из уже измеренных глав)
+   * @param {(number|null)[]} counts - Измеренные главы (null — не измерена)
+   * @param {number[]} lengths - Длина текста глав
+   * @returns {number[]}
+   * @private
+   */
+  _estimateCounts(counts, lengths) {
+    let pages = 0;
+    let chars = 0;
+    counts.forEach((count, i) => {
+      if (count === null) return;
+      pages += count;
+      chars += lengths[i];
+    });
+    const pagesPerChar = chars > 0 ? pages / chars : 0;
+
+    return counts.map((count, i) => count ?? Math.max(1, Math.round(lengths[i] * pagesPerChar)));
+  }
+
+  /**
+   * Вычислить раскладку по числу страниц глав (см. computeChapterLayout)
+   *
+   * @param {number} tocPages - Страниц оглавления
+   * @param {number[]} counts - Страниц в каждой главе
+   * @param {boolean} isMobile - Мобильный режим (без выравнивания)
+   * @returns {PaginationLayout}
+   * @private
+   */
+  _computeLayout(tocPages, counts, isMobile) {
+    return computeChapterLayout(tocPages, counts, isMobile);
+  }
+
+  /**
+   * Создать probe-колонку для измерения ширины контента
+   * @param {number} pageHeight
+   * @returns {HTMLDivElement}
+   * @private
+   */
+  _createProbe(pageHeight) {
+    const probe = document.createElement("div");
+    probe.style.width = "1px";
+    probe.style.height = `${pageHeight}px`;
+    probe.style.breakBefore = "column";
+    return probe;
+  }
+
   /**
    * Построить данные для ленивой материализации страниц
    *
@@ -397,10 +764,7 @@ export class AsyncPaginator extends EventEmitter {
    * @private
    */
   _buildPageData(cols, pageContent, pageWidth, pageHeight, hasTOC = false) {
-    const probe = document.createElement("div");
-    probe.style.width = "1px";
-    probe.style.height = `${pageHeight}px`;
-    probe.style.breakBefore = "column";
+    const probe = this._createProbe(pageHeight);
     pageContent.appendChild(probe);
 
     const measuredCols = Math.max(1, Math.ceil(cols.scrollWidth / pageWidth));
@@ -478,3 +842,71 @@ export class AsyncPaginator extends EventEmitter {
     super.destroy();
   }
 }
+
+/**
+ * Создать скрытый off-screen контейнер с CSS multi-column layout
+ *
+ * Общий для измерения в AsyncPaginator и чтения типографики
+ * в TextLayoutPaginator — у обоих контент должен попасть в одинаковые стили.
+ *
+ * @param {HTMLElement|{clientWidth: number, clientHeight: number}} measureElement - Размеры страницы
+ * @returns {{container: HTMLDivElement, cols: HTMLDivElement, pageContent: HTMLDivElement, pageWidth: number, pageHeight: number}}
+ */
+export function createPaginationContainer(measureElement) {
+  const pageWidth = measureElement.clientWidth;
+  const pageHeight = measureElement.clientHeight;
+
+  const container = document.createElement("div");
+  container.style.cssText = `
+    position: absolute;
+    left: -99999px;
+    top: 0;
+    height: ${pageHeight}px;
+    overflow: visible;
+  `;
+
+  const cols = document.createElement("div");
+  cols.style.cssText = `
+    height: 100%;
+    column-gap: 0;
+    column-width: ${pageWidth}px;
+    column-fill: auto;
+  `;
+  cols.className = "cols";
+
+  const flow = document.createElement("div");
+  const pageContent = document.createElement("div");
+  pageContent.className = "page-content";
+
+  flow.appendChild(pageContent);
+  cols.appendChild(flow);
+  container.appendChild(cols);
+
+  return { container, cols, pageContent, pageWidth, pageHeight };
+}
+
+/**
+ * Подходит ли прежняя раскладка для выбора главы
+ * @param {{chapterStarts: number[], pageCount: number}|undefined} layout
+ * @param {number} chapterCount
+ * @returns {boolean}
+ */
+function isUsableLayout(layout, chapterCount) {
+  return Array.isArray(layout?.chapterStarts)
+    && layout.chapterStarts.length === chapterCount
+    && Number.isFinite(layout.pageCount);
+}
+
+/**
+ * Индекс главы, содержащей страницу
+ * @param {number[]} chapterStarts
+ * @param {number} pageIndex
+ * @returns {number}
+ */
+function findChapter(chapterStarts, pageIndex) {
+  let chapter = 0;
+  for (let i = 0; i < chapterStarts.length && chapterStarts[i] <= pageIndex; i++) {
+    chapter = i;
+  }
+  return chapter;
+}
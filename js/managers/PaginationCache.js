@@ -0,0 +1,214 @@
+/**
+ * PAGINATION CACHE
+ * Хранит результаты пагинации в IndexedDB, чтобы повторное открытие книги
+ * не ждало полной раскладки.
+ *
+ * Сохраняется только то, что даёт измерение: количество страниц, начала глав
+ * и главы со спейсерами выравнивания. DOM по этим данным строится заново
+ * без reflow (AsyncPaginator.restore). Смещения разрывов колонок не нужны:
+ * страницы — это колонки одного multi-column элемента, и разрывы внутри глав
+ * браузер расставляет сам при отрисовке. Измерение нужно только для того, что
+ * зависит от всей книги — индексов страниц глав и выравнивания разворотов.
+ *
+ * Ключ включает хеш контента и всё, что влияет на раскладку: шрифт, размер
+ * шрифта, размеры страницы, тему и режим (mobile/desktop). Изменение любого
+ * из них даёт новый ключ — инвалидировать записи вручную не нужно.
+ */
+
+import { IdbStorage } from '../utils/IdbStorage.js';
+
+const DB_NAME = 'flipbook-pagination';
+const STORE_NAME = 'layouts';
+
+/** Версия формата раскладки — увеличить при изменении алгоритма пагинации */
+const LAYOUT_VERSION = 1;
+
+/** Максимум хранимых раскладок (вытесняются самые давние) */
+const MAX_ENTRIES = 30;
+
+/** Служебная запись со списком ключей в порядке записи */
+const INDEX_KEY = '__index';
+
+/** Служебная запись: совпадения TextLayoutPaginator с DOM-пагинацией по настройкам */
+const PARITY_KEY = '__parity';
+
+/** Сколько совпадений подряд нужно, чтобы перестать перепроверять расчётную раскладку */
+const PARITY_CONFIRMATIONS = 3;
+
+/**
+ * @typedef {Object} LayoutKeyParams
+ * @property {string[]} [chapterTitles] - Заголовки глав (попадают в TOC)
+ * @property {string} font - Шрифт
+ * @property {number} fontSize - Размер шрифта
+ * @property {number} pageWidth - Ширина страницы (px)
+ * @property {number} pageHeight - Высота страницы (px)
+ * @property {string} theme - Тема
+ * @property {boolean} isMobile - Мобильный режим (одна страница, без выравнивания)
+ */
+
+export class PaginationCache {
+  /**
+   * @param {IdbStorage} [storage] - Хранилище (по умолчанию — отдельная база IndexedDB)
+   */
+  constructor(storage = new IdbStorage(DB_NAME, STORE_NAME)) {
+    /** @type {IdbStorage} */
+    this._storage = storage;
+  }
+
+  /**
+   * Построить ключ раскладки
+   * @param {string} html - HTML-контент книги
+   * @param {LayoutKeyParams} params - Параметры, влияющие на раскладку
+   * @returns {Promise<string>}
+   */
+  async keyFor(html, params) {
+    const titles = (params.chapterTitles || []).join('\u0000');
+    const hash = await hashContent(`${html}\u0000${titles}`);
+    return [
+      `v${LAYOUT_VERSION}`,
+      hash,
+      params.font,
+      params.fontSize,
+      `${params.pageWidth}x${params.pageHeight}`,
+      params.theme,
+      params.isMobile ? 'mobile' : 'desktop',
+    ].join('|');
+  }
+
+  /**
+   * Прочитать раскладку
+   * @param {string} key
+   * @returns {Promise<import('./AsyncPaginator.js').PaginationLayout|null>}
+   */
+  async get(key) {
+    try {
+      const layout = await this._storage.get(key);
+      return isValidLayout(layout) ? layout : null;
+    } catch {
+      // IndexedDB недоступен (приватный режим, квота) — просто пагинируем заново
+      return null;
+    }
+  }
+
+  /**
+   * Сохранить раскладку (ошибки записи не критичны и только логируются).
+   * Запись, индекс и вытеснение — одна транзакция: параллельные put() из
+   * нескольких вкладок не теряют ключи индекса и не оставляют записи вне его.
+   * @param {string} key
+   * @param {import('./AsyncPaginator.js').PaginationLayout} layout
+   */
+  async put(key, layout) {
+    const entry = {
+      pageCount: layout.pageCount,
+      chapterStarts: [...layout.chapterStarts],
+      spacers: [...layout.spacers],
+    };
+
+    try {
+      await this._storage.update(INDEX_KEY, (index, store) => {
+        const keys = (index || []).filter(k => k !== key);
+        keys.push(key);
+        const evicted = keys.splice(0, Math.max(0, keys.length - MAX_ENTRIES));
+
+        store.put(entry, key);
+        for (const k of evicted) {
+          store.delete(k);
+        }
+        return keys;
+      });
+    } catch (err) {
+      console.warn('PaginationCache: не удалось сохранить раскладку', err);
+    }
+  }
+
+  /**
+   * Подтверждено ли, что раскладка TextLayoutPaginator при этих настройках
+   * совпадает с DOM-пагинацией (PARITY_CONFIRMATIONS сверок подряд)
+   * @param {LayoutKeyParams} params - Параметры раскладки (заголовки глав не учитываются)
+   * @returns {Promise<boolean>}
+   */
+  async hasTextLayoutParity(params) {
+    try {
+      const parity = await this._storage.get(PARITY_KEY);
+      return (parity?.[parityKey(params)] ?? 0) >= PARITY_CONFIRMATIONS;
+    } catch {
+      return false;
+    }
+  }
+
+  /**
+   * Записать результат сверки расчётной раскладки с DOM-пагинацией:
+   * совпадение увеличивает счётчик, расхождение его сбрасывает
+   * @param {LayoutKeyParams} params
+   * @param {boolean} same
+   */
+  async recordTextLayoutParity(params, same) {
+    const key = parityKey(params);
+    try {
+      await this._storage.update(PARITY_KEY, (parity) => {
+        const { [key]: matches = 0, ...others } = parity || {};
+        // Новые и обновлённые — в конец, самые давние вытесняются
+        const entries = Object.entries(others).slice(-(MAX_ENTRIES - 1));
+        return Object.fromEntries([...entries, [key, same ? matches + 1 : 0]]);
+      });
+    } catch (err) {
+      console.warn('PaginationCache: не удалось сохранить сверку раскладки', err);
+    }
+  }
+
+  /** Закрыть соединение с IndexedDB */
+  destroy() {
+    this._storage.destroy();
+  }
+}
+
+/**
+ * Ключ сверки: настройки, от которых зависят метрики, без контента книги
+ * @param {LayoutKeyParams} params
+ * @returns {string}
+ */
+function parityKey(params) {
+  return [
+    `v${LAYOUT_VERSION}`,
+    params.font,
+    params.fontSize,
+    `${params.pageWidth}x${params.pageHeight}`,
+    params.theme,
+    params.isMobile ? 'mobile' : 'desktop',
+  ].join('|');
+}
+
+/**
+ * Проверить, что запись из IndexedDB похожа на раскладку
+ * @param {*} layout
+ * @returns {boolean}
+ */
+function isValidLayout(layout) {
+  return !!layout
+    && Number.isInteger(layout.pageCount) && layout.pageCount > 0
+    && Array.isArray(layout.chapterStarts)
+    && Array.isArray(layout.spacers);
+}
+
+/**
+ * Хеш контента: SHA-256 через Web Crypto, FNV-1a — там, где crypto.subtle
+ * недоступен (не-HTTPS origin). Коллизия FNV не страшна: раскладка из кэша
+ * всё равно перепроверяется полной пагинацией.
+ * @param {string} text
+ * @returns {Promise<string>}
+ */
+async function hashContent(text) {
+  const bytes = new TextEncoder().encode(text);
+
+  if (globalThis.crypto?.subtle) {
+    const digest = await crypto.subtle.digest('SHA-256', bytes);
+    return Array.from(new Uint8Array(digest), b => b.toString(16).padStart(2, '0')).join('');
+  }
+
+  let hash = 0x811c9dc5;
+  for (const byte of bytes) {
+    hash ^= byte;
+    hash = Math.imul(hash, 0x01000193);
+  }
+  return `fnv${(hash >>> 0).toString(16)}-${bytes.length}`;
+}
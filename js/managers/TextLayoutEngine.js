@@ -0,0 +1,542 @@
+/**
+ * TEXT LAYOUT ENGINE
+ * Раскладка глав по колонкам без DOM: переносы строк по метрикам шрифта,
+ * разрывы колонок по высоте строк.
+ *
+ * Модуль без доступа к DOM — работает в Web Worker (textLayout.worker.js)
+ * и в тестах с подставными метриками. Повторяет CSS-раскладку
+ * AsyncPaginator для ограниченного набора блоков (p, h1–h6, ol/ul/li,
+ * blockquote, img с известными размерами):
+ * - строки переносятся жадно: по пробелам, после дефиса и вокруг тире;
+ * - вертикальные margin соседних блоков схлопываются, padding и border — нет;
+ * - margin, прилегающие к неявному разрыву колонки, отбрасываются
+ *   (в начале главы — разрыв принудительный, margin сохраняются);
+ * - абзац рвётся между строками с учётом orphans/widows;
+ * - изображение не рвётся и целиком переносится в следующую колонку.
+ *
+ * Результат — число колонок (страниц) оглавления и каждой главы; начала глав
+ * и спейсеры выравнивания из них вычисляет computeChapterLayout().
+ */
+
+/** Допуск на погрешность субпиксельных размеров (px) */
+const EPSILON = 0.01;
+
+/** Символы, после которых возможен перенос внутри слова */
+const BREAK_AFTER = new Set(['-', '\u2010', '\u2013']);
+
+/** Тире: перенос возможен до и после */
+const DASH = '\u2014';
+
+/** Схлопываемые пробельные символы (неразрывный пробел сюда не входит) */
+const COLLAPSIBLE = /[ \t\n\r\f]+/g;
+
+/**
+ * @typedef {Object} FontSpec
+ * @property {string} style - font-style
+ * @property {number} weight - font-weight
+ * @property {number} size - font-size (px)
+ * @property {string} family - font-family (весь стек)
+ */
+
+/**
+ * Вычисленные стили блока (все размеры в px)
+ * @typedef {Object} BoxStyle
+ * @property {FontSpec} font
+ * @property {number|null} lineHeight - null для line-height: normal
+ * @property {number[]} margin - [top, right, bottom, left]
+ * @property {number[]} padding - [top, right, bottom, left]
+ * @property {number[]} border - [top, right, bottom, left]
+ * @property {number} textIndent
+ * @property {number} orphans
+ * @property {number} widows
+ * @property {number|null} [fixedHeight] - Для img: высота, заданная CSS независимо от размеров картинки
+ */
+
+/**
+ * Буквица (h2 + p::first-letter)
+ * @typedef {Object} DropCapStyle
+ * @property {FontSpec} font
+ * @property {number|null} lineHeight
+ * @property {number[]} padding - [top, right, bottom, left]
+ * @property {number} initialLetter - Строк для initial-letter (0 — запасной вариант через float)
+ */
+
+/**
+ * Стили по ключам блоков ('p', 'h2', 'toc li', ...) и буквица
+ * @typedef {Object<string, BoxStyle> & {dropCap?: DropCapStyle|null}} Typography
+ */
+
+/**
+ * Фрагмент текста с одним шрифтом
+ * @typedef {Object} LayoutRun
+ * @property {string} [text]
+ * @property {boolean} [bold]
+ * @property {boolean} [italic]
+ * @property {boolean} [br] - Принудительный перенос строки
+ */
+
+/**
+ * Блок главы
+ * @typedef {Object} LayoutBlock
+ * @property {'text'|'box'|'image'} type
+ * @property {string} style - Ключ в Typography
+ * @property {LayoutRun[]} [runs] - Для text
+ * @property {boolean} [dropCap] - Для text: абзац начинается с буквицы
+ * @property {LayoutBlock[]} [children] - Для box
+ * @property {number} [width] - Для image: атрибут width
+ * @property {number} [height] - Для image: атрибут height
+ * @property {boolean} [float] - Для image: картинка обтекаемая (margin не схлопываются)
+ */
+
+/**
+ * Метрики шрифта (canvas measureText)
+ * @typedef {Object} TextMeasurer
+ * @property {function(string, string): number} width - Ширина текста в шрифте (CSS font)
+ * @property {function(string): number} capHeight - Высота прописной буквы
+ * @property {function(string): number} lineHeight - Высота строки для line-height: normal
+ */
+
+/**
+ * Строка CSS font для canvas
+ * @param {FontSpec} font
+ * @param {{bold?: boolean, italic?: boolean}} [run]
+ * @returns {string}
+ */
+export function fontString(font, run = {}) {
+  const style = run.italic ? 'italic' : font.style;
+  const weight = run.bold ? bolder(font.weight) : font.weight;
+  return `${style} ${weight} ${font.size}px ${font.family}`;
+}
+
+/**
+ * font-weight: bolder (таблица из CSS Fonts)
+ * @param {number} weight
+ * @returns {number}
+ */
+function bolder(weight) {
+  if (weight < 350) return 400;
+  if (weight < 550) return 700;
+  return 900;
+}
+
+/**
+ * Разложить оглавление и главы по колонкам
+ *
+ * @param {Object} input
+ * @param {{width: number, height: number}} input.page - Область текста в колонке (px)
+ * @param {Typography} input.typography
+ * @param {LayoutBlock[]|null} input.toc - Блоки оглавления (null — без оглавления)
+ * @param {LayoutBlock[][]} input.chapters - Блоки каждой главы
+ * @param {TextMeasurer} measurer
+ * @returns {{tocPages: number, counts: number[]}}
+ */
+export function layoutChapters({ page, typography, toc, chapters }, measurer) {
+  const columnsOf = (blocks) => {
+    const items = [];
+    for (const block of blocks) {
+      flatten(block, page.width, typography, measurer, items);
+    }
+    return placeInColumns(items, page.height);
+  };
+
+  return {
+    tocPages: toc ? columnsOf(toc) : 0,
+    counts: chapters.map(columnsOf),
+  };
+}
+
+/**
+ * Вычислить раскладку по числу страниц глав
+ *
+ * Повторяет то, что в AsyncPaginator.paginate() получается измерением:
+ * главы идут подряд после оглавления, на desktop глава, попавшая
+ * на нечётную страницу, сдвигается спейсером на чётную.
+ *
+ * @param {number} tocPages - Страниц оглавления
+ * @param {number[]} counts - Страниц в каждой главе
+ * @param {boolean} isMobile - Мобильный режим (без выравнивания)
+ * @returns {import('./AsyncPaginator.js').PaginationLayout}
+ */
+export function computeChapterLayout(tocPages, counts, isMobile) {
+  const chapterStarts = [];
+  const spacers = [];
+  let page = tocPages;
+
+  counts.forEach((count, i) => {
+    if (!isMobile && page % 2 !== 0) {
+      spacers.push(i);
+      page++;
+    }
+    chapterStarts.push(page);
+    page += count;
+  });
+
+  return { pageCount: Math.max(1, page), chapterStarts, spacers };
+}
+
+/**
+ * Число строк текстового блока при заданной ширине
+ *
+ * @param {LayoutBlock} block
+ * @param {number} width - Ширина области строк (px)
+ * @param {Typography} typography
+ * @param {TextMeasurer} measurer
+ * @returns {number}
+ */
+export function countLines(block, width, typography, measurer) {
+  const style = typography[block.style];
+  const lineHeight = resolveLineHeight(style, measurer);
+  const { items, capText } = tokenize(block.runs, style.font, measurer, block.dropCap);
+  const cap = capText && typography.dropCap
+    ? dropCapBox(capText, typography.dropCap, style, lineHeight, measurer)
+    : null;
+
+  const lineStart = (line) =>
+    (line === 0 ? style.textIndent : 0) + (cap && line < cap.lines ? cap.width : 0);
+
+  let line = 0;
+  let x = lineStart(0);
+  let hasContent = false;
+  let pendingSpace = 0;
+  let endsWithBreak = false;
+  let empty = true;
+
+  for (const item of items) {
+    if (item.type === 'br') {
+      line++;
+      x = lineStart(line);
+      hasContent = false;
+      pendingSpace = 0;
+      endsWithBreak = true;
+      empty = false;
+      continue;
+    }
+
+    if (item.type === 'space') {
+      if (hasContent) pendingSpace = item.width;
+      continue;
+    }
+
+    if (hasContent && x + pendingSpace + item.width > width + EPSILON) {
+      line++;
+      x = lineStart(line) + item.width;
+    } else {
+      x += (hasContent ? pendingSpace : 0) + item.width;
+    }
+    hasContent = true;
+    pendingSpace = 0;
+    endsWithBreak = false;
+    empty = false;
+  }
+
+  if (empty && !cap) return 0;
+
+  // <br> в конце блока не открывает новую строку
+  const lines = endsWithBreak && line > 0 ? line : line + 1;
+  return cap ? Math.max(lines, cap.lines) : lines;
+}
+
+/**
+ * Высота строки блока
+ * @param {{font: FontSpec, lineHeight: number|null}} style
+ * @param {TextMeasurer} measurer
+ * @returns {number}
+ */
+function resolveLineHeight(style, measurer) {
+  return style.lineHeight ?? measurer.lineHeight(fontString(style.font));
+}
+
+/**
+ * Разбить текст блока на слова, пробелы и переносы
+ *
+ * Слово — участок без возможности переноса; может состоять из частей
+ * в разных шрифтах (например, «<b>Сло</b>во»).
+ *
+ * @param {LayoutRun[]} runs
+ * @param {FontSpec} font - Шрифт блока
+ * @param {TextMeasurer} measurer
+ * @param {boolean} [withDropCap] - Отделить первую букву под буквицу
+ * @returns {{items: Array<{type: 'word'|'space'|'br', width?: number}>, capText: string|null}}
+ */
+function tokenize(runs, font, measurer, withDropCap = false) {
+  const items = [];
+  let capText = null;
+  let wordWidth = 0;
+  let inWord = false;
+
+  const flushWord = () => {
+    if (inWord) items.push({ type: 'word', width: wordWidth });
+    wordWidth = 0;
+    inWord = false;
+  };
+
+  // Соседние символы берутся через границы runs: «<i>слово</i>—слово» рвётся у тире
+  const texts = runs.map(run => (run.br ? null : run.text.replace(COLLAPSIBLE, ' ')));
+  const charBefore = (r) => texts[r - 1]?.at(-1);
+  const charAfter = (r) => texts[r + 1]?.[0];
+
+  for (let r = 0; r < runs.length; r++) {
+    const run = runs[r];
+    if (run.br) {
+      flushWord();
+      items.push({ type: 'br' });
+      continue;
+    }
+
+    const runFont = fontString(font, run);
+    let text = texts[r];
+
+    if (withDropCap && capText === null) {
+      const match = /^ ?([^\p{L}\p{N} ]*[\p{L}\p{N}])/u.exec(text);
+      if (match) {
+        capText = match[1];
+        text = text.slice(match[0].length);
+      }
+    }
+
+    let piece = '';
+    const flushPiece = () => {
+      if (piece) {
+        wordWidth += measurer.width(piece, runFont);
+        inWord = true;
+      }
+      piece = '';
+    };
+
+    for (let i = 0; i < text.length; i++) {
+      const ch = text[i];
+      const prev = i > 0 ? text[i - 1] : charBefore(r);
+      const next = i + 1 < text.length ? text[i + 1] : charAfter(r);
+
+      if (ch === ' ') {
+        flushPiece();
+        flushWord();
+        if (items[items.length - 1]?.type !== 'space') {
+          items.push({ type: 'space', width: measurer.width(' ', runFont) });
+        }
+        continue;
+      }
+
+      // Перенос до тире, если перед ним буква (не пробел и не неразрывный пробел)
+      if (ch === DASH && isWordChar(prev)) {
+        flushPiece();
+        flushWord();
+      }
+
+      piece += ch;
+
+      if ((BREAK_AFTER.has(ch) || ch === DASH) && isWordChar(next)) {
+        flushPiece();
+        flushWord();
+      }
+    }
+    flushPiece();
+  }
+  flushWord();
+
+  return { items, capText };
+}
+
+/**
+ * @param {string|undefined} ch
+ * @returns {boolean}
+ */
+function isWordChar(ch) {
+  return ch !== undefined && /[\p{L}\p{N}]/u.test(ch);
+}
+
+/**
+ * Размер буквицы: ширина, которую она отнимает у строк, и число этих строк
+ *
+ * initial-letter масштабирует букву так, чтобы её прописная высота
+ * покрывала N строк; запасной вариант — float с собственным размером шрифта.
+ *
+ * @param {string} text - Буква (с предшествующей пунктуацией)
+ * @param {DropCapStyle} dropCap
+ * @param {BoxStyle} style - Стиль абзаца
+ * @param {number} lineHeight - Высота строки абзаца
+ * @param {TextMeasurer} measurer
+ * @returns {{width: number, lines: number}}
+ */
+function dropCapBox(text, dropCap, style, lineHeight, measurer) {
+  const [top, right, bottom, left] = dropCap.padding;
+
+  if (dropCap.initialLetter > 0) {
+    const span = (dropCap.initialLetter - 1) * lineHeight + measurer.capHeight(fontString(style.font));
+    const unit = { ...dropCap.font, size: 100 };
+    const size = span / (measurer.capHeight(fontString(unit)) / 100);
+    return {
+      width: measurer.width(text, fontString({ ...dropCap.font, size })) + left + right,
+      lines: dropCap.initialLetter,
+    };
+  }
+
+  const height = resolveLineHeight(dropCap, measurer) + top + bottom;
+  return {
+    width: measurer.width(text, fontString(dropCap.font)) + left + right,
+    lines: Math.max(1, Math.ceil(height / lineHeight - EPSILON)),
+  };
+}
+
+/**
+ * Развернуть блок в последовательность элементов вертикальной раскладки
+ *
+ * - margin — схлопывается с соседними margin;
+ * - edge — padding/border: не схлопывается, прилегает к следующему ('next')
+ *   или предыдущему ('prev') содержимому;
+ * - lines — строки текста (рвутся между собой);
+ * - solid — неразрывный блок (изображение).
+ *
+ * @param {LayoutBlock} block
+ * @param {number} width - Ширина контейнера
+ * @param {Typography} typography
+ * @param {TextMeasurer} measurer
+ * @param {Object[]} out
+ */
+function flatten(block, width, typography, measurer, out) {
+  const style = typography[block.style];
+  const [marginTop, marginRight, marginBottom, marginLeft] = style.margin;
+  const [paddingTop, paddingRight, paddingBottom, paddingLeft] = style.padding;
+  const [borderTop, borderRight, borderBottom, borderLeft] = style.border;
+  const inner = width - marginLeft - marginRight - paddingLeft - paddingRight - borderLeft - borderRight;
+
+  // margin обтекаемого блока не схлопываются с соседними
+  const outer = block.float ? 'edge' : 'margin';
+
+  out.push({ kind: outer, size: marginTop, attach: 'next' });
+  if (paddingTop + borderTop > 0) {
+    out.push({ kind: 'edge', size: paddingTop + borderTop, attach: 'next' });
+  }
+
+  if (block.type === 'text') {
+    const count = countLines(block, inner, typography, measurer);
+    if (count > 0) {
+      out.push({
+        kind: 'lines',
+        count,
+        lineHeight: resolveLineHeight(style, measurer),
+        orphans: Math.max(1, style.orphans),
+        widows: Math.max(1, style.widows),
+      });
+    }
+  } else if (block.type === 'image') {
+    const height = style.fixedHeight ?? inner * (block.height / block.width);
+    out.push({ kind: 'solid', height });
+  } else {
+    for (const child of block.children) {
+      flatten(child, inner, typography, measurer, out);
+    }
+  }
+
+  if (paddingBottom + borderBottom > 0) {
+    out.push({ kind: 'edge', size: paddingBottom + borderBottom, attach: 'prev' });
+  }
+  out.push({ kind: outer, size: marginBottom, attach: 'prev' });
+}
+
+/**
+ * Разложить элементы по колонкам заданной высоты
+ * @param {Object[]} items - Результат flatten()
+ * @param {number} height - Высота области текста в колонке
+ * @returns {number} Число колонок (не меньше 1)
+ */
+function placeInColumns(items, height) {
+  let columns = 1;
+  let y = 0;
+  // Отступ перед следующим содержимым: схлопываемые margin и padding/border
+  let positive = 0;
+  let negative = 0;
+  let committedMargins = 0;
+  // margin до первого padding/border — только они прилегают к разрыву
+  let leadingMargins = 0;
+  let edges = 0;
+
+  const collapsed = () => positive + negative;
+  const gapAt = (truncate) => (truncate
+    ? committedMargins - leadingMargins + (edges > 0 ? collapsed() : 0) + edges
+    : committedMargins + collapsed() + edges);
+  const resetGap = () => {
+    positive = 0;
+    negative = 0;
+    committedMargins = 0;
+    leadingMargins = 0;
+    edges = 0;
+  };
+  // Верх колонки после неявного разрыва (первая колонка главы начинается с принудительного)
+  const atBreak = () => y === 0 && columns > 1;
+  const nextColumn = () => {
+    columns++;
+    y = 0;
+  };
+
+  for (const item of items) {
+    if (item.kind === 'margin') {
+      if (item.size > 0) positive = Math.max(positive, item.size);
+      else negative = Math.min(negative, item.size);
+      continue;
+    }
+
+    if (item.kind === 'edge') {
+      if (item.attach === 'prev' && edges === 0 && committedMargins === 0) {
+        // Нижний padding/border прилегает к уже размещённому содержимому
+        y += collapsed() + item.size;
+        positive = 0;
+        negative = 0;
+      } else {
+        // margin по разные стороны padding/border не схлопываются
+        if (edges === 0) leadingMargins = collapsed();
+        committedMargins += collapsed();
+        positive = 0;
+        negative = 0;
+        edges += item.size;
+      }
+      continue;
+    }
+
+    if (item.kind === 'solid') {
+      let need = gapAt(atBreak()) + item.height;
+      if (y > 0 && y + need > height + EPSILON) {
+        nextColumn();
+        need = gapAt(true) + item.height;
+      }
+      y += need;
+      resetGap();
+      continue;
+    }
+
+    // Строки текста
+    const { lineHeight, orphans, widows } = item;
+    let remaining = item.count;
+
+    while (remaining > 0) {
+      const atTop = y === 0;
+      const gap = gapAt(atBreak());
+      const fit = Math.max(0, Math.floor((height - y - gap + EPSILON) / lineHeight));
+
+      if (fit >= remaining) {
+        y += gap + remaining * lineHeight;
+        remaining = 0;
+        break;
+      }
+
+      let lines = Math.min(fit, remaining - widows);
+      if (lines < orphans) lines = 0;
+
+      if (lines === 0) {
+        if (!atTop) {
+          nextColumn();
+          continue;
+        }
+        // Пустая колонка: orphans/widows не выполнимы — сколько поместится (хотя бы строка)
+        lines = Math.max(1, fit);
+      }
+
+      remaining -= lines;
+      resetGap();
+      nextColumn();
+    }
+    resetGap();
+  }
+
+  return columns;
+}
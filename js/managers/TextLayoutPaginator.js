@@ -0,0 +1,643 @@
+/**
+ * TEXT LAYOUT PAGINATOR
+ * Раскладка страниц без reflow основного потока: текст измеряется
+ * метриками шрифтов OffscreenCanvas в Web Worker, переносы строк
+ * и разрывы колонок считает TextLayoutEngine.
+ *
+ * Поддерживается ограниченный набор разметки: p, h1–h6, ol/ul/li,
+ * blockquote и img с атрибутами width/height; внутри строк — b/strong,
+ * i/em, u, s, mark, span, a и br. Для остального (таблицы, figure,
+ * элементы с классами, картинки без размеров, шрифты, которые нельзя
+ * передать в воркер) layout() возвращает null, и книга пагинируется
+ * DOM-движком (AsyncPaginator).
+ *
+ * Результат — PaginationLayout: страницы по нему строит
+ * AsyncPaginator.restore() без измерений. Метрики canvas совпадают
+ * с раскладкой браузера не до пикселя, поэтому LifecycleDelegate
+ * перепроверяет результат полной пагинацией в idle-время.
+ *
+ * В основном потоке остаются разбор HTML (DOMParser, без layout)
+ * и чтение вычисленных стилей маленького образца — один раз
+ * на набор настроек.
+ */
+
+import { createPaginationContainer, TOC_TITLE } from './AsyncPaginator.js';
+import { computeChapterLayout } from './TextLayoutEngine.js';
+import { getFontSources } from '../utils/FontSources.js';
+
+/** Сколько ждать ответа воркера, прежде чем уступить DOM-движку (мс) */
+const WORKER_TIMEOUT = 5000;
+
+/** Блоки с текстом */
+const TEXT_BLOCKS = new Set(['p', 'h1', 'h2', 'h3', 'h4', 'h5', 'h6']);
+
+/** Блоки, допустимые внутри blockquote и li (h1/h2 имеют особые правила разрывов) */
+const NESTED_BLOCKS = new Set(['p', 'h3', 'h4', 'h5', 'h6', 'ol', 'ul', 'blockquote']);
+
+/** Строчные элементы и их влияние на шрифт */
+const INLINE = {
+  b: { bold: true },
+  strong: { bold: true },
+  i: { italic: true },
+  em: { italic: true },
+  u: {},
+  s: {},
+  mark: {},
+  span: {},
+  a: {},
+};
+
+/** Атрибуты, не влияющие на раскладку */
+const NEUTRAL_ATTRS = new Set(['id', 'title', 'lang', 'href', 'rel', 'target', 'alt', 'src', 'loading', 'width', 'height', 'start', 'type', 'reversed']);
+
+/** Символы, переносы по которым движок не моделирует (мягкий перенос, пробел нулевой ширины) */
+const UNSUPPORTED_CHARS = /[\u00AD\u200B]/;
+
+/** Образец разметки для чтения вычисленных стилей */
+const PROBE_HTML = `
+  <section class="toc"><h2>${TOC_TITLE}</h2><ol><li>1</li></ol></section>
+  <div style="break-before: column"></div>
+  <article style="margin: 0">
+    <h2>1</h2><p data-probe="drop">1</p><p data-probe="p">1</p>
+    <h1>1</h1><h3>1</h3><h4>1</h4><h5>1</h5><h6>1</h6>
+    <ul><li>1</li></ul><ol><li>1</li></ol><blockquote><p>1</p></blockquote>
+    <p>1</p><img data-probe="img" width="100" height="100" alt=""><img width="100" height="200" alt="">
+  </article>
+`;
+
+export class TextLayoutPaginator {
+  /**
+   * @param {Object} options
+   * @param {import('../utils/HTMLSanitizer.js').HTMLSanitizer} options.sanitizer - Тот же санитайзер, что у AsyncPaginator
+   * @param {function(): Worker} [options.createWorker] - Фабрика воркера (для тестов)
+   * @param {number} [options.timeout] - Таймаут ответа воркера (мс)
+   */
+  constructor({ sanitizer, createWorker = createLayoutWorker, timeout = WORKER_TIMEOUT }) {
+    this.sanitizer = sanitizer;
+    this._createWorker = createWorker;
+    this._timeout = timeout;
+
+    /** @type {Worker|null} */
+    this._worker = null;
+    /** @type {boolean} Воркер упал — больше не пытаемся */
+    this._broken = false;
+    this._requestId = 0;
+    /** @type {Map<number, function(Object|null): void>} */
+    this._pending = new Map();
+    /** @type {{key: string, value: Object}|null} Последние прочитанные стили */
+    this._typography = null;
+  }
+
+  /**
+   * Рассчитать раскладку книги
+   *
+   * @param {string} html - HTML-контент книги
+   * @param {HTMLElement} measureElement - Элемент с размерами страницы
+   * @param {Object} [options]
+   * @param {string[]} [options.chapterTitles] - Заголовки глав для TOC
+   * @param {boolean} [options.isMobile=false] - Мобильный режим (без выравнивания глав)
+   * @returns {Promise<import('./AsyncPaginator.js').PaginationLayout|null>}
+   *   null — контент или шрифты не поддерживаются, либо воркер недоступен
+   */
+  async layout(html, measureElement, { chapterTitles, isMobile = false } = {}) {
+    if (this._broken) return null;
+
+    try {
+      const content = this._extract(html, chapterTitles);
+      if (!content) return null;
+
+      const { page, styles } = this._readTypography(measureElement);
+      const fonts = collectFontFaces(styles);
+      if (!fonts) return null;
+
+      const result = await this._request({ fonts, page, typography: styles, ...content });
+      if (!result) return null;
+
+      return computeChapterLayout(result.tocPages, result.counts, isMobile);
+    } catch (error) {
+      console.warn('TextLayoutPaginator: раскладка не удалась', error);
+      return null;
+    }
+  }
+
+  /** Остановить воркер */
+  destroy() {
+    this._worker?.terminate();
+    this._worker = null;
+    this._settlePending();
+    this._typography = null;
+  }
+
+  /**
+   * Разобрать HTML в блоки для движка раскладки
+   * @private
+   * @param {string} html
+   * @param {string[]} [chapterTitles]
+   * @returns {{toc: import('./TextLayoutEngine.js').LayoutBlock[]|null, chapters: import('./TextLayoutEngine.js').LayoutBlock[][]}|null}
+   */
+  _extract(html, chapterTitles) {
+    const doc = new DOMParser().parseFromString(this.sanitizer.sanitize(html), 'text/html');
+    const articles = [...doc.querySelectorAll('article')];
+    if (!articles.length) return null;
+
+    const chapters = [];
+    for (const article of articles) {
+      const blocks = extractChapter(article);
+      if (!blocks) return null;
+      chapters.push(blocks);
+    }
+
+    return {
+      toc: articles.length > 1 ? buildTOCBlocks(articles, chapterTitles) : null,
+      chapters,
+    };
+  }
+
+  /**
+   * Прочитать вычисленные стили блоков и размеры области текста
+   *
+   * Образец ставится в такой же контейнер, как у AsyncPaginator, чтобы
+   * на него действовали те же правила CSS. Результат кэшируется до смены
+   * размеров страницы, окна или настроек шрифта.
+   *
+   * @private
+   * @param {HTMLElement} measureElement
+   * @returns {{page: {width: number, height: number}, styles: import('./TextLayoutEngine.js').Typography}}
+   */
+  _readTypography(measureElement) {
+    const root = getComputedStyle(document.documentElement);
+    const key = [
+      measureElement.clientWidth, measureElement.clientHeight,
+      window.innerWidth, window.innerHeight,
+      root.fontSize, root.fontFamily,
+      document.documentElement.dataset.theme,
+    ].join('|');
+    if (this._typography?.key === key) return this._typography.value;
+
+    const { container, cols, pageContent, pageWidth, pageHeight } = createPaginationContainer(measureElement);
+    pageContent.innerHTML = PROBE_HTML;
+    document.body.appendChild(container);
+
+    try {
+      const pick = (selector) => readBoxStyle(pageContent.querySelector(selector));
+      const images = pageContent.querySelectorAll('img');
+      const [square, tall] = [...images].map(img => img.getBoundingClientRect().height);
+
+      const styles = {
+        toc: pick('.toc'),
+        'toc h2': pick('.toc h2'),
+        'toc ol': pick('.toc ol'),
+        'toc li': pick('.toc li'),
+        article: { ...pick('article'), margin: [0, 0, 0, 0] },
+        p: pick('[data-probe="p"]'),
+        h1: pick('article h1'),
+        h2: pick('article h2'),
+        h3: pick('article h3'),
+        h4: pick('article h4'),
+        h5: pick('article h5'),
+        h6: pick('article h6'),
+        ul: pick('article ul'),
+        ol: pick('article ol'),
+        li: pick('article ul li'),
+        blockquote: pick('article blockquote'),
+        img: {
+          ...pick('[data-probe="img"]'),
+          // Одинаковая высота у картинок разных пропорций — высоту задаёт CSS
+          fixedHeight: Math.abs(square - tall) < 0.5 ? square : null,
+        },
+        dropCap: readDropCap(pageContent.querySelector('[data-probe="drop"]')),
+      };
+
+      const content = getComputedStyle(pageContent);
+      const column = getComputedStyle(cols);
+      const columnHeight = column.boxSizing === 'border-box'
+        ? pageHeight - px(column.paddingTop) - px(column.paddingBottom)
+        : pageHeight;
+
+      const value = {
+        page: {
+          width: pageWidth - px(content.paddingLeft) - px(content.paddingRight)
+            - px(content.borderLeftWidth) - px(content.borderRightWidth),
+          height: columnHeight,
+        },
+        styles,
+      };
+      this._typography = { key, value };
+      return value;
+    } finally {
+      container.remove();
+    }
+  }
+
+  /**
+   * Отправить задачу воркеру
+   * @private
+   * @param {Object} message
+   * @returns {Promise<{tocPages: number, counts: number[]}|null>}
+   */
+  _request(message) {
+    const worker = this._ensureWorker();
+    if (!worker) return Promise.resolve(null);
+
+    const id = ++this._requestId;
+    return new Promise((resolve) => {
+      const timer = setTimeout(() => settle(null), this._timeout);
+      const settle = (result) => {
+        clearTimeout(timer);
+        this._pending.delete(id);
+        resolve(result);
+      };
+      this._pending.set(id, settle);
+      worker.postMessage({ id, ...message });
+    });
+  }
+
+  /**
+   * Создать воркер при первом запросе
+   * @private
+   * @returns {Worker|null}
+   */
+  _ensureWorker() {
+    if (this._worker || this._broken) return this._worker;
+
+    try {
+      this._worker = this._createWorker();
+    } catch (error) {
+      console.warn('TextLayoutPaginator: воркер недоступен', error);
+      this._broken = true;
+      return null;
+    }
+
+    this._worker.onmessage = ({ data }) => {
+      const settle = this._pending.get(data.id);
+      if (!settle) return;
+      if (data.error) {
+        console.warn('TextLayoutPaginator: ошибка в воркере', data.error);
+        settle(null);
+      } else {
+        settle({ tocPages: data.tocPages, counts: data.counts });
+      }
+    };
+    this._worker.onerror = (event) => {
+      console.warn('TextLayoutPaginator: воркер упал', event.message);
+      this._broken = true;
+      this._worker.terminate();
+      this._worker = null;
+      this._settlePending();
+    };
+
+    return this._worker;
+  }
+
+  /**
+   * Завершить все ожидающие запросы без результата
+   * @private
+   */
+  _settlePending() {
+    for (const settle of [...this._pending.values()]) {
+      settle(null);
+    }
+  }
+}
+
+/**
+ * Воркер раскладки (Vite собирает его отдельным чанком)
+ * @returns {Worker}
+ */
+function createLayoutWorker() {
+  return new Worker(new URL('./textLayout.worker.js', import.meta.url), { type: 'module' });
+}
+
+/**
+ * Блоки главы или null, если в ней есть неподдерживаемая разметка
+ * @param {HTMLElement} article
+ * @returns {import('./TextLayoutEngine.js').LayoutBlock[]|null}
+ */
+export function extractChapter(article) {
+  const children = [];
+
+  for (const node of article.childNodes) {
+    if (node.nodeType === Node.TEXT_NODE) {
+      if (node.textContent.trim()) return null;
+      continue;
+    }
+    if (node.nodeType !== Node.ELEMENT_NODE) continue;
+
+    const tag = node.tagName.toLowerCase();
+    // article h2 { break-before: left } — разрыв не в начале главы не моделируется
+    if (tag === 'h2' && children.length > 0) return null;
+    if (!TEXT_BLOCKS.has(tag) && !NESTED_BLOCKS.has(tag) && tag !== 'img') return null;
+
+    const block = extractBlock(node);
+    if (!block) return null;
+    children.push(block);
+  }
+
+  return [{ type: 'box', style: 'article', children }];
+}
+
+/**
+ * Блок движка для элемента
+ * @param {HTMLElement} el
+ * @returns {import('./TextLayoutEngine.js').LayoutBlock|null}
+ */
+function extractBlock(el) {
+  if (!hasNeutralAttributes(el)) return null;
+  const tag = el.tagName.toLowerCase();
+
+  if (TEXT_BLOCKS.has(tag)) {
+    // h1 — flex-контейнер: поддерживаем только простой текст
+    if (tag === 'h1' && el.children.length) return null;
+    const runs = extractRuns(el);
+    if (!runs) return null;
+    return {
+      type: 'text',
+      style: tag,
+      runs,
+      // h2 + p::first-letter — буквица
+      dropCap: tag === 'p' && el.previousElementSibling?.tagName === 'H2',
+    };
+  }
+
+  if (tag === 'ol' || tag === 'ul') {
+    const children = [];
+    for (const node of el.childNodes) {
+      if (node.nodeType === Node.TEXT_NODE) {
+        if (node.textContent.trim()) return null;
+        continue;
+      }
+      if (node.nodeType !== Node.ELEMENT_NODE) continue;
+      if (node.tagName !== 'LI') return null;
+      const item = extractListItem(node);
+      if (!item) return null;
+      children.push(item);
+    }
+    return { type: 'box', style: tag, children };
+  }
+
+  if (tag === 'blockquote') {
+    const children = extractNested(el);
+    return children ? { type: 'box', style: 'blockquote', children } : null;
+  }
+
+  if (tag === 'img') {
+    const width = Number(el.getAttribute('width'));
+    const height = Number(el.getAttribute('height'));
+    if (!(width > 0 && height > 0)) return null;
+
+    // p + img, p ~ img { float: left } — кроме первой и последней картинки статьи
+    const parent = el.parentElement;
+    const edge = parent?.tagName === 'ARTICLE'
+      && (el === parent.firstElementChild || el === parent.lastElementChild);
+    let float = false;
+    for (let prev = el.previousElementSibling; prev && !edge; prev = prev.previousElementSibling) {
+      if (prev.tagName === 'P') {
+        float = true;
+        break;
+      }
+    }
+    return { type: 'image', style: 'img', width, height, float };
+  }
+
+  return null;
+}
+
+/**
+ * Пункт списка: строчный текст или вложенные блоки (не вперемешку)
+ * @param {HTMLElement} li
+ * @returns {import('./TextLayoutEngine.js').LayoutBlock|null}
+ */
+function extractListItem(li) {
+  if (!hasNeutralAttributes(li)) return null;
+
+  const hasBlocks = [...li.children].some(child => NESTED_BLOCKS.has(child.tagName.toLowerCase()));
+  if (!hasBlocks) {
+    const runs = extractRuns(li);
+    return runs ? { type: 'text', style: 'li', runs } : null;
+  }
+
+  const children = extractNested(li);
+  return children ? { type: 'box', style: 'li', children } : null;
+}
+
+/**
+ * Вложенные блоки (blockquote, li с абзацами)
+ * @param {HTMLElement} el
+ * @returns {import('./TextLayoutEngine.js').LayoutBlock[]|null}
+ */
+function extractNested(el) {
+  const children = [];
+  for (const node of el.childNodes) {
+    if (node.nodeType === Node.TEXT_NODE) {
+      if (node.textContent.trim()) return null;
+      continue;
+    }
+    if (node.nodeType !== Node.ELEMENT_NODE) continue;
+    if (!NESTED_BLOCKS.has(node.tagName.toLowerCase())) return null;
+
+    const block = extractBlock(node);
+    if (!block) return null;
+    children.push(block);
+  }
+  return children;
+}
+
+/**
+ * Строчное содержимое блока
+ * @param {HTMLElement} el
+ * @param {{bold?: boolean, italic?: boolean}} [inherited]
+ * @returns {import('./TextLayoutEngine.js').LayoutRun[]|null}
+ */
+function extractRuns(el, inherited = {}) {
+  const runs = [];
+
+  for (const node of el.childNodes) {
+    if (node.nodeType === Node.TEXT_NODE) {
+      if (UNSUPPORTED_CHARS.test(node.textContent)) return null;
+      runs.push({ text: node.textContent, ...inherited });
+      continue;
+    }
+    if (node.nodeType !== Node.ELEMENT_NODE) continue;
+
+    const tag = node.tagName.toLowerCase();
+    if (tag === 'br') {
+      runs.push({ br: true });
+      continue;
+    }
+
+    const effect = INLINE[tag];
+    if (!effect || !hasNeutralAttributes(node)) return null;
+
+    const nested = extractRuns(node, { ...inherited, ...effect });
+    if (!nested) return null;
+    runs.push(...nested);
+  }
+
+  return runs;
+}
+
+/**
+ * Нет ли у элемента атрибутов, меняющих стили (class, dir, data-*)
+ * @param {Element} el
+ * @returns {boolean}
+ */
+function hasNeutralAttributes(el) {
+  for (const { name } of el.attributes) {
+    if (!NEUTRAL_ATTRS.has(name)) return false;
+  }
+  return true;
+}
+
+/**
+ * Блоки оглавления — то же содержимое, что строит AsyncPaginator._addTOC
+ * @param {HTMLElement[]} articles
+ * @param {string[]} [chapterTitles]
+ * @returns {import('./TextLayoutEngine.js').LayoutBlock[]}
+ */
+function buildTOCBlocks(articles, chapterTitles) {
+  const items = [];
+  articles.forEach((article, i) => {
+    const title = chapterTitles?.[i] || article.querySelector('h2')?.textContent;
+    if (title) items.push({ type: 'text', style: 'toc li', runs: [{ text: title }] });
+  });
+
+  return [{
+    type: 'box',
+    style: 'toc',
+    children: [
+      { type: 'text', style: 'toc h2', runs: [{ text: TOC_TITLE }] },
+      { type: 'box', style: 'toc ol', children: items },
+    ],
+  }];
+}
+
+/**
+ * @param {string} value - Значение CSS в px
+ * @returns {number}
+ */
+function px(value) {
+  return parseFloat(value) || 0;
+}
+
+/**
+ * Вычисленные стили блока
+ * @param {Element} el
+ * @param {string} [pseudo]
+ * @returns {import('./TextLayoutEngine.js').BoxStyle}
+ */
+function readBoxStyle(el, pseudo) {
+  const cs = getComputedStyle(el, pseudo);
+  const sides = (prefix, suffix = '') =>
+    ['Top', 'Right', 'Bottom', 'Left'].map(side => px(cs[`${prefix}${side}${suffix}`]));
+  const fontSize = px(cs.fontSize);
+
+  let lineHeight = null;
+  if (cs.lineHeight && cs.lineHeight !== 'normal') {
+    // Обычно px; безразмерное значение — множитель размера шрифта
+    lineHeight = cs.lineHeight.endsWith('px') ? px(cs.lineHeight) : px(cs.lineHeight) * fontSize;
+  }
+
+  return {
+    font: {
+      style: cs.fontStyle || 'normal',
+      weight: parseInt(cs.fontWeight, 10) || 400,
+      size: fontSize,
+      family: cs.fontFamily,
+    },
+    lineHeight,
+    margin: sides('margin'),
+    padding: sides('padding'),
+    border: sides('border', 'Width'),
+    textIndent: px(cs.textIndent),
+    orphans: parseInt(cs.orphans, 10) || 1,
+    widows: parseInt(cs.widows, 10) || 1,
+  };
+}
+
+/**
+ * Стили буквицы или null, если буквицы нет
+ * @param {HTMLElement} paragraph - Абзац после h2
+ * @returns {import('./TextLayoutEngine.js').DropCapStyle|null}
+ */
+function readDropCap(paragraph) {
+  const cs = getComputedStyle(paragraph, '::first-letter');
+  const initialLetter = parseInt(cs.getPropertyValue('initial-letter'), 10) || 0;
+  if (!initialLetter && cs.cssFloat !== 'left' && cs.float !== 'left') return null;
+
+  const { font, lineHeight, padding } = readBoxStyle(paragraph, '::first-letter');
+  return { font, lineHeight, padding, initialLetter };
+}
+
+/**
+ * Шрифты, которые нужно загрузить в воркер
+ *
+ * Веб-шрифт (есть в document.fonts) передаётся, только если известен его
+ * источник: @font-face из доступных таблиц стилей или шрифт, загруженный
+ * через FontFace API. Иначе — null: мерить им в воркере нечем.
+ * Системные шрифты canvas находит сам.
+ *
+ * @param {import('./TextLayoutEngine.js').Typography} styles
+ * @returns {{family: string, url: string, style: string, weight: string}[]|null}
+ */
+function collectFontFaces(styles) {
+  const families = new Set();
+  for (const style of Object.values(styles)) {
+    if (!style?.font) continue;
+    for (const family of style.font.family.split(',')) {
+      families.add(unquote(family));
+    }
+  }
+
+  const webFonts = new Set([...(document.fonts ?? [])].map(face => unquote(face.family)));
+  const known = [
+    ...fontFaceRules(),
+    ...getFontSources().map(source => ({ ...source, style: 'normal', weight: 'normal' })),
+  ];
+
+  const faces = [];
+  for (const family of families) {
+    if (!webFonts.has(family)) continue;
+    const sources = known.filter(face => face.family === family);
+    if (!sources.length) return null;
+    faces.push(...sources);
+  }
+  return faces;
+}
+
+/**
+ * @font-face из таблиц стилей, доступных для чтения (same-origin)
+ * @returns {{family: string, url: string, style: string, weight: string}[]}
+ */
+function fontFaceRules() {
+  const faces = [];
+  for (const sheet of document.styleSheets) {
+    let rules;
+    try {
+      rules = sheet.cssRules;
+    } catch {
+      // Кросс-доменная таблица (например, Google Fonts) — источники недоступны
+      continue;
+    }
+
+    for (const rule of rules) {
+      if (!(rule instanceof CSSFontFaceRule)) continue;
+      const url = /url\((['"]?)(.+?)\1\)/.exec(rule.style.getPropertyValue('src'))?.[2];
+      if (!url) continue;
+      faces.push({
+        family: unquote(rule.style.getPropertyValue('font-family')),
+        url: new URL(url, sheet.href || document.baseURI).href,
+        style: rule.style.getPropertyValue('font-style') || 'normal',
+        weight: rule.style.getPropertyValue('font-weight') || 'normal',
+      });
+    }
+  }
+  return faces;
+}
+
+/**
+ * @param {string} family
+ * @returns {string}
+ */
+function unquote(family) {
+  return family.trim().replace(/^(['"])(.*)\1$/, '$2');
+}
@@ -7,3 +7,5 @@ export { SettingsManager } from './SettingsManager.js';
 export { BackgroundManager } from './BackgroundManager.js';
 export { ContentLoader } from './ContentLoader.js';
 export { AsyncPaginator } from './AsyncPaginator.js';
+export { PaginationCache } from './PaginationCache.js';
+export { TextLayoutPaginator } from './TextLayoutPaginator.js';
@@ -0,0 +1,99 @@
+/**
+ * TEXT LAYOUT WORKER
+ * Считает раскладку глав (TextLayoutEngine) по метрикам шрифтов
+ * OffscreenCanvas — вне основного потока.
+ *
+ * Запрос:  { id, fonts, page, typography, toc, chapters }
+ * Ответ:   { id, tocPages, counts } или { id, error }
+ *
+ * Веб-шрифты (fonts) загружаются в FontFaceSet воркера один раз;
+ * ширины слов кэшируются по шрифту между запросами.
+ */
+
+import { layoutChapters } from './TextLayoutEngine.js';
+
+/** Предел кэша ширин (записей на все шрифты) */
+const MAX_CACHED_WIDTHS = 200_000;
+
+const context = new OffscreenCanvas(1, 1).getContext('2d');
+
+/** @type {Map<string, Promise<void>>} Загрузки шрифтов по источнику */
+const fontLoads = new Map();
+
+/** @type {Map<string, Map<string, number>>} font → текст → ширина */
+const widths = new Map();
+let cachedWidths = 0;
+
+/**
+ * Загрузить шрифты в FontFaceSet воркера
+ * @param {{family: string, url: string, style: string, weight: string}[]} fonts
+ * @returns {Promise<void[]>}
+ */
+function loadFonts(fonts) {
+  return Promise.all(fonts.map((face) => {
+    const key = `${face.family}|${face.style}|${face.weight}|${face.url}`;
+    if (!fontLoads.has(key)) {
+      const fontFace = new FontFace(face.family, `url(${JSON.stringify(face.url)})`, {
+        style: face.style,
+        weight: face.weight,
+      });
+      fontLoads.set(key, fontFace.load().then((loaded) => {
+        self.fonts.add(loaded);
+        // Ширины, измеренные до загрузки, — от запасного шрифта
+        widths.clear();
+        cachedWidths = 0;
+      }).catch((error) => {
+        fontLoads.delete(key);
+        throw error;
+      }));
+    }
+    return fontLoads.get(key);
+  }));
+}
+
+/** @type {import('./TextLayoutEngine.js').TextMeasurer} */
+const measurer = {
+  width(text, font) {
+    let byText = widths.get(font);
+    if (!byText) {
+      byText = new Map();
+      widths.set(font, byText);
+    }
+
+    let width = byText.get(text);
+    if (width === undefined) {
+      context.font = font;
+      width = context.measureText(text).width;
+      if (cachedWidths >= MAX_CACHED_WIDTHS) {
+        widths.clear();
+        cachedWidths = 0;
+        widths.set(font, byText = new Map());
+      }
+      byText.set(text, width);
+      cachedWidths++;
+    }
+    return width;
+  },
+
+  capHeight(font) {
+    context.font = font;
+    return context.measureText('H').actualBoundingBoxAscent;
+  },
+
+  lineHeight(font) {
+    context.font = font;
+    const metrics = context.measureText('Hg');
+    return metrics.fontBoundingBoxAscent + metrics.fontBoundingBoxDescent;
+  },
+};
+
+self.onmessage = async ({ data }) => {
+  const { id, fonts, ...input } = data;
+  try {
+    await loadFonts(fonts);
+    const { tocPages, counts } = layoutChapters(input, measurer);
+    self.postMessage({ id, tocPages, counts });
+  } catch (error) {
+    self.postMessage({ id, error: error?.message || String(error) });
+  }
+};
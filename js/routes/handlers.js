@@ -10,7 +10,7 @@
 
 import { BookshelfScreen, loadBooksFromAPI, getBookshelfData, clearActiveBook } from '../core/BookshelfScreen.js';
 import { LandingScreen } from '../core/LandingScreen.js';
-import { createConfig, enrichConfigFromIDB, loadConfigFromAPI, loadPublicConfigFromAPI, setConfig } from '../config.js';
+import { createConfig, enrichConfigFromIDB, loadReaderBundleFromAPI, setConfig } from '../config.js';
 import { BookController } from '../core/BookController.js';
 import { AuthModal } from '../core/AuthModal.js';
 import { MigrationHelper } from '../core/MigrationHelper.js';
@@ -318,10 +318,11 @@ async function initReaderWithMode(bookId, route) {
   let bookOwner = null;
   let progress = null;
 
+  // Reader bundle: книга, прогресс, настройки и первые главы — одним запросом
   if (route === 'embed') {
     readerMode = 'embed';
     try {
-      const result = await loadPublicConfigFromAPI(ctx.apiClient, bookId);
+      const result = await loadReaderBundleFromAPI(ctx.apiClient, bookId, { publicMode: true });
       config = result.config;
       bookOwner = result.owner;
     } catch (err) {
@@ -330,17 +331,19 @@ async function initReaderWithMode(bookId, route) {
     }
   } else if (ctx.currentUser) {
     try {
-      config = await loadConfigFromAPI(ctx.apiClient, bookId);
+      const result = await loadReaderBundleFromAPI(ctx.apiClient, bookId);
+      config = result.config;
       readerMode = 'owner';
-      progress = await ctx.apiClient.getProgress(bookId).catch(() => null);
+      progress = result.progress;
     } catch (err) {
       if (err.status === 403 || err.status === 404) {
         try {
-          const result = await loadPublicConfigFromAPI(ctx.apiClient, bookId);
+          // Публичный bundle включает прогресс, если есть сессия
+          const result = await loadReaderBundleFromAPI(ctx.apiClient, bookId, { publicMode: true });
           config = result.config;
           bookOwner = result.owner;
           readerMode = 'guest';
-          progress = await ctx.apiClient.getProgress(bookId).catch(() => null);
+          progress = result.progress;
         } catch (pubErr) {
           console.error('Ошибка загрузки публичной книги:', pubErr);
           ctx.router.navigate('/', { replace: true });
@@ -355,7 +358,7 @@ async function initReaderWithMode(bookId, route) {
   } else {
     readerMode = 'guest';
     try {
-      const result = await loadPublicConfigFromAPI(ctx.apiClient, bookId);
+      const result = await loadReaderBundleFromAPI(ctx.apiClient, bookId, { publicMode: true });
       config = result.config;
       bookOwner = result.owner;
     } catch (err) {
@@ -28,6 +28,44 @@ export class ApiError extends Error {
 /** Настройки retry по умолчанию */
 const RETRY_DEFAULTS = { maxRetries: 2, initialDelay: 1000 };
 
+/**
+ * Заголовки для content-эндпоинтов глав: сервер отдаёт сырой HTML
+ * (gzip/brotli, точный Content-Length) вместо JSON-строки — без
+ * экранирования на сервере и JSON.parse мегабайтных глав на клиенте
+ */
+const HTML_ACCEPT = { Accept: 'text/html' };
+
+/**
+ * Разобрать NDJSON-ответ bundle-эндпоинта в объект.
+ * Записи: book, progress, settings?, fonts?, chapter*, end (см. server bundle.service.ts)
+ * @param {string} text - Тело ответа (по одной JSON-записи на строку)
+ * @returns {{ book: Object, progress: Object|null, settings: Object|null, fonts: Array|null, chapters: Map<string, string|null> }}
+ * @throws {ApiError} Если поток оборвался (запись error или нет end)
+ */
+export function parseReaderBundle(text) {
+  const bundle = { book: null, progress: null, settings: null, fonts: null, chapters: new Map() };
+  let complete = false;
+
+  for (const line of text.split('\n')) {
+    if (!line.trim()) continue;
+    const record = JSON.parse(line);
+    switch (record.type) {
+      case 'book': bundle.book = record.data; break;
+      case 'progress': bundle.progress = record.data; break;
+      case 'settings': bundle.settings = record.data; break;
+      case 'fonts': bundle.fonts = record.data; break;
+      case 'chapter': bundle.chapters.set(record.data.id, record.data.html); break;
+      case 'end': complete = true; break;
+      case 'error': throw new ApiError(500, record.data?.message || 'Ошибка загрузки книги');
+    }
+  }
+
+  if (!complete || !bundle.book) {
+    throw new ApiError(0, 'Загрузка книги прервана');
+  }
+  return bundle;
+}
+
 /** HTTP-методы, требующие CSRF-токен */
 const CSRF_METHODS = new Set(['POST', 'PUT', 'PATCH', 'DELETE']);
 
@@ -332,9 +370,11 @@ export class ApiClient {
     return this._fetchWithRetry(`/api/v1/books/${bookId}/chapters/reorder`, { method: 'PATCH', body: { chapterIds } });
   }
 
-  /** HTML-контент главы */
+  /** HTML-контент главы (сырой HTML без JSON-обёртки) */
   async getChapterContent(bookId, chapterId) {
-    return this._fetchWithRetry(`/api/v1/books/${bookId}/chapters/${chapterId}/content`);
+    return this._fetchWithRetry(`/api/v1/books/${bookId}/chapters/${chapterId}/content`, {
+      headers: HTML_ACCEPT,
+    });
   }
 
   // ═══════════════════════════════════════════
@@ -574,9 +614,15 @@ export class ApiClient {
     return this._fetchWithRetry(`/api/v1/public/shelves/${encodeURIComponent(username)}`);
   }
 
-  /** Витрина публичных книг */
-  async getPublicDiscover(limit = 6) {
-    return this._fetchWithRetry(`/api/v1/public/discover?limit=${limit}`);
+  /**
+   * Витрина публичных книг
+   * @param {number} [limit=6]
+   * @param {string|null} [cursor] - nextCursor предыдущей страницы (keyset-пагинация)
+   */
+  async getPublicDiscover(limit = 6, cursor = null) {
+    const params = new URLSearchParams({ limit: String(limit) });
+    if (cursor) params.set('cursor', cursor);
+    return this._fetchWithRetry(`/api/v1/public/discover?${params}`);
   }
 
   /** Публичная книга (детали для чтения) */
@@ -591,10 +637,30 @@ export class ApiClient {
     );
   }
 
-  /** Контент главы публичной книги */
+  /**
+   * Всё для открытия ридера за один запрос: книга, прогресс, настройки
+   * и HTML первых глав (NDJSON-поток, см. parseReaderBundle)
+   * @param {string} bookId
+   * @param {Object} [options]
+   * @param {boolean} [options.publicMode=false] - Публичный эндпоинт (guest/embed)
+   * @param {number} [options.chapters] - Сколько первых глав включить (сервер: по умолчанию 3)
+   */
+  async getReaderBundle(bookId, { publicMode = false, chapters } = {}) {
+    const base = publicMode
+      ? `/api/v1/public/books/${encodeURIComponent(bookId)}`
+      : `/api/v1/books/${bookId}`;
+    const query = chapters !== undefined ? `?chapters=${chapters}` : '';
+    const text = await this._fetchWithRetry(`${base}/bundle${query}`, {
+      headers: { Accept: 'application/x-ndjson' },
+    });
+    return parseReaderBundle(text);
+  }
+
+  /** Контент главы публичной книги (сырой HTML без JSON-обёртки) */
   async getPublicChapterContent(bookId, chapterId) {
     return this._fetchWithRetry(
-      `/api/v1/public/books/${encodeURIComponent(bookId)}/chapters/${encodeURIComponent(chapterId)}/content`
+      `/api/v1/public/books/${encodeURIComponent(bookId)}/chapters/${encodeURIComponent(chapterId)}/content`,
+      { headers: HTML_ACCEPT }
     );
   }
 
@@ -0,0 +1,28 @@
+/**
+ * FONT SOURCES
+ * Источники шрифтов, зарегистрированных через FontFace API.
+ *
+ * FontFace не сообщает, откуда загружен шрифт, а Web Worker не видит
+ * document.fonts. Чтобы воркер раскладки текста (TextLayoutPaginator)
+ * мерил тем же шрифтом, источник запоминается при регистрации.
+ */
+
+/** @type {Map<string, string>} family → URL (обычно data URL) */
+const sources = new Map();
+
+/**
+ * Запомнить источник зарегистрированного шрифта
+ * @param {string} family - Имя семейства, под которым шрифт добавлен в document.fonts
+ * @param {string} url - URL файла шрифта
+ */
+export function rememberFontSource(family, url) {
+  sources.set(family, url);
+}
+
+/**
+ * Источники всех зарегистрированных шрифтов
+ * @returns {{family: string, url: string}[]}
+ */
+export function getFontSources() {
+  return [...sources].map(([family, url]) => ({ family, url }));
+}
@@ -142,6 +142,36 @@ export class IdbStorage {
     });
   }
 
+  /**
+   * Прочитать и перезаписать значение в одной readwrite-транзакции: параллельные
+   * update() того же ключа выполняются по очереди и не теряют записи друг друга.
+   * `updater` вызывается синхронно внутри транзакции и может записать через
+   * `store` и другие ключи — они фиксируются вместе с основным.
+   * @param {string} key
+   * @param {(value: *, store: IDBObjectStore) => *} updater - Возвращает новое значение (undefined — не менять)
+   * @returns {Promise<void>} resolve только после фиксации транзакции
+   */
+  async update(key, updater) {
+    const db = await this._getConnection();
+    return new Promise((resolve, reject) => {
+      const tx = db.transaction(this._storeName, 'readwrite');
+      const store = tx.objectStore(this._storeName);
+      const request = store.get(key);
+
+      request.onsuccess = () => {
+        try {
+          const value = updater(request.result ?? null, store);
+          if (value !== undefined) store.put(value, key);
+        } catch (err) {
+          tx.abort?.();
+          reject(err);
+        }
+      };
+      tx.oncomplete = () => resolve();
+      tx.onerror = () => reject(tx.error);
+    });
+  }
+
   /** Удалить значение по ключу (resolve только после фиксации транзакции) */
   async delete(key) {
     const db = await this._getConnection();
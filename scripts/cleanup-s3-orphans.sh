@@ -5,19 +5,32 @@
 #   1. Удаление книги не смогло удалить файлы из S3 (best-effort cleanup в books.service.ts)
 #   2. Загрузка файла прошла, но сохранение в БД не удалось
 #   3. Пользователь заменил файл (обложку, шрифт, звук), но старый не был удалён
+#   4. Текст главы изменили или удалили (chapter-bodies/<sha256>.html.br)
+#   5. Импорт книги бросили после предпросмотра: иллюстрации (images/content/)
+#      загружаются при разборе файла, до сохранения глав
 #
 # Алгоритм:
 #   1. Получает список всех ключей в S3-бакете
-#   2. Собирает все URL-ссылки на S3-файлы из БД (все таблицы с *Url полями)
+#   2. Собирает все URL-ссылки на S3-файлы из БД (все таблицы с *Url полями),
+#      ключи текстов глав (по content_hash) и иллюстраций (chapters.image_keys)
 #   3. Сравнивает — файлы в S3, не найденные в БД, считаются orphans
-#   4. В режиме --dry-run (по умолчанию) — только выводит список
-#   5. С флагом --delete — удаляет осиротевшие файлы
+#   4. Оставляет только файлы старше --older-than; для images/content/ и
+#      chapter-bodies/ действует минимальный срок CONTENT_GRACE_DAYS: на них
+#      ссылаются только после сохранения глав, а загружены они раньше.
+#      Текст главы, совпадающий с уже сохранённым, загружается заново — это
+#      обновляет дату объекта, и срок отсчитывается от последней записи
+#   5. В режиме --dry-run (по умолчанию) — только выводит список
+#   6. С флагом --delete — удаляет осиротевшие файлы
 #
 # Использование:
 #   ./scripts/cleanup-s3-orphans.sh                   # Dry run (только отчёт)
 #   ./scripts/cleanup-s3-orphans.sh --delete           # Удалить orphans
 #   ./scripts/cleanup-s3-orphans.sh --older-than 7     # Только файлы старше 7 дней
 #
+# При CHAPTER_CONTENT_STORE=s3 после обновления сначала запустите перенос
+# текстов глав (npm run db:migrate-chapter-bodies): он заполняет image_keys
+# для глав, тексты которых уже лежали в S3.
+#
 # Переменные окружения:
 #   DATABASE_URL  — строка подключения PostgreSQL (обязательно)
 #   S3_ENDPOINT   — S3 endpoint (обязательно)
@@ -31,6 +44,8 @@ set -euo pipefail
 # --- Аргументы ---
 DELETE_MODE=false
 OLDER_THAN_DAYS=0
+# Минимальный возраст объектов, которые загружаются раньше, чем на них сошлётся строка в БД
+CONTENT_GRACE_DAYS=2
 
 while [[ $# -gt 0 ]]; do
   case "$1" in
@@ -66,23 +81,28 @@ echo "[$(date -Iseconds)] === S3 Orphan Cleanup ==="
 echo "Бакет: ${S3_BUCKET}"
 echo "Режим: $([ "$DELETE_MODE" = true ] && echo "УДАЛЕНИЕ" || echo "dry-run (только отчёт)")"
 [ "$OLDER_THAN_DAYS" -gt 0 ] && echo "Фильтр: старше ${OLDER_THAN_DAYS} дней"
+CONTENT_DAYS=$(( OLDER_THAN_DAYS > CONTENT_GRACE_DAYS ? OLDER_THAN_DAYS : CONTENT_GRACE_DAYS ))
+echo "images/content/, chapter-bodies/: старше ${CONTENT_DAYS} дней"
 
 # --- Шаг 1: Список файлов в S3 ---
 echo ""
 echo "[$(date -Iseconds)] Получаем список файлов в S3..."
 
+# Формат s3_files.txt: <ключ>\t<время изменения UTC, YYYY-MM-DDTHH:MM:SS>
 if command -v aws &> /dev/null; then
   aws s3api list-objects-v2 \
     --endpoint-url "${S3_ENDPOINT}" \
     --bucket "${S3_BUCKET}" \
     --region "${REGION}" \
-    --query 'Contents[].{Key: Key, LastModified: LastModified}' \
+    --query 'Contents[].[Key, LastModified]' \
     --output text 2>/dev/null \
+    | awk -F'\t' '{print $1 "\t" substr($2, 1, 19)}' \
     | sort > "${TMPDIR}/s3_files.txt"
 else
   mc alias set _cleanup "${S3_ENDPOINT}" "${S3_ACCESS_KEY}" "${S3_SECRET_KEY}" --api S3v4 > /dev/null 2>&1
-  mc ls --recursive "_cleanup/${S3_BUCKET}" 2>/dev/null \
-    | awk '{print $NF}' \
+  # [2026-05-01 12:00:00 UTC]  1.2KiB STANDARD key
+  TZ=UTC mc ls --recursive "_cleanup/${S3_BUCKET}" 2>/dev/null \
+    | awk '{print $NF "\t" substr($1, 2) "T" $2}' \
     | sort > "${TMPDIR}/s3_files.txt"
 fi
 
@@ -149,16 +169,38 @@ echo "URL в БД: ${DB_URL_COUNT}"
 grep -oP "/${S3_BUCKET}/\K.+" "${TMPDIR}/db_urls.txt" 2>/dev/null \
   | sort -u > "${TMPDIR}/db_keys.txt" || true
 
+# Тексты глав в S3 (CHAPTER_CONTENT_STORE=s3) адресуются не URL, а хешем содержимого
+psql "${DATABASE_URL}" --no-align --tuples-only --quiet <<'SQL' >> "${TMPDIR}/db_keys.txt"
+SELECT DISTINCT 'chapter-bodies/' || content_hash || '.html.br' FROM chapters
+WHERE html_content IS NULL AND has_content AND content_hash IS NOT NULL;
+SQL
+
+# Иллюстрации импортированных книг упоминаются только внутри HTML глав;
+# ключи, на которые он ссылается, хранятся в chapters.image_keys
+psql "${DATABASE_URL}" --no-align --tuples-only --quiet <<'SQL' >> "${TMPDIR}/db_keys.txt"
+SELECT DISTINCT unnest(image_keys) FROM chapters;
+SQL
+sort -u -o "${TMPDIR}/db_keys.txt" "${TMPDIR}/db_keys.txt"
+
 # --- Шаг 4: Сравниваем ---
-# Извлекаем только ключи из s3_files.txt (формат зависит от инструмента)
-if command -v aws &> /dev/null; then
-  awk '{print $1}' "${TMPDIR}/s3_files.txt" | sort > "${TMPDIR}/s3_keys.txt"
-else
-  cp "${TMPDIR}/s3_files.txt" "${TMPDIR}/s3_keys.txt"
-fi
+cut -f1 "${TMPDIR}/s3_files.txt" | sort > "${TMPDIR}/s3_keys.txt"
 
 # Orphans = в S3, но не в БД
-comm -23 "${TMPDIR}/s3_keys.txt" "${TMPDIR}/db_keys.txt" > "${TMPDIR}/orphans.txt"
+comm -23 "${TMPDIR}/s3_keys.txt" "${TMPDIR}/db_keys.txt" > "${TMPDIR}/unreferenced.txt"
+
+# Только достаточно старые: объект мог быть загружен, а строка, которая на
+# него сошлётся, ещё не сохранена
+cutoff() { [ "$1" -gt 0 ] && date -u -d "-$1 days" +%Y-%m-%dT%H:%M:%S || true; }
+awk -F'\t' -v general="$(cutoff "$OLDER_THAN_DAYS")" -v content="$(cutoff "$CONTENT_DAYS")" '
+  NR == FNR { unreferenced[$1] = 1; next }
+  $1 in unreferenced {
+    limit = ($1 ~ /^(images\/content|chapter-bodies)\//) ? content : general
+    if (limit == "" || $2 < limit) print $1
+  }
+' "${TMPDIR}/unreferenced.txt" "${TMPDIR}/s3_files.txt" > "${TMPDIR}/orphans.txt"
+
+SKIPPED_COUNT=$(( $(wc -l < "${TMPDIR}/unreferenced.txt") - $(wc -l < "${TMPDIR}/orphans.txt") ))
+[ "$SKIPPED_COUNT" -gt 0 ] && echo "Пропущено как слишком новые: ${SKIPPED_COUNT}"
 
 ORPHAN_COUNT=$(wc -l < "${TMPDIR}/orphans.txt" | tr -d ' ')
 echo ""
@@ -0,0 +1,14 @@
+-- Keyset pagination: every list is ordered by (sort key, id), so the
+-- tie-breaker has to be part of the index for the seek to stay index-only.
+
+-- DropIndex
+DROP INDEX "books_visibility_published_at_idx";
+
+-- CreateIndex
+CREATE INDEX "books_visibility_published_at_id_idx" ON "books"("visibility", "published_at", "id");
+
+-- DropIndex
+DROP INDEX "reading_sessions_user_id_book_id_idx";
+
+-- CreateIndex
+CREATE INDEX "reading_sessions_user_id_book_id_ended_at_id_idx" ON "reading_sessions"("user_id", "book_id", "ended_at", "id");
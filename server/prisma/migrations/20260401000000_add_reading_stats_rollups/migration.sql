@@ -0,0 +1,49 @@
+-- Reading statistics rollups: totals per (user, book) and per day, kept up
+-- to date by the session insert so stats no longer scan every session.
+
+-- CreateTable
+CREATE TABLE "reading_stats" (
+    "user_id" UUID NOT NULL,
+    "book_id" UUID NOT NULL,
+    "total_sessions" INTEGER NOT NULL DEFAULT 0,
+    "total_pages" INTEGER NOT NULL DEFAULT 0,
+    "total_duration_sec" INTEGER NOT NULL DEFAULT 0,
+    "updated_at" TIMESTAMPTZ NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    CONSTRAINT "reading_stats_pkey" PRIMARY KEY ("user_id", "book_id")
+);
+
+-- CreateTable
+CREATE TABLE "reading_stats_daily" (
+    "user_id" UUID NOT NULL,
+    "book_id" UUID NOT NULL,
+    "day" DATE NOT NULL,
+    "sessions" INTEGER NOT NULL DEFAULT 0,
+    "pages" INTEGER NOT NULL DEFAULT 0,
+    "duration_sec" INTEGER NOT NULL DEFAULT 0,
+
+    CONSTRAINT "reading_stats_daily_pkey" PRIMARY KEY ("user_id", "book_id", "day")
+);
+
+-- AddForeignKey
+ALTER TABLE "reading_stats" ADD CONSTRAINT "reading_stats_user_id_fkey" FOREIGN KEY ("user_id") REFERENCES "users"("id") ON DELETE CASCADE ON UPDATE CASCADE;
+
+-- AddForeignKey
+ALTER TABLE "reading_stats" ADD CONSTRAINT "reading_stats_book_id_fkey" FOREIGN KEY ("book_id") REFERENCES "books"("id") ON DELETE CASCADE ON UPDATE CASCADE;
+
+-- AddForeignKey
+ALTER TABLE "reading_stats_daily" ADD CONSTRAINT "reading_stats_daily_user_id_fkey" FOREIGN KEY ("user_id") REFERENCES "users"("id") ON DELETE CASCADE ON UPDATE CASCADE;
+
+-- AddForeignKey
+ALTER TABLE "reading_stats_daily" ADD CONSTRAINT "reading_stats_daily_book_id_fkey" FOREIGN KEY ("book_id") REFERENCES "books"("id") ON DELETE CASCADE ON UPDATE CASCADE;
+
+-- Backfill from existing sessions (large installs can re-run `npm run db:backfill-stats` instead)
+INSERT INTO "reading_stats" ("user_id", "book_id", "total_sessions", "total_pages", "total_duration_sec")
+SELECT "user_id", "book_id", count(*), sum("pages_read"), sum("duration_sec")
+FROM "reading_sessions"
+GROUP BY "user_id", "book_id";
+
+INSERT INTO "reading_stats_daily" ("user_id", "book_id", "day", "sessions", "pages", "duration_sec")
+SELECT "user_id", "book_id", ("started_at" AT TIME ZONE 'UTC')::date, count(*), sum("pages_read"), sum("duration_sec")
+FROM "reading_sessions"
+GROUP BY 1, 2, 3;
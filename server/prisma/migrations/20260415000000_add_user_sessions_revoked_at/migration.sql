@@ -0,0 +1,2 @@
+-- AlterTable
+ALTER TABLE "users" ADD COLUMN "sessions_revoked_at" TIMESTAMPTZ;
@@ -0,0 +1,13 @@
+-- CreateTable
+-- UNLOGGED: counters are disposable, so skip the WAL (they are lost on a crash, not on restart)
+CREATE UNLOGGED TABLE "rate_limit_hits" (
+    "key" VARCHAR(255) NOT NULL,
+    "window_start" BIGINT NOT NULL,
+    "hits" INTEGER NOT NULL DEFAULT 0,
+    "expires_at" TIMESTAMPTZ NOT NULL,
+
+    CONSTRAINT "rate_limit_hits_pkey" PRIMARY KEY ("key","window_start")
+);
+
+-- CreateIndex
+CREATE INDEX "rate_limit_hits_expires_at_idx" ON "rate_limit_hits"("expires_at");
@@ -0,0 +1,19 @@
+-- Chapter content metadata, so chapter lists no longer read html_content.
+-- Maintained by the application on every write (utils/chapterMetadata.ts).
+
+-- AlterTable
+ALTER TABLE "chapters" ADD COLUMN "has_content" BOOLEAN NOT NULL DEFAULT false,
+ADD COLUMN "content_length" INTEGER NOT NULL DEFAULT 0,
+ADD COLUMN "content_hash" CHAR(64),
+ADD COLUMN "word_count" INTEGER NOT NULL DEFAULT 0;
+
+-- Backfill existing chapters (same rules as computeChapterMetadata)
+UPDATE "chapters"
+SET "has_content" = true,
+    "content_length" = octet_length("html_content"),
+    "content_hash" = encode(sha256(convert_to("html_content", 'UTF8')), 'hex'),
+    "word_count" = (
+      SELECT count(*)
+      FROM regexp_matches(regexp_replace("html_content", '<[^>]*>', ' ', 'g'), '\S+', 'g')
+    )
+WHERE "html_content" IS NOT NULL;
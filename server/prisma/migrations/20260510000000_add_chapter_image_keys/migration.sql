@@ -0,0 +1,21 @@
+-- Storage keys of imported illustrations each chapter's HTML points at, so
+-- scripts/cleanup-s3-orphans.sh can tell which images/content/ objects are
+-- still in use. Maintained by the application on every write
+-- (utils/chapterMetadata.ts).
+
+-- AlterTable
+ALTER TABLE "chapters" ADD COLUMN "image_keys" TEXT[] NOT NULL DEFAULT '{}';
+
+-- Backfill chapters held in Postgres (same rules as computeChapterMetadata).
+-- Bodies already in object storage are indexed by migrateChapterBodies.
+UPDATE "chapters"
+SET "image_keys" = ARRAY(
+  SELECT DISTINCT m[1]
+  FROM regexp_matches(
+    "html_content",
+    '(images/content/[0-9a-f]{64}(?:-[0-9]+w)?\.(?:png|jpg|gif|webp))',
+    'g'
+  ) AS m
+  ORDER BY 1
+)
+WHERE "html_content" LIKE '%images/content/%';
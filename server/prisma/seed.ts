@@ -1,5 +1,6 @@
 import { PrismaClient } from '@prisma/client';
 import bcrypt from 'bcrypt';
+import { computeChapterMetadata } from '../src/utils/chapterMetadata.js';
 
 const prisma = new PrismaClient();
 
@@ -69,12 +70,14 @@ async function main() {
     ]);
 
     // Create a sample chapter
+    const htmlContent = '<article><h2>Welcome to Flipbook</h2><p>This is a sample chapter to demonstrate the e-book reader.</p><p>You can manage your books, chapters, fonts, sounds, and appearance through the admin panel.</p></article>';
     await prisma.chapter.create({
       data: {
         bookId: book.id,
         title: 'Chapter 1',
         position: 0,
-        htmlContent: '<article><h2>Welcome to Flipbook</h2><p>This is a sample chapter to demonstrate the e-book reader.</p><p>You can manage your books, chapters, fonts, sounds, and appearance through the admin panel.</p></article>',
+        htmlContent,
+        ...computeChapterMetadata(htmlContent),
       },
     });
 
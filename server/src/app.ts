@@ -8,7 +8,6 @@ import cors from 'cors';
 import helmet from 'helmet';
 import cookieParser from 'cookie-parser';
 import session from 'express-session';
-import connectPgSimple from 'connect-pg-simple';
 import passport from 'passport';
 import pinoHttp from 'pino-http';
 import { HeadBucketCommand } from '@aws-sdk/client-s3';
@@ -16,19 +15,24 @@ import { getConfig } from './config.js';
 import { configurePassport } from './middleware/auth.js';
 import { errorHandler } from './middleware/errorHandler.js';
 import { createRateLimiter } from './middleware/rateLimit.js';
-import { metricsMiddleware, register as metricsRegistry } from './middleware/metrics.js';
+import { metricsMiddleware, matchedRoute, collectMetrics } from './middleware/metrics.js';
 import { doubleCsrfProtection } from './middleware/csrf.js';
 import { requireBookOwnership } from './middleware/bookOwnership.js';
 import { requireAuth } from './middleware/auth.js';
 import { logger } from './utils/logger.js';
 import { getPrisma } from './utils/prisma.js';
 import { getS3Client } from './utils/storage.js';
+import { createSessionStore } from './utils/sessionStore.js';
+import { statelessSession } from './utils/statelessSession.js';
+import { tracingMiddleware, traceMiddleware, activeSpan } from './utils/tracing.js';
 import { swaggerSpec, swaggerHtml } from './swagger.js';
 import {
-  getBookOgMeta,
-  getShelfOgMeta,
-  injectOgTags,
-  generateSitemap,
+  SUPPORTED_LANGS,
+  buildHreflangTags,
+  compileShell,
+  getBookShellHead,
+  getShelfShellHead,
+  type ShellHead,
 } from './services/seo.service.js';
 
 // Routes
@@ -48,6 +52,7 @@ import defaultSettingsRoutes from './routes/defaultSettings.routes.js';
 import exportImportRoutes from './routes/exportImport.routes.js';
 import profileRoutes from './routes/profile.routes.js';
 import publicRoutes from './routes/public.routes.js';
+import sitemapRoutes from './routes/sitemap.routes.js';
 
 const __dirname = path.dirname(fileURLToPath(import.meta.url));
 
@@ -58,6 +63,10 @@ export function createApp() {
   // Trust first proxy (Nginx / cloud LB)
   app.set('trust proxy', 1);
 
+  // Root trace span per request (no-op unless OTEL_EXPORTER_OTLP_ENDPOINT is set).
+  // Registered first so every later stage is recorded inside it.
+  app.use(tracingMiddleware(matchedRoute));
+
   // Security headers (allow iframe embedding for /embed/* routes)
   // CSP must allow S3_PUBLIC_URL for uploaded images/sounds,
   // Google Fonts for custom typography, and blob:/data: for local processing
@@ -114,42 +123,42 @@ export function createApp() {
   app.use(metricsMiddleware);
 
   // Rate limiting
-  app.use('/api/', createRateLimiter());
+  app.use('/api/', traceMiddleware('rateLimit', createRateLimiter()));
 
   // Body & cookie parsing (256kb default; import route overrides to 10mb)
-  app.use(express.json({ limit: '256kb' }));
+  app.use(traceMiddleware('jsonBody', express.json({ limit: '256kb' })));
   app.use(express.urlencoded({ extended: true }));
   app.use(cookieParser());
 
-  // Session store (PostgreSQL)
-  const PgSession = connectPgSimple(session);
-
+  // Sessions: PostgreSQL store, or a signed cookie (SESSION_STORE=cookie)
   app.use(
-    session({
-      store: new PgSession({
-        conString: config.DATABASE_URL,
-        createTableIfMissing: true,
-        tableName: 'session',
-      }),
-      secret: config.SESSION_SECRET,
-      resave: false,
-      saveUninitialized: false,
-      cookie: {
+    traceMiddleware('session', config.SESSION_STORE === 'cookie'
+      ? statelessSession({
+        secret: config.SESSION_SECRET,
         maxAge: config.SESSION_MAX_AGE,
-        httpOnly: true,
         secure: config.SESSION_SECURE,
-        sameSite: 'lax',
-      },
-    }),
+      })
+      : session({
+        store: createSessionStore(config),
+        secret: config.SESSION_SECRET,
+        resave: false,
+        saveUninitialized: false,
+        cookie: {
+          maxAge: config.SESSION_MAX_AGE,
+          httpOnly: true,
+          secure: config.SESSION_SECURE,
+          sameSite: 'lax',
+        },
+      })),
   );
 
-  // Passport authentication
+  // Passport authentication (passport.session runs deserializeUser)
   app.use(passport.initialize());
-  app.use(passport.session());
+  app.use(traceMiddleware('passport.session', passport.session()));
   configurePassport();
 
   // CSRF protection (double-submit cookie pattern)
-  app.use(doubleCsrfProtection);
+  app.use(traceMiddleware('csrf', doubleCsrfProtection));
 
   // Request ID + structured request logging via pino-http
   app.use((req: Request, _res: Response, next: NextFunction) => {
@@ -161,6 +170,11 @@ export function createApp() {
     pinoHttp({
       logger,
       genReqId: (req) => (req as Request).id as string,
+      // Correlate log lines with the request's trace
+      customProps: () => {
+        const span = activeSpan();
+        return span ? { trace_id: span.traceId } : {};
+      },
       autoLogging: {
         ignore: (req) => {
           const url = (req as Request).url;
@@ -207,8 +221,9 @@ export function createApp() {
 
   // Prometheus metrics endpoint (unversioned, like health)
   app.get('/api/metrics', async (_req: Request, res: Response) => {
-    res.set('Content-Type', metricsRegistry.contentType);
-    res.end(await metricsRegistry.metrics());
+    const { contentType, body } = await collectMetrics();
+    res.set('Content-Type', contentType);
+    res.end(body);
   });
 
   // Swagger / OpenAPI documentation
@@ -252,16 +267,8 @@ export function createApp() {
     });
   });
 
-  // Dynamic sitemap.xml (generated from published books & author shelves)
-  app.get('/sitemap.xml', async (_req: Request, res: Response) => {
-    try {
-      const xml = await generateSitemap();
-      res.type('application/xml').send(xml);
-    } catch (err) {
-      logger.error({ err }, 'Failed to generate sitemap');
-      res.status(500).end();
-    }
-  });
+  // Dynamic sitemap.xml / sitemap index (published books & author shelves)
+  app.use(sitemapRoutes);
 
   // Serve pre-built client in production
   if (config.NODE_ENV === 'production') {
@@ -277,51 +284,38 @@ export function createApp() {
     } catch {
       logger.warn('index.html not found at startup — SPA OG injection disabled');
     }
-
-    // Hreflang tags for multilingual support
-    const SUPPORTED_LANGS = ['ru', 'en', 'es', 'fr', 'de'];
-    function buildHreflangTags(canonicalPath: string): string {
-      const base = config.APP_URL.replace(/\/$/, '');
-      return SUPPORTED_LANGS.map(
-        (lang) => `<link rel="alternate" hreflang="${lang}" href="${base}${canonicalPath}?lang=${lang}">`,
-      ).join('\n    ') + `\n    <link rel="alternate" hreflang="x-default" href="${base}${canonicalPath}">`;
-    }
-
-    function injectHreflang(html: string, canonicalPath: string): string {
-      const tags = buildHreflangTags(canonicalPath);
-      return html.replace('</head>', `    ${tags}\n  </head>`);
-    }
+    // Split once; per-request work is a cached head lookup plus a join
+    const shell = indexHtml ? compileShell(indexHtml) : null;
 
     // SPA fallback with dynamic OG meta injection for public routes
     app.use(async (req: Request, res: Response, next: NextFunction) => {
       if (req.path.startsWith('/api/')) return next();
-      if (!indexHtml) return res.sendFile(indexPath);
+      if (!shell) return res.sendFile(indexPath);
 
-      let html = indexHtml;
       const bookMatch = req.path.match(/^\/book\/([a-f0-9-]+)$/i);
       const embedMatch = req.path.match(/^\/embed\/([a-f0-9-]+)$/i);
       const bookId = bookMatch?.[1] || embedMatch?.[1];
+      const lang = typeof req.query.lang === 'string' && SUPPORTED_LANGS.includes(req.query.lang)
+        ? req.query.lang
+        : '';
 
+      let head: ShellHead | null = null;
       try {
         if (bookId) {
-          const meta = await getBookOgMeta(bookId);
-          if (meta) html = injectOgTags(html, meta);
+          head = await getBookShellHead(bookId, lang);
         } else if (req.path !== '/' && req.path !== '/account' && !req.path.startsWith('/api')) {
           // Potential author shelf route (/:username)
           const username = req.path.slice(1);
           if (username && /^[a-zA-Z0-9_-]+$/.test(username)) {
-            const meta = await getShelfOgMeta(username);
-            if (meta) html = injectOgTags(html, meta);
+            head = await getShelfShellHead(username, lang);
           }
         }
       } catch (err) {
         logger.warn({ err, path: req.path }, 'OG meta injection failed — serving default HTML');
       }
 
-      // Inject hreflang for all pages
-      html = injectHreflang(html, req.path);
-
-      res.type('html').send(html);
+      // Hreflang for all pages
+      res.type('html').send(shell.render(head, buildHreflangTags(req.path)));
     });
   }
 
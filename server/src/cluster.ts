@@ -0,0 +1,159 @@
+import cluster, { type Worker } from 'node:cluster';
+import { AggregatorRegistry, Registry } from 'prom-client';
+import type { Config } from './config.js';
+import { logger } from './utils/logger.js';
+import { CLUSTER_METRICS_MESSAGE } from './middleware/metrics.js';
+
+/**
+ * Cluster mode (CLUSTER_WORKERS > 0).
+ *
+ * The primary only supervises: it forks the workers, which each run the full
+ * server (app, Prisma pool, caches, write-behind buffers — nothing is shared
+ * between them) and accept connections on the same port. Since caches and
+ * write-behind buffers are per process, config.ts refuses more than one
+ * worker unless the cache is shared (or off) and writes go straight through.
+ * The primary:
+ *
+ * - answers `/api/metrics` scrapes relayed by a worker with the series of
+ *   every worker, each labelled `worker`;
+ * - replaces a worker that dies, and gives up on a crash loop;
+ * - recycles a worker whose reported RSS exceeds CLUSTER_MAX_RSS_MB: the
+ *   replacement is started first and the old one drains only once the new
+ *   one listens, so capacity never drops;
+ * - on SIGTERM/SIGINT lets every worker run its own graceful shutdown
+ *   (see index.ts) and exits when they are all gone.
+ */
+
+/** IPC messages between primary and workers */
+export const WORKER_MEMORY_MESSAGE = 'flipbook:memory';
+export const WORKER_SHUTDOWN_MESSAGE = 'flipbook:shutdown';
+
+/** How often workers report their RSS */
+export const MEMORY_REPORT_INTERVAL_MS = 15_000;
+
+/** Crashes within CRASH_WINDOW_MS after which the primary stops respawning */
+const MAX_CRASHES = 5;
+const CRASH_WINDOW_MS = 60_000;
+
+/** Longer than a worker's own forced-shutdown timeout (10 s) */
+const SHUTDOWN_TIMEOUT_MS = 15_000;
+
+export function runPrimary(config: Config): void {
+  const aggregator = new AggregatorRegistry();
+  const maxRssBytes = config.CLUSTER_MAX_RSS_MB * 1024 * 1024;
+  const crashes: number[] = [];
+  /** Workers asked to leave (recycled or shutting down): their exit is expected */
+  const retiring = new Set<Worker>();
+  let recycling = false;
+  let shuttingDown = false;
+
+  const fork = (): Worker => {
+    const worker = cluster.fork();
+    worker.on('message', (message: { type?: string; id?: number; rss?: number }) => {
+      if (message?.type === CLUSTER_METRICS_MESSAGE) {
+        const reply = (fields: { body?: string; error?: string }) => {
+          if (!worker.isConnected()) return;
+          worker.send({ type: CLUSTER_METRICS_MESSAGE, id: message.id, contentType: Registry.PROMETHEUS_CONTENT_TYPE, ...fields });
+        };
+        aggregator.clusterMetrics()
+          .then((body) => reply({ body }))
+          .catch((err: Error) => reply({ error: err.message }));
+      } else if (message?.type === WORKER_MEMORY_MESSAGE && maxRssBytes > 0 && message.rss! > maxRssBytes) {
+        recycle(worker, message.rss!);
+      }
+    });
+    return worker;
+  };
+
+  /** Ask a worker to finish in-flight requests and exit */
+  const retire = (worker: Worker): void => {
+    retiring.add(worker);
+    if (worker.isConnected()) worker.send({ type: WORKER_SHUTDOWN_MESSAGE });
+  };
+
+  const recycle = (worker: Worker, rss: number): void => {
+    if (recycling || shuttingDown || retiring.has(worker)) return;
+    recycling = true;
+    logger.warn(
+      { worker: worker.id, rssMb: Math.round(rss / 1024 / 1024), limitMb: config.CLUSTER_MAX_RSS_MB },
+      'Worker over memory limit, recycling',
+    );
+    const replacement = fork();
+    const done = () => {
+      replacement.off('listening', onListening);
+      replacement.off('exit', done);
+      recycling = false;
+    };
+    const onListening = () => {
+      done();
+      retire(worker);
+    };
+    replacement.once('listening', onListening);
+    // Replacement died before listening: keep the old worker, the exit handler respawns
+    replacement.once('exit', done);
+  };
+
+  let exitCode = 0;
+  const shutdown = (reason: string, code = 0): void => {
+    if (shuttingDown) return;
+    shuttingDown = true;
+    exitCode = code;
+    logger.info({ reason }, 'Stopping workers...');
+    const workers = Object.values(cluster.workers ?? {}).filter((w): w is Worker => !!w);
+    if (workers.length === 0) process.exit(code);
+    for (const worker of workers) retire(worker);
+    setTimeout(() => {
+      logger.error('Workers did not stop in time, exiting');
+      process.exit(1);
+    }, SHUTDOWN_TIMEOUT_MS).unref();
+  };
+
+  cluster.on('exit', (worker, code, signal) => {
+    if (retiring.delete(worker) || shuttingDown) {
+      logger.info({ worker: worker.id, code }, 'Worker exited');
+    } else {
+      logger.error({ worker: worker.id, code, signal }, 'Worker died, starting a replacement');
+      const now = Date.now();
+      crashes.push(now);
+      while (crashes.length > 0 && crashes[0] < now - CRASH_WINDOW_MS) crashes.shift();
+      if (crashes.length >= MAX_CRASHES) {
+        logger.fatal({ crashes: crashes.length }, 'Workers keep crashing, giving up');
+        shutdown('crash loop', 1);
+        return;
+      }
+      fork();
+    }
+    if (shuttingDown && Object.keys(cluster.workers ?? {}).length === 0) {
+      logger.info('All workers stopped');
+      process.exit(exitCode);
+    }
+  });
+
+  process.on('SIGTERM', () => shutdown('SIGTERM'));
+  process.on('SIGINT', () => shutdown('SIGINT'));
+  process.on('uncaughtException', (err) => {
+    logger.fatal({ err }, 'Uncaught exception in cluster primary — stopping workers');
+    shutdown('uncaughtException', 1);
+  });
+
+  logger.info(
+    { workers: config.CLUSTER_WORKERS, maxRssMb: config.CLUSTER_MAX_RSS_MB || undefined },
+    'Cluster primary started',
+  );
+  for (let i = 0; i < config.CLUSTER_WORKERS; i++) fork();
+}
+
+/**
+ * Worker side: report memory to the primary and shut down gracefully when
+ * it asks (recycling, cluster shutdown) or goes away.
+ */
+export function attachToPrimary(shutdown: (reason: string) => void): void {
+  if (!cluster.isWorker) return;
+  setInterval(() => {
+    process.send?.({ type: WORKER_MEMORY_MESSAGE, rss: process.memoryUsage.rss() });
+  }, MEMORY_REPORT_INTERVAL_MS).unref();
+  process.on('message', (message: { type?: string }) => {
+    if (message?.type === WORKER_SHUTDOWN_MESSAGE) shutdown('cluster');
+  });
+  process.on('disconnect', () => shutdown('primary exited'));
+}
@@ -24,6 +24,12 @@ const envSchema = z.object({
     .string()
     .transform((v) => v === 'true')
     .default(isProduction ? 'true' : 'false'),
+  // postgres: sessions in the "session" table; cookie: HMAC-signed cookie, no per-request session query
+  SESSION_STORE: z.enum(['postgres', 'cookie']).default('postgres'),
+  // How long a session's user record is cached in process, ms (0 = look it up on every request)
+  USER_CACHE_TTL_MS: z.coerce.number().int().min(0).default(30_000),
+  // How long a book's owner is cached for /books/:bookId/* access checks, ms (0 = query every time)
+  OWNERSHIP_CACHE_TTL_MS: z.coerce.number().int().min(0).default(60_000),
 
   GOOGLE_CLIENT_ID: isProduction
     ? z.string().min(1).refine((v) => v !== 'placeholder', 'GOOGLE_CLIENT_ID must be set in production (not placeholder)')
@@ -63,9 +69,63 @@ const envSchema = z.object({
 
   RATE_LIMIT_WINDOW: z.coerce.number().default(60000),
   RATE_LIMIT_MAX: z.coerce.number().default(100),
+  // Where limiter counters live: memory (per process), postgres or redis (shared by all replicas)
+  RATE_LIMIT_STORE: z.enum(['memory', 'postgres', 'redis']).default('memory'),
+
+  // In-process chapter HTML cache budget in bytes (0 disables retention)
+  CONTENT_CACHE_MAX_BYTES: z.coerce.number().int().min(0).default(64 * 1024 * 1024),
+  // Where new chapter HTML is written: postgres (chapters.html_content) or s3 (brotli objects keyed
+  // by content hash). Both are always readable; `npm run db:migrate-chapter-bodies` moves old rows.
+  CHAPTER_CONTENT_STORE: z.enum(['postgres', 's3']).default('postgres'),
+  // Chapter HTML sanitizer: builtin (tokenizer + tree builder, no DOM) or dompurify (DOMPurify over
+  // JSDOM, the previous implementation, kept as a fallback; same policy and output)
+  HTML_SANITIZER: z.enum(['builtin', 'dompurify']).default('builtin'),
+
+  // Public catalogue cache (discover, shelves, public book pages).
+  // "redis" works with any server speaking the Redis protocol; share it across instances.
+  CACHE_BACKEND: z.enum(['memory', 'redis', 'none']).default('memory'),
+  REDIS_URL: z.string().optional(),
+  // Upper bound on staleness if an invalidation is lost, in seconds (0 disables)
+  PUBLIC_CACHE_TTL: z.coerce.number().int().min(0).default(60),
+
+  // Cluster mode: number of server processes (0 = single process, no supervisor)
+  CLUSTER_WORKERS: z.coerce.number().int().min(0).default(0),
+  // Recycle a cluster worker (replacement first, then graceful drain) once its RSS exceeds this, MB (0 = never)
+  CLUSTER_MAX_RSS_MB: z.coerce.number().int().min(0).default(0),
+
+  // Book parser worker threads (default: CPU count - 1, max 4; 0 parses on the main thread)
+  PARSE_WORKERS: z.coerce.number().int().min(0).optional(),
+  // Uploads allowed to wait for a free parser worker before answering 503
+  PARSE_QUEUE_MAX: z.coerce.number().int().min(0).default(16),
+
+  // Reading progress / session writes are buffered and flushed in batches this often, in ms
+  // (0 writes through on every request). Up to this interval of updates is lost on a crash.
+  WRITE_BEHIND_FLUSH_MS: z.coerce.number().int().min(0).default(1000),
+  // Rows per batched INSERT; a full batch is flushed early
+  WRITE_BEHIND_MAX_BATCH: z.coerce.number().int().min(1).default(500),
+
+  // Request tracing: OTLP/HTTP collector base URL (tracing is off when unset)
+  OTEL_EXPORTER_OTLP_ENDPOINT: z.string().url().optional(),
+  OTEL_SERVICE_NAME: z.string().default('flipbook-server'),
+  // Share of new traces recorded; requests arriving with a sampled traceparent are always traced
+  OTEL_TRACES_SAMPLER_ARG: z.coerce.number().min(0).max(1).default(1),
 
   SENTRY_DSN: z.string().optional(),
-});
+}).refine(
+  (env) => env.CACHE_BACKEND !== 'redis' || !!env.REDIS_URL,
+  { message: 'REDIS_URL is required when CACHE_BACKEND=redis', path: ['REDIS_URL'] },
+).refine(
+  (env) => env.RATE_LIMIT_STORE !== 'redis' || !!env.REDIS_URL,
+  { message: 'REDIS_URL is required when RATE_LIMIT_STORE=redis', path: ['REDIS_URL'] },
+).refine(
+  // Workers share nothing: an in-process cache is only invalidated in the worker
+  // that made the write, and a write-behind buffer is only visible to its own worker
+  (env) => env.CLUSTER_WORKERS <= 1 || (env.CACHE_BACKEND !== 'memory' && env.WRITE_BEHIND_FLUSH_MS === 0),
+  {
+    message: 'CLUSTER_WORKERS > 1 requires CACHE_BACKEND=redis (or none) and WRITE_BEHIND_FLUSH_MS=0',
+    path: ['CLUSTER_WORKERS'],
+  },
+);
 
 export type Config = z.infer<typeof envSchema>;
 
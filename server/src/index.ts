@@ -1,73 +1,105 @@
+import cluster from 'node:cluster';
 import * as Sentry from '@sentry/node';
 import { loadConfig } from './config.js';
 import { createApp } from './app.js';
 import { logger } from './utils/logger.js';
 import { disconnectPrisma, validateConnection } from './utils/prisma.js';
+import { closeCacheStore } from './utils/cache.js';
+import { closeParserPool } from './parsers/parserPool.js';
+import { closeProgressBuffer } from './services/progress.service.js';
+import { closeSessionBuffer } from './services/readingSessions.service.js';
+import { initTracing, closeTracing } from './utils/tracing.js';
+import { closeWindowCounter } from './utils/rateLimitStore.js';
+import { runPrimary, attachToPrimary } from './cluster.js';
 
 // Load configuration from environment
 const config = loadConfig();
 
-// Initialize Sentry (only if DSN is configured)
-if (config.SENTRY_DSN) {
-  Sentry.init({
-    dsn: config.SENTRY_DSN,
-    environment: config.NODE_ENV,
-    tracesSampleRate: config.NODE_ENV === 'production' ? 0.2 : 1.0,
-  });
-  logger.info('Sentry initialized');
-}
+/**
+ * Run the HTTP server in this process: the only process by default, or one
+ * of the workers in cluster mode (CLUSTER_WORKERS > 0, see cluster.ts).
+ */
+function startServer(): void {
+  // Initialize Sentry (only if DSN is configured)
+  if (config.SENTRY_DSN) {
+    Sentry.init({
+      dsn: config.SENTRY_DSN,
+      environment: config.NODE_ENV,
+      tracesSampleRate: config.NODE_ENV === 'production' ? 0.2 : 1.0,
+    });
+    logger.info('Sentry initialized');
+  }
+
+  initTracing(config.OTEL_EXPORTER_OTLP_ENDPOINT ? {
+    endpoint: config.OTEL_EXPORTER_OTLP_ENDPOINT,
+    serviceName: config.OTEL_SERVICE_NAME,
+    sampleRatio: config.OTEL_TRACES_SAMPLER_ARG,
+  } : null);
 
-const app = createApp();
+  const app = createApp();
 
-// Validate database connectivity before accepting traffic
-validateConnection()
-  .then(() => {
-    logger.info('Database connection verified');
-  })
-  .catch((err) => {
-    logger.fatal({ err }, 'Database connection failed — check DATABASE_URL and pool settings');
-    process.exit(1);
+  // Validate database connectivity before accepting traffic
+  validateConnection()
+    .then(() => {
+      logger.info('Database connection verified');
+    })
+    .catch((err) => {
+      logger.fatal({ err }, 'Database connection failed — check DATABASE_URL and pool settings');
+      process.exit(1);
+    });
+
+  const server = app.listen(config.PORT, () => {
+    logger.info(
+      { port: config.PORT, env: config.NODE_ENV, worker: cluster.worker?.id },
+      'Flipbook server started',
+    );
   });
 
-const server = app.listen(config.PORT, () => {
-  logger.info(
-    { port: config.PORT, env: config.NODE_ENV },
-    'Flipbook server started',
-  );
-});
+  // Graceful shutdown
+  let isShuttingDown = false;
 
-// Graceful shutdown
-let isShuttingDown = false;
+  async function shutdown(signal: string) {
+    if (isShuttingDown) return; // prevent double shutdown
+    isShuttingDown = true;
 
-async function shutdown(signal: string) {
-  if (isShuttingDown) return; // prevent double shutdown
-  isShuttingDown = true;
+    logger.info({ signal }, 'Shutting down gracefully...');
 
-  logger.info({ signal }, 'Shutting down gracefully...');
+    server.close(async () => {
+      // Queued progress/session writes need the database, so drain them first
+      await Promise.all([closeProgressBuffer(), closeSessionBuffer()]);
+      await Promise.all([disconnectPrisma(), closeCacheStore(), closeParserPool(), closeTracing(), closeWindowCounter()]);
+      logger.info('Server closed');
+      process.exit(0);
+    });
+    // Idle keep-alive connections would otherwise hold close() until the timeout
+    server.closeIdleConnections();
 
-  server.close(async () => {
-    await disconnectPrisma();
-    logger.info('Server closed');
-    process.exit(0);
-  });
+    // Force shutdown after 10 seconds.
+    // .unref() ensures the timer doesn't keep the event loop alive
+    // if all connections drain before the timeout.
+    setTimeout(() => {
+      logger.error('Forced shutdown after timeout');
+      process.exit(1);
+    }, 10_000).unref();
+  }
 
-  // Force shutdown after 10 seconds.
-  // .unref() ensures the timer doesn't keep the event loop alive
-  // if all connections drain before the timeout.
-  setTimeout(() => {
-    logger.error('Forced shutdown after timeout');
-    process.exit(1);
-  }, 10_000).unref();
-}
+  process.on('SIGTERM', () => shutdown('SIGTERM'));
+  process.on('SIGINT', () => shutdown('SIGINT'));
+  // Cluster worker: the primary asks for the same shutdown when recycling or stopping
+  attachToPrimary(shutdown);
 
-process.on('SIGTERM', () => shutdown('SIGTERM'));
-process.on('SIGINT', () => shutdown('SIGINT'));
+  // Catch unhandled errors so they are logged (not silently lost)
+  process.on('unhandledRejection', (reason) => {
+    logger.error({ err: reason }, 'Unhandled promise rejection');
+  });
+  process.on('uncaughtException', (err) => {
+    logger.fatal({ err }, 'Uncaught exception — shutting down');
+    shutdown('uncaughtException');
+  });
+}
 
-// Catch unhandled errors so they are logged (not silently lost)
-process.on('unhandledRejection', (reason) => {
-  logger.error({ err: reason }, 'Unhandled promise rejection');
-});
-process.on('uncaughtException', (err) => {
-  logger.fatal({ err }, 'Uncaught exception — shutting down');
-  shutdown('uncaughtException');
-});
+if (cluster.isPrimary && config.CLUSTER_WORKERS > 0) {
+  runPrimary(config);
+} else {
+  startServer();
+}
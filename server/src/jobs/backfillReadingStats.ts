@@ -0,0 +1,31 @@
+/**
+ * Rebuild reading statistics rollups from reading_sessions.
+ *
+ * The migration that adds the rollup tables backfills them once; run this
+ * afterwards if they ever drift (e.g. after restoring sessions from a backup):
+ *
+ *   npm run db:backfill-stats                           (development)
+ *   node dist/server/src/jobs/backfillReadingStats.js   (production image)
+ *
+ * Safe to run while the server is up: each batch of users is rebuilt in its
+ * own transaction and concurrent session inserts wait for it.
+ */
+import { loadConfig } from '../config.js';
+import { logger } from '../utils/logger.js';
+import { disconnectPrisma } from '../utils/prisma.js';
+import { rebuildReadingStats } from '../services/readingSessions.service.js';
+
+loadConfig();
+
+try {
+  const started = Date.now();
+  const { users } = await rebuildReadingStats({
+    onBatch: (done) => logger.info({ users: done }, 'Reading stats rebuilt'),
+  });
+  logger.info({ users, ms: Date.now() - started }, 'Reading stats backfill complete');
+} catch (err) {
+  logger.error({ err }, 'Reading stats backfill failed');
+  process.exitCode = 1;
+} finally {
+  await disconnectPrisma();
+}
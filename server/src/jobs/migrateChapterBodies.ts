@@ -0,0 +1,37 @@
+/**
+ * Move chapter HTML from chapters.html_content to object storage.
+ *
+ * Run once after switching CHAPTER_CONTENT_STORE to s3; until then old
+ * chapters keep being read from Postgres, so there is no downtime:
+ *
+ *   npm run db:migrate-chapter-bodies                    (development)
+ *   node dist/server/src/jobs/migrateChapterBodies.js    (production image)
+ *
+ * Safe to run while the server is up and safe to re-run: a row is only
+ * cleared after its object is stored, and only if nobody edited it meanwhile.
+ * Also indexes the illustrations of bodies that were already in storage
+ * before chapters.image_keys existed; run it before cleanup-s3-orphans.sh.
+ */
+import { loadConfig } from '../config.js';
+import { logger } from '../utils/logger.js';
+import { disconnectPrisma } from '../utils/prisma.js';
+import { indexStoredChapterImages, moveChapterBodiesToStorage } from '../utils/chapterBodies.js';
+
+const config = loadConfig();
+if (config.CHAPTER_CONTENT_STORE !== 's3') {
+  logger.warn('CHAPTER_CONTENT_STORE is not s3: new edits will keep writing bodies to Postgres');
+}
+
+try {
+  const started = Date.now();
+  const { moved, skipped } = await moveChapterBodiesToStorage({
+    onBatch: (done) => logger.info({ chapters: done }, 'Chapter bodies moved'),
+  });
+  const { indexed } = await indexStoredChapterImages();
+  logger.info({ moved, skipped, indexed, ms: Date.now() - started }, 'Chapter body migration complete');
+} catch (err) {
+  logger.error({ err }, 'Chapter body migration failed');
+  process.exitCode = 1;
+} finally {
+  await disconnectPrisma();
+}
@@ -6,6 +6,9 @@ import { getPrisma } from '../utils/prisma.js';
 import { verifyPassword } from '../utils/password.js';
 import { getConfig } from '../config.js';
 import { logger } from '../utils/logger.js';
+import { authAttemptsTotal } from './metrics.js';
+import { loadSessionUser, invalidateSessionUser } from '../utils/userCache.js';
+import { sessionIssuedAt } from '../utils/statelessSession.js';
 
 // Extend Express User type — passwordHash is never exposed in req.user
 declare global {
@@ -46,6 +49,17 @@ function toSessionUser(dbUser: {
   };
 }
 
+type VerifyDone = (err: unknown, user?: Express.User | false, info?: { message: string }) => void;
+
+/** Wrap a strategy's `done` so each attempt is counted by outcome */
+function countAttempt(method: 'local' | 'google', done: VerifyDone): VerifyDone {
+  return (err, user, info) => {
+    const result = err ? 'error' : user ? 'success' : 'failure';
+    authAttemptsTotal.inc({ method, result });
+    done(err, user, info);
+  };
+}
+
 export function configurePassport(): void {
   const config = getConfig();
   const prisma = getPrisma();
@@ -55,28 +69,22 @@ export function configurePassport(): void {
     done(null, user.id);
   });
 
-  // Deserialize user from session by ID — exclude passwordHash
-  passport.deserializeUser(async (id: string, done) => {
+  // Deserialize user from session by ID (cached briefly — runs on every request)
+  passport.deserializeUser(async (req: Request, id: string, done: (err: unknown, user?: Express.User | false) => void) => {
     try {
-      const user = await prisma.user.findUnique({
-        where: { id },
-        select: {
-          id: true,
-          email: true,
-          displayName: true,
-          avatarUrl: true,
-          username: true,
-          bio: true,
-          googleId: true,
-          passwordHash: true,
-        },
-      });
-      if (!user) {
+      const found = await loadSessionUser(id);
+      if (!found) {
+        done(null, false);
+        return;
+      }
+      // Stateless sessions cannot be deleted server-side; reject ones issued before a revocation
+      const issuedAt = sessionIssuedAt(req);
+      if (issuedAt !== undefined && found.sessionsRevokedAt !== null && issuedAt < found.sessionsRevokedAt) {
         done(null, false);
         return;
       }
-      const { passwordHash, ...safeUser } = user;
-      done(null, { ...safeUser, username: user.username, hasPassword: passwordHash !== null });
+      // A copy, so nothing downstream can modify the cached user
+      done(null, { ...found.user });
     } catch (err) {
       logger.error({ err, userId: id }, 'deserializeUser failed');
       done(err);
@@ -87,7 +95,8 @@ export function configurePassport(): void {
   passport.use(
     new LocalStrategy(
       { usernameField: 'email', passwordField: 'password' },
-      async (email, password, done) => {
+      async (email, password, verified) => {
+        const done = countAttempt('local', verified);
         try {
           const user = await prisma.user.findUnique({
             where: { email: email.toLowerCase() },
@@ -125,7 +134,8 @@ export function configurePassport(): void {
           callbackURL: config.GOOGLE_CALLBACK_URL,
           scope: ['profile', 'email'],
         },
-        async (_accessToken, _refreshToken, profile, done) => {
+        async (_accessToken, _refreshToken, profile, verified) => {
+          const done = countAttempt('google', verified as VerifyDone);
           try {
             const email = profile.emails?.[0]?.value;
             if (!email) {
@@ -161,7 +171,7 @@ export function configurePassport(): void {
                   { userId: user.id, email: email.toLowerCase(), googleId: profile.id },
                   'Google OAuth login rejected: email already registered with password',
                 );
-                done(null, false, { message: 'Unable to sign in with Google for this account.' } as any);
+                done(null, false, { message: 'Unable to sign in with Google for this account.' });
                 return;
               }
               user = await prisma.user.update({
@@ -172,6 +182,7 @@ export function configurePassport(): void {
                   displayName: user.displayName || profile.displayName,
                 },
               });
+              await invalidateSessionUser(user.id);
               done(null, toSessionUser(user));
               return;
             }
@@ -1,5 +1,6 @@
 import type { Request, Response, NextFunction } from 'express';
 import { verifyBookOwnership } from '../utils/ownership.js';
+import { withSpan } from '../utils/tracing.js';
 
 /**
  * Middleware that verifies the authenticated user owns the book specified by :bookId.
@@ -13,7 +14,7 @@ export async function requireBookOwnership(
   try {
     const bookId = req.params.bookId as string;
     const userId = req.user!.id;
-    await verifyBookOwnership(bookId, userId);
+    await withSpan('middleware requireBookOwnership', { 'book.id': bookId }, () => verifyBookOwnership(bookId, userId));
     next();
   } catch (err) {
     next(err);
@@ -1,17 +1,50 @@
-import { Registry, collectDefaultMetrics, Histogram, Counter, Gauge } from 'prom-client';
+import { performance } from 'node:perf_hooks';
+import cluster from 'node:cluster';
+import { Registry, AggregatorRegistry, collectDefaultMetrics, Histogram, Counter, Gauge } from 'prom-client';
 import type { Request, Response, NextFunction } from 'express';
 
-export const register = new Registry();
+// OpenMetrics — единственный формат, в котором Prometheus принимает exemplars
+export const register = new Registry(Registry.OPENMETRICS_CONTENT_TYPE);
 
-// Метрики Node.js по умолчанию (CPU, память, event loop, GC)
-collectDefaultMetrics({ register });
+// Кластерный режим: каждый воркер помечает свои серии меткой worker и отдаёт
+// их primary по IPC (prom-client AggregatorRegistry) — см. collectMetrics()
+if (cluster.isWorker) {
+  register.setDefaultLabels({ worker: String(cluster.worker?.id ?? process.pid) });
+  AggregatorRegistry.setRegistries([register]);
+}
+
+// Метрики Node.js по умолчанию (CPU, память, GC, heap по областям V8,
+// задержка event loop: nodejs_eventloop_lag_p50/p90/p99_seconds)
+collectDefaultMetrics({
+  register,
+  // Точность замера задержки event loop, мс (по умолчанию 10)
+  eventLoopMonitoringPrecision: 10,
+  // Паузы GC обычно меньше миллисекунды — стандартные корзины (от 1 мс) их не различают
+  gcDurationBuckets: [0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1],
+});
+
+// Доля времени, когда event loop был занят, с прошлого scrape (0–1)
+let lastEventLoopUtilization = performance.eventLoopUtilization();
+export const eventLoopUtilizationGauge = new Gauge({
+  name: 'nodejs_eventloop_utilization',
+  help: 'Fraction of time the event loop was busy since the previous scrape',
+  registers: [register],
+  collect() {
+    const current = performance.eventLoopUtilization();
+    this.set(performance.eventLoopUtilization(current, lastEventLoopUtilization).utilization);
+    lastEventLoopUtilization = current;
+  },
+});
 
 // HTTP-метрики
+// route — шаблон маршрута Express (/api/v1/books/:bookId/chapters), а не фактический путь
 export const httpRequestDuration = new Histogram({
   name: 'http_request_duration_seconds',
   help: 'Duration of HTTP requests in seconds',
   labelNames: ['method', 'route', 'status_code'] as const,
   buckets: [0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10],
+  // Exemplar с request_id связывает точку на графике с логами этого запроса
+  enableExemplars: true,
   registers: [register],
 });
 
@@ -29,10 +62,11 @@ export const httpRequestsInFlight = new Gauge({
 });
 
 // Бизнес-метрики
+// model: имя модели Prisma, 'raw' для $queryRaw/$executeRaw, 'session' для хранилища сессий
 export const dbQueryDuration = new Histogram({
   name: 'db_query_duration_seconds',
   help: 'Duration of database queries in seconds',
-  labelNames: ['operation'] as const,
+  labelNames: ['model', 'operation', 'result'] as const,
   buckets: [0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5],
   registers: [register],
 });
@@ -51,14 +85,142 @@ export const s3OperationsTotal = new Counter({
   registers: [register],
 });
 
+export const s3OperationDuration = new Histogram({
+  name: 's3_operation_duration_seconds',
+  help: 'Duration of S3 storage operations in seconds',
+  labelNames: ['operation', 'result'] as const,
+  buckets: [0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10],
+  registers: [register],
+});
+
+export const s3BytesTotal = new Counter({
+  name: 's3_bytes_total',
+  help: 'Bytes sent to (put) or reported by (get) S3 storage',
+  labelNames: ['operation'] as const,
+  registers: [register],
+});
+
+/** Источник числа активных сессий (задаётся вместе с хранилищем сессий) */
+let activeSessionsSource: (() => Promise<number>) | null = null;
+
+export function setActiveSessionsSource(source: (() => Promise<number>) | null): void {
+  activeSessionsSource = source;
+}
+
 export const activeSessionsGauge = new Gauge({
   name: 'active_sessions_total',
   help: 'Number of active user sessions (approximate)',
   registers: [register],
+  async collect() {
+    if (!activeSessionsSource) return;
+    try {
+      this.set(await activeSessionsSource());
+    } catch {
+      // Хранилище недоступно — оставляем последнее известное значение
+    }
+  },
+});
+
+export const contentCacheLookupsTotal = new Counter({
+  name: 'content_cache_lookups_total',
+  help: 'Chapter content cache lookups',
+  labelNames: ['result'] as const,
+  registers: [register],
+});
+
+export const contentCacheBytesGauge = new Gauge({
+  name: 'content_cache_bytes',
+  help: 'Bytes of chapter HTML currently held in the content cache',
+  registers: [register],
+});
+
+export const cacheLookupsTotal = new Counter({
+  name: 'cache_lookups_total',
+  help: 'Cache lookups by key namespace (public catalogue, session users)',
+  labelNames: ['namespace', 'result'] as const,
+  registers: [register],
+});
+
+// Ограничение частоты запросов (rate limiting)
+export const rateLimitRejectionsTotal = new Counter({
+  name: 'rate_limit_rejections_total',
+  help: 'Requests rejected with 429 by limiter',
+  labelNames: ['limiter'] as const,
+  registers: [register],
+});
+
+export const rateLimitStoreErrorsTotal = new Counter({
+  name: 'rate_limit_store_errors_total',
+  help: 'Rate limit counter failures (the request is let through)',
+  labelNames: ['backend'] as const,
+  registers: [register],
+});
+
+// Пул парсеров книг (worker_threads)
+export const parseQueueWaitSeconds = new Histogram({
+  name: 'book_parse_queue_wait_seconds',
+  help: 'Time a book upload waited for a free parser worker',
+  labelNames: ['format'] as const,
+  buckets: [0.01, 0.05, 0.1, 0.5, 1, 2.5, 5, 10, 30],
+  registers: [register],
+});
+
+export const parseDurationSeconds = new Histogram({
+  name: 'book_parse_duration_seconds',
+  help: 'Book parse time by format and outcome',
+  labelNames: ['format', 'result'] as const,
+  buckets: [0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30],
+  registers: [register],
+});
+
+export const parseRejectedTotal = new Counter({
+  name: 'book_parse_rejected_total',
+  help: 'Book uploads turned away because the parser queue was full',
+  registers: [register],
+});
+
+export const parseQueueDepthGauge = new Gauge({
+  name: 'book_parse_queue_depth',
+  help: 'Book uploads waiting for a free parser worker',
+  registers: [register],
+});
+
+// Буферы отложенной записи (прогресс и сессии чтения)
+export const writeBehindQueueDepth = new Gauge({
+  name: 'write_behind_queue_depth',
+  help: 'Rows waiting in a write-behind buffer',
+  labelNames: ['buffer'] as const,
+  registers: [register],
+});
+
+export const writeBehindFlushLagSeconds = new Histogram({
+  name: 'write_behind_flush_lag_seconds',
+  help: 'Time from accepting the oldest row of a batch to writing it',
+  labelNames: ['buffer'] as const,
+  buckets: [0.1, 0.5, 1, 2, 5, 10, 30, 60],
+  registers: [register],
+});
+
+export const writeBehindRowsTotal = new Counter({
+  name: 'write_behind_rows_total',
+  help: 'Rows handled by write-behind buffers, by outcome (written, retried, dropped)',
+  labelNames: ['buffer', 'result'] as const,
+  registers: [register],
 });
 
+export const traceSpansDroppedTotal = new Counter({
+  name: 'trace_spans_dropped_total',
+  help: 'Finished spans never exported, by reason (queue_full, export_failed)',
+  labelNames: ['reason'] as const,
+  registers: [register],
+});
+
+/** Label for requests no route handled (404s, static files) — keeps scanners from adding series */
+export const UNMATCHED_ROUTE = 'unmatched';
+
 /**
- * Нормализация пути роута для метрик (заменяем UUID/ID на :id)
+ * Нормализация пути роута для метрик (заменяем UUID/ID на :id).
+ * Страховка для параметров, которых нет в req.params (роутер без mergeParams).
  */
 function normalizeRoute(path: string): string {
   return path
@@ -66,6 +228,59 @@ function normalizeRoute(path: string): string {
     .replace(/\/\d+/g, '/:id');
 }
 
+function decodeSegment(segment: string): string {
+  try {
+    return decodeURIComponent(segment);
+  } catch {
+    return segment;
+  }
+}
+
+/**
+ * Шаблон маршрута: точка монтирования роутера (req.baseUrl уже с подставленными
+ * значениями — возвращаем на их место имена параметров) + путь совпавшего роута.
+ */
+export function routeTemplate(req: Request, routePath: string): string {
+  const names = new Map<string, string>();
+  for (const [name, value] of Object.entries(req.params ?? {})) {
+    if (typeof value === 'string' && value) names.set(value, name);
+  }
+  const base = req.baseUrl
+    .split('/')
+    .map((segment) => {
+      const name = names.get(decodeSegment(segment));
+      return name ? `:${name}` : segment;
+    })
+    .join('/');
+  const path = routePath === '/' && base ? '' : routePath;
+  return normalizeRoute(base + path) || '/';
+}
+
+const matchedRoutes = new WeakMap<Request, string>();
+
+/** Шаблон роута, обработавшего запрос (null — ни один роут не совпал) */
+export function matchedRoute(req: Request): string | null {
+  return matchedRoutes.get(req) ?? null;
+}
+
+/**
+ * Запомнить шаблон в момент, когда Express выбирает роут (присваивает req.route).
+ * К событию 'finish' req.baseUrl может уже смениться — например, если ошибка
+ * ушла из роутера в общий errorHandler.
+ */
+function captureRoute(req: Request): void {
+  let route: unknown;
+  Object.defineProperty(req, 'route', {
+    configurable: true,
+    enumerable: true,
+    get: () => route,
+    set(value: { path?: unknown } | undefined) {
+      route = value;
+      if (value && typeof value.path === 'string') matchedRoutes.set(req, routeTemplate(req, value.path));
+    },
+  });
+}
+
 /**
  * Middleware: замеряет длительность каждого HTTP-запроса
  */
@@ -77,20 +292,83 @@ export function metricsMiddleware(req: Request, res: Response, next: NextFunctio
   }
 
   httpRequestsInFlight.inc();
-  const end = httpRequestDuration.startTimer();
+  const start = process.hrtime.bigint();
+  captureRoute(req);
 
   res.on('finish', () => {
-    const route = normalizeRoute(req.path);
     const labels = {
       method: req.method,
-      route,
+      route: matchedRoute(req) ?? UNMATCHED_ROUTE,
       status_code: String(res.statusCode),
     };
 
-    end(labels);
+    httpRequestDuration.observe({
+      labels,
+      value: Number(process.hrtime.bigint() - start) / 1e9,
+      // req.id назначается позже этого middleware, но до ответа
+      ...(req.id && { exemplarLabels: { request_id: String(req.id) } }),
+    });
     httpRequestsTotal.inc(labels);
     httpRequestsInFlight.dec();
   });
 
   next();
 }
+
+// --- Отдача метрик (/api/metrics) ---
+
+/** IPC-сообщение воркера: запрос метрик всего кластера у primary */
+export const CLUSTER_METRICS_MESSAGE = 'flipbook:metrics';
+const CLUSTER_METRICS_TIMEOUT_MS = 5000;
+
+interface ClusterMetricsReply {
+  type: typeof CLUSTER_METRICS_MESSAGE;
+  id: number;
+  contentType?: string;
+  body?: string;
+  error?: string;
+}
+
+/** IPC-канал до primary (в воркере — сам process) */
+export interface ClusterChannel {
+  send(message: unknown): unknown;
+  on(event: 'message', listener: (message: unknown) => void): unknown;
+  off(event: 'message', listener: (message: unknown) => void): unknown;
+}
+
+let nextScrapeId = 1;
+
+/**
+ * Метрики для ответа на /api/metrics. В одиночном процессе — свой реестр;
+ * в воркере кластера — метрики всех воркеров, собранные primary (скрейп
+ * попадает в случайный воркер, а видеть нужно весь инстанс). Агрегированный
+ * вывод — в текстовом формате Prometheus, без exemplars.
+ */
+export async function collectMetrics(
+  primary: ClusterChannel | null = cluster.isWorker && process.send ? process : null,
+): Promise<{ contentType: string; body: string }> {
+  if (!primary) {
+    return { contentType: register.contentType, body: await register.metrics() };
+  }
+
+  const id = nextScrapeId++;
+  let onMessage: (message: unknown) => void = () => {};
+  try {
+    const reply = await new Promise<ClusterMetricsReply>((resolve, reject) => {
+      const timer = setTimeout(() => reject(new Error('Cluster metrics request timed out')), CLUSTER_METRICS_TIMEOUT_MS);
+      onMessage = (message) => {
+        const r = message as ClusterMetricsReply;
+        if (r?.type !== CLUSTER_METRICS_MESSAGE || r.id !== id) return;
+        clearTimeout(timer);
+        resolve(r);
+      };
+      primary.on('message', onMessage);
+      primary.send({ type: CLUSTER_METRICS_MESSAGE, id });
+    });
+    if (reply.error || reply.body === undefined) throw new Error(reply.error ?? 'Empty cluster metrics reply');
+    return { contentType: reply.contentType ?? Registry.PROMETHEUS_CONTENT_TYPE, body: reply.body };
+  } finally {
+    primary.off('message', onMessage);
+  }
+}
+
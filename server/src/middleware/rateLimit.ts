@@ -1,48 +1,53 @@
 import type { RequestHandler } from 'express';
 import rateLimit from 'express-rate-limit';
 import { getConfig } from '../config.js';
+import { SlidingWindowStore, getWindowCounter } from '../utils/rateLimitStore.js';
+import { rateLimitRejectionsTotal } from './metrics.js';
 
 /** No-op middleware — skips rate limiting in test environment */
 const noopLimiter: RequestHandler = (_req, _res, next) => next();
 
 /**
- * General rate limiter for API endpoints.
+ * Build a limiter whose counters live in the RATE_LIMIT_STORE backend
+ * (shared by all replicas unless it is `memory`), keyed under `rl:<name>:`.
  */
-export function createRateLimiter() {
-  if (process.env.NODE_ENV === 'test') return noopLimiter;
-
-  const config = getConfig();
-
+function createLimiter(name: string, windowMs: number, max: number, message: string) {
   return rateLimit({
-    windowMs: config.RATE_LIMIT_WINDOW,
-    max: config.RATE_LIMIT_MAX,
+    windowMs,
+    max,
     standardHeaders: true,
     legacyHeaders: false,
+    store: new SlidingWindowStore(`rl:${name}:`, getWindowCounter()),
     message: {
       error: 'TooManyRequests',
-      message: 'Too many requests, please try again later',
+      message,
       statusCode: 429,
     },
+    handler: (_req, res, _next, options) => {
+      rateLimitRejectionsTotal.inc({ limiter: name });
+      res.status(options.statusCode).send(options.message);
+    },
   });
 }
 
+/**
+ * General rate limiter for API endpoints.
+ */
+export function createRateLimiter() {
+  if (process.env.NODE_ENV === 'test') return noopLimiter;
+
+  const config = getConfig();
+
+  return createLimiter('api', config.RATE_LIMIT_WINDOW, config.RATE_LIMIT_MAX, 'Too many requests, please try again later');
+}
+
 /**
  * Strict rate limiter for auth endpoints (5 req/min).
  */
 export function createAuthRateLimiter() {
   if (process.env.NODE_ENV === 'test') return noopLimiter;
 
-  return rateLimit({
-    windowMs: 60000,
-    max: 5,
-    standardHeaders: true,
-    legacyHeaders: false,
-    message: {
-      error: 'TooManyRequests',
-      message: 'Too many authentication attempts, please try again later',
-      statusCode: 429,
-    },
-  });
+  return createLimiter('auth', 60000, 5, 'Too many authentication attempts, please try again later');
 }
 
 /**
@@ -51,15 +56,5 @@ export function createAuthRateLimiter() {
 export function createPublicRateLimiter() {
   if (process.env.NODE_ENV === 'test') return noopLimiter;
 
-  return rateLimit({
-    windowMs: 60000,
-    max: 30,
-    standardHeaders: true,
-    legacyHeaders: false,
-    message: {
-      error: 'TooManyRequests',
-      message: 'Too many requests, please try again later',
-      statusCode: 429,
-    },
-  });
+  return createLimiter('public', 60000, 30, 'Too many requests, please try again later');
 }
@@ -26,10 +26,22 @@ export const MAX_DECOMPRESSED_SIZE = _MAX_DECOMPRESSED_SIZE;
  */
 export const validateZipSize: (zip: JSZip) => Promise<void> = _validateZipSize;
 
+/**
+ * Минимальная часть API JSZip, нужная findZipFile.
+ * Реализуется и JSZip, и ZipFileReader (чтение архива с диска).
+ */
+export interface ZipLike<E extends { dir: boolean }> {
+  file(path: string): E | null;
+  files: Record<string, E>;
+}
+
 /**
  * Поиск файла в ZIP-архиве с несколькими fallback-стратегиями.
  */
-export const findZipFile: (zip: JSZip, path: string) => JSZip.JSZipObject | null = _findZipFile;
+export const findZipFile = _findZipFile as unknown as <E extends { dir: boolean }>(
+  zip: ZipLike<E>,
+  path: string,
+) => E | null;
 
 /**
  * Создать объект главы в стандартном формате.
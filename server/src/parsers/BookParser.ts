@@ -5,10 +5,11 @@
  * Определяет формат файла и делегирует парсинг соответствующему модулю.
  */
 
+import { readFile } from 'node:fs/promises';
 import { parseTxt } from './TxtParser.js';
 import { parseDoc } from './DocParser.js';
 import { parseDocx } from './DocxParser.js';
-import { parseEpub } from './EpubParser.js';
+import { parseEpub, parseEpubFile } from './EpubParser.js';
 import { parseFb2 } from './Fb2Parser.js';
 import { AppError } from '../middleware/errorHandler.js';
 import type { ParsedBook } from './parserUtils.js';
@@ -20,9 +21,9 @@ export type { ParsedBook, ParsedChapter } from './parserUtils.js';
  * Оборачивает каждый парсер в try/catch — при ошибке выбрасывает AppError(422).
  */
 export async function parseBook(buffer: Buffer, filename: string): Promise<ParsedBook> {
-  const ext = filename.substring(filename.lastIndexOf('.')).toLowerCase();
+  const ext = extensionOf(filename);
 
-  try {
+  return wrapParseErrors(ext, async () => {
     switch (ext) {
       case '.epub': return await parseEpub(buffer, filename);
       case '.fb2':  return parseFb2(buffer, filename);
@@ -30,8 +31,34 @@ export async function parseBook(buffer: Buffer, filename: string): Promise<Parse
       case '.docx': return await parseDocx(buffer, filename);
       case '.doc':  return parseDoc(buffer, filename);
       default:
-        throw new AppError(400, `Неподдерживаемый формат: ${ext}. Допустимы .epub, .fb2, .docx, .doc, .txt`);
+        throw unsupportedFormat(ext);
     }
+  });
+}
+
+/**
+ * Распарсить файл с диска.
+ * EPUB читается из архива по записям, без загрузки файла в память;
+ * остальные форматы читаются целиком и передаются в parseBook.
+ */
+export async function parseBookFromFile(path: string, filename: string): Promise<ParsedBook> {
+  const ext = extensionOf(filename);
+  if (ext !== '.epub') return parseBook(await readFile(path), filename);
+
+  return wrapParseErrors(ext, () => parseEpubFile(path, filename));
+}
+
+function extensionOf(filename: string): string {
+  return filename.substring(filename.lastIndexOf('.')).toLowerCase();
+}
+
+function unsupportedFormat(ext: string): AppError {
+  return new AppError(400, `Неподдерживаемый формат: ${ext}. Допустимы .epub, .fb2, .docx, .doc, .txt`);
+}
+
+async function wrapParseErrors(ext: string, parse: () => Promise<ParsedBook>): Promise<ParsedBook> {
+  try {
+    return await parse();
   } catch (err) {
     if (err instanceof AppError) throw err;
     const message = err instanceof Error ? err.message : 'Неизвестная ошибка';
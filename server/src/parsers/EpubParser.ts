@@ -3,25 +3,80 @@
  *
  * Парсер EPUB-файлов.
  * Извлекает главы, метаданные и изображения из EPUB-архива.
+ * Главы читаются по одному документу spine, изображения — по требованию.
  */
 
 import JSZip from 'jszip';
 import { JSDOM } from 'jsdom';
 import { escapeHtml, parseXml, parseHtml, getTextContent, type ParsedBook, type ParsedChapter } from './parserUtils.js';
-import { validateZipSize, findZipFile } from './BaseParser.js';
+import { validateZipSize, findZipFile, type ZipLike } from './BaseParser.js';
+import { ZipFileReader } from './ZipFileReader.js';
 
 const { Node: NodeType } = new JSDOM('').window;
 const TEXT_NODE = NodeType.TEXT_NODE;
 const ELEMENT_NODE = NodeType.ELEMENT_NODE;
 
+/** Запись архива: общий знаменатель JSZipObject и ZipFileEntry */
+interface EpubEntry {
+  dir: boolean;
+  name: string;
+  async(type: 'string' | 'base64'): Promise<string>;
+}
+
+type EpubArchive = ZipLike<EpubEntry>;
+
+interface ManifestItem {
+  href: string;
+  mediaType: string;
+}
+
+/**
+ * Распарсить EPUB из буфера в памяти.
+ */
 export async function parseEpub(buffer: Buffer, filename: string): Promise<ParsedBook> {
   const zip = await JSZip.loadAsync(buffer);
 
   // Защита от ZIP-бомб
   await validateZipSize(zip);
 
+  return collectEpub(zip, filename);
+}
+
+/**
+ * Распарсить EPUB прямо с диска (временный файл multer).
+ * Архив не загружается в память целиком: записи распаковываются по одной,
+ * главы обрабатываются по мере чтения spine, а изображения читаются только
+ * когда на них ссылается текущая глава.
+ */
+export async function parseEpubFile(path: string, filename: string): Promise<ParsedBook> {
+  // ZipFileReader проверяет размер распакованных данных при открытии
+  const reader = await ZipFileReader.open(path);
+  try {
+    return await collectEpub(reader, filename);
+  } finally {
+    await reader.close();
+  }
+}
+
+async function collectEpub(archive: EpubArchive, filename: string): Promise<ParsedBook> {
+  const { title, author, chapters } = await openEpub(archive, filename);
+  const result: ParsedChapter[] = [];
+  for await (const chapter of chapters) result.push(chapter);
+
+  if (result.length === 0) {
+    throw new Error('Не удалось извлечь текст из EPUB');
+  }
+
+  return { title, author, chapters: result };
+}
+
+/**
+ * Прочитать метаданные EPUB и вернуть генератор глав.
+ * Генератор держит в памяти только текущий документ spine и его изображения.
+ */
+async function openEpub(archive: EpubArchive, filename: string) {
   // 1. Найти путь к content.opf через META-INF/container.xml
-  const containerXml = await readZipFile(zip, 'META-INF/container.xml');
+  const containerXml = await readZipFile(archive, 'META-INF/container.xml');
   const containerDoc = parseXml(containerXml);
   const rootfileEl = containerDoc.querySelector('rootfile');
   if (!rootfileEl) {
@@ -31,14 +86,14 @@ export async function parseEpub(buffer: Buffer, filename: string): Promise<Parse
   const opfDir = opfPath.includes('/') ? opfPath.substring(0, opfPath.lastIndexOf('/') + 1) : '';
 
   // 2. Парсинг content.opf
-  const opfXml = await readZipFile(zip, opfPath);
+  const opfXml = await readZipFile(archive, opfPath);
   const opfDoc = parseXml(opfXml);
 
   const title = getTextContent(opfDoc, 'dc\\:title, title') || filename.replace(/\.epub$/i, '');
   const author = getTextContent(opfDoc, 'dc\\:creator, creator') || '';
 
   // Manifest
-  const manifest = new Map<string, { href: string; mediaType: string }>();
+  const manifest = new Map<string, ManifestItem>();
   for (const item of opfDoc.querySelectorAll('manifest > item')) {
     manifest.set(item.getAttribute('id')!, {
       href: item.getAttribute('href')!,
@@ -47,65 +102,60 @@ export async function parseEpub(buffer: Buffer, filename: string): Promise<Parse
   }
 
   // Spine
-  const spineItems: { href: string; mediaType: string }[] = [];
+  const spineItems: ManifestItem[] = [];
   for (const itemref of opfDoc.querySelectorAll('spine > itemref')) {
     const idref = itemref.getAttribute('idref');
     const entry = manifest.get(idref!);
     if (entry) spineItems.push(entry);
   }
 
-  // 3. Загрузить изображения
-  const imageMap = await loadEpubImages(zip, opfDir, manifest);
+  // 3. Индекс изображений: только пути, данные читаются по требованию
+  const imageIndex = indexEpubImages(archive, opfDir, manifest);
+
+  return { title, author, chapters: readEpubChapters(archive, opfDir, spineItems, imageIndex) };
+}
 
-  // 4. Загрузить контент глав
-  const rawChapters: { html: string; dir: string }[] = [];
+/**
+ * 4–5. Загрузить документы spine по одному и разделить их на главы.
+ */
+async function* readEpubChapters(
+  archive: EpubArchive,
+  opfDir: string,
+  spineItems: ManifestItem[],
+  imageIndex: Map<string, EpubImage>,
+): AsyncGenerator<ParsedChapter> {
   const loadedPaths = new Set<string>();
+  let chapterIndex = 0;
+
   for (const item of spineItems) {
     if (!item.mediaType?.includes('html') && !item.mediaType?.includes('xml')) continue;
     const href = item.href.split('#')[0];
     const filePath = resolveEpubHref(opfDir, href);
     if (loadedPaths.has(filePath)) continue;
     loadedPaths.add(filePath);
+
+    let html: string;
     try {
-      const html = await readZipFile(zip, filePath);
-      const chapterDir = filePath.includes('/') ? filePath.substring(0, filePath.lastIndexOf('/') + 1) : '';
-      rawChapters.push({ html, dir: chapterDir });
+      html = await readZipFile(archive, filePath);
     } catch {
       continue;
     }
-  }
-
-  // 5. Разделить на главы
-  const chapters = splitEpubChapters(rawChapters, imageMap);
-
-  if (chapters.length === 0) {
-    const allContent = rawChapters
-      .map(({ html, dir }) => {
-        const doc = parseHtml(html);
-        const body = doc.body || doc.documentElement;
-        return extractElements(body, imageMap, dir);
-      })
-      .filter(c => c.trim())
-      .join('\n');
+    const dir = filePath.includes('/') ? filePath.substring(0, filePath.lastIndexOf('/') + 1) : '';
+    const doc = parseHtml(html);
+    const body = doc.body || doc.documentElement;
+    const imageMap = await loadChapterImages(body, imageIndex, dir);
 
-    if (!allContent.trim()) {
-      throw new Error('Не удалось извлечь текст из EPUB');
+    for (const chapter of splitEpubChapter(body, imageMap, dir, chapterIndex)) {
+      chapterIndex++;
+      yield chapter;
     }
-
-    chapters.push({
-      id: 'chapter_1',
-      title: title || 'Глава 1',
-      html: `<article>\n<h2>${escapeHtml(title || 'Глава 1')}</h2>\n${allContent}\n</article>`,
-    });
   }
-
-  return { title, author, chapters };
 }
 
 // --- ZIP-утилиты ---
 
-async function readZipFile(zip: JSZip, path: string): Promise<string> {
-  const file = findZipFile(zip, path);
+async function readZipFile(archive: EpubArchive, path: string): Promise<string> {
+  const file = findZipFile(archive, path);
   if (!file) {
     throw new Error(`Файл не найден в архиве: ${path}`);
   }
@@ -114,77 +164,112 @@ async function readZipFile(zip: JSZip, path: string): Promise<string> {
 
 // --- Изображения ---
 
-async function loadEpubImages(
-  zip: JSZip,
+interface EpubImage {
+  file: EpubEntry;
+  mediaType: string;
+}
+
+/**
+ * Построить индекс изображений манифеста по всем вариантам написания пути
+ * (как в href, URL-декодированный, по имени файла). Сами данные не читаются.
+ */
+function indexEpubImages(
+  archive: EpubArchive,
   opfDir: string,
-  manifest: Map<string, { href: string; mediaType: string }>,
-): Promise<Map<string, string>> {
-  const imageMap = new Map<string, string>();
+  manifest: Map<string, ManifestItem>,
+): Map<string, EpubImage> {
+  const imageIndex = new Map<string, EpubImage>();
 
   for (const [, entry] of manifest) {
     if (!entry.mediaType?.startsWith('image/')) continue;
     const imgPath = resolveEpubHref(opfDir, entry.href);
-    const imgFile = findZipFile(zip, imgPath);
+    const imgFile = findZipFile(archive, imgPath);
     if (!imgFile) continue;
 
-    const imgData = await imgFile.async('base64');
-    const dataUrl = `data:${entry.mediaType};base64,${imgData}`;
-
-    imageMap.set(imgFile.name, dataUrl);
-    imageMap.set(imgPath, dataUrl);
-    imageMap.set(entry.href, dataUrl);
+    const image = { file: imgFile, mediaType: entry.mediaType };
+    imageIndex.set(imgFile.name, image);
+    imageIndex.set(imgPath, image);
+    imageIndex.set(entry.href, image);
     try {
       const decoded = decodeURIComponent(entry.href);
-      if (decoded !== entry.href) imageMap.set(decoded, dataUrl);
+      if (decoded !== entry.href) imageIndex.set(decoded, image);
     } catch { /* */ }
     const basename = entry.href.split('/').pop();
     if (basename) {
-      imageMap.set(basename, dataUrl);
+      imageIndex.set(basename, image);
       try {
         const decodedBasename = decodeURIComponent(basename);
-        if (decodedBasename !== basename) imageMap.set(decodedBasename, dataUrl);
+        if (decodedBasename !== basename) imageIndex.set(decodedBasename, image);
       } catch { /* */ }
     }
   }
 
+  return imageIndex;
+}
+
+/**
+ * Прочитать изображения, на которые ссылается глава, в data URL.
+ * Ключ — атрибут src как он записан в документе.
+ */
+async function loadChapterImages(
+  body: Element,
+  imageIndex: Map<string, EpubImage>,
+  dir: string,
+): Promise<Map<string, string>> {
+  const imageMap = new Map<string, string>();
+  const loaded = new Map<EpubImage, string>();
+
+  for (const img of body.querySelectorAll('img')) {
+    const src = img.getAttribute('src') || img.getAttribute('xlink:href') || '';
+    if (!src || imageMap.has(src)) continue;
+    const image = resolveImage(src, imageIndex, dir);
+    if (!image) continue;
+
+    let dataUrl = loaded.get(image);
+    if (!dataUrl) {
+      dataUrl = `data:${image.mediaType};base64,${await image.file.async('base64')}`;
+      loaded.set(image, dataUrl);
+    }
+    imageMap.set(src, dataUrl);
+  }
+
   return imageMap;
 }
 
 // --- Разделение на главы ---
 
-function splitEpubChapters(rawChapters: { html: string; dir: string }[], imageMap: Map<string, string>): ParsedChapter[] {
+/**
+ * Превратить один документ spine в главы (одну или несколько — по заголовкам).
+ * `offset` — число глав, выпущенных до этого документа.
+ */
+function splitEpubChapter(body: Element, imageMap: Map<string, string>, dir: string, offset: number): ParsedChapter[] {
   const result: ParsedChapter[] = [];
-  let chapterIndex = 0;
-
-  for (const { html, dir } of rawChapters) {
-    const doc = parseHtml(html);
-    const body = doc.body || doc.documentElement;
+  let chapterIndex = offset;
 
-    const elements = extractElements(body, imageMap, dir);
-    if (elements.trim().length === 0) continue;
+  const elements = extractElements(body, imageMap, dir);
+  if (elements.trim().length === 0) return result;
 
-    const subChapters = splitByHeadings(body, imageMap, dir);
+  const subChapters = splitByHeadings(body, imageMap, dir);
 
-    if (subChapters.length > 1) {
-      for (const sub of subChapters) {
-        chapterIndex++;
-        result.push({
-          id: `chapter_${chapterIndex}`,
-          title: sub.title || `Глава ${chapterIndex}`,
-          html: `<article>\n<h2>${escapeHtml(sub.title || `Глава ${chapterIndex}`)}</h2>\n${sub.content}\n</article>`,
-        });
-      }
-    } else {
+  if (subChapters.length > 1) {
+    for (const sub of subChapters) {
       chapterIndex++;
-      const heading = body.querySelector('h1, h2, h3');
-      const chTitle = heading?.textContent?.trim() || `Глава ${chapterIndex}`;
-
       result.push({
         id: `chapter_${chapterIndex}`,
-        title: chTitle,
-        html: `<article>\n${elements}\n</article>`,
+        title: sub.title || `Глава ${chapterIndex}`,
+        html: `<article>\n<h2>${escapeHtml(sub.title || `Глава ${chapterIndex}`)}</h2>\n${sub.content}\n</article>`,
       });
     }
+  } else {
+    chapterIndex++;
+    const heading = body.querySelector('h1, h2, h3');
+    const chTitle = heading?.textContent?.trim() || `Глава ${chapterIndex}`;
+
+    result.push({
+      id: `chapter_${chapterIndex}`,
+      title: chTitle,
+      html: `<article>\n${elements}\n</article>`,
+    });
   }
 
   return result;
@@ -334,7 +419,7 @@ function convertImage(imgEl: Element, imageMap: Map<string, string>, dir: string
 
 // --- Резолвинг путей ---
 
-function resolveImage(src: string, imageMap: Map<string, string>, dir: string): string | null {
+function resolveImage<T>(src: string, imageMap: Map<string, T>, dir: string): T | null {
   if (imageMap.has(src)) return imageMap.get(src)!;
 
   try {
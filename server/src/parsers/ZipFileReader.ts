@@ -0,0 +1,196 @@
+/**
+ * ZipFileReader
+ *
+ * Чтение ZIP-архива напрямую с диска, по одной записи за раз.
+ * В отличие от JSZip.loadAsync, не держит в памяти ни весь файл, ни
+ * распакованные записи: читается только центральный каталог, а каждая
+ * запись распаковывается потоково по запросу и сразу отдаётся вызывающему.
+ *
+ * Интерфейс (`files`, `file()`, `entry.async()`) совместим с той частью JSZip,
+ * которую используют парсеры, поэтому работает с findZipFile.
+ */
+
+import { open, type FileHandle } from 'node:fs/promises';
+import { createInflateRaw } from 'node:zlib';
+import { pipeline } from 'node:stream/promises';
+import { Writable } from 'node:stream';
+import { MAX_DECOMPRESSED_SIZE } from './BaseParser.js';
+
+const EOCD_SIGNATURE = 0x06054b50;
+const CENTRAL_SIGNATURE = 0x02014b50;
+const LOCAL_SIGNATURE = 0x04034b50;
+const EOCD_MIN_SIZE = 22;
+/** EOCD + максимальная длина комментария архива */
+const EOCD_SEARCH_SIZE = EOCD_MIN_SIZE + 0xffff;
+const ZIP64_MARKER = 0xffffffff;
+
+const METHOD_STORED = 0;
+const METHOD_DEFLATE = 8;
+
+type EntryOutput = 'string' | 'base64' | 'nodebuffer';
+
+/** Запись архива (метаданные из центрального каталога) */
+export class ZipFileEntry {
+  constructor(
+    private readonly reader: ZipFileReader,
+    public readonly name: string,
+    public readonly dir: boolean,
+    readonly method: number,
+    readonly flags: number,
+    readonly compressedSize: number,
+    readonly uncompressedSize: number,
+    readonly localHeaderOffset: number,
+  ) {}
+
+  async(type: 'string' | 'base64'): Promise<string>;
+  async(type: 'nodebuffer'): Promise<Buffer>;
+  async async(type: EntryOutput): Promise<string | Buffer> {
+    const data = await this.reader.read(this);
+    if (type === 'nodebuffer') return data;
+    return data.toString(type === 'base64' ? 'base64' : 'utf8');
+  }
+}
+
+export class ZipFileReader {
+  /** Записи по имени (как `JSZip.files`) */
+  readonly files: Record<string, ZipFileEntry> = Object.create(null);
+
+  private constructor(private readonly handle: FileHandle) {}
+
+  /**
+   * Открыть архив и прочитать центральный каталог.
+   * Проверяет заявленный суммарный размер распакованных данных (защита от ZIP-бомб);
+   * фактический размер каждой записи дополнительно ограничивается при распаковке.
+   */
+  static async open(path: string): Promise<ZipFileReader> {
+    const handle = await open(path, 'r');
+    const reader = new ZipFileReader(handle);
+    try {
+      await reader.readCentralDirectory();
+    } catch (err) {
+      await handle.close();
+      throw err;
+    }
+    return reader;
+  }
+
+  file(name: string): ZipFileEntry | null {
+    const entry = this.files[name];
+    return entry && !entry.dir ? entry : null;
+  }
+
+  async close(): Promise<void> {
+    await this.handle.close();
+  }
+
+  /** Распаковать одну запись; размер ограничен заявленным в каталоге */
+  async read(entry: ZipFileEntry): Promise<Buffer> {
+    if (entry.flags & 0x1) throw new Error(`Зашифрованные записи не поддерживаются: ${entry.name}`);
+    if (entry.method !== METHOD_STORED && entry.method !== METHOD_DEFLATE) {
+      throw new Error(`Неподдерживаемый метод сжатия (${entry.method}): ${entry.name}`);
+    }
+
+    const header = await this.readAt(entry.localHeaderOffset, 30);
+    if (header.readUInt32LE(0) !== LOCAL_SIGNATURE) {
+      throw new Error(`Повреждённый заголовок записи: ${entry.name}`);
+    }
+    const dataStart = entry.localHeaderOffset + 30 + header.readUInt16LE(26) + header.readUInt16LE(28);
+    if (entry.compressedSize === 0) return Buffer.alloc(0);
+
+    const source = this.handle.createReadStream({
+      start: dataStart,
+      end: dataStart + entry.compressedSize - 1,
+      autoClose: false,
+    });
+
+    const chunks: Buffer[] = [];
+    let size = 0;
+    const sink = new Writable({
+      write(chunk: Buffer, _enc, callback) {
+        size += chunk.length;
+        // Заголовок мог соврать о размере — не распаковываем больше заявленного
+        if (size > entry.uncompressedSize) {
+          callback(new Error(`Размер записи превышает заявленный: ${entry.name}`));
+          return;
+        }
+        chunks.push(chunk);
+        callback();
+      },
+    });
+
+    if (entry.method === METHOD_DEFLATE) {
+      await pipeline(source, createInflateRaw(), sink);
+    } else {
+      await pipeline(source, sink);
+    }
+    return Buffer.concat(chunks, size);
+  }
+
+  private async readAt(position: number, length: number): Promise<Buffer> {
+    const buffer = Buffer.alloc(length);
+    const { bytesRead } = await this.handle.read(buffer, 0, length, position);
+    if (bytesRead < length) throw new Error('Неожиданный конец ZIP-архива');
+    return buffer;
+  }
+
+  private async readCentralDirectory(): Promise<void> {
+    const { size: fileSize } = await this.handle.stat();
+    if (fileSize < EOCD_MIN_SIZE) throw new Error('Файл не является ZIP-архивом');
+
+    const tailSize = Math.min(fileSize, EOCD_SEARCH_SIZE);
+    const tail = await this.readAt(fileSize - tailSize, tailSize);
+    let eocd = -1;
+    for (let i = tail.length - EOCD_MIN_SIZE; i >= 0; i--) {
+      if (tail.readUInt32LE(i) === EOCD_SIGNATURE) {
+        eocd = i;
+        break;
+      }
+    }
+    if (eocd === -1) throw new Error('Файл не является ZIP-архивом');
+
+    const entryCount = tail.readUInt16LE(eocd + 10);
+    const cdSize = tail.readUInt32LE(eocd + 12);
+    const cdOffset = tail.readUInt32LE(eocd + 16);
+    if (cdSize === ZIP64_MARKER || cdOffset === ZIP64_MARKER || entryCount === 0xffff) {
+      throw new Error('ZIP64-архивы не поддерживаются');
+    }
+    if (cdOffset + cdSize > fileSize) throw new Error('Повреждённый каталог ZIP-архива');
+
+    const cd = await this.readAt(cdOffset, cdSize);
+    let totalSize = 0;
+    let pos = 0;
+    for (let i = 0; i < entryCount; i++) {
+      if (pos + 46 > cd.length || cd.readUInt32LE(pos) !== CENTRAL_SIGNATURE) {
+        throw new Error('Повреждённый каталог ZIP-архива');
+      }
+      const flags = cd.readUInt16LE(pos + 8);
+      const method = cd.readUInt16LE(pos + 10);
+      const compressedSize = cd.readUInt32LE(pos + 20);
+      const uncompressedSize = cd.readUInt32LE(pos + 24);
+      const nameLength = cd.readUInt16LE(pos + 28);
+      const extraLength = cd.readUInt16LE(pos + 30);
+      const commentLength = cd.readUInt16LE(pos + 32);
+      const localHeaderOffset = cd.readUInt32LE(pos + 42);
+      if (compressedSize === ZIP64_MARKER || uncompressedSize === ZIP64_MARKER || localHeaderOffset === ZIP64_MARKER) {
+        throw new Error('ZIP64-архивы не поддерживаются');
+      }
+
+      // Бит 11 — имя в UTF-8; иначе CP437, для ASCII-имён это одно и то же
+      const nameBytes = cd.subarray(pos + 46, pos + 46 + nameLength);
+      const name = nameBytes.toString(flags & 0x800 ? 'utf8' : 'latin1');
+      pos += 46 + nameLength + extraLength + commentLength;
+
+      totalSize += uncompressedSize;
+      if (totalSize > MAX_DECOMPRESSED_SIZE) {
+        throw new Error(
+          `Распакованный размер архива превышает лимит (${Math.round(MAX_DECOMPRESSED_SIZE / 1024 / 1024)} МБ). ` +
+          `Возможно, файл повреждён.`,
+        );
+      }
+
+      this.files[name] = new ZipFileEntry(
+        this, name, name.endsWith('/'), method, flags, compressedSize, uncompressedSize, localHeaderOffset,
+      );
+    }
+  }
+}
@@ -0,0 +1,27 @@
+/**
+ * parseWorker
+ *
+ * Точка входа worker-потока пула парсеров (см. parserPool.ts).
+ * Парсит загруженный файл с диска вне основного event loop.
+ */
+
+import { parentPort } from 'node:worker_threads';
+import { parseBookFromFile } from './BookParser.js';
+import { AppError } from '../middleware/errorHandler.js';
+import type { ParseJob } from './parserPool.js';
+
+if (!parentPort) throw new Error('parseWorker must run in a worker thread');
+const port = parentPort;
+
+port.on('message', async ({ id, job }: { id: number; job: ParseJob }) => {
+  try {
+    port.postMessage({ id, ok: true, value: await parseBookFromFile(job.path, job.filename) });
+  } catch (err) {
+    const error = err instanceof AppError
+      ? { message: err.message, statusCode: err.statusCode, code: err.code }
+      : { message: err instanceof Error ? err.message : 'Неизвестная ошибка' };
+    port.postMessage({ id, ok: false, error });
+  }
+});
+
+port.postMessage({ ready: true });
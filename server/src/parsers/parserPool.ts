@@ -0,0 +1,147 @@
+/**
+ * parserPool
+ *
+ * Запускает парсинг книг в пуле worker-потоков, чтобы JSDOM/JSZip не
+ * блокировали основной event loop. Дедлайн реальный: по истечении времени
+ * worker завершается (terminate), а не просто отклоняется промис.
+ * При переполненной очереди загрузка отклоняется с 503.
+ *
+ * Иллюстрации переносятся в хранилище уже после парсинга, в основном потоке:
+ * это сетевой I/O, а не работа парсера, и прерванный по дедлайну worker
+ * оставлял бы в бакете недогруженные наборы картинок.
+ *
+ * PARSE_WORKERS=0 — парсинг в основном потоке (тесты, отладка).
+ */
+
+import os from 'node:os';
+import path from 'node:path';
+import { fileURLToPath } from 'node:url';
+import { getConfig } from '../config.js';
+import { AppError } from '../middleware/errorHandler.js';
+import {
+  parseQueueWaitSeconds,
+  parseDurationSeconds,
+  parseRejectedTotal,
+  parseQueueDepthGauge,
+} from '../middleware/metrics.js';
+import {
+  WorkerPool,
+  PoolBusyError,
+  PoolTimeoutError,
+  WorkerJobError,
+} from '../utils/workerPool.js';
+import { parseBookFromFile } from './BookParser.js';
+import { ingestBookImages } from '../services/bookImages.service.js';
+import type { ParsedBook } from './parserUtils.js';
+
+/** Максимальное время парсинга одного файла (мс) */
+export const PARSE_TIMEOUT_MS = 30_000;
+
+/** Задание для worker-а: путь к временному файлу загрузки и исходное имя */
+export interface ParseJob {
+  path: string;
+  filename: string;
+}
+
+const FORMATS = new Set(['epub', 'fb2', 'txt', 'docx', 'doc']);
+
+function formatLabel(filename: string): string {
+  const ext = path.extname(filename).slice(1).toLowerCase();
+  return FORMATS.has(ext) ? ext : 'other';
+}
+
+function timeoutError(): AppError {
+  return new AppError(422, `Парсинг файла превысил лимит времени (${PARSE_TIMEOUT_MS / 1000} с)`, 'PARSE_TIMEOUT');
+}
+
+let pool: WorkerPool<ParseJob, ParsedBook> | null = null;
+
+function getPool(): WorkerPool<ParseJob, ParsedBook> {
+  if (pool) return pool;
+  const config = getConfig();
+  // Под tsx (dev) модуль — .ts, в сборке — .js; worker должен совпадать
+  const ext = path.extname(fileURLToPath(import.meta.url));
+  pool = new WorkerPool<ParseJob, ParsedBook>({
+    script: new URL(`./parseWorker${ext}`, import.meta.url),
+    size: config.PARSE_WORKERS ?? Math.max(1, Math.min(4, os.cpus().length - 1)),
+    maxQueue: config.PARSE_QUEUE_MAX,
+    timeoutMs: PARSE_TIMEOUT_MS,
+  });
+  return pool;
+}
+
+/**
+ * Распарсить загруженный файл книги.
+ * Ошибки приводятся к AppError: 422 (ошибка/таймаут парсинга),
+ * 400 (неподдерживаемый формат), 503 (очередь парсеров переполнена).
+ */
+export async function parseBookFile(filePath: string, filename: string): Promise<ParsedBook> {
+  return ingestBookImages(await parseWithinDeadline(filePath, filename));
+}
+
+/** Парсинг с дедлайном: в пуле worker-ов или, при PARSE_WORKERS=0, в основном потоке */
+async function parseWithinDeadline(filePath: string, filename: string): Promise<ParsedBook> {
+  const format = formatLabel(filename);
+  // Время парсинга считается с момента, когда worker взял задание
+  let startedAt = process.hrtime.bigint();
+  const observe = (result: string) => {
+    const seconds = Number(process.hrtime.bigint() - startedAt) / 1e9;
+    parseDurationSeconds.observe({ format, result }, seconds);
+  };
+
+  if (getConfig().PARSE_WORKERS === 0) {
+    try {
+      const book = await withTimeout(parseBookFromFile(filePath, filename), PARSE_TIMEOUT_MS);
+      observe('ok');
+      return book;
+    } catch (err) {
+      observe('error');
+      throw err;
+    }
+  }
+
+  const workers = getPool();
+  let started = false;
+  try {
+    const pending = workers.run({ path: filePath, filename }, (waitMs) => {
+      started = true;
+      startedAt = process.hrtime.bigint();
+      parseQueueWaitSeconds.observe({ format }, waitMs / 1000);
+      parseQueueDepthGauge.set(workers.queued);
+    });
+    parseQueueDepthGauge.set(workers.queued);
+    const book = await pending;
+    observe('ok');
+    return book;
+  } catch (err) {
+    if (err instanceof PoolBusyError) {
+      parseRejectedTotal.inc();
+      throw new AppError(503, 'Сервер перегружен обработкой книг, повторите попытку позже', 'PARSER_BUSY');
+    }
+    if (started) observe(err instanceof PoolTimeoutError ? 'timeout' : 'error');
+    if (err instanceof PoolTimeoutError) throw timeoutError();
+    if (err instanceof WorkerJobError) {
+      throw new AppError(err.statusCode ?? 422, err.message, err.code ?? 'PARSE_ERROR');
+    }
+    throw err;
+  }
+}
+
+/**
+ * Ограничить ожидание промиса по времени (режим без worker-ов:
+ * остановить парсинг в основном потоке нельзя, только перестать ждать).
+ */
+function withTimeout<T>(promise: Promise<T>, ms: number): Promise<T> {
+  let timer: ReturnType<typeof setTimeout>;
+  const timeout = new Promise<never>((_, reject) => {
+    timer = setTimeout(() => reject(timeoutError()), ms);
+  });
+  return Promise.race([promise, timeout]).finally(() => clearTimeout(timer));
+}
+
+/** Остановить worker-ы (graceful shutdown) */
+export async function closeParserPool(): Promise<void> {
+  const current = pool;
+  pool = null;
+  await current?.close();
+}
@@ -1,7 +1,13 @@
 import { Router } from 'express';
 import type { Request, Response, NextFunction } from 'express';
 import passport from 'passport';
-import { registerUser, formatUser, createPasswordResetToken, resetPasswordWithToken } from '../services/auth.service.js';
+import {
+  registerUser,
+  formatUser,
+  createPasswordResetToken,
+  resetPasswordWithToken,
+  revokeSessions,
+} from '../services/auth.service.js';
 import { isUsernameAvailable } from '../services/profile.service.js';
 import { requireAuth } from '../middleware/auth.js';
 import { validate } from '../middleware/validate.js';
@@ -12,6 +18,7 @@ import { registerSchema, loginSchema, forgotPasswordSchema, resetPasswordSchema
 import { asyncHandler } from '../utils/asyncHandler.js';
 import { ok, created } from '../utils/response.js';
 import { logger } from '../utils/logger.js';
+import { sessionIssuedAt } from '../utils/statelessSession.js';
 
 /**
  * Regenerate session and then log in — prevents session fixation attacks.
@@ -110,22 +117,30 @@ router.post(
 
 /**
  * POST /api/auth/logout — Destroy session
+ *
+ * A signed-cookie session (SESSION_STORE=cookie) is revoked as well, since
+ * dropping the cookie would not stop a copy of it — see revokeSessions().
  */
 router.post('/logout', (req: Request, res: Response, next: NextFunction) => {
-  req.logout((err) => {
-    if (err) {
-      next(err);
-      return;
-    }
-    req.session.destroy((destroyErr) => {
-      if (destroyErr) {
-        next(destroyErr);
+  const userId = req.isAuthenticated() ? req.user!.id : null;
+  const revoked = userId && sessionIssuedAt(req) !== undefined ? revokeSessions(userId) : Promise.resolve();
+
+  revoked.then(() => {
+    req.logout((err) => {
+      if (err) {
+        next(err);
         return;
       }
-      res.clearCookie('connect.sid');
-      ok(res, { message: 'Logged out successfully' });
+      req.session.destroy((destroyErr) => {
+        if (destroyErr) {
+          next(destroyErr);
+          return;
+        }
+        res.clearCookie('connect.sid');
+        ok(res, { message: 'Logged out successfully' });
+      });
     });
-  });
+  }, next);
 });
 
 /**
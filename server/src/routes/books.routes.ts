@@ -11,9 +11,10 @@ import {
 import { requireAuth } from '../middleware/auth.js';
 import { requireBookOwnership } from '../middleware/bookOwnership.js';
 import { validate, validateQuery } from '../middleware/validate.js';
-import { createBookSchema, updateBookSchema, reorderBooksSchema, listBooksQuerySchema } from '../schemas.js';
+import { createBookSchema, updateBookSchema, reorderBooksSchema, listBooksQuerySchema, readerBundleQuerySchema } from '../schemas.js';
+import { openReaderBundle, DEFAULT_BUNDLE_CHAPTERS } from '../services/bundle.service.js';
 import { asyncHandler } from '../utils/asyncHandler.js';
-import { ok, created } from '../utils/response.js';
+import { ok, created, streamNdjson } from '../utils/response.js';
 
 const router = Router();
 
@@ -27,8 +28,8 @@ router.get(
   '/',
   validateQuery(listBooksQuerySchema),
   asyncHandler(async (req, res) => {
-    const { limit, offset } = res.locals.query as { limit?: number; offset?: number };
-    const result = await getUserBooks(req.user!.id, { limit, offset });
+    const { limit, offset, cursor, withTotal } = res.locals.query as { limit?: number; offset?: number; cursor?: string; withTotal?: boolean };
+    const result = await getUserBooks(req.user!.id, { limit, offset, cursor, withTotal });
     ok(res, result);
   }),
 );
@@ -86,6 +87,26 @@ router.get(
   }),
 );
 
+/**
+ * GET /api/books/:bookId/bundle — Reader bundle (NDJSON stream)
+ * Book + progress + global settings/fonts + first N chapters' HTML.
+ * Query: ?chapters=3
+ */
+router.get(
+  '/:bookId/bundle',
+  requireBookOwnership,
+  validateQuery(readerBundleQuerySchema),
+  asyncHandler(async (req, res) => {
+    const { chapters } = res.locals.query as { chapters?: number };
+    const records = await openReaderBundle(req.params.bookId as string, {
+      mode: 'owner',
+      userId: req.user!.id,
+      chapterCount: chapters ?? DEFAULT_BUNDLE_CHAPTERS,
+    });
+    await streamNdjson(res, records);
+  }),
+);
+
 /**
  * PATCH /api/books/:bookId — Update book
  */
@@ -13,7 +13,7 @@ import { requireAuth } from '../middleware/auth.js';
 import { validate, validateQuery } from '../middleware/validate.js';
 import { createChapterSchema, updateChapterSchema, reorderChaptersSchema, listChaptersQuerySchema } from '../schemas.js';
 import { asyncHandler } from '../utils/asyncHandler.js';
-import { ok, created } from '../utils/response.js';
+import { ok, created, sendChapterContent } from '../utils/response.js';
 
 const router = Router({ mergeParams: true });
 
@@ -22,14 +22,14 @@ router.use(requireAuth);
 
 /**
  * GET /api/books/:bookId/chapters — List chapters (meta only, paginated)
- * Query: ?limit=100&offset=0
+ * Query: ?limit=100&offset=0 or ?limit=100&cursor=<nextCursor>[&withTotal=true]
  */
 router.get(
   '/',
   validateQuery(listChaptersQuerySchema),
   asyncHandler(async (req, res) => {
-    const { limit, offset } = res.locals.query as { limit?: number; offset?: number };
-    const result = await getChapters(req.params.bookId as string, { limit, offset });
+    const { limit, offset, cursor, withTotal } = res.locals.query as { limit?: number; offset?: number; cursor?: string; withTotal?: boolean };
+    const result = await getChapters(req.params.bookId as string, { limit, offset, cursor, withTotal });
     ok(res, result);
   }),
 );
@@ -84,15 +84,17 @@ router.get(
 
 /**
  * GET /api/books/:bookId/chapters/:chapterId/content — Get chapter HTML
+ * Supports If-None-Match → 304 via a strong content ETag.
+ * `Accept: text/html` returns the raw (pre-compressed) HTML instead of JSON.
  */
 router.get(
   '/:chapterId/content',
   asyncHandler(async (req, res) => {
-    const html = await getChapterContent(
+    const content = await getChapterContent(
       req.params.bookId as string,
       req.params.chapterId as string,
     );
-    ok(res, { html });
+    await sendChapterContent(req, res, content, { jsonKey: 'html', cacheControl: 'private, no-cache' });
   }),
 );
 
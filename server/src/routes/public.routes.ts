@@ -9,9 +9,10 @@ import {
 } from '../services/public.service.js';
 import { validateQuery } from '../middleware/validate.js';
 import { createPublicRateLimiter } from '../middleware/rateLimit.js';
-import { discoverQuerySchema } from '../schemas.js';
+import { discoverQuerySchema, readerBundleQuerySchema } from '../schemas.js';
+import { openReaderBundle, DEFAULT_BUNDLE_CHAPTERS } from '../services/bundle.service.js';
 import { asyncHandler } from '../utils/asyncHandler.js';
-import { ok } from '../utils/response.js';
+import { ok, sendChapterContent, streamNdjson } from '../utils/response.js';
 
 const router = Router();
 
@@ -25,8 +26,8 @@ router.get(
   '/discover',
   validateQuery(discoverQuerySchema),
   asyncHandler(async (req, res) => {
-    const { limit, offset } = res.locals.query as { limit?: number; offset?: number };
-    const result = await discoverBooks({ limit, offset });
+    const { limit, offset, cursor, withTotal } = res.locals.query as { limit?: number; offset?: number; cursor?: string; withTotal?: boolean };
+    const result = await discoverBooks({ limit, offset, cursor, withTotal });
     ok(res, result);
   }),
 );
@@ -67,6 +68,25 @@ router.get(
   }),
 );
 
+/**
+ * GET /api/public/books/:bookId/bundle — Reader bundle (NDJSON stream)
+ * Book + progress (if signed in) + first N chapters' HTML in one round-trip.
+ * Query: ?chapters=3
+ */
+router.get(
+  '/books/:bookId/bundle',
+  validateQuery(readerBundleQuerySchema),
+  asyncHandler(async (req, res) => {
+    const { chapters } = res.locals.query as { chapters?: number };
+    const records = await openReaderBundle(req.params.bookId as string, {
+      mode: 'public',
+      userId: req.user?.id ?? null,
+      chapterCount: chapters ?? DEFAULT_BUNDLE_CHAPTERS,
+    });
+    await streamNdjson(res, records);
+  }),
+);
+
 /**
  * GET /api/public/books/:bookId/chapters — Get public book chapters (metadata)
  */
@@ -80,6 +100,8 @@ router.get(
 
 /**
  * GET /api/public/books/:bookId/chapters/:chapterId/content — Get chapter content
+ * Supports If-None-Match → 304 via a strong content ETag.
+ * `Accept: text/html` returns the raw (pre-compressed) HTML instead of JSON.
  */
 router.get(
   '/books/:bookId/chapters/:chapterId/content',
@@ -88,7 +110,7 @@ router.get(
       req.params.bookId as string,
       req.params.chapterId as string,
     );
-    ok(res, { htmlContent: content });
+    await sendChapterContent(req, res, content, { jsonKey: 'htmlContent', cacheControl: 'public, no-cache' });
   }),
 );
 
@@ -1,8 +1,13 @@
 import { Router } from 'express';
-import { createReadingSession, getReadingSessions, getReadingStats } from '../services/readingSessions.service.js';
+import {
+  createReadingSession,
+  getReadingSessions,
+  getReadingStats,
+  getReadingStatsHistory,
+} from '../services/readingSessions.service.js';
 import { requireAuth } from '../middleware/auth.js';
-import { validate } from '../middleware/validate.js';
-import { createReadingSessionSchema } from '../schemas.js';
+import { validate, validateQuery } from '../middleware/validate.js';
+import { createReadingSessionSchema, readingStatsHistoryQuerySchema } from '../schemas.js';
 import { asyncHandler } from '../utils/asyncHandler.js';
 import { ok, created } from '../utils/response.js';
 
@@ -16,10 +21,13 @@ router.post('/', validate(createReadingSessionSchema), asyncHandler(async (req,
 }));
 
 // GET /api/v1/books/:bookId/reading-sessions — история сессий (с пагинацией)
+// ?cursor=<nextCursor> — keyset-пагинация; ?withTotal=true — добавить total
 router.get('/', asyncHandler(async (req, res) => {
   const limit = Math.min(Number(req.query.limit) || 50, 100);
   const offset = Math.max(Number(req.query.offset) || 0, 0);
-  ok(res, await getReadingSessions(req.params.bookId as string, req.user!.id, limit, offset));
+  const cursor = typeof req.query.cursor === 'string' && req.query.cursor ? req.query.cursor : undefined;
+  const withTotal = req.query.withTotal === 'true';
+  ok(res, await getReadingSessions(req.params.bookId as string, req.user!.id, limit, offset, { cursor, withTotal }));
 }));
 
 // GET /api/v1/books/:bookId/reading-sessions/stats — агрегированная статистика
@@ -27,4 +35,11 @@ router.get('/stats', asyncHandler(async (req, res) => {
   ok(res, await getReadingStats(req.params.bookId as string, req.user!.id));
 }));
 
+// GET /api/v1/books/:bookId/reading-sessions/stats/history?from=YYYY-MM-DD&to=YYYY-MM-DD&bucket=day|week
+// — страницы и минуты по дням или неделям (UTC)
+router.get('/stats/history', validateQuery(readingStatsHistoryQuerySchema), asyncHandler(async (req, res) => {
+  const range = res.locals.query as { from: string; to: string; bucket: 'day' | 'week' };
+  ok(res, await getReadingStatsHistory(req.params.bookId as string, req.user!.id, range));
+}));
+
 export default router;
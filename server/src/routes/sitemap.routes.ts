@@ -0,0 +1,107 @@
+import { Router } from 'express';
+import type { Request, Response } from 'express';
+import {
+  buildSitemapIndex,
+  getCachedSitemapBody,
+  getSitemapManifest,
+  storeSitemapBody,
+  streamSitemapShard,
+  type SitemapManifest,
+  type SitemapShard,
+} from '../services/seo.service.js';
+import { asyncHandler } from '../utils/asyncHandler.js';
+import { logger } from '../utils/logger.js';
+import { waitForDrain } from '../utils/response.js';
+
+const router = Router();
+
+const SITEMAP_CACHE_CONTROL = 'public, max-age=3600';
+
+/**
+ * Set validators from the shard's own last change; true if a 304 has been
+ * sent. A crawler re-polling an unchanged file costs one cached manifest
+ * read, even when other shards have changed since.
+ */
+function sitemapNotModified(req: Request, res: Response, lastModified: string): boolean {
+  res.type('application/xml');
+  res.set('Last-Modified', new Date(lastModified).toUTCString());
+  res.set('Cache-Control', SITEMAP_CACHE_CONTROL);
+  if (!req.fresh) return false;
+  res.status(304).end();
+  return true;
+}
+
+/**
+ * Send one sitemap file: from memory when already rendered for this
+ * manifest, otherwise streamed batch by batch from the database (honouring
+ * backpressure) and kept for the next request once complete.
+ */
+async function sendShard(res: Response, manifest: SitemapManifest, shard: SitemapShard): Promise<void> {
+  const body = getCachedSitemapBody(manifest, shard);
+  if (body) {
+    res.send(body);
+    return;
+  }
+
+  const chunks: Buffer[] = [];
+  try {
+    for await (const xml of streamSitemapShard(shard)) {
+      if (res.destroyed) return;
+      const chunk = Buffer.from(xml, 'utf8');
+      chunks.push(chunk);
+      // A crawler that hangs up mid-file never drains; stop instead of waiting forever
+      if (!res.write(chunk) && !(await waitForDrain(res))) return;
+    }
+  } catch (err) {
+    logger.error({ err, shard: shard.name }, 'Sitemap stream failed mid-response');
+    // A truncated document must not look complete to the crawler
+    res.destroy();
+    return;
+  }
+  res.end();
+  storeSitemapBody(manifest, shard, Buffer.concat(chunks));
+}
+
+/**
+ * GET /sitemap.xml — Single sitemap while the catalogue fits one file,
+ * otherwise a sitemap index over /sitemaps/{books,authors}-N.xml
+ */
+router.get(
+  '/sitemap.xml',
+  asyncHandler(async (req, res) => {
+    const manifest = await getSitemapManifest();
+    const [first] = manifest.shards;
+    if (first.name === 'all') {
+      if (sitemapNotModified(req, res, first.lastModified)) return;
+      await sendShard(res, manifest, first);
+      return;
+    }
+
+    // The index changes whenever any shard does
+    const newest = manifest.shards.reduce((max, s) => (s.lastModified > max ? s.lastModified : max), first.lastModified);
+    if (sitemapNotModified(req, res, newest)) return;
+    res.send(buildSitemapIndex(manifest));
+  }),
+);
+
+/**
+ * GET /sitemaps/:file — One shard of the sitemap index
+ */
+router.get(
+  '/sitemaps/:file',
+  asyncHandler(async (req, res) => {
+    const name = String(req.params.file).replace(/\.xml$/, '');
+    const manifest = await getSitemapManifest();
+    // Only files the current index lists; `all` is served as /sitemap.xml
+    const shard = name === 'all' ? undefined : manifest.shards.find((s) => s.name === name);
+    if (!shard) {
+      res.status(404).end();
+      return;
+    }
+    if (sitemapNotModified(req, res, shard.lastModified)) return;
+
+    await sendShard(res, manifest, shard);
+  }),
+);
+
+export default router;
@@ -105,9 +105,16 @@ export const reorderBooksSchema = z.object({
   bookIds: z.array(z.string().uuid()),
 });
 
+/** Keyset-pagination params shared by list endpoints (see utils/cursor.ts) */
+const cursorPageQuery = {
+  cursor: z.string().min(1).max(200).optional(),
+  withTotal: z.enum(['true', 'false']).transform((v) => v === 'true').optional(),
+};
+
 export const listBooksQuerySchema = z.object({
   limit: z.coerce.number().int().min(1).max(100).optional(),
   offset: z.coerce.number().int().min(0).optional(),
+  ...cursorPageQuery,
 });
 
 // ── Chapters ───────────────────────────────────────
@@ -117,6 +124,7 @@ const MAX_HTML_CONTENT_LENGTH = 2 * 1024 * 1024;
 export const listChaptersQuerySchema = z.object({
   limit: z.coerce.number().int().min(1).max(500).optional(),
   offset: z.coerce.number().int().min(0).optional(),
+  ...cursorPageQuery,
 });
 
 export const createChapterSchema = z.object({
@@ -276,6 +284,12 @@ export const createReadingSessionSchema = z.object({
   startedAt: z.string().datetime(),
 });
 
+export const readingStatsHistoryQuerySchema = z.object({
+  from: z.string().date(),
+  to: z.string().date(),
+  bucket: z.enum(['day', 'week']).default('day'),
+});
+
 // ── Profile ───────────────────────────────────────
 export const updateProfileSchema = z.object({
   displayName: z.string().max(100).nullable().optional(),
@@ -291,6 +305,11 @@ export const usernameParamSchema = z.object({
 export const discoverQuerySchema = z.object({
   limit: z.coerce.number().int().min(1).max(50).optional(),
   offset: z.coerce.number().int().min(0).optional(),
+  ...cursorPageQuery,
+});
+
+export const readerBundleQuerySchema = z.object({
+  chapters: z.coerce.number().int().min(0).max(50).optional(),
 });
 
 // Re-export for use in services
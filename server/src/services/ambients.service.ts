@@ -4,6 +4,7 @@ import { RESOURCE_LIMITS } from '../utils/limits.js';
 import { bulkUpdatePositions } from '../utils/reorder.js';
 import { withSerializableRetry } from '../utils/serializable.js';
 import { mapAmbientToDto } from '../utils/mappers.js';
+import { invalidatePublicBook } from './public.service.js';
 import type { AmbientItem } from '../types/api.js';
 
 /**
@@ -69,6 +70,7 @@ export async function createAmbient(
     });
   });
 
+  await invalidatePublicBook(bookId);
   return mapAmbientToDto(ambient);
 }
 
@@ -110,6 +112,7 @@ export async function updateAmbient(
     },
   });
 
+  await invalidatePublicBook(bookId);
   return mapAmbientToDto(updated);
 }
 
@@ -132,6 +135,7 @@ export async function deleteAmbient(
   }
 
   await prisma.ambient.delete({ where: { id: ambientId } });
+  await invalidatePublicBook(bookId);
   // Best-effort S3 cleanup
   if (ambient.fileUrl) {
     const { deleteFileByUrl } = await import('../utils/storage.js');
@@ -158,4 +162,5 @@ export async function reorderAmbients(
   }
 
   await bulkUpdatePositions(prisma, 'ambients', ambientIds);
+  await invalidatePublicBook(bookId);
 }
@@ -1,6 +1,7 @@
 import { getPrisma } from '../utils/prisma.js';
 import { AppError } from '../middleware/errorHandler.js';
 import { mapAppearanceToDto } from '../utils/mappers.js';
+import { invalidatePublicBook } from './public.service.js';
 import type { AppearanceDetail, ThemeAppearance } from '../types/api.js';
 
 /**
@@ -44,6 +45,7 @@ export async function updateAppearance(
     },
   });
 
+  await invalidatePublicBook(bookId);
   return mapAppearanceToDto(appearance);
 }
 
@@ -75,5 +77,6 @@ export async function updateThemeAppearance(
     update: updateData,
   });
 
+  await invalidatePublicBook(bookId);
   return mapAppearanceToDto(appearance);
 }
@@ -3,6 +3,7 @@ import { getPrisma } from '../utils/prisma.js';
 import { hashPassword } from '../utils/password.js';
 import { AppError } from '../middleware/errorHandler.js';
 import { logger } from '../utils/logger.js';
+import { invalidateSessionUser } from '../utils/userCache.js';
 import { mapUserToDto } from '../utils/mappers.js';
 import type { UserResponse } from '../types/api.js';
 
@@ -167,6 +168,8 @@ export async function resetPasswordWithToken(
       passwordHash: newPasswordHash,
       resetToken: null,
       resetTokenExpiresAt: null,
+      // Signed-cookie sessions issued before now stop being accepted
+      sessionsRevokedAt: new Date(),
     },
   });
 
@@ -174,6 +177,7 @@ export async function resetPasswordWithToken(
     // Another concurrent request consumed the token first
     throw new AppError(400, 'Invalid or expired reset token');
   }
+  await invalidateSessionUser(user.id);
 
   // Invalidate all existing sessions for this user.
   // Use PostgreSQL JSON operator to match passport.user field reliably.
@@ -189,3 +193,20 @@ export async function resetPasswordWithToken(
 
   logger.info({ userId: user.id }, 'Password reset completed');
 }
+
+/**
+ * End every signed-cookie session of a user issued up to now.
+ *
+ * A stateless cookie cannot be revoked on its own: clearing it on logout
+ * does nothing against a copy of it. Stamping `sessions_revoked_at` makes
+ * the user loader reject it — and every other cookie the user holds, so
+ * under SESSION_STORE=cookie logout signs out all devices.
+ */
+export async function revokeSessions(userId: string): Promise<void> {
+  const prisma = getPrisma();
+  await prisma.user.updateMany({
+    where: { id: userId },
+    data: { sessionsRevokedAt: new Date() },
+  });
+  await invalidateSessionUser(userId);
+}
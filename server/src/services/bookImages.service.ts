@@ -0,0 +1,207 @@
+import { createHash } from 'node:crypto';
+import { uploadFile, getPublicUrl } from '../utils/storage.js';
+import { logger } from '../utils/logger.js';
+import type { ParsedBook } from '../parsers/BookParser.js';
+
+/** Raster formats moved to object storage; anything else (e.g. SVG) stays inline */
+const IMAGE_EXTENSIONS: Record<string, string> = {
+  'image/png': 'png',
+  'image/jpeg': 'jpg',
+  'image/jpg': 'jpg',
+  'image/gif': 'gif',
+  'image/webp': 'webp',
+};
+
+/** Widths of the downscaled WebP variants offered via srcset */
+const VARIANT_WIDTHS = [480, 960];
+
+/** Content-addressed objects never change, so they can be cached forever */
+const IMMUTABLE_CACHE_CONTROL = 'public, max-age=31536000, immutable';
+
+/** Images processed (hashed, uploaded, resized) at the same time */
+const UPLOAD_CONCURRENCY = 4;
+
+/** Parsers emit exactly this markup for embedded images */
+const INLINE_IMAGE_RE = /<img src="data:(image\/[a-z+.-]+);base64,([^"]+)" alt="">/g;
+
+interface StoredImage {
+  src: string;
+  width?: number;
+  height?: number;
+  srcset?: string;
+}
+
+/**
+ * Read intrinsic dimensions from a PNG, GIF, JPEG or WebP header.
+ * Lets the reader reserve space before the image loads, so pagination
+ * does not shift when it arrives.
+ */
+export function readImageSize(buf: Buffer): { width: number; height: number } | null {
+  if (buf.length >= 24 && buf.readUInt32BE(0) === 0x89504e47) {
+    return { width: buf.readUInt32BE(16), height: buf.readUInt32BE(20) };
+  }
+  if (buf.length >= 10 && buf.toString('latin1', 0, 3) === 'GIF') {
+    return { width: buf.readUInt16LE(6), height: buf.readUInt16LE(8) };
+  }
+  if (buf.length >= 30 && buf.toString('latin1', 0, 4) === 'RIFF' && buf.toString('latin1', 8, 12) === 'WEBP') {
+    const chunk = buf.toString('latin1', 12, 16);
+    if (chunk === 'VP8 ') {
+      return { width: buf.readUInt16LE(26) & 0x3fff, height: buf.readUInt16LE(28) & 0x3fff };
+    }
+    if (chunk === 'VP8L') {
+      const bits = buf.readUInt32LE(21);
+      return { width: (bits & 0x3fff) + 1, height: ((bits >> 14) & 0x3fff) + 1 };
+    }
+    if (chunk === 'VP8X') {
+      return { width: buf.readUIntLE(24, 3) + 1, height: buf.readUIntLE(27, 3) + 1 };
+    }
+    return null;
+  }
+  if (buf.length >= 4 && buf[0] === 0xff && buf[1] === 0xd8) {
+    // Walk JPEG segments up to the first start-of-frame marker
+    let pos = 2;
+    while (pos + 9 < buf.length) {
+      if (buf[pos] !== 0xff) return null;
+      const marker = buf[pos + 1];
+      const isFrame = marker >= 0xc0 && marker <= 0xcf && marker !== 0xc4 && marker !== 0xc8 && marker !== 0xcc;
+      if (isFrame) {
+        return { width: buf.readUInt16BE(pos + 7), height: buf.readUInt16BE(pos + 5) };
+      }
+      pos += 2 + buf.readUInt16BE(pos + 2);
+    }
+  }
+  return null;
+}
+
+/** Subset of the `sharp` API used for variants */
+type Resizer = (input: Buffer) => {
+  resize(width: number): { webp(options: { quality: number }): { toBuffer(): Promise<Buffer> } };
+};
+
+let resizer: Promise<Resizer | null> | null = null;
+
+/**
+ * Load `sharp` if it is installed. It is an optional native dependency:
+ * without it images are still moved to storage, just without variants.
+ */
+function loadResizer(): Promise<Resizer | null> {
+  if (!resizer) {
+    // A variable specifier keeps TypeScript from requiring the module at build time
+    const specifier = 'sharp';
+    resizer = import(specifier)
+      .then((mod) => (mod.default ?? mod) as Resizer)
+      .catch(() => {
+        logger.info('sharp not installed — responsive image variants disabled');
+        return null;
+      });
+  }
+  return resizer;
+}
+
+/**
+ * Store a content-addressed object. Same hash => same bytes, so the key is
+ * shared by every book using the image; it is written again even if it
+ * exists, because the fresh LastModified is what keeps cleanup-s3-orphans.sh
+ * from deleting an old unreferenced copy before this import is saved.
+ */
+async function putImage(key: string, body: Buffer, contentType: string): Promise<string> {
+  await uploadFile(body, key, contentType, { cacheControl: IMMUTABLE_CACHE_CONTROL });
+  return getPublicUrl(key);
+}
+
+async function storeImage(mime: string, data: Buffer): Promise<StoredImage> {
+  const hash = createHash('sha256').update(data).digest('hex');
+  const ext = IMAGE_EXTENSIONS[mime];
+  const src = await putImage(`images/content/${hash}.${ext}`, data, mime === 'image/jpg' ? 'image/jpeg' : mime);
+  const size = readImageSize(data);
+  if (!size) return { src };
+
+  const stored: StoredImage = { src, ...size };
+  const widths = VARIANT_WIDTHS.filter((w) => w < size.width);
+  const sharp = widths.length > 0 && mime !== 'image/gif' ? await loadResizer() : null;
+  if (!sharp) return stored;
+
+  try {
+    const variants = await Promise.all(widths.map(async (width) => {
+      const body = await sharp(data).resize(width).webp({ quality: 80 }).toBuffer();
+      return `${await putImage(`images/content/${hash}-${width}w.webp`, body, 'image/webp')} ${width}w`;
+    }));
+    stored.srcset = [...variants, `${src} ${size.width}w`].join(', ');
+  } catch (err) {
+    logger.warn({ err, hash }, 'Failed to build image variants');
+  }
+  return stored;
+}
+
+/** Run at most `max` tasks at once */
+function createLimiter(max: number) {
+  let active = 0;
+  const waiting: (() => void)[] = [];
+  return async <T>(task: () => Promise<T>): Promise<T> => {
+    if (active >= max) await new Promise<void>((resolve) => waiting.push(resolve));
+    active++;
+    try {
+      return await task();
+    } finally {
+      active--;
+      waiting.shift()?.();
+    }
+  };
+}
+
+function renderImage(image: StoredImage): string {
+  let attrs = `src="${image.src}" alt=""`;
+  if (image.width && image.height) attrs += ` width="${image.width}" height="${image.height}"`;
+  if (image.srcset) attrs += ` srcset="${image.srcset}"`;
+  return `<img ${attrs} loading="lazy">`;
+}
+
+/**
+ * Move images embedded as data URLs in parsed chapters to object storage.
+ *
+ * Images are keyed by content hash, so one used on many pages (or in many
+ * books) is stored once; `src` is rewritten to its public URL with
+ * intrinsic width/height and, when `sharp` is available, a WebP srcset.
+ * An image that fails to upload stays inline — it never fails the import.
+ *
+ * Runs at preview time, before anything references the objects: an import
+ * the user abandons leaves them unreferenced, and cleanup-s3-orphans.sh
+ * removes them once they are older than its grace period. Chapters record
+ * the keys they use in chapters.image_keys (see chapterMetadata.ts).
+ */
+export async function ingestBookImages(book: ParsedBook): Promise<ParsedBook> {
+  const uploads = new Map<string, Promise<string | null>>();
+  const limit = createLimiter(UPLOAD_CONCURRENCY);
+
+  const upload = (mime: string, base64: string): Promise<string | null> => {
+    const key = `${mime}:${base64}`;
+    let pending = uploads.get(key);
+    if (!pending) {
+      pending = limit(() => storeImage(mime, Buffer.from(base64, 'base64')))
+        .then(renderImage)
+        .catch((err) => {
+          logger.warn({ err, mime }, 'Failed to move embedded image to storage, keeping it inline');
+          return null;
+        });
+      uploads.set(key, pending);
+    }
+    return pending;
+  };
+
+  const chapters = await Promise.all(book.chapters.map(async (chapter) => {
+    const matches = [...chapter.html.matchAll(INLINE_IMAGE_RE)]
+      .filter(([, mime]) => mime in IMAGE_EXTENSIONS);
+    if (matches.length === 0) return chapter;
+
+    const replacements = await Promise.all(matches.map(([, mime, base64]) => upload(mime, base64)));
+    let html = '';
+    let last = 0;
+    matches.forEach((match, i) => {
+      html += chapter.html.slice(last, match.index) + (replacements[i] ?? match[0]);
+      last = match.index! + match[0].length;
+    });
+    return { ...chapter, html: html + chapter.html.slice(last) };
+  }));
+
+  return { ...book, chapters };
+}
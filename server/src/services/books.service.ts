@@ -1,20 +1,28 @@
+import type { Prisma } from '@prisma/client';
 import { getPrisma } from '../utils/prisma.js';
 import { AppError } from '../middleware/errorHandler.js';
 import { RESOURCE_LIMITS } from '../utils/limits.js';
 import { bulkUpdatePositions } from '../utils/reorder.js';
 import { withSerializableRetry } from '../utils/serializable.js';
 import { logger } from '../utils/logger.js';
+import { forgetBookOwnership } from '../utils/ownership.js';
+import { CHAPTER_LIST_SELECT } from '../utils/chapterMetadata.js';
 import {
   mapBookToDetail,
   mapBookToListItem,
 } from '../utils/mappers.js';
-import type { BookListItem, BookDetail } from '../types/api.js';
-
-export interface PaginatedBooks {
+import {
+  encodeCursor,
+  decodeIntCursor,
+  cachedCount,
+  CURSOR_TOTAL_TTL_MS,
+} from '../utils/cursor.js';
+import { invalidatePublicBook, invalidatePublicAuthor, isPubliclyVisible } from './public.service.js';
+import { flushReadingProgress } from './progress.service.js';
+import type { BookListItem, BookDetail, PageInfo } from '../types/api.js';
+
+export interface PaginatedBooks extends PageInfo {
   books: BookListItem[];
-  total: number;
-  limit: number;
-  offset: number;
 }
 
 /** Reusable filter: only non-deleted books for a given user */
@@ -22,22 +30,36 @@ const activeBooks = (userId: string) => ({ userId, deletedAt: null });
 
 /**
  * Get books for a user with pagination (for bookshelf display).
+ * Pass `cursor` (from a previous `nextCursor`) for keyset paging by
+ * `(position, id)`; `total` is then only computed when `withTotal` is set.
  */
 export async function getUserBooks(
   userId: string,
-  options: { limit?: number; offset?: number } = {},
+  options: { limit?: number; offset?: number; cursor?: string; withTotal?: boolean } = {},
 ): Promise<PaginatedBooks> {
   const prisma = getPrisma();
   const limit = Math.min(options.limit ?? 50, 100);
   const offset = options.offset ?? 0;
+  const after = options.cursor ? decodeIntCursor(options.cursor) : null;
   const where = activeBooks(userId);
+  // The shelf shows each book's reading position — write any queued one first
+  await flushReadingProgress(userId);
+  const pageWhere: Prisma.BookWhereInput = after
+    ? {
+        ...where,
+        OR: [
+          { position: { gt: after.key } },
+          { position: after.key, id: { gt: after.id } },
+        ],
+      }
+    : where;
 
-  const [books, total] = await Promise.all([
+  const [rows, total] = await Promise.all([
     prisma.book.findMany({
-      where,
-      orderBy: { position: 'asc' },
-      skip: offset,
-      take: limit,
+      where: pageWhere,
+      orderBy: [{ position: 'asc' }, { id: 'asc' }],
+      ...(after ? {} : { skip: offset }),
+      take: limit + 1,
       include: {
         _count: { select: { chapters: true } },
         appearance: {
@@ -54,14 +76,22 @@ export async function getUserBooks(
         },
       },
     }),
-    prisma.book.count({ where }),
+    after
+      ? options.withTotal
+        ? cachedCount(`books:${userId}`, CURSOR_TOTAL_TTL_MS, () => prisma.book.count({ where }))
+        : undefined
+      : prisma.book.count({ where }),
   ]);
 
+  const books = rows.slice(0, limit);
+  const last = books[books.length - 1];
+
   return {
     books: books.map(mapBookToListItem),
-    total,
+    ...(total !== undefined && { total }),
     limit,
-    offset,
+    ...(!after && { offset }),
+    nextCursor: rows.length > limit ? encodeCursor(last.position, last.id) : null,
   };
 }
 
@@ -79,6 +109,7 @@ export async function getBookById(
     include: {
       chapters: {
         orderBy: { position: 'asc' },
+        select: CHAPTER_LIST_SELECT,
       },
       appearance: true,
       sounds: true,
@@ -189,14 +220,17 @@ export async function updateBook(
     }
   }
 
-  // If publishing for the first time, set publishedAt
+  // A visibility change needs the previous state: first publication sets
+  // publishedAt, and a book leaving the catalogue must be dropped from it
   let publishedAt: Date | undefined;
-  if (data.visibility === 'published') {
+  let wasPublic = false;
+  if (data.visibility !== undefined) {
     const current = await prisma.book.findFirst({
       where: { id: bookId, deletedAt: null },
-      select: { publishedAt: true },
+      select: { publishedAt: true, visibility: true, deletedAt: true },
     });
-    if (!current?.publishedAt) {
+    wasPublic = !!current && isPubliclyVisible(current);
+    if (data.visibility === 'published' && !current?.publishedAt) {
       publishedAt = new Date();
     }
   }
@@ -219,6 +253,8 @@ export async function updateBook(
     },
   });
 
+  if (data.visibility !== undefined) forgetBookOwnership(bookId);
+  await invalidatePublicBook(bookId, { wasPublic });
   return getBookById(bookId, userId);
 }
 
@@ -250,6 +286,8 @@ export async function deleteBook(
     where: { id: bookId },
     data: { deletedAt: new Date() },
   });
+  forgetBookOwnership(bookId);
+  await invalidatePublicBook(bookId, { wasPublic: isPubliclyVisible(book) });
 
   // Best-effort S3 cleanup.
   // Only include URLs that are actual S3 uploads (extractKeyFromUrl returns
@@ -327,4 +365,5 @@ export async function reorderBooks(
   }
 
   await bulkUpdatePositions(prisma, 'books', bookIds);
+  await invalidatePublicAuthor(userId);
 }
@@ -0,0 +1,107 @@
+import { getPrisma } from '../utils/prisma.js';
+import { readChapterContent } from '../utils/contentCache.js';
+import { getBookById } from './books.service.js';
+import { getPublicBook } from './public.service.js';
+import { getReadingProgress } from './progress.service.js';
+import { getGlobalSettings } from './settings.service.js';
+import { getReadingFonts } from './fonts.service.js';
+import { logger } from '../utils/logger.js';
+import type {
+  BookDetail,
+  PublicBookDetail,
+  ReaderBundleRecord,
+} from '../types/api.js';
+
+/** Default number of leading chapters whose content is inlined into the bundle */
+export const DEFAULT_BUNDLE_CHAPTERS = 3;
+
+/**
+ * Build the records of a reader bundle — everything the reader needs to open
+ * a book in one round-trip, in the order the client consumes it:
+ *
+ * 1. `book`     — metadata (same shape as GET /books/:id or /public/books/:id)
+ * 2. `progress` — reading position + preferences (null for guests / first open)
+ * 3. `settings`, `fonts` — owner mode only (global reader settings)
+ * 4. `chapter`  — HTML of the first `chapterCount` chapters that have content
+ * 5. `end`
+ *
+ * Book lookup (and its 404/403) happens before the first record is yielded,
+ * so the route can still answer with a regular error response.
+ */
+export async function openReaderBundle(
+  bookId: string,
+  options: { mode: 'owner' | 'public'; userId: string | null; chapterCount: number },
+): Promise<AsyncGenerator<ReaderBundleRecord>> {
+  const { mode, userId, chapterCount } = options;
+
+  const book: BookDetail | PublicBookDetail = mode === 'owner'
+    ? await getBookById(bookId, userId!)
+    : await getPublicBook(bookId);
+
+  // Kick off independent reads now so they overlap with writing the book record.
+  // Each section degrades on its own, as the separate requests did: the book
+  // still opens without progress, settings or fonts.
+  const progress = userId
+    ? withFallback(getReadingProgress(bookId, userId), null, 'progress', bookId)
+    : Promise.resolve(null);
+  const settings = mode === 'owner'
+    ? withFallback(getGlobalSettings(userId!), null, 'settings', bookId)
+    : null;
+  const fonts = mode === 'owner'
+    ? withFallback(getReadingFonts(userId!), [], 'fonts', bookId)
+    : null;
+
+  const contentIds = book.chapters
+    .filter((ch) => ch.hasHtmlContent)
+    .slice(0, chapterCount)
+    .map((ch) => ch.id);
+
+  return (async function* records(): AsyncGenerator<ReaderBundleRecord> {
+    yield { type: 'book', data: book };
+    yield { type: 'progress', data: await progress };
+    if (settings && fonts) {
+      yield { type: 'settings', data: await settings };
+      yield { type: 'fonts', data: await fonts };
+    }
+
+    if (contentIds.length > 0) {
+      const metas = await getPrisma().chapter.findMany({
+        where: { bookId, id: { in: contentIds } },
+        select: { id: true, updatedAt: true },
+      });
+      const versions = new Map(metas.map((m) => [m.id, m.updatedAt]));
+
+      for (const id of contentIds) {
+        const updatedAt = versions.get(id);
+        if (!updatedAt) continue; // deleted since the book was read
+        let html: string | null;
+        try {
+          html = (await readChapterContent(id, updatedAt)).html;
+        } catch (err) {
+          // Not inlined: the client fetches this chapter on its own
+          logger.warn({ err, bookId, chapterId: id }, 'Reader bundle: chapter content unavailable');
+          continue;
+        }
+        yield { type: 'chapter', data: { id, html } };
+      }
+    }
+
+    yield { type: 'end' };
+  })();
+}
+
+/**
+ * Resolve a bundle section to `fallback` (logging the cause) instead of
+ * failing the whole stream.
+ */
+function withFallback<T, F>(
+  pending: Promise<T>,
+  fallback: F,
+  section: string,
+  bookId: string,
+): Promise<T | F> {
+  return pending.catch((err: unknown) => {
+    logger.warn({ err, bookId, section }, 'Reader bundle: section unavailable, sending fallback');
+    return fallback;
+  });
+}
@@ -1,47 +1,75 @@
+import type { Chapter, Prisma } from '@prisma/client';
 import { getPrisma } from '../utils/prisma.js';
 import { AppError } from '../middleware/errorHandler.js';
 import { RESOURCE_LIMITS } from '../utils/limits.js';
 import { bulkUpdatePositions } from '../utils/reorder.js';
 import { withSerializableRetry } from '../utils/serializable.js';
 import { sanitizeHtml } from '../utils/sanitize.js';
+import { CHAPTER_LIST_SELECT } from '../utils/chapterMetadata.js';
+import { storeChapterBody } from '../utils/chapterBodies.js';
 import { mapChapterToListItem, mapChapterToDetail } from '../utils/mappers.js';
-import type { ChapterListItem, ChapterDetail } from '../types/api.js';
-
-interface PaginatedChapters {
+import { getContentCache, readChapterContent, type CachedChapterContent } from '../utils/contentCache.js';
+import { invalidatePublicBook } from './public.service.js';
+import {
+  encodeCursor,
+  decodeIntCursor,
+  cachedCount,
+  CURSOR_TOTAL_TTL_MS,
+} from '../utils/cursor.js';
+import type { ChapterListItem, ChapterDetail, PageInfo } from '../types/api.js';
+
+interface PaginatedChapters extends PageInfo {
   chapters: ChapterListItem[];
-  total: number;
-  limit: number;
-  offset: number;
 }
 
 /**
  * Get chapters for a book with pagination (metadata, no content).
+ * Pass `cursor` for keyset paging by `(position, id)`.
  * Book ownership is verified by requireBookOwnership middleware.
  */
 export async function getChapters(
   bookId: string,
-  options: { limit?: number; offset?: number } = {},
+  options: { limit?: number; offset?: number; cursor?: string; withTotal?: boolean } = {},
 ): Promise<PaginatedChapters> {
 
   const prisma = getPrisma();
   const limit = Math.min(options.limit ?? 100, 500);
   const offset = options.offset ?? 0;
-
-  const [chapters, total] = await Promise.all([
+  const after = options.cursor ? decodeIntCursor(options.cursor) : null;
+  const pageWhere: Prisma.ChapterWhereInput = after
+    ? {
+        bookId,
+        OR: [
+          { position: { gt: after.key } },
+          { position: after.key, id: { gt: after.id } },
+        ],
+      }
+    : { bookId };
+
+  const [rows, total] = await Promise.all([
     prisma.chapter.findMany({
-      where: { bookId },
-      orderBy: { position: 'asc' },
-      take: limit,
-      skip: offset,
+      where: pageWhere,
+      orderBy: [{ position: 'asc' }, { id: 'asc' }],
+      ...(after ? {} : { skip: offset }),
+      take: limit + 1,
+      select: CHAPTER_LIST_SELECT,
     }),
-    prisma.chapter.count({ where: { bookId } }),
+    after
+      ? options.withTotal
+        ? cachedCount(`chapters:${bookId}`, CURSOR_TOTAL_TTL_MS, () => prisma.chapter.count({ where: { bookId } }))
+        : undefined
+      : prisma.chapter.count({ where: { bookId } }),
   ]);
 
+  const chapters = rows.slice(0, limit);
+  const last = chapters[chapters.length - 1];
+
   return {
     chapters: chapters.map(mapChapterToListItem),
-    total,
+    ...(total !== undefined && { total }),
     limit,
-    offset,
+    ...(!after && { offset }),
+    nextCursor: rows.length > limit ? encodeCursor(last.position, last.id) : null,
   };
 }
 
@@ -62,28 +90,39 @@ export async function getChapterById(
     throw new AppError(404, 'Chapter not found');
   }
 
-  return mapChapterToDetail(chapter);
+  return toChapterDetail(chapter);
 }
 
 /**
- * Get just the HTML content of a chapter.
+ * Map a chapter row to its detail DTO. A body kept in object storage
+ * (html_content NULL) is read through the content cache.
+ */
+async function toChapterDetail(chapter: Chapter): Promise<ChapterDetail> {
+  if (chapter.htmlContent !== null || !chapter.hasContent) return mapChapterToDetail(chapter);
+  const content = await readChapterContent(chapter.id, chapter.updatedAt);
+  return mapChapterToDetail({ ...chapter, htmlContent: content.html });
+}
+
+/**
+ * Get just the HTML content of a chapter (served from the content cache
+ * when the chapter hasn't changed since it was last read).
  */
 export async function getChapterContent(
   bookId: string,
   chapterId: string,
-): Promise<string | null> {
+): Promise<CachedChapterContent> {
 
   const prisma = getPrisma();
   const chapter = await prisma.chapter.findUnique({
     where: { id: chapterId },
-    select: { bookId: true, htmlContent: true, filePath: true },
+    select: { bookId: true, updatedAt: true },
   });
 
   if (!chapter || chapter.bookId !== bookId) {
     throw new AppError(404, 'Chapter not found');
   }
 
-  return chapter.htmlContent;
+  return readChapterContent(chapterId, chapter.updatedAt);
 }
 
 /**
@@ -108,6 +147,9 @@ export async function createChapter(
     throw new AppError(403, `Chapter limit reached (max ${RESOURCE_LIMITS.MAX_CHAPTERS_PER_BOOK})`);
   }
 
+  const htmlContent = data.htmlContent ? sanitizeHtml(data.htmlContent) : null;
+  const body = await storeChapterBody(htmlContent);
+
   const chapter = await withSerializableRetry(prisma, async (tx) => {
     const lastChapter = await tx.chapter.findFirst({
       where: { bookId },
@@ -121,7 +163,7 @@ export async function createChapter(
         bookId,
         title: data.title,
         position: nextPosition,
-        htmlContent: data.htmlContent ? sanitizeHtml(data.htmlContent) : null,
+        ...body,
         filePath: data.filePath || null,
         bg: data.bg || '',
         bgMobile: data.bgMobile || '',
@@ -129,7 +171,8 @@ export async function createChapter(
     });
   });
 
-  return mapChapterToDetail(chapter);
+  await invalidatePublicBook(bookId);
+  return mapChapterToDetail({ ...chapter, htmlContent });
 }
 
 /**
@@ -168,18 +211,26 @@ export async function updateChapter(
     }
   }
 
+  const htmlContent = data.htmlContent ? sanitizeHtml(data.htmlContent) : data.htmlContent;
+  const body = htmlContent !== undefined ? await storeChapterBody(htmlContent) : undefined;
+
   const updated = await prisma.chapter.update({
     where: { id: chapterId },
     data: {
       ...(data.title !== undefined && { title: data.title }),
-      ...(data.htmlContent !== undefined && { htmlContent: data.htmlContent ? sanitizeHtml(data.htmlContent) : data.htmlContent }),
+      ...body,
       ...(data.filePath !== undefined && { filePath: data.filePath }),
       ...(data.bg !== undefined && { bg: data.bg }),
       ...(data.bgMobile !== undefined && { bgMobile: data.bgMobile }),
     },
   });
 
-  return mapChapterToDetail(updated);
+  getContentCache().invalidate(chapterId);
+  await invalidatePublicBook(bookId);
+
+  // The body just written needs no read-back, wherever it went
+  if (htmlContent !== undefined) return mapChapterToDetail({ ...updated, htmlContent });
+  return toChapterDetail(updated);
 }
 
 /**
@@ -202,6 +253,8 @@ export async function deleteChapter(
   }
 
   await prisma.chapter.delete({ where: { id: chapterId } });
+  getContentCache().invalidate(chapterId);
+  await invalidatePublicBook(bookId);
 }
 
 /**
@@ -225,4 +278,5 @@ export async function reorderChapters(
   }
 
   await bulkUpdatePositions(prisma, 'chapters', chapterIds);
+  await invalidatePublicBook(bookId);
 }
@@ -2,6 +2,7 @@ import { getPrisma } from '../utils/prisma.js';
 import { AppError } from '../middleware/errorHandler.js';
 import { logger } from '../utils/logger.js';
 import { mapDecorativeFontToDto } from '../utils/mappers.js';
+import { invalidatePublicBook } from './public.service.js';
 import type { DecorativeFontDetail } from '../types/api.js';
 
 export async function getDecorativeFont(bookId: string): Promise<DecorativeFontDetail | null> {
@@ -20,6 +21,7 @@ export async function upsertDecorativeFont(bookId: string, data: { name: string;
     create: { bookId, name: data.name, fileUrl: data.fileUrl },
     update: { name: data.name, fileUrl: data.fileUrl },
   });
+  await invalidatePublicBook(bookId);
   return mapDecorativeFontToDto(font);
 }
 
@@ -29,6 +31,7 @@ export async function deleteDecorativeFont(bookId: string): Promise<void> {
   const font = await prisma.decorativeFont.findUnique({ where: { bookId } });
   if (!font) throw new AppError(404, 'Decorative font not found');
   await prisma.decorativeFont.delete({ where: { bookId } });
+  await invalidatePublicBook(bookId);
   // Best-effort S3 cleanup
   if (font.fileUrl) {
     const { deleteFileByUrl } = await import('../utils/storage.js');
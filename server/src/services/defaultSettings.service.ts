@@ -1,6 +1,7 @@
 import { getPrisma } from '../utils/prisma.js';
 import { AppError } from '../middleware/errorHandler.js';
 import { mapDefaultSettingsToDto } from '../utils/mappers.js';
+import { invalidatePublicBook } from './public.service.js';
 import type { DefaultSettings } from '../types/api.js';
 
 /**
@@ -45,5 +46,6 @@ export async function updateDefaultSettings(
     update: data,
   });
 
+  await invalidatePublicBook(bookId);
   return mapDefaultSettingsToDto(settings);
 }
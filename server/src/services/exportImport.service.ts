@@ -3,6 +3,8 @@ import { getPrisma } from '../utils/prisma.js';
 import { AppError } from '../middleware/errorHandler.js';
 import { RESOURCE_LIMITS } from '../utils/limits.js';
 import { sanitizeHtml } from '../utils/sanitize.js';
+import { CHAPTER_LIST_SELECT } from '../utils/chapterMetadata.js';
+import { storeChapterBody, type StoredChapterBody } from '../utils/chapterBodies.js';
 import {
   READER_DEFAULTS,
   FONT_LIMITS,
@@ -136,7 +138,7 @@ export async function exportUserConfig(userId: string): Promise<ExportData> {
     where: { userId, deletedAt: null },
     orderBy: { position: 'asc' },
     include: {
-      chapters: { orderBy: { position: 'asc' } },
+      chapters: { orderBy: { position: 'asc' }, select: CHAPTER_LIST_SELECT },
       appearance: true,
       sounds: true,
       ambients: { orderBy: { position: 'asc' } },
@@ -194,8 +196,18 @@ export async function importUserConfig(
     }
   }
 
+  // Store chapter bodies up front: object storage uploads don't belong in the transaction
+  const bodies: StoredChapterBody[][] = [];
+  for (const bookData of validData.books) {
+    const stored: StoredChapterBody[] = [];
+    for (const ch of bookData.chapters ?? []) {
+      stored.push(await storeChapterBody(typeof ch.htmlContent === 'string' ? sanitizeHtml(ch.htmlContent) : null));
+    }
+    bodies.push(stored);
+  }
+
   await prisma.$transaction(async (tx) => {
-    for (const bookData of validData.books) {
+    for (const [bookIndex, bookData] of validData.books.entries()) {
       const book = await tx.book.create({
         data: {
           userId,
@@ -217,9 +229,7 @@ export async function importUserConfig(
             filePath: ch.filePath || null,
             bg: ch.bg || '',
             bgMobile: ch.bgMobile || '',
-            htmlContent: typeof ch.htmlContent === 'string'
-              ? sanitizeHtml(ch.htmlContent)
-              : null,
+            ...bodies[bookIndex][i],
           })),
         });
       }
@@ -3,6 +3,8 @@ import { AppError } from '../middleware/errorHandler.js';
 import { RESERVED_USERNAMES } from '../schemas.js';
 import type { UserResponse } from '../types/api.js';
 import { formatUser } from './auth.service.js';
+import { invalidatePublicAuthor } from './public.service.js';
+import { invalidateSessionUser } from '../utils/userCache.js';
 
 /**
  * Check if a username is available (not taken and not reserved).
@@ -45,6 +47,12 @@ export async function updateProfile(
 ): Promise<UserResponse> {
   const prisma = getPrisma();
 
+  // Public pages are cached by username; drop the old name's if it changes
+  const previous = await prisma.user.findUnique({
+    where: { id: userId },
+    select: { username: true },
+  });
+
   const user = await prisma.user.update({
     where: { id: userId },
     data: {
@@ -54,5 +62,7 @@ export async function updateProfile(
     },
   });
 
+  await invalidateSessionUser(userId);
+  await invalidatePublicAuthor(userId, { previousUsername: previous?.username });
   return formatUser(user);
 }
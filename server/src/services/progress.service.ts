@@ -1,10 +1,111 @@
 import { getPrisma } from '../utils/prisma.js';
+import { getConfig } from '../config.js';
 import { AppError } from '../middleware/errorHandler.js';
 import { mapReadingProgressToDto } from '../utils/mappers.js';
+import { WriteBehindBuffer } from '../utils/writeBehind.js';
+import { verifyBookReadable } from '../utils/ownership.js';
 import type { ReadingProgressDetail } from '../types/api.js';
 
+interface PendingProgress {
+  userId: string;
+  bookId: string;
+  page: number;
+  font: string;
+  fontSize: number;
+  theme: string;
+  soundEnabled: boolean;
+  soundVolume: number;
+  ambientType: string;
+  ambientVolume: number;
+  updatedAt: Date;
+}
+
+/**
+ * Write a batch of progress rows: one multi-row upsert per table.
+ *
+ * Rows for users or books deleted while the write was queued are skipped,
+ * and a row never overwrites a newer one (another instance may have flushed
+ * a later update for the same reader first).
+ */
+async function writeProgress(rows: PendingProgress[]): Promise<void> {
+  const prisma = getPrisma();
+  const userIds = rows.map((r) => r.userId);
+  const bookIds = rows.map((r) => r.bookId);
+  const updatedAt = rows.map((r) => r.updatedAt.toISOString());
+
+  await prisma.$transaction([
+    prisma.$executeRaw`
+      INSERT INTO reading_progress (user_id, book_id, page, updated_at)
+      SELECT r.user_id, r.book_id, r.page, r.updated_at
+      FROM unnest(
+        ${userIds}::uuid[], ${bookIds}::uuid[], ${rows.map((r) => r.page)}::int[], ${updatedAt}::timestamptz[]
+      ) AS r(user_id, book_id, page, updated_at)
+      WHERE EXISTS (SELECT 1 FROM users u WHERE u.id = r.user_id)
+        AND EXISTS (SELECT 1 FROM books b WHERE b.id = r.book_id)
+      ON CONFLICT (user_id, book_id) DO UPDATE
+        SET page = EXCLUDED.page, updated_at = EXCLUDED.updated_at
+        WHERE reading_progress.updated_at <= EXCLUDED.updated_at
+    `,
+    prisma.$executeRaw`
+      INSERT INTO reading_preferences (
+        user_id, book_id, font, font_size, theme, sound_enabled, sound_volume, ambient_type, ambient_volume, updated_at
+      )
+      SELECT r.*
+      FROM unnest(
+        ${userIds}::uuid[], ${bookIds}::uuid[],
+        ${rows.map((r) => r.font)}::varchar[], ${rows.map((r) => r.fontSize)}::int[],
+        ${rows.map((r) => r.theme)}::varchar[], ${rows.map((r) => r.soundEnabled)}::boolean[],
+        ${rows.map((r) => r.soundVolume)}::real[], ${rows.map((r) => r.ambientType)}::varchar[],
+        ${rows.map((r) => r.ambientVolume)}::real[], ${updatedAt}::timestamptz[]
+      ) AS r(
+        user_id, book_id, font, font_size, theme, sound_enabled, sound_volume, ambient_type, ambient_volume, updated_at
+      )
+      WHERE EXISTS (SELECT 1 FROM users u WHERE u.id = r.user_id)
+        AND EXISTS (SELECT 1 FROM books b WHERE b.id = r.book_id)
+      ON CONFLICT (user_id, book_id) DO UPDATE
+        SET font = EXCLUDED.font, font_size = EXCLUDED.font_size, theme = EXCLUDED.theme,
+            sound_enabled = EXCLUDED.sound_enabled, sound_volume = EXCLUDED.sound_volume,
+            ambient_type = EXCLUDED.ambient_type, ambient_volume = EXCLUDED.ambient_volume,
+            updated_at = EXCLUDED.updated_at
+        WHERE reading_preferences.updated_at <= EXCLUDED.updated_at
+    `,
+  ]);
+}
+
+let buffer: WriteBehindBuffer<PendingProgress> | null = null;
+
+/** Progress updates coalesced per (user, book) and written in batches */
+function getProgressBuffer(): WriteBehindBuffer<PendingProgress> {
+  if (!buffer) {
+    const config = getConfig();
+    buffer = new WriteBehindBuffer('reading_progress', writeProgress, {
+      intervalMs: config.WRITE_BEHIND_FLUSH_MS,
+      maxBatch: config.WRITE_BEHIND_MAX_BATCH,
+    });
+  }
+  return buffer;
+}
+
+/**
+ * Write queued progress for a user (all books, or one) so a following
+ * read sees it.
+ */
+export async function flushReadingProgress(userId: string, bookId?: string): Promise<void> {
+  if (!buffer) return;
+  const prefix = bookId ? `${userId}:${bookId}` : `${userId}:`;
+  await buffer.flush((key) => key.startsWith(prefix));
+}
+
+/** Drain queued progress (graceful shutdown) */
+export async function closeProgressBuffer(): Promise<void> {
+  const current = buffer;
+  buffer = null;
+  await current?.close();
+}
+
 export async function getReadingProgress(bookId: string, userId: string): Promise<ReadingProgressDetail | null> {
   const prisma = getPrisma();
+  await flushReadingProgress(userId, bookId);
 
   const [progress, preferences] = await Promise.all([
     prisma.readingProgress.findUnique({ where: { userId_bookId: { userId, bookId } } }),
@@ -16,6 +117,21 @@ export async function getReadingProgress(bookId: string, userId: string): Promis
   return mapReadingProgressToDto(progress, preferences);
 }
 
+/**
+ * Save progress and reading preferences.
+ *
+ * The book is checked before anything is queued, so a write for a missing or
+ * someone else's draft book fails now rather than vanishing at flush time.
+ * The update is then queued and written with the next batch; the response
+ * (and the stored `updatedAt`) reflect the moment it was accepted.
+ *
+ * A conditional write (If-Unmodified-Since) goes through the database
+ * instead: the caller's queued update is flushed, the check runs against the
+ * stored row and the new row is written immediately. The buffer is
+ * per-process, so an update still queued in *another* process is not seen
+ * by that check (nor by reads there) until it flushes — with several
+ * processes, run with WRITE_BEHIND_FLUSH_MS=0.
+ */
 export async function upsertReadingProgress(
   bookId: string,
   userId: string,
@@ -31,41 +147,34 @@ export async function upsertReadingProgress(
     ifUnmodifiedSince?: string;
   },
 ): Promise<ReadingProgressDetail> {
-  const prisma = getPrisma();
+  await verifyBookReadable(bookId, userId);
+
+  const { font, fontSize, theme, soundEnabled, soundVolume, ambientType, ambientVolume, page } = data;
+  const preferencesData = { font, fontSize, theme, soundEnabled, soundVolume, ambientType, ambientVolume };
 
-  // Optimistic locking: reject if progress was modified after the given timestamp
   if (data.ifUnmodifiedSince) {
-    const existing = await prisma.readingProgress.findUnique({
+    // Optimistic locking: reject if progress was modified after the given timestamp
+    await flushReadingProgress(userId, bookId);
+    const existing = await getPrisma().readingProgress.findUnique({
       where: { userId_bookId: { userId, bookId } },
       select: { updatedAt: true },
     });
-    if (existing) {
-      const clientDate = new Date(data.ifUnmodifiedSince);
-      if (existing.updatedAt > clientDate) {
-        throw new AppError(409, 'Reading progress was modified by another session', 'CONFLICT_DETECTED');
-      }
+    if (existing && existing.updatedAt > new Date(data.ifUnmodifiedSince)) {
+      throw new AppError(409, 'Reading progress was modified by another session', 'CONFLICT_DETECTED');
     }
   }
 
-  const { font, fontSize, theme, soundEnabled, soundVolume, ambientType, ambientVolume, page } = data;
-  const preferencesData = { font, fontSize, theme, soundEnabled, soundVolume, ambientType, ambientVolume };
-
-  const [progress] = await Promise.all([
-    prisma.readingProgress.upsert({
-      where: { userId_bookId: { userId, bookId } },
-      create: { userId, bookId, page },
-      update: { page },
-    }),
-    prisma.readingPreferences.upsert({
-      where: { userId_bookId: { userId, bookId } },
-      create: { userId, bookId, ...preferencesData },
-      update: preferencesData,
-    }),
-  ]);
+  const updatedAt = new Date();
+  const row = { userId, bookId, page, ...preferencesData, updatedAt };
+  if (data.ifUnmodifiedSince) {
+    await writeProgress([row]);
+  } else {
+    await getProgressBuffer().put(`${userId}:${bookId}`, row);
+  }
 
   return {
-    page: progress.page,
+    page,
     ...preferencesData,
-    updatedAt: progress.updatedAt.toISOString(),
+    updatedAt: updatedAt.toISOString(),
   };
 }
@@ -1,3 +1,4 @@
+import type { Prisma } from '@prisma/client';
 import { getPrisma } from '../utils/prisma.js';
 import { AppError } from '../middleware/errorHandler.js';
 import {
@@ -7,6 +8,15 @@ import {
   mapChapterToListItem,
 } from '../utils/mappers.js';
 import { logger } from '../utils/logger.js';
+import { readChapterContent, type CachedChapterContent } from '../utils/contentCache.js';
+import { cached, invalidateTags } from '../utils/cache.js';
+import { CHAPTER_LIST_SELECT } from '../utils/chapterMetadata.js';
+import {
+  encodeCursor,
+  decodeDateCursor,
+  cachedCount,
+  CURSOR_TOTAL_TTL_MS,
+} from '../utils/cursor.js';
 import type {
   PublicBookCard,
   PublicShelf,
@@ -14,10 +24,25 @@ import type {
   DiscoverResult,
 } from '../types/api.js';
 
+/**
+ * Cache tags for public catalogue reads (see utils/cache.ts).
+ * Shelf and slug pages are keyed by username because that is all a guest
+ * request carries; mutations resolve the owner's username to invalidate them.
+ */
+export const PUBLIC_TAGS = {
+  discover: 'discover',
+  book: (bookId: string) => `book:${bookId}`,
+  author: (username: string) => `author:${username}`,
+};
+
 /**
  * Get an author's public shelf: profile + published books.
  */
-export async function getShelf(username: string): Promise<PublicShelf> {
+export function getShelf(username: string): Promise<PublicShelf> {
+  return cached(`shelf:${username}`, [PUBLIC_TAGS.author(username)], () => loadShelf(username));
+}
+
+async function loadShelf(username: string): Promise<PublicShelf> {
   const prisma = getPrisma();
 
   const user = await prisma.user.findUnique({
@@ -58,7 +83,18 @@ export async function getShelf(username: string): Promise<PublicShelf> {
 /**
  * Get full details of a public book by author username + slug.
  */
-export async function getPublicBookBySlug(
+export function getPublicBookBySlug(
+  username: string,
+  slug: string,
+): Promise<PublicBookDetail> {
+  return cached(
+    `slug:${username}:${slug}`,
+    [PUBLIC_TAGS.author(username)],
+    () => loadPublicBookBySlug(username, slug),
+  );
+}
+
+async function loadPublicBookBySlug(
   username: string,
   slug: string,
 ): Promise<PublicBookDetail> {
@@ -74,7 +110,7 @@ export async function getPublicBookBySlug(
   const book = await prisma.book.findFirst({
     where: { userId: user.id, slug, deletedAt: null },
     include: {
-      chapters: { orderBy: { position: 'asc' } },
+      chapters: { orderBy: { position: 'asc' }, select: CHAPTER_LIST_SELECT },
       appearance: true,
       sounds: true,
       ambients: { orderBy: { position: 'asc' } },
@@ -96,7 +132,11 @@ export async function getPublicBookBySlug(
 /**
  * Get full details of a public book (published or unlisted).
  */
-export async function getPublicBook(bookId: string): Promise<PublicBookDetail> {
+export function getPublicBook(bookId: string): Promise<PublicBookDetail> {
+  return cached(`book:${bookId}`, [PUBLIC_TAGS.book(bookId)], () => loadPublicBook(bookId));
+}
+
+async function loadPublicBook(bookId: string): Promise<PublicBookDetail> {
   const prisma = getPrisma();
 
   const book = await prisma.book.findUnique({
@@ -110,7 +150,7 @@ export async function getPublicBook(bookId: string): Promise<PublicBookDetail> {
           bio: true,
         },
       },
-      chapters: { orderBy: { position: 'asc' } },
+      chapters: { orderBy: { position: 'asc' }, select: CHAPTER_LIST_SELECT },
       appearance: true,
       sounds: true,
       ambients: { orderBy: { position: 'asc' } },
@@ -151,6 +191,7 @@ export async function getPublicChapters(bookId: string) {
   const chapters = await prisma.chapter.findMany({
     where: { bookId },
     orderBy: { position: 'asc' },
+    select: CHAPTER_LIST_SELECT,
   });
 
   return chapters.map(mapChapterToListItem);
@@ -158,88 +199,201 @@ export async function getPublicChapters(bookId: string) {
 
 /**
  * Get chapter content for a public book.
+ * Visibility and chapter metadata are checked in one query; the HTML itself
+ * is served from the content cache.
  */
 export async function getPublicChapterContent(
   bookId: string,
   chapterId: string,
-): Promise<string | null> {
+): Promise<CachedChapterContent> {
   const prisma = getPrisma();
 
-  const book = await prisma.book.findUnique({
-    where: { id: bookId },
-    select: { visibility: true, deletedAt: true },
-  });
-
-  if (!book || book.visibility === 'draft' || book.deletedAt !== null) {
-    throw new AppError(404, 'Book not found');
-  }
-
   const chapter = await prisma.chapter.findUnique({
     where: { id: chapterId },
-    select: { bookId: true, htmlContent: true },
+    select: {
+      bookId: true,
+      updatedAt: true,
+      book: { select: { visibility: true, deletedAt: true } },
+    },
   });
 
   if (!chapter || chapter.bookId !== bookId) {
     throw new AppError(404, 'Chapter not found');
   }
 
-  return chapter.htmlContent;
+  if (chapter.book.visibility === 'draft' || chapter.book.deletedAt !== null) {
+    throw new AppError(404, 'Book not found');
+  }
+
+  return readChapterContent(chapterId, chapter.updatedAt);
 }
 
 /**
  * Discover public books with pagination (newest first).
+ *
+ * Two modes:
+ * - offset (`offset`): legacy paging with an exact `total` on every page;
+ * - keyset (`cursor`): seeks past `(publishedAt, id)` of the previous page,
+ *   so deep pages cost the same as the first; `total` only on request
+ *   (`withTotal`) and served from a short-lived count cache.
+ *
+ * Both modes return `nextCursor` (null on the last page), so clients can
+ * switch to keyset paging after the first offset request.
  */
 export async function discoverBooks(
-  options: { limit?: number; offset?: number } = {},
+  options: { limit?: number; offset?: number; cursor?: string; withTotal?: boolean } = {},
 ): Promise<DiscoverResult> {
-  const prisma = getPrisma();
   const limit = Math.min(options.limit ?? 20, 50);
   const offset = options.offset ?? 0;
-
-  const where = { visibility: 'published' as const, deletedAt: null };
+  const after = options.cursor ? decodeDateCursor(options.cursor) : null;
+  const page = options.cursor ?? offset;
+  const key = `discover:${limit}:${page}${options.withTotal ? ':total' : ''}`;
 
   try {
-    const [books, total] = await Promise.all([
-      prisma.book.findMany({
-        where,
-        orderBy: { publishedAt: 'desc' },
-        skip: offset,
-        take: limit,
-        include: {
-          _count: { select: { chapters: true } },
-          user: {
-            select: {
-              username: true,
-              displayName: true,
-              avatarUrl: true,
-              bio: true,
-            },
+    // Failures are not cached: the fallback below is built outside the loader
+    return await cached(key, [PUBLIC_TAGS.discover], () =>
+      loadDiscoverPage(limit, offset, after, options.withTotal ?? false));
+  } catch (err) {
+    logger.warn({ err }, 'discoverBooks: database query failed, returning empty result');
+    return { books: [], total: 0, limit, offset, nextCursor: null };
+  }
+}
+
+async function loadDiscoverPage(
+  limit: number,
+  offset: number,
+  after: { key: Date; id: string } | null,
+  withTotal: boolean,
+): Promise<DiscoverResult> {
+  const prisma = getPrisma();
+  const where: Prisma.BookWhereInput = { visibility: 'published', deletedAt: null };
+  const pageWhere: Prisma.BookWhereInput = after
+    ? {
+        ...where,
+        // Published books always carry publishedAt; nulls can't be seeked past
+        publishedAt: { not: null },
+        OR: [
+          { publishedAt: { lt: after.key } },
+          { publishedAt: after.key, id: { lt: after.id } },
+        ],
+      }
+    : where;
+
+  const [rows, total] = await Promise.all([
+    prisma.book.findMany({
+      where: pageWhere,
+      orderBy: [{ publishedAt: { sort: 'desc', nulls: 'last' } }, { id: 'desc' }],
+      ...(after ? {} : { skip: offset }),
+      // One extra row tells us whether another page exists
+      take: limit + 1,
+      include: {
+        _count: { select: { chapters: true } },
+        user: {
+          select: {
+            username: true,
+            displayName: true,
+            avatarUrl: true,
+            bio: true,
           },
-          appearance: {
-            select: {
-              lightCoverBgStart: true,
-              lightCoverBgEnd: true,
-              lightCoverText: true,
-            },
+        },
+        appearance: {
+          select: {
+            lightCoverBgStart: true,
+            lightCoverBgEnd: true,
+            lightCoverText: true,
           },
         },
-      }),
-      prisma.book.count({ where }),
+      },
+    }),
+    after
+      ? withTotal
+        ? cachedCount('discover', CURSOR_TOTAL_TTL_MS, () => prisma.book.count({ where }))
+        : undefined
+      : prisma.book.count({ where }),
+  ]);
+
+  const books = rows.slice(0, limit);
+  const last = books[books.length - 1];
+  const nextCursor = rows.length > limit && last?.publishedAt
+    ? encodeCursor(last.publishedAt, last.id)
+    : null;
+
+  return {
+    books: books
+      .filter((b) => b.user.username !== null)
+      .map((book) => ({
+        ...mapBookToPublicCard(book),
+        owner: mapUserToPublicAuthor(book.user),
+      })),
+    ...(total !== undefined && { total }),
+    limit,
+    ...(!after && { offset }),
+    nextCursor,
+  };
+}
+
+/**
+ * Invalidate cached public views of a book: its detail page, its author's
+ * shelf and slug pages, and discover. Call after any write that changes
+ * what a guest sees for the book (metadata, chapters, appearance, sounds…).
+ *
+ * Only the book's own tag is bumped for a book guests cannot see: a draft
+ * edit must not flush the shelf and discover for every reader. Pass
+ * `wasPublic` when the write may have changed visibility or deleted the
+ * book, so a book that just left the public catalogue is dropped from it.
+ */
+export async function invalidatePublicBook(
+  bookId: string,
+  options: { wasPublic?: boolean } = {},
+): Promise<void> {
+  try {
+    const book = await getPrisma().book.findUnique({
+      where: { id: bookId },
+      select: { visibility: true, deletedAt: true, user: { select: { username: true } } },
+    });
+    const isPublic = !!book && isPubliclyVisible(book);
+    const username = book?.user.username;
+    await invalidateTags([
+      PUBLIC_TAGS.book(bookId),
+      ...(isPublic || options.wasPublic
+        ? [PUBLIC_TAGS.discover, ...(username ? [PUBLIC_TAGS.author(username)] : [])]
+        : []),
     ]);
+  } catch (err) {
+    logger.warn({ err, bookId }, 'invalidatePublicBook failed');
+  }
+}
 
-    return {
-      books: books
-        .filter((b) => b.user.username !== null)
-        .map((book) => ({
-          ...mapBookToPublicCard(book),
-          owner: mapUserToPublicAuthor(book.user),
-        })),
-      total,
-      limit,
-      offset,
-    };
+/**
+ * Whether guests can see a book (published or unlisted, not deleted).
+ */
+export function isPubliclyVisible(book: { visibility: string; deletedAt: Date | null }): boolean {
+  return book.visibility !== 'draft' && book.deletedAt === null;
+}
+
+/**
+ * Invalidate everything that embeds an author: shelf, slug pages, every
+ * book page (owner block) and discover. Call after profile or shelf-order changes.
+ * Pass `previousUsername` if the write may have renamed the author, so pages
+ * cached under the old name are dropped as well.
+ */
+export async function invalidatePublicAuthor(
+  userId: string,
+  options: { previousUsername?: string | null } = {},
+): Promise<void> {
+  try {
+    const user = await getPrisma().user.findUnique({
+      where: { id: userId },
+      select: { username: true, books: { select: { id: true } } },
+    });
+    if (!user) return;
+    const usernames = new Set([user.username, options.previousUsername].filter((u): u is string => !!u));
+    await invalidateTags([
+      PUBLIC_TAGS.discover,
+      ...[...usernames].map((username) => PUBLIC_TAGS.author(username)),
+      ...user.books.map((b) => PUBLIC_TAGS.book(b.id)),
+    ]);
   } catch (err) {
-    logger.warn({ err }, 'discoverBooks: database query failed, returning empty result');
-    return { books: [], total: 0, limit, offset };
+    logger.warn({ err, userId }, 'invalidatePublicAuthor failed');
   }
 }
@@ -1,4 +1,21 @@
+import { randomUUID } from 'node:crypto';
+import type { Prisma } from '@prisma/client';
 import { getPrisma } from '../utils/prisma.js';
+import { getConfig } from '../config.js';
+import { WriteBehindBuffer } from '../utils/writeBehind.js';
+import { verifyBookExists } from '../utils/ownership.js';
+import { AppError } from '../middleware/errorHandler.js';
+import {
+  encodeCursor,
+  decodeDateCursor,
+  cachedCount,
+  CURSOR_TOTAL_TTL_MS,
+} from '../utils/cursor.js';
+
+const DAY_MS = 24 * 60 * 60 * 1000;
+
+/** Максимальный период одного запроса истории статистики */
+export const MAX_STATS_RANGE_DAYS = 366;
 
 export interface ReadingSessionInput {
   startPage: number;
@@ -19,81 +36,316 @@ export interface ReadingSessionDto {
   endedAt: string;
 }
 
+interface PendingSession {
+  id: string;
+  userId: string;
+  bookId: string;
+  startPage: number;
+  endPage: number;
+  pagesRead: number;
+  durationSec: number;
+  startedAt: Date;
+  endedAt: Date;
+}
+
+/**
+ * Вставить пачку сессий одним запросом и тем же запросом прибавить их к сводкам
+ * (reading_stats, reading_stats_daily) — сводки не расходятся с сессиями.
+ * Сессии пользователей и книг, удалённых пока запись ждала в очереди, пропускаются;
+ * повторная вставка той же сессии (ретрай после сбоя) игнорируется и в сводки не попадает.
+ * Строки сводок обновляются в порядке ключа, чтобы параллельные пачки не ловили deadlock.
+ */
+async function writeSessions(rows: PendingSession[]): Promise<void> {
+  await getPrisma().$executeRaw`
+    WITH inserted AS (
+      INSERT INTO reading_sessions (
+        id, user_id, book_id, start_page, end_page, pages_read, duration_sec, started_at, ended_at
+      )
+      SELECT r.*
+      FROM unnest(
+        ${rows.map((r) => r.id)}::uuid[], ${rows.map((r) => r.userId)}::uuid[], ${rows.map((r) => r.bookId)}::uuid[],
+        ${rows.map((r) => r.startPage)}::int[], ${rows.map((r) => r.endPage)}::int[],
+        ${rows.map((r) => r.pagesRead)}::int[], ${rows.map((r) => r.durationSec)}::int[],
+        ${rows.map((r) => r.startedAt.toISOString())}::timestamptz[], ${rows.map((r) => r.endedAt.toISOString())}::timestamptz[]
+      ) AS r(id, user_id, book_id, start_page, end_page, pages_read, duration_sec, started_at, ended_at)
+      WHERE EXISTS (SELECT 1 FROM users u WHERE u.id = r.user_id)
+        AND EXISTS (SELECT 1 FROM books b WHERE b.id = r.book_id)
+      ON CONFLICT (id) DO NOTHING
+      RETURNING user_id, book_id, pages_read, duration_sec, started_at
+    ),
+    totals AS (
+      INSERT INTO reading_stats (user_id, book_id, total_sessions, total_pages, total_duration_sec, updated_at)
+      SELECT user_id, book_id, count(*), sum(pages_read), sum(duration_sec), now()
+      FROM inserted
+      GROUP BY user_id, book_id
+      ORDER BY user_id, book_id
+      ON CONFLICT (user_id, book_id) DO UPDATE
+        SET total_sessions = reading_stats.total_sessions + EXCLUDED.total_sessions,
+            total_pages = reading_stats.total_pages + EXCLUDED.total_pages,
+            total_duration_sec = reading_stats.total_duration_sec + EXCLUDED.total_duration_sec,
+            updated_at = EXCLUDED.updated_at
+    )
+    INSERT INTO reading_stats_daily (user_id, book_id, day, sessions, pages, duration_sec)
+    SELECT user_id, book_id, (started_at AT TIME ZONE 'UTC')::date, count(*), sum(pages_read), sum(duration_sec)
+    FROM inserted
+    GROUP BY 1, 2, 3
+    ORDER BY 1, 2, 3
+    ON CONFLICT (user_id, book_id, day) DO UPDATE
+      SET sessions = reading_stats_daily.sessions + EXCLUDED.sessions,
+          pages = reading_stats_daily.pages + EXCLUDED.pages,
+          duration_sec = reading_stats_daily.duration_sec + EXCLUDED.duration_sec
+  `;
+}
+
+let buffer: WriteBehindBuffer<PendingSession> | null = null;
+
+function getSessionBuffer(): WriteBehindBuffer<PendingSession> {
+  if (!buffer) {
+    const config = getConfig();
+    buffer = new WriteBehindBuffer('reading_sessions', writeSessions, {
+      intervalMs: config.WRITE_BEHIND_FLUSH_MS,
+      maxBatch: config.WRITE_BEHIND_MAX_BATCH,
+    });
+  }
+  return buffer;
+}
+
 /**
- * Создать запись о сессии чтения
+ * Записать ожидающие сессии пользователя по книге, чтобы следующее чтение их увидело
+ */
+async function flushReadingSessions(userId: string, bookId: string): Promise<void> {
+  if (!buffer) return;
+  const prefix = `${userId}:${bookId}:`;
+  await buffer.flush((key) => key.startsWith(prefix));
+}
+
+/** Дописать очередь сессий (graceful shutdown) */
+export async function closeSessionBuffer(): Promise<void> {
+  const current = buffer;
+  buffer = null;
+  await current?.close();
+}
+
+/**
+ * Создать запись о сессии чтения.
+ * Сессия ставится в очередь и вставляется со следующей пачкой; id назначается сразу.
+ * Книга проверяется до постановки в очередь: иначе запрос к несуществующей
+ * книге получил бы 201, а строка молча пропала бы при записи пачки.
  */
 export async function createReadingSession(
   bookId: string,
   userId: string,
   data: ReadingSessionInput,
 ): Promise<ReadingSessionDto> {
-  const prisma = getPrisma();
+  await verifyBookExists(bookId);
 
-  const session = await prisma.readingSession.create({
-    data: {
-      userId,
-      bookId,
-      startPage: data.startPage,
-      endPage: data.endPage,
-      pagesRead: data.pagesRead,
-      durationSec: data.durationSec,
-      startedAt: new Date(data.startedAt),
-      endedAt: new Date(),
-    },
-  });
+  const session: PendingSession = {
+    id: randomUUID(),
+    userId,
+    bookId,
+    startPage: data.startPage,
+    endPage: data.endPage,
+    pagesRead: data.pagesRead,
+    durationSec: data.durationSec,
+    startedAt: new Date(data.startedAt),
+    endedAt: new Date(),
+  };
+
+  await getSessionBuffer().put(`${userId}:${bookId}:${session.id}`, session);
 
   return mapSessionToDto(session);
 }
 
 /**
- * Получить историю сессий чтения для книги (с пагинацией)
+ * Получить историю сессий чтения для книги (с пагинацией).
+ * С `cursor` — keyset-пагинация по `(endedAt, id)` без count() на каждой странице.
  */
 export async function getReadingSessions(
   bookId: string,
   userId: string,
   limit = 50,
   offset = 0,
-): Promise<{ sessions: ReadingSessionDto[]; total: number }> {
+  options: { cursor?: string; withTotal?: boolean } = {},
+): Promise<{ sessions: ReadingSessionDto[]; total?: number; nextCursor: string | null }> {
   const prisma = getPrisma();
+  await flushReadingSessions(userId, bookId);
+  const after = options.cursor ? decodeDateCursor(options.cursor) : null;
+  const where = { userId, bookId };
+  const pageWhere: Prisma.ReadingSessionWhereInput = after
+    ? {
+        ...where,
+        OR: [
+          { endedAt: { lt: after.key } },
+          { endedAt: after.key, id: { lt: after.id } },
+        ],
+      }
+    : where;
 
-  const [sessions, total] = await Promise.all([
+  const [rows, total] = await Promise.all([
     prisma.readingSession.findMany({
-      where: { userId, bookId },
-      orderBy: { endedAt: 'desc' },
-      take: limit,
-      skip: offset,
+      where: pageWhere,
+      orderBy: [{ endedAt: 'desc' }, { id: 'desc' }],
+      ...(after ? {} : { skip: offset }),
+      take: limit + 1,
     }),
-    prisma.readingSession.count({ where: { userId, bookId } }),
+    after
+      ? options.withTotal
+        ? cachedCount(`sessions:${userId}:${bookId}`, CURSOR_TOTAL_TTL_MS, () => prisma.readingSession.count({ where }))
+        : undefined
+      : prisma.readingSession.count({ where }),
   ]);
 
+  const sessions = rows.slice(0, limit);
+  const last = sessions[sessions.length - 1];
+
   return {
     sessions: sessions.map(mapSessionToDto),
-    total,
+    ...(total !== undefined && { total }),
+    nextCursor: rows.length > limit ? encodeCursor(last.endedAt, last.id) : null,
   };
 }
 
 /**
- * Статистика чтения по книге: общее время, страниц прочитано, количество сессий
+ * Статистика чтения по книге: общее время, страниц прочитано, количество сессий.
+ * Читается из сводки — одна строка, сколько бы сессий ни накопилось.
  */
 export async function getReadingStats(
   bookId: string,
   userId: string,
 ): Promise<{ totalSessions: number; totalPages: number; totalDurationSec: number }> {
   const prisma = getPrisma();
+  await flushReadingSessions(userId, bookId);
 
-  const result = await prisma.readingSession.aggregate({
-    where: { userId, bookId },
-    _count: { id: true },
-    _sum: { pagesRead: true, durationSec: true },
+  const stats = await prisma.readingStats.findUnique({
+    where: { userId_bookId: { userId, bookId } },
   });
 
   return {
-    totalSessions: result._count.id,
-    totalPages: result._sum.pagesRead ?? 0,
-    totalDurationSec: result._sum.durationSec ?? 0,
+    totalSessions: stats?.totalSessions ?? 0,
+    totalPages: stats?.totalPages ?? 0,
+    totalDurationSec: stats?.totalDurationSec ?? 0,
   };
 }
 
+export interface ReadingStatsPoint {
+  /** Первый день корзины (YYYY-MM-DD, UTC); неделя начинается с понедельника */
+  date: string;
+  sessions: number;
+  pages: number;
+  minutes: number;
+}
+
+/**
+ * Статистика чтения по дням или неделям за период [from, to] (даты UTC, включительно).
+ * Дни без чтения возвращаются с нулями, чтобы клиенту не приходилось заполнять пропуски.
+ */
+export async function getReadingStatsHistory(
+  bookId: string,
+  userId: string,
+  range: { from: string; to: string; bucket: 'day' | 'week' },
+): Promise<{ bucket: 'day' | 'week'; from: string; to: string; points: ReadingStatsPoint[] }> {
+  const prisma = getPrisma();
+  await flushReadingSessions(userId, bookId);
+
+  const from = new Date(`${range.from}T00:00:00Z`);
+  const to = new Date(`${range.to}T00:00:00Z`);
+  if (to < from) throw new AppError(400, '`to` must not be before `from`');
+  if ((to.getTime() - from.getTime()) / DAY_MS >= MAX_STATS_RANGE_DAYS) {
+    throw new AppError(400, `Stats range is limited to ${MAX_STATS_RANGE_DAYS} days`);
+  }
+
+  const rows = await prisma.readingStatsDaily.findMany({
+    where: { userId, bookId, day: { gte: from, lte: to } },
+    select: { day: true, sessions: true, pages: true, durationSec: true },
+  });
+
+  // Корзины за весь период, затем раскладываем по ним дневные строки
+  const buckets = new Map<string, { sessions: number; pages: number; durationSec: number }>();
+  for (let t = bucketStart(from, range.bucket); t <= to.getTime(); t += range.bucket === 'week' ? 7 * DAY_MS : DAY_MS) {
+    buckets.set(toDateString(t), { sessions: 0, pages: 0, durationSec: 0 });
+  }
+  for (const row of rows) {
+    const bucket = buckets.get(toDateString(bucketStart(row.day, range.bucket)))!;
+    bucket.sessions += row.sessions;
+    bucket.pages += row.pages;
+    bucket.durationSec += row.durationSec;
+  }
+
+  return {
+    bucket: range.bucket,
+    from: range.from,
+    to: range.to,
+    points: [...buckets].map(([date, b]) => ({
+      date,
+      sessions: b.sessions,
+      pages: b.pages,
+      minutes: Math.round(b.durationSec / 60),
+    })),
+  };
+}
+
+/**
+ * Пересчитать сводки из сессий (бэкфилл или исправление расхождений).
+ * Идёт по пользователям пачками; на время пересчёта пачки вставка новых сессий
+ * ждёт блокировку сводок, поэтому ни одна сессия не учитывается дважды и не теряется.
+ */
+export async function rebuildReadingStats(
+  options: { batchSize?: number; onBatch?: (users: number) => void } = {},
+): Promise<{ users: number }> {
+  const prisma = getPrisma();
+  const batchSize = options.batchSize ?? 200;
+  let afterId: string | undefined;
+  let users = 0;
+
+  for (;;) {
+    const batch = await prisma.user.findMany({
+      ...(afterId && { where: { id: { gt: afterId } } }),
+      orderBy: { id: 'asc' },
+      take: batchSize,
+      select: { id: true },
+    });
+    if (batch.length === 0) break;
+    const ids = batch.map((u) => u.id);
+
+    await prisma.$transaction([
+      prisma.$executeRaw`LOCK TABLE reading_stats, reading_stats_daily IN SHARE ROW EXCLUSIVE MODE`,
+      prisma.$executeRaw`DELETE FROM reading_stats WHERE user_id = ANY(${ids}::uuid[])`,
+      prisma.$executeRaw`DELETE FROM reading_stats_daily WHERE user_id = ANY(${ids}::uuid[])`,
+      prisma.$executeRaw`
+        INSERT INTO reading_stats (user_id, book_id, total_sessions, total_pages, total_duration_sec)
+        SELECT user_id, book_id, count(*), sum(pages_read), sum(duration_sec)
+        FROM reading_sessions
+        WHERE user_id = ANY(${ids}::uuid[])
+        GROUP BY user_id, book_id
+      `,
+      prisma.$executeRaw`
+        INSERT INTO reading_stats_daily (user_id, book_id, day, sessions, pages, duration_sec)
+        SELECT user_id, book_id, (started_at AT TIME ZONE 'UTC')::date, count(*), sum(pages_read), sum(duration_sec)
+        FROM reading_sessions
+        WHERE user_id = ANY(${ids}::uuid[])
+        GROUP BY 1, 2, 3
+      `,
+    ]);
+
+    users += batch.length;
+    options.onBatch?.(users);
+    afterId = ids[ids.length - 1];
+  }
+
+  return { users };
+}
+
+function bucketStart(date: Date, bucket: 'day' | 'week'): number {
+  const t = Date.UTC(date.getUTCFullYear(), date.getUTCMonth(), date.getUTCDate());
+  if (bucket === 'day') return t;
+  // getUTCDay: 0 — воскресенье; неделя по ISO начинается с понедельника
+  return t - ((date.getUTCDay() + 6) % 7) * DAY_MS;
+}
+
+function toDateString(t: number): string {
+  return new Date(t).toISOString().slice(0, 10);
+}
+
 function mapSessionToDto(session: {
   id: string;
   bookId: string;
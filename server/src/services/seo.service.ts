@@ -1,5 +1,7 @@
 import { getPrisma } from '../utils/prisma.js';
 import { getConfig } from '../config.js';
+import { cached } from '../utils/cache.js';
+import { PUBLIC_TAGS } from './public.service.js';
 
 interface OgMeta {
   title: string;
@@ -13,6 +15,17 @@ interface OgMeta {
 const SITE_NAME = 'Flipbook';
 const DEFAULT_IMAGE_PATH = '/icons/icon-512.png';
 
+/** Languages advertised via hreflang; `?lang=` outside this list is ignored */
+export const SUPPORTED_LANGS = ['ru', 'en', 'es', 'fr', 'de'];
+
+const LANG_LOCALES: Record<string, string> = {
+  ru: 'ru_RU',
+  en: 'en_US',
+  es: 'es_ES',
+  fr: 'fr_FR',
+  de: 'de_DE',
+};
+
 function getBaseUrl(): string {
   return getConfig().APP_URL.replace(/\/$/, '');
 }
@@ -116,98 +129,427 @@ export async function getShelfOgMeta(username: string): Promise<OgMeta | null> {
   };
 }
 
+/** Per-page <head> fragments substituted into the SPA shell (already escaped) */
+export interface ShellHead {
+  title: string;
+  description: string;
+  canonical: string;
+  tags: string;
+}
+
+export function buildShellHead(meta: OgMeta): ShellHead {
+  return {
+    title: `<title>${escapeHtml(meta.title)}</title>`,
+    description: `<meta name="description" content="${escapeHtml(meta.description)}">`,
+    canonical: `<link rel="canonical" href="${escapeHtml(meta.url)}">`,
+    tags: buildOgTags(meta),
+  };
+}
+
+export function buildHreflangTags(canonicalPath: string): string {
+  const base = getBaseUrl();
+  return SUPPORTED_LANGS.map(
+    (lang) => `<link rel="alternate" hreflang="${lang}" href="${base}${canonicalPath}?lang=${lang}">`,
+  ).join('\n    ') + `\n    <link rel="alternate" hreflang="x-default" href="${base}${canonicalPath}">`;
+}
+
+type ShellSlot = keyof ShellHead;
+
+const SLOT_PATTERNS: [ShellSlot, RegExp][] = [
+  ['title', /<title>[^<]*<\/title>/],
+  ['description', /<meta name="description" content="[^"]*">/],
+  ['canonical', /<link rel="canonical" href="[^"]*">/],
+];
+
+/**
+ * SPA index.html split once into static segments around the parts a public
+ * page overrides, so serving a page is a join instead of regex passes over
+ * the whole document.
+ */
+export interface SpaShell {
+  /**
+   * Render the document. Without `head` the original meta is kept; with it,
+   * the static OG/Twitter block is replaced by the page's own tags.
+   * `hreflang` (may be empty) is appended to <head> in both cases.
+   */
+  render(head: ShellHead | null, hreflang: string): string;
+}
+
+export function compileShell(html: string): SpaShell {
+  const headEnd = html.indexOf('</head>');
+  const plain = headEnd === -1 ? [html, ''] : [html.slice(0, headEnd), html.slice(headEnd)];
+
+  // Variant with the static OG/Twitter block and its comment markers removed
+  const stripped = html
+    .replace(/<meta property="og:[^"]*" content="[^"]*">\s*/g, '')
+    .replace(/<meta name="twitter:[^"]*" content="[^"]*">\s*/g, '')
+    .replace(/\s*<!-- Open Graph -->\s*/g, '\n    ')
+    .replace(/\s*<!-- Twitter Card -->\s*/g, '');
+
+  const marks: { slot: ShellSlot; start: number; end: number }[] = [];
+  for (const [slot, pattern] of SLOT_PATTERNS) {
+    const match = pattern.exec(stripped);
+    if (match) marks.push({ slot, start: match.index, end: match.index + match[0].length });
+  }
+  const strippedHeadEnd = stripped.indexOf('</head>');
+  if (strippedHeadEnd !== -1) marks.push({ slot: 'tags', start: strippedHeadEnd, end: strippedHeadEnd });
+  marks.sort((a, b) => a.start - b.start);
+
+  const segments: string[] = [];
+  let cursor = 0;
+  for (const mark of marks) {
+    segments.push(stripped.slice(cursor, mark.start));
+    cursor = mark.end;
+  }
+  segments.push(stripped.slice(cursor));
+  const slots = marks.map((m) => m.slot);
+
+  return {
+    render(head, hreflang) {
+      const extra = hreflang ? `    ${hreflang}\n` : '';
+      if (!head) return `${plain[0]}${extra}${extra && '  '}${plain[1]}`;
+
+      let out = segments[0];
+      for (let i = 0; i < slots.length; i++) {
+        const slot = slots[i];
+        out += slot === 'tags' ? `    ${head.tags}\n${extra}  ` : head[slot];
+        out += segments[i + 1];
+      }
+      return out;
+    },
+  };
+}
+
 /**
  * Inject OG meta tags into SPA HTML, replacing the static defaults.
+ * One-off form of `compileShell(html).render(...)`.
  */
 export function injectOgTags(html: string, meta: OgMeta): string {
-  const ogTags = buildOgTags(meta);
-
-  // Replace the static OG block (between <!-- Open Graph --> and <!-- Twitter Card --> or next section)
-  // Also replace static twitter card tags
-  let result = html;
-
-  // Remove existing OG tags
-  result = result.replace(/<meta property="og:[^"]*" content="[^"]*">\s*/g, '');
-  // Remove existing Twitter tags
-  result = result.replace(/<meta name="twitter:[^"]*" content="[^"]*">\s*/g, '');
-  // Remove OG/Twitter comment markers
-  result = result.replace(/\s*<!-- Open Graph -->\s*/g, '\n    ');
-  result = result.replace(/\s*<!-- Twitter Card -->\s*/g, '');
-
-  // Inject new tags before </head>
-  result = result.replace('</head>', `    ${ogTags}\n  </head>`);
-
-  // Update <title> and description
-  result = result.replace(
-    /<title>[^<]*<\/title>/,
-    `<title>${escapeHtml(meta.title)}</title>`,
-  );
-  result = result.replace(
-    /<meta name="description" content="[^"]*">/,
-    `<meta name="description" content="${escapeHtml(meta.description)}">`,
-  );
-
-  // Update canonical URL
-  result = result.replace(
-    /<link rel="canonical" href="[^"]*">/,
-    `<link rel="canonical" href="${escapeHtml(meta.url)}">`,
-  );
-
-  return result;
+  return compileShell(html).render(buildShellHead(meta), '');
+}
+
+function withLocale(meta: OgMeta | null, lang: string): OgMeta | null {
+  if (!meta || !LANG_LOCALES[lang]) return meta;
+  return { ...meta, locale: LANG_LOCALES[lang] };
 }
 
+/** How long a shell head miss (unknown or private book/shelf) stays cached */
+const SHELL_MISS_TTL_MS = 60 * 1000;
+
 /**
- * Generate sitemap.xml with public books and author shelves.
+ * Rendered <head> fragments for a public book page, or null if the book
+ * isn't public. Cached per (book, lang) — misses only briefly, so crawler
+ * bursts on dead links don't reach the database without every made-up id
+ * occupying the cache for the full TTL — and invalidated with the book's
+ * public views (see invalidatePublicBook).
  */
-export async function generateSitemap(): Promise<string> {
-  const prisma = getPrisma();
-  const base = getBaseUrl();
+export function getBookShellHead(bookId: string, lang: string): Promise<ShellHead | null> {
+  return cached(`og:book:${bookId}:${lang}`, [PUBLIC_TAGS.book(bookId)], async () => {
+    const meta = withLocale(await getBookOgMeta(bookId), lang);
+    return meta && buildShellHead(meta);
+  }, undefined, SHELL_MISS_TTL_MS);
+}
 
-  const [books, authors] = await Promise.all([
-    prisma.book.findMany({
-      where: { visibility: 'published', deletedAt: null },
-      select: { id: true, updatedAt: true },
-      orderBy: { publishedAt: 'desc' },
-      take: 5000,
-    }),
-    prisma.user.findMany({
-      where: {
-        username: { not: null },
-        books: { some: { visibility: 'published', deletedAt: null } },
-      },
-      select: { username: true, updatedAt: true },
-      take: 5000,
-    }),
-  ]);
-
-  const urls: string[] = [
-    `  <url>
-    <loc>${escapeHtml(base)}/</loc>
-    <changefreq>daily</changefreq>
-    <priority>1.0</priority>
-  </url>`,
-  ];
+/**
+ * Rendered <head> fragments for an author shelf, cached per (username, lang);
+ * unknown usernames are cached only briefly, as for books.
+ */
+export function getShelfShellHead(username: string, lang: string): Promise<ShellHead | null> {
+  return cached(`og:shelf:${username}:${lang}`, [PUBLIC_TAGS.author(username)], async () => {
+    const meta = withLocale(await getShelfOgMeta(username), lang);
+    return meta && buildShellHead(meta);
+  }, undefined, SHELL_MISS_TTL_MS);
+}
 
-  for (const book of books) {
-    urls.push(`  <url>
-    <loc>${escapeHtml(base)}/book/${book.id}</loc>
-    <lastmod>${book.updatedAt.toISOString().split('T')[0]}</lastmod>
-    <changefreq>weekly</changefreq>
-    <priority>0.8</priority>
-  </url>`);
-  }
+/** Max URLs per sitemap file (sitemaps.org protocol limit) */
+export const SITEMAP_SHARD_SIZE = 50_000;
+/** Rows fetched per keyset batch while streaming a shard */
+const SITEMAP_BATCH_SIZE = 2_000;
+/** How long a manifest (and its Last-Modified) lives without publish events */
+const SITEMAP_MANIFEST_TTL_MS = 6 * 60 * 60 * 1000;
+/** Memory budget for rendered sitemap files (a full shard is ~7 MB) */
+const SITEMAP_BODY_CACHE_BYTES = 32 * 1024 * 1024;
 
-  for (const author of authors) {
-    urls.push(`  <url>
-    <loc>${escapeHtml(base)}/${escapeHtml(author.username!)}</loc>
-    <lastmod>${author.updatedAt.toISOString().split('T')[0]}</lastmod>
-    <changefreq>weekly</changefreq>
-    <priority>0.6</priority>
-  </url>`);
-  }
+let shardSize = SITEMAP_SHARD_SIZE;
+
+/** Override the URLs-per-file limit (tests) */
+export function setSitemapShardSize(size: number): void {
+  shardSize = Math.min(Math.max(2, size), SITEMAP_SHARD_SIZE);
+  sitemapBodies.clear();
+  shardHistory.clear();
+}
+
+const publishedBooks = { visibility: 'published', deletedAt: null } as const;
+const publicAuthors = {
+  username: { not: null },
+  books: { some: publishedBooks },
+};
+
+/** One file of the sitemap */
+export interface SitemapShard {
+  /** `all`, `books-N` or `authors-N` */
+  name: string;
+  /** First row (by id) in the file, so streaming can seek by key; null = from the start */
+  startId: string | null;
+  /** ISO time of the newest change to the rows in this file */
+  lastModified: string;
+}
+
+/**
+ * Which sitemap files currently exist. `all` is the single-file sitemap used
+ * while the catalogue fits one shard; past that, /sitemap.xml becomes an
+ * index over `books-N` / `authors-N` shards.
+ */
+export interface SitemapManifest {
+  /** ISO time this manifest was built; keys the rendered-body cache */
+  generatedAt: string;
+  shards: SitemapShard[];
+}
 
+/** Per-shard rollup of public rows, numbered in id order */
+interface ShardRollup {
+  shard: number;
+  firstId: string;
+  lastId: string;
+  count: number;
+  lastModified: Date;
+}
+
+/**
+ * Shards as of the previous manifest build in this process. A shard whose
+ * rows were removed or shifted (unpublish, delete, a book publishing in an
+ * earlier shard) has a different first/last id or count but not necessarily
+ * a newer updatedAt, so such a shard is stamped with the rebuild time.
+ */
+const shardHistory = new Map<string, { fingerprint: string; changedAt: string | null }>();
+
+function stampShard(name: string, rollups: ShardRollup[], generatedAt: string): SitemapShard {
+  const fingerprint = rollups.map((r) => `${r.firstId}:${r.lastId}:${r.count}`).join(',');
+  const previous = shardHistory.get(name);
+  const changedAt = !previous ? null : previous.fingerprint === fingerprint ? previous.changedAt : generatedAt;
+  shardHistory.set(name, { fingerprint, changedAt });
+
+  const times = rollups.map((r) => new Date(r.lastModified).getTime());
+  if (changedAt) times.push(Date.parse(changedAt));
+  return {
+    name,
+    startId: rollups[0]?.firstId ?? null,
+    // An empty catalogue has nothing to date it by
+    lastModified: times.length > 0 ? new Date(Math.max(...times)).toISOString() : generatedAt,
+  };
+}
+
+/**
+ * Get the sitemap manifest: one pass over each table numbers the public rows
+ * by id and rolls them up per shard (first id for keyset seeks, newest
+ * updatedAt for Last-Modified). Cached under the `discover` tag, so any
+ * publish, unpublish, book update or profile change rebuilds it.
+ */
+export function getSitemapManifest(): Promise<SitemapManifest> {
+  return cached(`sitemap:manifest:${shardSize}`, [PUBLIC_TAGS.discover], async () => {
+    const prisma = getPrisma();
+    const generatedAt = new Date().toISOString();
+    // books-1 also carries the home page, so book rows are numbered from 1
+    const [books, authors] = await Promise.all([
+      prisma.$queryRaw<ShardRollup[]>`
+        SELECT ((rn + 1) / ${shardSize}::int)::int AS shard,
+               min(id::text) AS "firstId", max(id::text) AS "lastId",
+               count(*)::int AS count, max(updated_at) AS "lastModified"
+        FROM (
+          SELECT id, updated_at, row_number() OVER (ORDER BY id) - 1 AS rn
+          FROM books
+          WHERE visibility = 'published' AND deleted_at IS NULL
+        ) ranked
+        GROUP BY 1 ORDER BY 1`,
+      prisma.$queryRaw<ShardRollup[]>`
+        SELECT (rn / ${shardSize}::int)::int AS shard,
+               min(id::text) AS "firstId", max(id::text) AS "lastId",
+               count(*)::int AS count, max(updated_at) AS "lastModified"
+        FROM (
+          SELECT u.id, u.updated_at, row_number() OVER (ORDER BY u.id) - 1 AS rn
+          FROM users u
+          WHERE u.username IS NOT NULL AND EXISTS (
+            SELECT 1 FROM books b
+            WHERE b.user_id = u.id AND b.visibility = 'published' AND b.deleted_at IS NULL
+          )
+        ) ranked
+        GROUP BY 1 ORDER BY 1`,
+    ]);
+
+    const total = [...books, ...authors].reduce((sum, r) => sum + r.count, 0);
+    const shards = total + 1 <= shardSize
+      ? [{ ...stampShard('all', [...books, ...authors], generatedAt), startId: null }]
+      : [
+          // books-1 exists even without books: it holds the home page
+          ...(books.length > 0 ? books : [null]).map((r, i) => stampShard(`books-${i + 1}`, r ? [r] : [], generatedAt)),
+          ...authors.map((r, i) => stampShard(`authors-${i + 1}`, [r], generatedAt)),
+        ];
+    return { generatedAt, shards };
+  }, SITEMAP_MANIFEST_TTL_MS);
+}
+
+/** Sitemap index XML pointing at each shard */
+export function buildSitemapIndex(manifest: SitemapManifest): string {
+  const base = escapeHtml(getBaseUrl());
+  const entries = manifest.shards.map((shard) => `  <sitemap>
+    <loc>${base}/sitemaps/${shard.name}.xml</loc>
+    <lastmod>${shard.lastModified}</lastmod>
+  </sitemap>`);
   return `<?xml version="1.0" encoding="UTF-8"?>
+<sitemapindex xmlns="http://www.sitemaps.org/schemas/sitemap/0.9">
+${entries.join('\n')}
+</sitemapindex>`;
+}
+
+function urlEntry(loc: string, lastmod: Date | null, changefreq: string, priority: string): string {
+  return `  <url>
+    <loc>${loc}</loc>${lastmod ? `
+    <lastmod>${lastmod.toISOString().split('T')[0]}</lastmod>` : ''}
+    <changefreq>${changefreq}</changefreq>
+    <priority>${priority}</priority>
+  </url>`;
+}
+
+type IdSeek = { gte: string } | { gt: string };
+
+/**
+ * Walk up to `limit` rows in id order starting at `startId`, one keyset
+ * batch at a time, so memory stays flat and no batch pays for an OFFSET
+ * however deep into the catalogue the shard starts.
+ */
+async function* keysetBatches<T extends { id: string }>(
+  fetch: (seek: IdSeek | null, take: number) => Promise<T[]>,
+  startId: string | null,
+  limit: number,
+): AsyncGenerator<T[]> {
+  let seek: IdSeek | null = startId ? { gte: startId } : null;
+  let remaining = limit;
+  while (remaining > 0) {
+    const take = Math.min(SITEMAP_BATCH_SIZE, remaining);
+    const rows = await fetch(seek, take);
+    if (rows.length === 0) return;
+    yield rows;
+    remaining -= rows.length;
+    seek = { gt: rows[rows.length - 1].id };
+    if (rows.length < take) return;
+  }
+}
+
+function bookBatches(startId: string | null, limit: number) {
+  return keysetBatches((seek, take) => getPrisma().book.findMany({
+    where: { ...publishedBooks, ...(seek && { id: seek }) },
+    select: { id: true, updatedAt: true },
+    orderBy: { id: 'asc' },
+    take,
+  }), startId, limit);
+}
+
+function authorBatches(startId: string | null, limit: number) {
+  return keysetBatches((seek, take) => getPrisma().user.findMany({
+    where: { ...publicAuthors, ...(seek && { id: seek }) },
+    select: { id: true, username: true, updatedAt: true },
+    orderBy: { id: 'asc' },
+    take,
+  }), startId, limit);
+}
+
+/** Parse a shard name; null if it isn't one the manifest can contain */
+function parseSitemapShard(name: string): { kind: 'all' | 'books' | 'authors'; index: number } | null {
+  if (name === 'all') return { kind: 'all', index: 1 };
+  const match = /^(books|authors)-([1-9]\d{0,5})$/.exec(name);
+  return match ? { kind: match[1] as 'books' | 'authors', index: Number(match[2]) } : null;
+}
+
+/**
+ * Stream one sitemap file as XML chunks (one per DB batch), starting at the
+ * shard's first row. The home page is listed in `all` and in `books-1`.
+ */
+export async function* streamSitemapShard(shard: Pick<SitemapShard, 'name' | 'startId'>): AsyncGenerator<string> {
+  const parsed = parseSitemapShard(shard.name);
+  if (!parsed) throw new Error(`Unknown sitemap shard: ${shard.name}`);
+  const base = escapeHtml(getBaseUrl());
+
+  yield `<?xml version="1.0" encoding="UTF-8"?>
 <urlset xmlns="http://www.sitemaps.org/schemas/sitemap/0.9">
-${urls.join('\n')}
-</urlset>`;
+`;
+  let limit = shardSize;
+  if (parsed.kind === 'all' || (parsed.kind === 'books' && parsed.index === 1)) {
+    yield urlEntry(`${base}/`, null, 'daily', '1.0') + '\n';
+    limit -= 1;
+  }
+
+  if (parsed.kind !== 'authors') {
+    // In `all` mode the manifest guarantees everything fits; no cap needed
+    const bookLimit = parsed.kind === 'all' ? Infinity : limit;
+    for await (const books of bookBatches(shard.startId, bookLimit)) {
+      yield books.map((b) => urlEntry(`${base}/book/${b.id}`, b.updatedAt, 'weekly', '0.8') + '\n').join('');
+    }
+  }
+  if (parsed.kind !== 'books') {
+    const authorLimit = parsed.kind === 'all' ? Infinity : shardSize;
+    for await (const authors of authorBatches(shard.startId, authorLimit)) {
+      yield authors.map((a) =>
+        urlEntry(`${base}/${escapeHtml(a.username!)}`, a.updatedAt, 'weekly', '0.6') + '\n').join('');
+    }
+  }
+
+  yield '</urlset>';
+}
+
+/**
+ * In-process LRU of rendered sitemap files, bounded by total bytes.
+ * Keys include the manifest's `generatedAt`, so a catalogue change makes
+ * every old body unreachable; they age out as new ones are stored.
+ */
+class SitemapBodyCache {
+  private entries = new Map<string, Buffer>();
+  private totalBytes = 0;
+
+  constructor(private readonly maxBytes: number) {}
+
+  get(key: string): Buffer | null {
+    const body = this.entries.get(key);
+    if (!body) return null;
+    this.entries.delete(key);
+    this.entries.set(key, body);
+    return body;
+  }
+
+  set(key: string, body: Buffer): void {
+    if (body.length > this.maxBytes || this.entries.has(key)) return;
+    this.entries.set(key, body);
+    this.totalBytes += body.length;
+    for (const [oldestKey, oldest] of this.entries) {
+      if (this.totalBytes <= this.maxBytes) break;
+      this.entries.delete(oldestKey);
+      this.totalBytes -= oldest.length;
+    }
+  }
+
+  clear(): void {
+    this.entries.clear();
+    this.totalBytes = 0;
+  }
+}
+
+const sitemapBodies = new SitemapBodyCache(SITEMAP_BODY_CACHE_BYTES);
+
+/** Rendered sitemap file for this manifest, if one is held in memory */
+export function getCachedSitemapBody(manifest: SitemapManifest, shard: SitemapShard): Buffer | null {
+  return sitemapBodies.get(`${manifest.generatedAt}:${shard.name}`);
+}
+
+/** Keep a fully streamed sitemap file for later requests */
+export function storeSitemapBody(manifest: SitemapManifest, shard: SitemapShard, body: Buffer): void {
+  sitemapBodies.set(`${manifest.generatedAt}:${shard.name}`, body);
+}
+
+/**
+ * Generate a single-file sitemap.xml with every published book and author
+ * shelf (uncached; the HTTP routes serve shards through the sitemap cache).
+ */
+export async function generateSitemap(): Promise<string> {
+  let xml = '';
+  for await (const chunk of streamSitemapShard({ name: 'all', startId: null })) xml += chunk;
+  return xml;
 }
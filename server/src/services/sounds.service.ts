@@ -1,6 +1,7 @@
 import { getPrisma } from '../utils/prisma.js';
 import { AppError } from '../middleware/errorHandler.js';
 import { mapSoundsToDto } from '../utils/mappers.js';
+import { invalidatePublicBook } from './public.service.js';
 import type { SoundsDetail } from '../types/api.js';
 
 /**
@@ -42,5 +43,6 @@ export async function updateSounds(
     update: updateData,
   });
 
+  await invalidatePublicBook(bookId);
   return mapSoundsToDto(sounds);
 }
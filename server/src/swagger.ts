@@ -74,6 +74,10 @@ const jsonBody = (schemaName: string) => ({
   content: { 'application/json': { schema: ref(schemaName) } },
 });
 const bookIdParam = { name: 'bookId', in: 'path', required: true, schema: { type: 'string', format: 'uuid' } };
+const cursorParams = [
+  { name: 'cursor', in: 'query', required: false, schema: { type: 'string' }, description: 'Opaque `nextCursor` from the previous page (keyset paging; `offset` is ignored)' },
+  { name: 'withTotal', in: 'query', required: false, schema: { type: 'boolean' }, description: 'Include `total` on cursor pages (cached briefly)' },
+];
 
 export const swaggerSpec = {
   openapi: '3.0.3',
@@ -159,6 +163,7 @@ export const swaggerSpec = {
         parameters: [
           { name: 'limit', in: 'query', schema: { type: 'integer', minimum: 1, maximum: 100 }, description: 'Max books per page (default 50)' },
           { name: 'offset', in: 'query', schema: { type: 'integer', minimum: 0 }, description: 'Number of books to skip' },
+          ...cursorParams,
         ],
         responses: { 200: { description: 'Paginated list of books' } },
       },
@@ -174,9 +179,12 @@ export const swaggerSpec = {
     },
     // ── Chapters ────────────────────────────────────
     '/books/{bookId}/chapters': {
-      get: { tags: ['Chapters'], summary: 'List chapters', parameters: [bookIdParam], responses: { 200: { description: 'Array of chapters' } } },
+      get: { tags: ['Chapters'], summary: 'List chapters', parameters: [bookIdParam, ...cursorParams], responses: { 200: { description: 'Array of chapters' } } },
       post: { tags: ['Chapters'], summary: 'Create chapter', parameters: [bookIdParam], requestBody: jsonBody('CreateChapter'), responses: { 201: { description: 'Chapter created' } } },
     },
+    '/books/{bookId}/bundle': {
+      get: { tags: ['Books'], summary: 'Reader bundle: book, progress, settings, fonts and first N chapters (NDJSON stream)', parameters: [bookIdParam, { name: 'chapters', in: 'query', required: false, schema: { type: 'integer', minimum: 0, maximum: 50, default: 3 } }], responses: { 200: { description: 'One JSON record per line: book, progress, settings, fonts, chapter…, end', content: { 'application/x-ndjson': { schema: { type: 'string' } } } } } },
+    },
     '/books/{bookId}/chapters/reorder': {
       patch: { tags: ['Chapters'], summary: 'Reorder chapters', parameters: [bookIdParam], requestBody: jsonBody('ReorderChapters'), responses: { 200: { description: 'Reordered' } } },
     },
@@ -186,7 +194,7 @@ export const swaggerSpec = {
       delete: { tags: ['Chapters'], summary: 'Delete chapter', parameters: [bookIdParam, { name: 'chapterId', in: 'path', required: true, schema: { type: 'string', format: 'uuid' } }], responses: { 204: { description: 'Deleted' } } },
     },
     '/books/{bookId}/chapters/{chapterId}/content': {
-      get: { tags: ['Chapters'], summary: 'Get chapter HTML content', parameters: [bookIdParam, { name: 'chapterId', in: 'path', required: true, schema: { type: 'string', format: 'uuid' } }], responses: { 200: { description: 'Chapter HTML' } } },
+      get: { tags: ['Chapters'], summary: 'Get chapter HTML content', parameters: [bookIdParam, { name: 'chapterId', in: 'path', required: true, schema: { type: 'string', format: 'uuid' } }, { name: 'If-None-Match', in: 'header', required: false, schema: { type: 'string' } }], responses: { 200: { description: 'Chapter HTML (with strong ETag). JSON envelope by default; raw br/gzip HTML for Accept: text/html', content: { 'application/json': {}, 'text/html': { schema: { type: 'string' } } } }, 304: { description: 'Not modified' } } },
     },
     // ── Appearance ──────────────────────────────────
     '/books/{bookId}/appearance': {
@@ -257,7 +265,7 @@ export const swaggerSpec = {
       post: { tags: ['Upload'], summary: 'Upload an image', requestBody: { required: true, content: { 'multipart/form-data': { schema: { type: 'object', properties: { file: { type: 'string', format: 'binary' } } } } } }, responses: { 200: { description: 'Uploaded URL' } } },
     },
     '/upload/book': {
-      post: { tags: ['Upload'], summary: 'Upload & parse a book file (txt/doc/docx/epub/fb2)', requestBody: { required: true, content: { 'multipart/form-data': { schema: { type: 'object', properties: { file: { type: 'string', format: 'binary' } } } } } }, responses: { 200: { description: 'Parsed book data' } } },
+      post: { tags: ['Upload'], summary: 'Upload & parse a book file (txt/doc/docx/epub/fb2)', requestBody: { required: true, content: { 'multipart/form-data': { schema: { type: 'object', properties: { file: { type: 'string', format: 'binary' } } } } } }, responses: { 200: { description: 'Parsed book data' }, 422: { description: 'Parse error or timeout' }, 503: { description: 'Parser queue full (PARSER_BUSY), retry later' } } },
     },
     // ── Export / Import ─────────────────────────────
     '/export': {
@@ -73,6 +73,11 @@ export interface ChapterListItem {
   position: number;
   filePath: string | null;
   hasHtmlContent: boolean;
+  /** UTF-8 size of the HTML in bytes */
+  contentLength: number;
+  /** SHA-256 of the HTML (hex); changes exactly when the content does */
+  contentHash: string | null;
+  wordCount: number;
   bg: string;
   bgMobile: string;
 }
@@ -235,9 +240,30 @@ export interface PublicBookDetail {
   owner: PublicAuthor;
 }
 
-export interface DiscoverResult {
-  books: (PublicBookCard & { owner: PublicAuthor })[];
-  total: number;
+/**
+ * Pagination fields shared by list endpoints.
+ * Offset pages always carry `offset` and `total`; keyset (cursor) pages
+ * omit `offset` and include `total` only when requested.
+ */
+export interface PageInfo {
+  total?: number;
   limit: number;
-  offset: number;
+  offset?: number;
+  /** Opaque cursor for the next page, null when this is the last page */
+  nextCursor: string | null;
+}
+
+export interface DiscoverResult extends PageInfo {
+  books: (PublicBookCard & { owner: PublicAuthor })[];
 }
+
+// ── Reader bundle (NDJSON stream) ─────────────────
+
+export type ReaderBundleRecord =
+  | { type: 'book'; data: BookDetail | PublicBookDetail }
+  | { type: 'progress'; data: ReadingProgressDetail | null }
+  | { type: 'settings'; data: GlobalSettingsDetail | null }
+  | { type: 'fonts'; data: ReadingFontItem[] }
+  | { type: 'chapter'; data: { id: string; html: string | null } }
+  | { type: 'end' }
+  | { type: 'error'; data: { message: string } };
@@ -1,4 +1,6 @@
 import type { Request, Response, NextFunction } from 'express';
+import { matchedRoute } from '../middleware/metrics.js';
+import { withSpan } from './tracing.js';
 
 type AsyncRequestHandler = (req: Request, res: Response, next: NextFunction) => Promise<void>;
 
@@ -7,9 +9,11 @@ type AsyncRequestHandler = (req: Request, res: Response, next: NextFunction) =>
  * are automatically forwarded to the error-handling middleware.
  *
  * Eliminates the need for try/catch in every route handler.
+ * When the request is traced, the handler runs in its own span.
  */
 export const asyncHandler =
   (fn: AsyncRequestHandler) =>
   (req: Request, res: Response, next: NextFunction): void => {
-    Promise.resolve(fn(req, res, next)).catch(next);
+    const route = matchedRoute(req);
+    withSpan(route ? `handler ${route}` : 'handler', {}, () => Promise.resolve(fn(req, res, next))).catch(next);
   };
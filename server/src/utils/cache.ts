@@ -0,0 +1,221 @@
+import { randomUUID } from 'node:crypto';
+import { getConfig } from '../config.js';
+import { logger } from './logger.js';
+import { cacheLookupsTotal } from '../middleware/metrics.js';
+import { RespCacheStore } from './respCache.js';
+
+/**
+ * Minimal key/value contract a cache backend has to provide.
+ * Values are opaque strings; TTLs are in milliseconds.
+ */
+export interface CacheStore {
+  mget(keys: string[]): Promise<(string | null)[]>;
+  set(key: string, value: string, ttlMs?: number): Promise<void>;
+  del(keys: string[]): Promise<void>;
+  close(): Promise<void>;
+}
+
+/**
+ * In-process LRU backend, bounded by entry count.
+ * Expired entries are dropped lazily on read.
+ */
+export class MemoryCacheStore implements CacheStore {
+  private entries = new Map<string, { value: string; expiresAt: number }>();
+
+  constructor(private readonly maxEntries = 5000) {}
+
+  async mget(keys: string[]): Promise<(string | null)[]> {
+    const now = Date.now();
+    return keys.map((key) => {
+      const entry = this.entries.get(key);
+      if (!entry) return null;
+      if (entry.expiresAt <= now) {
+        this.entries.delete(key);
+        return null;
+      }
+      // Move to the most-recently-used end (Map preserves insertion order)
+      this.entries.delete(key);
+      this.entries.set(key, entry);
+      return entry.value;
+    });
+  }
+
+  async set(key: string, value: string, ttlMs?: number): Promise<void> {
+    this.entries.delete(key);
+    this.entries.set(key, { value, expiresAt: ttlMs ? Date.now() + ttlMs : Infinity });
+    for (const oldest of this.entries.keys()) {
+      if (this.entries.size <= this.maxEntries) break;
+      this.entries.delete(oldest);
+    }
+  }
+
+  async del(keys: string[]): Promise<void> {
+    for (const key of keys) this.entries.delete(key);
+  }
+
+  async close(): Promise<void> {
+    this.entries.clear();
+  }
+
+  get size(): number {
+    return this.entries.size;
+  }
+}
+
+/** Backend that never stores anything (CACHE_BACKEND=none) */
+class NullCacheStore implements CacheStore {
+  async mget(keys: string[]) { return keys.map(() => null); }
+  async set() {}
+  async del() {}
+  async close() {}
+}
+
+const KEY_PREFIX = 'flipbook:';
+
+let store: CacheStore | null = null;
+
+/**
+ * Get the process-wide cache backend, selected by CACHE_BACKEND.
+ */
+export function getCacheStore(): CacheStore {
+  if (store) return store;
+  const config = getConfig();
+  switch (config.CACHE_BACKEND) {
+    case 'redis':
+      store = new RespCacheStore(config.REDIS_URL!);
+      break;
+    case 'none':
+      store = new NullCacheStore();
+      break;
+    default:
+      store = new MemoryCacheStore();
+  }
+  return store;
+}
+
+/** Swap the backend (tests) — the previous one is closed */
+export async function setCacheStore(next: CacheStore | null): Promise<void> {
+  const previous = store;
+  store = next;
+  inFlight.clear();
+  await previous?.close();
+}
+
+export async function closeCacheStore(): Promise<void> {
+  await setCacheStore(null);
+}
+
+const genKey = (tag: string) => `${KEY_PREFIX}gen:${tag}`;
+const entryKey = (key: string) => `${KEY_PREFIX}c:${key}`;
+
+interface StoredEntry<T> {
+  /** Tag generations at the time the value was loaded */
+  g: string[];
+  v: T;
+}
+
+/**
+ * Generation a tag has before its first invalidation. Reads never create
+ * generation keys — minting one per looked-up tag would leave a key without
+ * TTL behind for every unknown username or book id a crawler asks for. Only
+ * `invalidateTags()` writes them, and it is only called for things that exist.
+ *
+ * If a backend evicts a generation key, the tag falls back to this value and
+ * an entry stored before its first invalidation may match again; the entry
+ * TTL bounds how long that can last.
+ */
+const INITIAL_GENERATION = '0';
+
+const inFlight = new Map<string, Promise<unknown>>();
+
+/**
+ * Read-through cache with tag-based invalidation.
+ *
+ * Each entry is stamped with the generations of its `tags`; `invalidateTags()`
+ * replaces a tag's generation, which turns every entry carrying it into a miss.
+ * Generations are read *before* the loader runs, so a write that lands while
+ * the value is being loaded still invalidates it. TTL bounds staleness if an
+ * invalidation is ever lost.
+ *
+ * A `null` result is kept for `nullTtlMs` instead — enough to absorb a burst
+ * of requests for something that doesn't exist without holding an entry per
+ * made-up URL for the full TTL.
+ *
+ * Concurrent misses for the same key share one load. Backend failures are
+ * logged and fall through to the loader — the cache never fails a read.
+ */
+export async function cached<T>(
+  key: string,
+  tags: string[],
+  load: () => Promise<T>,
+  ttlMs = getConfig().PUBLIC_CACHE_TTL * 1000,
+  nullTtlMs = ttlMs,
+): Promise<T> {
+  if (ttlMs <= 0) return load();
+
+  const pending = inFlight.get(key);
+  if (pending) return pending as Promise<T>;
+
+  const promise = readThrough(key, tags, load, ttlMs, Math.min(nullTtlMs, ttlMs));
+  inFlight.set(key, promise);
+  try {
+    return await promise;
+  } finally {
+    inFlight.delete(key);
+  }
+}
+
+async function readThrough<T>(
+  key: string,
+  tags: string[],
+  load: () => Promise<T>,
+  ttlMs: number,
+  nullTtlMs: number,
+): Promise<T> {
+  const namespace = key.split(':', 1)[0];
+  const cache = getCacheStore();
+
+  let gens: string[] | null = null;
+  try {
+    const [raw, ...current] = await cache.mget([entryKey(key), ...tags.map(genKey)]);
+    const snapshot = current.map((gen) => gen ?? INITIAL_GENERATION);
+    if (raw) {
+      const entry = JSON.parse(raw) as StoredEntry<T>;
+      if (entry.g.length === tags.length && entry.g.every((g, i) => g === snapshot[i])) {
+        cacheLookupsTotal.inc({ namespace, result: 'hit' });
+        return entry.v;
+      }
+    }
+    gens = snapshot;
+    cacheLookupsTotal.inc({ namespace, result: 'miss' });
+  } catch (err) {
+    cacheLookupsTotal.inc({ namespace, result: 'error' });
+    logger.warn({ err, key }, 'Cache read failed, loading from database');
+  }
+
+  const value = await load();
+  const entryTtlMs = value === null ? nullTtlMs : ttlMs;
+  if (gens && entryTtlMs > 0) {
+    const entry: StoredEntry<T> = { g: gens, v: value };
+    cache.set(entryKey(key), JSON.stringify(entry), entryTtlMs).catch((err) => {
+      logger.warn({ err, key }, 'Cache write failed');
+    });
+  }
+  return value;
+}
+
+/**
+ * Invalidate every cached entry carrying any of `tags`.
+ * Best-effort: failures are logged, never thrown to the caller's mutation.
+ */
+export async function invalidateTags(tags: string[]): Promise<void> {
+  if (tags.length === 0) return;
+  const cache = getCacheStore();
+  // Later readers must not join a load that may have seen pre-write data
+  inFlight.clear();
+  try {
+    await Promise.all(tags.map((tag) => cache.set(genKey(tag), randomUUID())));
+  } catch (err) {
+    logger.warn({ err, tags }, 'Cache invalidation failed');
+  }
+}
@@ -0,0 +1,214 @@
+import { promisify } from 'node:util';
+import { brotliCompress, brotliDecompress, constants as zlibConstants } from 'node:zlib';
+import { getConfig } from '../config.js';
+import { getPrisma } from './prisma.js';
+import { getFileBuffer, uploadFile } from './storage.js';
+import { computeChapterMetadata, type ChapterContentMetadata } from './chapterMetadata.js';
+import { logger } from './logger.js';
+import { AppError } from '../middleware/errorHandler.js';
+
+const brotliAsync = promisify(brotliCompress);
+const unbrotliAsync = promisify(brotliDecompress);
+
+/**
+ * Chapter body storage.
+ *
+ * With CHAPTER_CONTENT_STORE=s3 chapter HTML is written to object storage,
+ * brotli-compressed, under a key derived from its SHA-256 (content_hash), and
+ * html_content stays NULL: Postgres keeps only the metadata. Identical bodies
+ * share one object, and its bytes never change once written.
+ *
+ * Objects are shared and removed by scripts/cleanup-s3-orphans.sh once no row
+ * points at them, so every write re-uploads its object even when it already
+ * exists: that refreshes LastModified, and the script's grace period for
+ * chapter-bodies/ keeps an object that a row is about to point at again.
+ * The text of private books lives here too — the bucket must not serve this
+ * prefix anonymously (see DEPLOYMENT.md).
+ *
+ * Reads accept both places, whatever the setting: a row with html_content is
+ * read from Postgres, a row with content but no html_content from its object.
+ * That covers rows written before the switch until moveChapterBodiesToStorage
+ * (npm run db:migrate-chapter-bodies) has moved them.
+ */
+
+export const CHAPTER_BODY_PREFIX = 'chapter-bodies/';
+
+export type ChapterContentStore = 'postgres' | 's3';
+
+export function chapterBodyKey(contentHash: string): string {
+  return `${CHAPTER_BODY_PREFIX}${contentHash}.html.br`;
+}
+
+/** Chapter columns for a body written in `store` (spread into create/update data) */
+export type StoredChapterBody = ChapterContentMetadata & { htmlContent: string | null };
+
+function compressBody(html: string): Promise<Buffer> {
+  const raw = Buffer.from(html, 'utf8');
+  // Written once, read many times: spend more than the on-the-fly encoder in contentCache.ts
+  return brotliAsync(raw, {
+    params: {
+      [zlibConstants.BROTLI_PARAM_MODE]: zlibConstants.BROTLI_MODE_TEXT,
+      [zlibConstants.BROTLI_PARAM_QUALITY]: 9,
+      [zlibConstants.BROTLI_PARAM_SIZE_HINT]: raw.length,
+    },
+  });
+}
+
+async function putBody(contentHash: string, html: string): Promise<void> {
+  const key = chapterBodyKey(contentHash);
+  // Same hash => same bytes, but not skipped when present: the PUT renews the
+  // object's age, which is what protects it from the orphan cleanup
+  await uploadFile(await compressBody(html), key, 'text/html; charset=utf-8', { contentEncoding: 'br' });
+}
+
+/**
+ * Write sanitized chapter HTML to the configured store and return the
+ * chapter columns to save. The object is uploaded before the row is
+ * written, so a committed row never points at a missing object.
+ */
+export async function storeChapterBody(
+  html: string | null,
+  store: ChapterContentStore = getConfig().CHAPTER_CONTENT_STORE,
+): Promise<StoredChapterBody> {
+  const metadata = computeChapterMetadata(html);
+  if (store === 'postgres' || html === null) return { htmlContent: html, ...metadata };
+
+  await putBody(metadata.contentHash!, html);
+  return { htmlContent: null, ...metadata };
+}
+
+export interface LoadedChapterBody {
+  html: string | null;
+  /** The stored brotli object, when the body came from object storage */
+  brotli?: Buffer;
+}
+
+/**
+ * Read a chapter body from wherever its row says it is. A row whose object is
+ * gone answers 404 CHAPTER_CONTENT_MISSING (logged as an error: the text has
+ * to be restored from a bucket backup or saved again).
+ */
+export async function loadChapterBody(row: {
+  htmlContent: string | null;
+  hasContent: boolean;
+  contentHash: string | null;
+}): Promise<LoadedChapterBody> {
+  if (row.htmlContent !== null || !row.hasContent || !row.contentHash) return { html: row.htmlContent };
+
+  const key = chapterBodyKey(row.contentHash);
+  let brotli: Buffer;
+  try {
+    brotli = await getFileBuffer(key);
+  } catch (err) {
+    if (!isMissingObject(err)) throw err;
+    logger.error({ key }, 'Chapter body missing from object storage');
+    throw new AppError(404, 'Chapter content not found', 'CHAPTER_CONTENT_MISSING');
+  }
+  const html = (await unbrotliAsync(brotli)).toString('utf8');
+  return { html, brotli };
+}
+
+function isMissingObject(err: unknown): boolean {
+  const name = (err as { name?: string } | null)?.name;
+  return name === 'NoSuchKey' || name === 'NotFound';
+}
+
+/**
+ * Move chapter bodies still held in Postgres to object storage, in batches
+ * by id. Safe to run while the server is up: a row is only cleared if its
+ * HTML is still what was uploaded (a concurrent edit wins), and updated_at is
+ * left alone so cached copies and editors' If-Unmodified-Since stay valid.
+ */
+export async function moveChapterBodiesToStorage(
+  options: { batchSize?: number; onBatch?: (moved: number) => void } = {},
+): Promise<{ moved: number; skipped: number }> {
+  const prisma = getPrisma();
+  // Rows hold up to 2 MB of HTML each; keep batches small
+  const batchSize = options.batchSize ?? 20;
+  let afterId: string | undefined;
+  let moved = 0;
+  let skipped = 0;
+
+  for (;;) {
+    const batch = await prisma.chapter.findMany({
+      where: { htmlContent: { not: null }, ...(afterId && { id: { gt: afterId } }) },
+      orderBy: { id: 'asc' },
+      take: batchSize,
+      select: { id: true, htmlContent: true },
+    });
+    if (batch.length === 0) break;
+
+    for (const row of batch) {
+      const html = row.htmlContent!;
+      const metadata = computeChapterMetadata(html);
+      await putBody(metadata.contentHash!, html);
+      const updated = await prisma.$executeRaw`
+        UPDATE chapters
+        SET html_content = NULL,
+            has_content = true,
+            content_length = ${metadata.contentLength},
+            content_hash = ${metadata.contentHash},
+            word_count = ${metadata.wordCount},
+            image_keys = ${metadata.imageKeys}
+        WHERE id = ${row.id}::uuid AND html_content = ${html}
+      `;
+      if (updated > 0) moved++;
+      else skipped++;
+    }
+
+    options.onBatch?.(moved);
+    afterId = batch[batch.length - 1].id;
+  }
+
+  return { moved, skipped };
+}
+
+/**
+ * Fill image_keys for chapters whose body was already in object storage when
+ * the column was added: the migration could only backfill rows held in
+ * Postgres. Safe to re-run; like the move above it leaves updated_at alone,
+ * and a row edited meanwhile (different content_hash) is skipped.
+ */
+export async function indexStoredChapterImages(
+  options: { batchSize?: number } = {},
+): Promise<{ indexed: number }> {
+  const prisma = getPrisma();
+  const batchSize = options.batchSize ?? 50;
+  let afterId: string | undefined;
+  let indexed = 0;
+
+  for (;;) {
+    const batch = await prisma.chapter.findMany({
+      where: {
+        htmlContent: null,
+        hasContent: true,
+        imageKeys: { isEmpty: true },
+        ...(afterId && { id: { gt: afterId } }),
+      },
+      orderBy: { id: 'asc' },
+      take: batchSize,
+      select: { id: true, htmlContent: true, hasContent: true, contentHash: true },
+    });
+    if (batch.length === 0) break;
+
+    for (const row of batch) {
+      let html: string | null;
+      try {
+        html = (await loadChapterBody(row)).html;
+      } catch (err) {
+        // Logged by loadChapterBody; the rest of the batch is still indexed
+        if (err instanceof AppError && err.code === 'CHAPTER_CONTENT_MISSING') continue;
+        throw err;
+      }
+      const { imageKeys } = computeChapterMetadata(html);
+      if (imageKeys.length === 0) continue;
+      indexed += await prisma.$executeRaw`
+        UPDATE chapters SET image_keys = ${imageKeys}
+        WHERE id = ${row.id}::uuid AND content_hash = ${row.contentHash}
+      `;
+    }
+    afterId = batch[batch.length - 1].id;
+  }
+
+  return { indexed };
+}
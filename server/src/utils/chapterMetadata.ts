@@ -0,0 +1,64 @@
+import { createHash } from 'node:crypto';
+
+/**
+ * Chapter content metadata, stored next to the HTML on every write so that
+ * tables of contents never have to read the HTML (up to 2 MB per chapter).
+ */
+export interface ChapterContentMetadata {
+  hasContent: boolean;
+  /** UTF-8 size of the HTML in bytes */
+  contentLength: number;
+  /** SHA-256 of the HTML (hex), null without content */
+  contentHash: string | null;
+  /** Whitespace-separated words of the text, markup stripped */
+  wordCount: number;
+  /**
+   * Storage keys of imported illustrations the HTML points at (src and
+   * srcset). Those objects are referenced from nowhere else, so this is what
+   * scripts/cleanup-s3-orphans.sh joins against.
+   */
+  imageKeys: string[];
+}
+
+/** Keys written by ingestBookImages (services/bookImages.service.ts), variants included */
+const CONTENT_IMAGE_KEY_RE = /images\/content\/[0-9a-f]{64}(?:-\d+w)?\.(?:png|jpg|gif|webp)/g;
+
+/**
+ * Metadata for chapter HTML as it is stored (i.e. after sanitizing).
+ * Keep in sync with the backfills in the add_chapter_content_metadata and
+ * add_chapter_image_keys migrations.
+ */
+export function computeChapterMetadata(html: string | null): ChapterContentMetadata {
+  if (html === null) {
+    return { hasContent: false, contentLength: 0, contentHash: null, wordCount: 0, imageKeys: [] };
+  }
+  return {
+    hasContent: true,
+    contentLength: Buffer.byteLength(html),
+    contentHash: createHash('sha256').update(html).digest('hex'),
+    wordCount: countWords(html),
+    imageKeys: [...new Set(html.match(CONTENT_IMAGE_KEY_RE))].sort(),
+  };
+}
+
+function countWords(html: string): number {
+  const words = html.replace(/<[^>]*>/g, ' ').match(/\S+/g);
+  return words ? words.length : 0;
+}
+
+/**
+ * Chapter columns for lists and book details: everything but the HTML.
+ * Use as `select` wherever chapters are listed.
+ */
+export const CHAPTER_LIST_SELECT = {
+  id: true,
+  title: true,
+  position: true,
+  filePath: true,
+  bg: true,
+  bgMobile: true,
+  hasContent: true,
+  contentLength: true,
+  contentHash: true,
+  wordCount: true,
+} as const;
@@ -0,0 +1,211 @@
+import { createHash } from 'node:crypto';
+import { promisify } from 'node:util';
+import { brotliCompress, gzip, constants as zlibConstants } from 'node:zlib';
+import { getConfig } from '../config.js';
+import { getPrisma } from './prisma.js';
+import { AppError } from '../middleware/errorHandler.js';
+import { loadChapterBody } from './chapterBodies.js';
+import { contentCacheLookupsTotal, contentCacheBytesGauge } from '../middleware/metrics.js';
+
+const brotliAsync = promisify(brotliCompress);
+const gzipAsync = promisify(gzip);
+
+export type ContentEncoding = 'br' | 'gzip' | 'identity';
+
+export interface CachedChapterContent {
+  chapterId: string;
+  html: string | null;
+  /** Strong ETag (quoted), derived from the HTML bytes */
+  etag: string;
+  /** Version stamp — the chapter's updatedAt at the time of caching */
+  version: number;
+  /** UTF-8 size of the HTML */
+  bytes: number;
+  /** Raw-HTML bodies per content-coding, built lazily on first text/html request */
+  encoded: Partial<Record<ContentEncoding, Buffer>>;
+}
+
+/** Total memory held by an entry: HTML plus any encoded variants */
+function entryBytes(entry: CachedChapterContent): number {
+  let total = entry.bytes;
+  for (const buf of Object.values(entry.encoded)) total += buf?.length ?? 0;
+  return total;
+}
+
+function compress(encoding: ContentEncoding, raw: Buffer): Promise<Buffer> {
+  if (encoding === 'gzip') return gzipAsync(raw);
+  // Quality 5 keeps a 2 MB chapter well under 100 ms while still beating gzip
+  return brotliAsync(raw, {
+    params: {
+      [zlibConstants.BROTLI_PARAM_MODE]: zlibConstants.BROTLI_MODE_TEXT,
+      [zlibConstants.BROTLI_PARAM_QUALITY]: 5,
+      [zlibConstants.BROTLI_PARAM_SIZE_HINT]: raw.length,
+    },
+  });
+}
+
+/**
+ * Build a strong ETag for chapter HTML.
+ * Identical content always yields the same tag, so clients keep their
+ * copy across no-op saves that only bump updatedAt.
+ */
+export function computeContentEtag(html: string | null): string {
+  const hash = createHash('sha256').update(html ?? '').digest('base64url');
+  return `"${hash.slice(0, 32)}"`;
+}
+
+/**
+ * In-process LRU cache for chapter HTML, bounded by total bytes rather than
+ * entry count (chapters range from a few KB to 2 MB).
+ *
+ * Entries are keyed by chapter id and stamped with the chapter's updatedAt:
+ * a lookup with a newer stamp is a miss and drops the stale entry, so
+ * correctness never depends on explicit invalidation. `invalidate()` exists
+ * only to release memory early on update/delete.
+ */
+export class ChapterContentCache {
+  private entries = new Map<string, CachedChapterContent>();
+  private totalBytes = 0;
+
+  constructor(private readonly maxBytes: number) {}
+
+  get(chapterId: string, updatedAt: Date): CachedChapterContent | null {
+    const entry = this.entries.get(chapterId);
+    if (!entry || entry.version !== updatedAt.getTime()) {
+      if (entry) this.invalidate(chapterId);
+      contentCacheLookupsTotal.inc({ result: 'miss' });
+      return null;
+    }
+
+    // Move to the most-recently-used end (Map preserves insertion order)
+    this.entries.delete(chapterId);
+    this.entries.set(chapterId, entry);
+    contentCacheLookupsTotal.inc({ result: 'hit' });
+    return entry;
+  }
+
+  /**
+   * Cache chapter HTML. `encoded` seeds variants that already exist (e.g. the
+   * stored brotli object of a chapter body kept in object storage).
+   */
+  set(
+    chapterId: string,
+    updatedAt: Date,
+    html: string | null,
+    encoded: Partial<Record<ContentEncoding, Buffer>> = {},
+  ): CachedChapterContent {
+    const entry: CachedChapterContent = {
+      chapterId,
+      html,
+      etag: computeContentEtag(html),
+      version: updatedAt.getTime(),
+      bytes: html ? Buffer.byteLength(html, 'utf8') : 0,
+      encoded,
+    };
+    const bytes = entryBytes(entry);
+
+    this.invalidate(chapterId);
+
+    // Oversized entries are served but never retained
+    if (bytes > this.maxBytes) return entry;
+
+    this.entries.set(chapterId, entry);
+    this.totalBytes += bytes;
+    this.evict();
+    return entry;
+  }
+
+  /**
+   * Get the raw-HTML body for a content-coding, compressing on first use.
+   * Variants are retained with the entry (and counted against the budget)
+   * so repeat readers of a popular chapter never re-compress it.
+   */
+  async encode(entry: CachedChapterContent, encoding: ContentEncoding): Promise<Buffer> {
+    const existing = entry.encoded[encoding];
+    if (existing) return existing;
+
+    const raw = Buffer.from(entry.html ?? '', 'utf8');
+    const body = encoding === 'identity' ? raw : await compress(encoding, raw);
+
+    // A concurrent request may have finished the same variant first
+    const raced = entry.encoded[encoding];
+    if (raced) return raced;
+
+    entry.encoded[encoding] = body;
+    if (this.entries.get(entry.chapterId) === entry) {
+      this.totalBytes += body.length;
+      this.evict();
+    }
+    return body;
+  }
+
+  invalidate(chapterId: string): void {
+    const entry = this.entries.get(chapterId);
+    if (!entry) return;
+    this.entries.delete(chapterId);
+    this.totalBytes -= entryBytes(entry);
+    contentCacheBytesGauge.set(this.totalBytes);
+  }
+
+  /** Drop least-recently-used entries until the byte budget is met */
+  private evict(): void {
+    for (const [key, oldest] of this.entries) {
+      if (this.totalBytes <= this.maxBytes) break;
+      this.entries.delete(key);
+      this.totalBytes -= entryBytes(oldest);
+    }
+    contentCacheBytesGauge.set(this.totalBytes);
+  }
+
+  clear(): void {
+    this.entries.clear();
+    this.totalBytes = 0;
+    contentCacheBytesGauge.set(0);
+  }
+
+  get size(): number {
+    return this.entries.size;
+  }
+
+  get bytes(): number {
+    return this.totalBytes;
+  }
+}
+
+let contentCache: ChapterContentCache | null = null;
+
+/**
+ * Get the process-wide chapter content cache singleton.
+ * Size is configured via CONTENT_CACHE_MAX_BYTES (0 disables retention).
+ */
+export function getContentCache(): ChapterContentCache {
+  if (contentCache) return contentCache;
+  contentCache = new ChapterContentCache(getConfig().CONTENT_CACHE_MAX_BYTES);
+  return contentCache;
+}
+
+/**
+ * Read chapter HTML through the content cache.
+ * `updatedAt` comes from a cheap metadata lookup; the body (TEXT column or
+ * stored object) is only fetched on a miss, and the row's own updatedAt
+ * stamps the new entry so a concurrent edit can never be cached under an
+ * older version. A body read from object storage is already brotli-encoded
+ * and is kept as the entry's `br` variant.
+ */
+export async function readChapterContent(
+  chapterId: string,
+  updatedAt: Date,
+): Promise<CachedChapterContent> {
+  const cache = getContentCache();
+  const cached = cache.get(chapterId, updatedAt);
+  if (cached) return cached;
+
+  const row = await getPrisma().chapter.findUnique({
+    where: { id: chapterId },
+    select: { htmlContent: true, hasContent: true, contentHash: true, updatedAt: true },
+  });
+  if (!row) throw new AppError(404, 'Chapter not found');
+
+  const body = await loadChapterBody(row);
+  return cache.set(chapterId, row.updatedAt, body.html, body.brotli && { br: body.brotli });
+}
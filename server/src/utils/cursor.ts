@@ -0,0 +1,64 @@
+import { z } from 'zod';
+import { AppError } from '../middleware/errorHandler.js';
+
+/**
+ * Opaque keyset-pagination cursors.
+ *
+ * A cursor captures the sort key of the last row on a page (e.g.
+ * `{ k: publishedAt, id }`) as base64url JSON. Clients must treat it as an
+ * opaque token; the shape may change between releases.
+ */
+
+export function encodeCursor(key: string | number | Date, id: string): string {
+  const k = key instanceof Date ? key.toISOString() : key;
+  return Buffer.from(JSON.stringify({ k, id }), 'utf8').toString('base64url');
+}
+
+const dateCursorSchema = z.object({ k: z.string().datetime(), id: z.string().uuid() });
+const intCursorSchema = z.object({ k: z.number().int(), id: z.string().uuid() });
+
+function decode<T>(cursor: string, schema: z.ZodType<T>): T {
+  try {
+    return schema.parse(JSON.parse(Buffer.from(cursor, 'base64url').toString('utf8')));
+  } catch {
+    throw new AppError(400, 'Invalid pagination cursor', 'INVALID_CURSOR');
+  }
+}
+
+/** Decode a cursor keyed by a timestamp column (publishedAt, endedAt) */
+export function decodeDateCursor(cursor: string): { key: Date; id: string } {
+  const { k, id } = decode(cursor, dateCursorSchema);
+  return { key: new Date(k), id };
+}
+
+/** Decode a cursor keyed by an integer column (position) */
+export function decodeIntCursor(cursor: string): { key: number; id: string } {
+  const { k, id } = decode(cursor, intCursorSchema);
+  return { key: k, id };
+}
+
+const countCache = new Map<string, { value: number; expiresAt: number }>();
+const COUNT_CACHE_MAX_ENTRIES = 10_000;
+
+/**
+ * Memoize a `count()` for keyset pages that ask for a total.
+ * Totals on cursor pages are advisory — a few seconds of staleness is
+ * acceptable and keeps deep scrolling from re-counting on every page.
+ */
+export async function cachedCount(
+  key: string,
+  ttlMs: number,
+  count: () => Promise<number>,
+): Promise<number> {
+  const now = Date.now();
+  const hit = countCache.get(key);
+  if (hit && hit.expiresAt > now) return hit.value;
+
+  const value = await count();
+  if (countCache.size >= COUNT_CACHE_MAX_ENTRIES) countCache.clear();
+  countCache.set(key, { value, expiresAt: now + ttlMs });
+  return value;
+}
+
+/** TTL for cached totals on keyset pages */
+export const CURSOR_TOTAL_TTL_MS = 30_000;
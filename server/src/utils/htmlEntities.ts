@@ -0,0 +1,100 @@
+import { NAMED_REFERENCES, LEGACY_REFERENCES } from './htmlEntityTable.js';
+
+/**
+ * Character references for the HTML tokenizer (htmlTokenizer.ts), decoded
+ * with the full HTML5 named reference table (htmlEntityTable.ts), as a
+ * browser does.
+ */
+
+const NAMED = new Map<string, string>();
+for (const entry of NAMED_REFERENCES.split(' ')) {
+  const [name, codes] = entry.split(':');
+  NAMED.set(name, String.fromCodePoint(...codes.split(',').map((code) => parseInt(code, 16))));
+}
+
+/** Names recognized without a trailing semicolon (legacy markup: `&copy 2024`) */
+const LEGACY = new Set(LEGACY_REFERENCES.split(' '));
+const LEGACY_MAX_LENGTH = Math.max(...[...LEGACY].map((name) => name.length));
+
+/** Numeric references to C1 controls mean windows-1252 characters */
+const C1_REPLACEMENTS: Record<number, number> = {
+  0x80: 0x20ac, 0x82: 0x201a, 0x83: 0x0192, 0x84: 0x201e, 0x85: 0x2026, 0x86: 0x2020, 0x87: 0x2021,
+  0x88: 0x02c6, 0x89: 0x2030, 0x8a: 0x0160, 0x8b: 0x2039, 0x8c: 0x0152, 0x8e: 0x017d, 0x91: 0x2018,
+  0x92: 0x2019, 0x93: 0x201c, 0x94: 0x201d, 0x95: 0x2022, 0x96: 0x2013, 0x97: 0x2014, 0x98: 0x02dc,
+  0x99: 0x2122, 0x9a: 0x0161, 0x9b: 0x203a, 0x9c: 0x0153, 0x9e: 0x017e, 0x9f: 0x0178,
+};
+
+function isAlphanumeric(code: number): boolean {
+  return (code >= 48 && code <= 57) || (code >= 65 && code <= 90) || (code >= 97 && code <= 122);
+}
+
+function isDigit(code: number): boolean {
+  return code >= 48 && code <= 57;
+}
+
+function isHexDigit(code: number): boolean {
+  return (code >= 48 && code <= 57) || (code >= 65 && code <= 70) || (code >= 97 && code <= 102);
+}
+
+function fromCodePoint(code: number): string {
+  if (code === 0 || code > 0x10ffff || (code >= 0xd800 && code <= 0xdfff)) return '\uFFFD';
+  return String.fromCodePoint(C1_REPLACEMENTS[code] ?? code);
+}
+
+/**
+ * Match the character reference starting at `input[at]` (an `&`). Returns
+ * the decoded text and the index just past the reference, or null when the
+ * ampersand is literal.
+ */
+function matchReference(input: string, at: number, inAttribute: boolean): { value: string; end: number } | null {
+  let i = at + 1;
+  if (input.charCodeAt(i) === 35 /* # */) {
+    i++;
+    const hex = input.charCodeAt(i) === 120 || input.charCodeAt(i) === 88; // x X
+    if (hex) i++;
+    const start = i;
+    while (i < input.length && (hex ? isHexDigit(input.charCodeAt(i)) : isDigit(input.charCodeAt(i)))) i++;
+    if (i === start) return null;
+    const code = parseInt(input.slice(start, i), hex ? 16 : 10);
+    if (input.charCodeAt(i) === 59 /* ; */) i++;
+    return { value: fromCodePoint(code), end: i };
+  }
+
+  while (i < input.length && isAlphanumeric(input.charCodeAt(i))) i++;
+  if (i === at + 1) return null;
+  const name = input.slice(at + 1, i);
+  if (input.charCodeAt(i) === 59) {
+    const value = NAMED.get(name);
+    if (value !== undefined) return { value, end: i + 1 };
+  }
+  // Without the semicolon only the legacy names count, longest first
+  for (let length = Math.min(name.length, LEGACY_MAX_LENGTH); length >= 2; length--) {
+    const prefix = name.slice(0, length);
+    if (!LEGACY.has(prefix)) continue;
+    const end = at + 1 + length;
+    const next = input.charCodeAt(end);
+    // href="?a=1&copy=2" is a query string, not ©
+    if (inAttribute && (isAlphanumeric(next) || next === 61 /* = */)) return null;
+    return { value: NAMED.get(prefix)!, end };
+  }
+  return null;
+}
+
+/** Decode the character references in text or an attribute value */
+export function decodeEntities(input: string, inAttribute: boolean): string {
+  let amp = input.indexOf('&');
+  if (amp === -1) return input;
+  let result = '';
+  let last = 0;
+  while (amp !== -1) {
+    const match = matchReference(input, amp, inAttribute);
+    if (match) {
+      result += input.slice(last, amp) + match.value;
+      last = match.end;
+      amp = input.indexOf('&', match.end);
+    } else {
+      amp = input.indexOf('&', amp + 1);
+    }
+  }
+  return result + input.slice(last);
+}
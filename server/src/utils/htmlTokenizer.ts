@@ -0,0 +1,347 @@
+import { decodeEntities } from './htmlEntities.js';
+
+/**
+ * HTML tokenizer (WHATWG "tokenization" section) for the sanitizer.
+ *
+ * Pull-based: the tree builder asks for one token at a time and switches the
+ * tokenizer into RCDATA/RAWTEXT/PLAINTEXT after the start tags that need it,
+ * as the spec's tree construction does. Text runs are sliced out of the
+ * input in one piece rather than character by character. Parse errors are
+ * recovered from exactly as a browser would; they are not reported.
+ *
+ * Streaming: input arrives in chunks through `write()`, and only the part
+ * not yet tokenized is kept. A construct cut off by the end of a chunk (a tag, a
+ * comment, a character reference, a CRLF) waits for the next one — `next()`
+ * returns null meanwhile — and after `end()` is treated as the end of input.
+ */
+
+export type Attr = [name: string, value: string];
+
+export type Token =
+  | { type: 'start'; name: string; attrs: Attr[]; selfClosing: boolean }
+  | { type: 'end'; name: string }
+  | { type: 'text'; data: string }
+  | { type: 'comment' }
+  | { type: 'doctype'; name: string; publicId: string | null; systemId: string | null };
+
+export const TokenizerState = {
+  DATA: 0,
+  /** Text with character references, up to the matching end tag (title, textarea) */
+  RCDATA: 1,
+  /** Text as is, up to the matching end tag (style, script, xmp, iframe, noembed, noframes) */
+  RAWTEXT: 2,
+  /** Everything to the end of input is text */
+  PLAINTEXT: 3,
+} as const;
+type State = (typeof TokenizerState)[keyof typeof TokenizerState];
+
+const WHITESPACE = /[\t\n\f ]*/y;
+const TAG_NAME_END = /[\t\n\f />]/g;
+const ATTR_NAME_END = /[\t\n\f />=]/g;
+const UNQUOTED_VALUE_END = /[\t\n\f >]/g;
+const DOCTYPE = /^[\t\n\f ]*([^\t\n\f >]*)(?:[\t\n\f ]+(public|system)[\t\n\f ]*(["'])([^]*?)\3(?:[\t\n\f ]*(["'])([^]*?)\5)?)?/i;
+
+const comment = { type: 'comment' } as const;
+/** Markup that may continue in the next chunk */
+const INCOMPLETE: unique symbol = Symbol('incomplete');
+/** A character reference that may continue in the next chunk */
+const OPEN_REFERENCE = /^&#?[0-9A-Za-z]*$/;
+const rawTextEnds = new Map<string, RegExp>();
+
+function isAsciiAlpha(code: number): boolean {
+  return (code >= 65 && code <= 90) || (code >= 97 && code <= 122);
+}
+
+/** Tag and attribute names are ASCII-lowercased; NUL becomes U+FFFD */
+function normalizeName(name: string): string {
+  const lower = /[A-Z]/.test(name) ? name.replace(/[A-Z]+/g, (s) => s.toLowerCase()) : name;
+  return lower.includes('\0') ? lower.replaceAll('\0', '\uFFFD') : lower;
+}
+
+export class HtmlTokenizer {
+  /** Set by the tree builder: CDATA sections are text only in SVG/MathML */
+  allowCdata = false;
+  /** Input not tokenized yet (from `pos`) */
+  private input = '';
+  private pos = 0;
+  private ended = false;
+  /** A CR ending the last chunk: half of a CRLF, or a line break of its own */
+  private pendingCr = false;
+  private state: State = TokenizerState.DATA;
+  /** End tag that leaves RCDATA/RAWTEXT, e.g. `</style` */
+  private rawTextEnd: RegExp | null = null;
+  /** A tag found right after a text run, returned on the next call */
+  private pending: Token | null = null;
+
+  /** Tokenize a complete document, or (without `input`) one written in chunks */
+  constructor(input?: string) {
+    if (input === undefined) return;
+    this.write(input);
+    this.end();
+  }
+
+  /** Append the next chunk of the document */
+  write(chunk: string): void {
+    if (this.ended) throw new Error('HtmlTokenizer: write after end');
+    if (this.pendingCr) chunk = `\r${chunk}`;
+    this.pendingCr = chunk.endsWith('\r');
+    if (this.pendingCr) chunk = chunk.slice(0, -1);
+    if (chunk.includes('\r')) chunk = chunk.replace(/\r\n?/g, '\n');
+    this.input = this.pos === 0 ? this.input + chunk : this.input.slice(this.pos) + chunk;
+    this.pos = 0;
+  }
+
+  /** No more input: whatever is still open ends here */
+  end(): void {
+    if (this.pendingCr) {
+      this.input = `${this.input.slice(this.pos)}\n`;
+      this.pos = 0;
+      this.pendingCr = false;
+    }
+    this.ended = true;
+  }
+
+  /** Switch state after a start tag (`tagName` is the element whose end tag ends it) */
+  setState(state: State, tagName: string): void {
+    this.state = state;
+    let end = rawTextEnds.get(tagName);
+    if (!end) {
+      end = new RegExp(`</${tagName}[\\t\\n\\f />]`, 'gi');
+      rawTextEnds.set(tagName, end);
+    }
+    this.rawTextEnd = end;
+  }
+
+  /** The next token; null when the input written so far is used up */
+  next(): Token | null {
+    if (this.pending) {
+      const token = this.pending;
+      this.pending = null;
+      return token;
+    }
+    if (this.pos >= this.input.length) return null;
+    switch (this.state) {
+      case TokenizerState.PLAINTEXT: {
+        const data = this.input.slice(this.pos).replaceAll('\0', '\uFFFD');
+        this.pos = this.input.length;
+        return { type: 'text', data };
+      }
+      case TokenizerState.RCDATA:
+      case TokenizerState.RAWTEXT:
+        return this.rawText();
+      default:
+        return this.data();
+    }
+  }
+
+  private rawText(): Token | null {
+    const end = this.rawTextEnd!;
+    end.lastIndex = this.pos;
+    const match = end.exec(this.input);
+    let stop = match ? match.index : this.input.length;
+    if (!match && !this.ended) {
+      // The end tag may be cut off by the end of the chunk
+      const lt = this.input.lastIndexOf('<');
+      if (lt >= this.pos) stop = lt;
+      if (this.state === TokenizerState.RCDATA) stop = this.referenceSafeEnd(stop);
+    }
+    let data = this.input.slice(this.pos, stop);
+    if (this.state === TokenizerState.RCDATA) data = decodeEntities(data, false);
+    this.pos = stop;
+    if (match) this.state = TokenizerState.DATA;
+    if (data === '') return match ? this.next() : null;
+    return { type: 'text', data: data.replaceAll('\0', '\uFFFD') };
+  }
+
+  private data(): Token | null {
+    const input = this.input;
+    let text = '';
+    while (this.pos < input.length) {
+      const lt = input.indexOf('<', this.pos);
+      const stop = lt !== -1 ? lt : this.ended ? input.length : this.referenceSafeEnd(input.length);
+      if (stop > this.pos) {
+        const run = input.slice(this.pos, stop);
+        // NUL in text is dropped by the "in body" insertion mode
+        text += decodeEntities(run.includes('\0') ? run.replaceAll('\0', '') : run, false);
+        this.pos = stop;
+      }
+      if (lt === -1) break;
+      const token = this.markup();
+      if (token === INCOMPLETE) break;
+      if (token === undefined) continue; // markup with no token (`</>`, tag cut off by end of input)
+      if (token === null) {
+        text += '<';
+        this.pos++;
+        continue;
+      }
+      if (text === '') return token;
+      this.pending = token;
+      break;
+    }
+    return text === '' ? null : { type: 'text', data: text };
+  }
+
+  /**
+   * Where text ending at `stop` can be cut before the end of the input is
+   * known: before a trailing character reference the next chunk may extend.
+   */
+  private referenceSafeEnd(stop: number): number {
+    const amp = this.input.lastIndexOf('&', stop - 1);
+    if (amp < this.pos) return stop;
+    return OPEN_REFERENCE.test(this.input.slice(amp, stop)) ? amp : stop;
+  }
+
+  /**
+   * Markup at `pos` (a `<`). Returns the token and moves past it; undefined
+   * when it yields no token; null when the `<` is just text; INCOMPLETE when
+   * it may continue in the next chunk.
+   */
+  private markup(): Token | null | undefined | typeof INCOMPLETE {
+    const input = this.input;
+    // Too short to tell a comment, doctype or CDATA section from the rest
+    if (!this.ended && input.length - this.pos < 9 && input.indexOf('>', this.pos) === -1) return INCOMPLETE;
+    const next = input.charCodeAt(this.pos + 1);
+    if (next === 33 /* ! */) {
+      if (input.startsWith('<!--', this.pos)) return this.comment();
+      if (input.slice(this.pos + 2, this.pos + 9).toLowerCase() === 'doctype') return this.doctype();
+      if (this.allowCdata && input.startsWith('<![CDATA[', this.pos)) {
+        const end = input.indexOf(']]>', this.pos + 9);
+        if (end === -1 && !this.ended) return INCOMPLETE;
+        const data = input.slice(this.pos + 9, end === -1 ? input.length : end);
+        this.pos = end === -1 ? input.length : end + 3;
+        return data === '' ? undefined : { type: 'text', data };
+      }
+      return this.bogusComment();
+    }
+    if (next === 47 /* / */) {
+      const after = input.charCodeAt(this.pos + 2);
+      if (isAsciiAlpha(after)) return this.tag(true);
+      if (after === 62 /* > */) {
+        this.pos += 3;
+        return undefined;
+      }
+      if (Number.isNaN(after)) return null;
+      return this.bogusComment();
+    }
+    if (isAsciiAlpha(next)) return this.tag(false);
+    if (next === 63 /* ? */) return this.bogusComment();
+    return null;
+  }
+
+  private comment(): Token | typeof INCOMPLETE {
+    const input = this.input;
+    const start = this.pos + 4;
+    // <!--> and <!---> are complete (empty) comments
+    if (input.startsWith('>', start)) {
+      this.pos = start + 1;
+      return comment;
+    }
+    if (input.startsWith('->', start)) {
+      this.pos = start + 2;
+      return comment;
+    }
+    const close = input.indexOf('-->', start);
+    const bang = input.indexOf('--!>', start);
+    if (close === -1 && bang === -1 && !this.ended) return INCOMPLETE;
+    if (bang !== -1 && (close === -1 || bang < close)) this.pos = bang + 4;
+    else this.pos = close === -1 ? input.length : close + 3;
+    return comment;
+  }
+
+  private bogusComment(): Token | typeof INCOMPLETE {
+    const end = this.input.indexOf('>', this.pos + 2);
+    if (end === -1 && !this.ended) return INCOMPLETE;
+    this.pos = end === -1 ? this.input.length : end + 1;
+    return comment;
+  }
+
+  private doctype(): Token | typeof INCOMPLETE {
+    const end = this.input.indexOf('>', this.pos + 9);
+    if (end === -1 && !this.ended) return INCOMPLETE;
+    const body = this.input.slice(this.pos + 9, end === -1 ? this.input.length : end);
+    this.pos = end === -1 ? this.input.length : end + 1;
+    const match = DOCTYPE.exec(body)!;
+    const keyword = match[2]?.toLowerCase();
+    return {
+      type: 'doctype',
+      name: normalizeName(match[1]),
+      publicId: keyword === 'public' ? match[4] : null,
+      systemId: keyword === 'system' ? match[4] : (match[6] ?? null),
+    };
+  }
+
+  /** Start or end tag; a tag cut off by the end of input is dropped */
+  private tag(isEnd: boolean): Token | undefined | typeof INCOMPLETE {
+    const input = this.input;
+    const nameStart = this.pos + (isEnd ? 2 : 1);
+    TAG_NAME_END.lastIndex = nameStart;
+    const nameEnd = TAG_NAME_END.exec(input)?.index ?? -1;
+    if (nameEnd === -1) return this.truncated();
+    const name = normalizeName(input.slice(nameStart, nameEnd));
+
+    const attrs: Attr[] = [];
+    let selfClosing = false;
+    let i = nameEnd;
+    for (;;) {
+      WHITESPACE.lastIndex = i;
+      WHITESPACE.test(input);
+      i = WHITESPACE.lastIndex;
+      if (i >= input.length) return this.truncated();
+      const code = input.charCodeAt(i);
+      if (code === 62 /* > */) {
+        i++;
+        break;
+      }
+      if (code === 47 /* / */) {
+        i++;
+        if (input.charCodeAt(i) === 62) {
+          selfClosing = true;
+          i++;
+          break;
+        }
+        continue;
+      }
+
+      // The first character is part of the name even if it is "="
+      ATTR_NAME_END.lastIndex = i + 1;
+      const attrNameEnd = ATTR_NAME_END.exec(input)?.index ?? -1;
+      if (attrNameEnd === -1) return this.truncated();
+      const attrName = normalizeName(input.slice(i, attrNameEnd));
+      i = attrNameEnd;
+      WHITESPACE.lastIndex = i;
+      WHITESPACE.test(input);
+      let value = '';
+      if (input.charCodeAt(WHITESPACE.lastIndex) === 61 /* = */) {
+        WHITESPACE.lastIndex++;
+        WHITESPACE.test(input);
+        i = WHITESPACE.lastIndex;
+        const quote = input[i];
+        if (quote === '"' || quote === "'") {
+          const close = input.indexOf(quote, i + 1);
+          if (close === -1) return this.truncated();
+          value = input.slice(i + 1, close);
+          i = close + 1;
+        } else if (quote !== '>') {
+          UNQUOTED_VALUE_END.lastIndex = i;
+          const valueEnd = UNQUOTED_VALUE_END.exec(input)?.index ?? -1;
+          if (valueEnd === -1) return this.truncated();
+          value = input.slice(i, valueEnd);
+          i = valueEnd;
+        }
+        if (value.includes('&')) value = decodeEntities(value, true);
+        if (value.includes('\0')) value = value.replaceAll('\0', '\uFFFD');
+      }
+      // Duplicate attributes: the first one wins
+      if (!isEnd && !attrs.some((attr) => attr[0] === attrName)) attrs.push([attrName, value]);
+    }
+
+    this.pos = i;
+    return isEnd ? { type: 'end', name } : { type: 'start', name, attrs, selfClosing };
+  }
+
+  private truncated(): undefined | typeof INCOMPLETE {
+    if (!this.ended) return INCOMPLETE;
+    this.pos = this.input.length;
+    return undefined;
+  }
+}
@@ -0,0 +1,1166 @@
+import { HtmlTokenizer, TokenizerState, type Attr, type Token } from './htmlTokenizer.js';
+
+/**
+ * Minimal HTML tree builder (WHATWG "tree construction") for the sanitizer.
+ *
+ * It reproduces how a browser — and jsdom, which DOMPurify runs on — nests
+ * the elements of a document, because that is what decides where every
+ * piece of text ends up: implied end tags, the "in table" modes with foster
+ * parenting, the adoption agency for misnested formatting, and SVG/MathML
+ * foreign content with its breakout tags. The nodes are plain objects
+ * (no DOM), text is a string, comments are not kept.
+ *
+ * Not modelled: the frameset, "in select" and "in template" insertion
+ * modes (their content is parsed with the "in body" rules) and the script
+ * data escape states. All of them only concern elements whose content the
+ * sanitizer drops.
+ */
+
+export const Namespace = { HTML: 0, SVG: 1, MATHML: 2 } as const;
+export type HtmlNamespace = (typeof Namespace)[keyof typeof Namespace];
+
+export interface HtmlElement {
+  name: string;
+  ns: HtmlNamespace;
+  attrs: Attr[];
+  children: HtmlNode[];
+  parent: HtmlElement | null;
+}
+
+export type HtmlNode = HtmlElement | string;
+
+type StartTag = Extract<Token, { type: 'start' }>;
+
+const { HTML, SVG, MATHML } = Namespace;
+
+const Mode = {
+  IN_BODY: 0,
+  /** Inside an RCDATA/RAWTEXT element, until its end tag */
+  TEXT: 1,
+  IN_TABLE: 2,
+  IN_TABLE_TEXT: 3,
+  IN_CAPTION: 4,
+  IN_COLUMN_GROUP: 5,
+  IN_TABLE_BODY: 6,
+  IN_ROW: 7,
+  IN_CELL: 8,
+} as const;
+type InsertionMode = (typeof Mode)[keyof typeof Mode];
+
+const set = (names: string) => new Set(names.split(' '));
+
+const VOID_ELEMENTS = set('area base basefont bgsound br col embed frame hr img input keygen link meta param source track wbr');
+const SPECIAL = set(
+  'address applet area article aside base basefont bgsound blockquote body br button caption center col colgroup dd ' +
+  'details dir div dl dt embed fieldset figcaption figure footer form frame frameset h1 h2 h3 h4 h5 h6 head header ' +
+  'hgroup hr html iframe img input keygen li link listing main marquee menu meta nav noembed noframes noscript ' +
+  'object ol p param plaintext pre script search section select source style summary table tbody td template ' +
+  'textarea tfoot th thead title tr track ul wbr xmp',
+);
+const CLOSES_P = set(
+  'address article aside blockquote center details dialog dir div dl fieldset figcaption figure footer header ' +
+  'hgroup main menu nav ol p search section summary ul',
+);
+const BLOCK_END = set(
+  'address article aside blockquote button center details dialog dir div dl fieldset figcaption figure footer ' +
+  'header hgroup listing main menu nav ol pre search section summary ul',
+);
+const HEADINGS = set('h1 h2 h3 h4 h5 h6');
+const FORMATTING = set('a b big code em font i nobr s small strike strong tt u');
+const IMPLIED_END = set('dd dt li optgroup option p rb rp rt rtc');
+const IMPLIED_END_THOROUGH = set('caption colgroup dd dt li optgroup option p rb rp rt rtc tbody td tfoot th thead tr');
+const HEAD_ELEMENTS = set('base basefont bgsound link meta noframes noscript script style template title');
+const IGNORED_IN_BODY = set('caption col colgroup frame head tbody td tfoot th thead tr');
+const TABLE_SECTIONS = set('tbody tfoot thead');
+const FOSTER_TARGETS = set('table tbody tfoot thead tr');
+const TABLE_TEXT_TARGETS = set('table tbody template tfoot thead tr');
+const CELL_CLOSERS = set('caption col colgroup tbody td tfoot th thead tr');
+const BREAKOUT = set(
+  'b big blockquote body br center code dd div dl dt em embed h1 h2 h3 h4 h5 h6 head hr i img li listing menu meta ' +
+  'nobr ol p pre ruby s small span strong strike sub sup table tt u ul var',
+);
+const SCOPE_BOUNDARY = set('applet caption html table td th marquee object template');
+const TABLE_SCOPE_BOUNDARY = set('html table template');
+const TABLE_CONTEXT = set('table template html');
+const TABLE_BODY_CONTEXT = set('tbody tfoot thead template html');
+const ROW_CONTEXT = set('tr template html');
+const CELLS = set('td th');
+const IGNORED_IN_CAPTION = set('body col colgroup html tbody td tfoot th thead tr');
+const TABLE_BODY_EXITS = set('caption col colgroup tbody tfoot thead');
+const IGNORED_IN_TABLE_BODY = set('body caption col colgroup html td th tr');
+const ROW_EXITS = set('caption col colgroup tbody tfoot thead tr');
+const IGNORED_IN_ROW = set('body caption col colgroup html td th');
+const IGNORED_IN_CELL = set('body caption col colgroup html');
+const CELL_TABLE_ENDS = set('table tbody tfoot thead tr');
+const MATHML_TEXT_INTEGRATION = set('mi mo mn ms mtext');
+const SVG_HTML_INTEGRATION = set('foreignobject desc title');
+const QUIRKS_PUBLIC_IDS = [
+  '-//ietf//dtd html', '-//w3c//dtd html 3', '-//w3c//dtd html 4.0 transitional//', '-//w3c//dtd html 4.0 frameset//',
+  '-//w3c//dtd w3 html//', '-//w3o//dtd w3 html 3.0//', '-//netscape comm. corp.//dtd', '-//microsoft//dtd internet explorer',
+  '-//webtechs//dtd mozilla html', '-//softquad', '-//sq//dtd html 2.0 hotmetal + extensions//',
+];
+
+const MARKER = null;
+type FormattingEntry = HtmlElement | typeof MARKER;
+
+function createElement(name: string, attrs: Attr[], ns: HtmlNamespace = HTML): HtmlElement {
+  return { name, ns, attrs, children: [], parent: null };
+}
+
+function is(node: HtmlElement, names: Set<string>): boolean {
+  return node.ns === HTML && names.has(node.name);
+}
+
+function isNamed(node: HtmlElement, name: string): boolean {
+  return node.ns === HTML && node.name === name;
+}
+
+function isSpecial(node: HtmlElement): boolean {
+  if (node.ns === HTML) return SPECIAL.has(node.name);
+  if (node.ns === MATHML) return MATHML_TEXT_INTEGRATION.has(node.name) || node.name === 'annotation-xml';
+  return SVG_HTML_INTEGRATION.has(node.name);
+}
+
+function isHtmlIntegrationPoint(node: HtmlElement): boolean {
+  if (node.ns === SVG) return SVG_HTML_INTEGRATION.has(node.name);
+  if (node.ns !== MATHML || node.name !== 'annotation-xml') return false;
+  const encoding = node.attrs.find(([name]) => name === 'encoding')?.[1].toLowerCase();
+  return encoding === 'text/html' || encoding === 'application/xhtml+xml';
+}
+
+function isWhitespace(text: string): boolean {
+  return /^[\t\n\f\r ]*$/.test(text);
+}
+
+function removeChild(node: HtmlNode, parent: HtmlElement): void {
+  parent.children.splice(parent.children.indexOf(node), 1);
+}
+
+function appendChild(parent: HtmlElement, node: HtmlNode): void {
+  const { children } = parent;
+  if (typeof node === 'string') {
+    const last = children.length - 1;
+    if (last >= 0 && typeof children[last] === 'string') children[last] += node;
+    else children.push(node);
+    return;
+  }
+  if (node.parent) removeChild(node, node.parent);
+  node.parent = parent;
+  children.push(node);
+}
+
+function insertBefore(parent: HtmlElement, node: HtmlNode, reference: HtmlElement): void {
+  const { children } = parent;
+  if (typeof node !== 'string') {
+    if (node.parent) removeChild(node, node.parent);
+    node.parent = parent;
+  }
+  const index = children.indexOf(reference);
+  if (typeof node === 'string' && index > 0 && typeof children[index - 1] === 'string') children[index - 1] += node;
+  else children.splice(index, 0, node);
+}
+
+function sameAttributes(a: Attr[], b: Attr[]): boolean {
+  return a.length === b.length && a.every(([name, value]) => b.some((attr) => attr[0] === name && attr[1] === value));
+}
+
+function isQuirksDoctype(token: Extract<Token, { type: 'doctype' }>): boolean {
+  if (token.name !== 'html') return true;
+  const publicId = token.publicId?.toLowerCase();
+  if (!publicId) return false;
+  if (publicId === 'html' || QUIRKS_PUBLIC_IDS.some((prefix) => publicId.startsWith(prefix))) return true;
+  return token.systemId === null
+    && (publicId.startsWith('-//w3c//dtd html 4.01 frameset//') || publicId.startsWith('-//w3c//dtd html 4.01 transitional//'));
+}
+
+/**
+ * The stack of open elements, counting the open HTML elements by name: most
+ * scope checks ("is there a <p> to close?" on every block start tag) are
+ * then answered without walking down the stack, which made deeply nested
+ * markup quadratic. Elements are only removed with pop/splice/truncate.
+ */
+class OpenElements extends Array<HtmlElement> {
+  static get [Symbol.species]() {
+    return Array;
+  }
+
+  private readonly open = new Map<string, number>();
+
+  has(name: string): boolean {
+    return (this.open.get(name) ?? 0) > 0;
+  }
+
+  override push(element: HtmlElement): number {
+    this.count(element, 1);
+    return super.push(element);
+  }
+
+  override pop(): HtmlElement | undefined {
+    const element = super.pop();
+    if (element) this.count(element, -1);
+    return element;
+  }
+
+  override splice(start: number, deleteCount: number, ...items: HtmlElement[]): HtmlElement[] {
+    const removed = super.splice(start, deleteCount, ...items);
+    for (const element of removed) this.count(element, -1);
+    for (const element of items) this.count(element, 1);
+    return removed;
+  }
+
+  truncate(length: number): void {
+    while (this.length > length) this.pop();
+  }
+
+  private count(element: HtmlElement, delta: number): void {
+    if (element.ns === HTML) this.open.set(element.name, (this.open.get(element.name) ?? 0) + delta);
+  }
+}
+
+class TreeBuilder {
+  readonly body = createElement('body', []);
+  private readonly html = createElement('html', []);
+  private readonly head = createElement('head', []);
+  private readonly tokenizer: HtmlTokenizer;
+  private readonly stack = new OpenElements();
+  private readonly formatting: FormattingEntry[] = [];
+  private mode: InsertionMode = Mode.IN_BODY;
+  private originalMode: InsertionMode = Mode.IN_BODY;
+  /** Until the first body content: head elements go to <head>, whitespace is dropped */
+  private beforeBody = true;
+  /** No token but whitespace and comments seen yet (a doctype still counts) */
+  private initial = true;
+  private quirks = true;
+  private fosterParenting = false;
+  /** Drop a newline right after <pre>, <listing>, <textarea> */
+  private skipNewline = false;
+  private form: HtmlElement | null = null;
+  private templates = 0;
+  private pendingTableText = '';
+
+  constructor() {
+    this.tokenizer = new HtmlTokenizer();
+    this.html.children.push(this.body);
+    this.body.parent = this.html;
+    for (const element of [this.html, this.body, this.head]) this.stack.push(element);
+  }
+
+  write(chunk: string): void {
+    this.tokenizer.write(chunk);
+    this.build();
+  }
+
+  end(): HtmlElement {
+    this.tokenizer.end();
+    this.build();
+    if (this.mode === Mode.IN_TABLE_TEXT) this.flushTableText();
+    return this.body;
+  }
+
+  /** Process every token the input written so far yields */
+  private build(): void {
+    let token: Token | null;
+    while ((token = this.tokenizer.next()) !== null) {
+      this.process(token);
+      this.tokenizer.allowCdata = this.current.ns !== HTML;
+    }
+  }
+
+  private get current(): HtmlElement {
+    return this.stack[this.stack.length - 1];
+  }
+
+  // ── Dispatch ───────────────────────────────────────────────
+
+  private process(token: Token): void {
+    if (this.skipNewline) {
+      this.skipNewline = false;
+      if (token.type === 'text' && token.data.startsWith('\n')) {
+        if (token.data.length === 1) return;
+        token = { type: 'text', data: token.data.slice(1) };
+      }
+    }
+    if (token.type === 'doctype' || token.type === 'comment') {
+      if (token.type === 'doctype' && this.initial) this.quirks = isQuirksDoctype(token);
+      if (token.type === 'doctype') this.initial = false;
+      // Comments are not kept, but they still end a run of table text
+      if (this.mode === Mode.IN_TABLE_TEXT) this.flushTableText();
+      return;
+    }
+    if (this.initial && (token.type !== 'text' || !isWhitespace(token.data))) this.initial = false;
+
+    if (this.mode === Mode.TEXT) return this.inText(token);
+    if (this.beforeBody) return this.beforeBodyContent(token);
+    if (this.usesForeignRules(token)) return this.inForeignContent(token);
+    this.processHtml(token);
+  }
+
+  private processHtml(token: Token): void {
+    switch (this.mode) {
+      case Mode.IN_TABLE: return this.inTable(token);
+      case Mode.IN_TABLE_TEXT: return this.inTableText(token);
+      case Mode.IN_CAPTION: return this.inCaption(token);
+      case Mode.IN_COLUMN_GROUP: return this.inColumnGroup(token);
+      case Mode.IN_TABLE_BODY: return this.inTableBody(token);
+      case Mode.IN_ROW: return this.inRow(token);
+      case Mode.IN_CELL: return this.inCell(token);
+      case Mode.TEXT: return this.inText(token);
+      default: return this.inBody(token);
+    }
+  }
+
+  private usesForeignRules(token: Token): boolean {
+    const node = this.current;
+    if (node.ns === HTML) return false;
+    if (node.ns === MATHML && MATHML_TEXT_INTEGRATION.has(node.name)) {
+      if (token.type === 'text') return false;
+      if (token.type === 'start' && token.name !== 'mglyph' && token.name !== 'malignmark') return false;
+    }
+    if (node.ns === MATHML && node.name === 'annotation-xml' && token.type === 'start' && token.name === 'svg') return false;
+    if (isHtmlIntegrationPoint(node) && (token.type === 'start' || token.type === 'text')) return false;
+    return true;
+  }
+
+  // ── Before <body> ──────────────────────────────────────────
+
+  /**
+   * "before head" … "after head" collapsed: the head is not serialized, so
+   * all that matters is which tokens stay out of the body.
+   */
+  private beforeBodyContent(token: Token): void {
+    if (this.templates > 0) return this.inBody(token);
+    const inNoscript = this.current.name === 'noscript';
+    if (token.type === 'text') {
+      const body = token.data.replace(/^[\t\n\f ]+/, '');
+      if (body === '') return;
+      if (inNoscript) this.stack.pop();
+      this.startBody();
+      return this.inBody({ type: 'text', data: body });
+    }
+    if (token.type === 'start') {
+      if (inNoscript && !['basefont', 'bgsound', 'link', 'meta', 'noframes', 'style'].includes(token.name)) {
+        this.stack.pop();
+        return this.beforeBodyContent(token);
+      }
+      if (token.name === 'html' || token.name === 'head' || token.name === 'frameset') {
+        return;
+      } else if (token.name === 'body') {
+        return this.startBody();
+      } else if (HEAD_ELEMENTS.has(token.name)) {
+        return this.headElement(token);
+      }
+      this.startBody();
+      return this.inBody(token);
+    }
+    if (token.type === 'end') {
+      if (inNoscript && token.name === 'noscript') {
+        this.stack.pop();
+      } else if (token.name === 'body' || token.name === 'html' || token.name === 'br') {
+        if (inNoscript) this.stack.pop();
+        this.startBody();
+        this.inBody(token);
+      }
+    }
+  }
+
+  private startBody(): void {
+    this.beforeBody = false;
+    this.stack.truncate(2);
+  }
+
+  /** "in head" rules, also used for these tags inside the body and tables */
+  private headElement(token: StartTag): void {
+    switch (token.name) {
+      case 'title':
+        return this.rawTextElement(token, TokenizerState.RCDATA);
+      case 'noframes':
+      case 'style':
+      case 'script':
+        return this.rawTextElement(token, TokenizerState.RAWTEXT);
+      case 'template':
+        this.insertElement(token);
+        this.formatting.push(MARKER);
+        this.templates++;
+        return;
+      case 'noscript':
+        this.insertElement(token);
+        return;
+      default:
+        this.insertElement(token);
+        this.stack.pop();
+    }
+  }
+
+  private endTemplate(): void {
+    if (!this.stack.some((node) => node.ns === HTML && node.name === 'template')) return;
+    this.generateImpliedEndTags(undefined, true);
+    this.popUntil('template');
+    this.clearFormattingToMarker();
+    this.templates--;
+    this.resetInsertionMode();
+  }
+
+  // ── "text" (RCDATA/RAWTEXT content) ────────────────────────
+
+  private rawTextElement(token: StartTag, state: (typeof TokenizerState)['RCDATA' | 'RAWTEXT']): void {
+    this.insertElement(token);
+    this.tokenizer.setState(state, token.name);
+    this.originalMode = this.mode;
+    this.mode = Mode.TEXT;
+  }
+
+  private inText(token: Token): void {
+    if (token.type === 'text') {
+      this.insertText(token.data);
+    } else if (token.type === 'end') {
+      this.stack.pop();
+      this.mode = this.originalMode;
+    }
+  }
+
+  // ── "in body" ──────────────────────────────────────────────
+
+  private inBody(token: Token): void {
+    if (token.type === 'text') {
+      this.reconstructFormatting();
+      this.insertText(token.data);
+    } else if (token.type === 'start') {
+      this.startTagInBody(token);
+    } else if (token.type === 'end') {
+      this.endTagInBody(token.name);
+    }
+  }
+
+  private startTagInBody(token: StartTag): void {
+    const { name } = token;
+    if (CLOSES_P.has(name)) {
+      this.closePInButtonScope();
+      this.insertElement(token);
+    } else if (HEADINGS.has(name)) {
+      this.closePInButtonScope();
+      if (is(this.current, HEADINGS)) this.stack.pop();
+      this.insertElement(token);
+    } else if (name === 'pre' || name === 'listing') {
+      this.closePInButtonScope();
+      this.insertElement(token);
+      this.skipNewline = true;
+    } else if (name === 'li' || name === 'dd' || name === 'dt') {
+      const closes = name === 'li' ? ['li'] : ['dd', 'dt'];
+      const open = closes.some((item) => this.stack.has(item));
+      for (let i = open ? this.stack.length - 1 : -1; i >= 0; i--) {
+        const node = this.stack[i];
+        if (node.ns === HTML && closes.includes(node.name)) {
+          this.generateImpliedEndTags(node.name);
+          this.popUntil(node.name);
+          break;
+        }
+        if (isSpecial(node) && !(node.ns === HTML && ['address', 'div', 'p'].includes(node.name))) break;
+      }
+      this.closePInButtonScope();
+      this.insertElement(token);
+    } else if (FORMATTING.has(name)) {
+      if (name === 'a') {
+        const open = this.formattingElement('a');
+        if (open) {
+          this.adoptionAgency('a');
+          this.removeFormatting(open);
+          const index = this.stack.indexOf(open);
+          if (index !== -1) this.stack.splice(index, 1);
+        }
+      }
+      this.reconstructFormatting();
+      if (name === 'nobr' && this.inScope('nobr')) {
+        this.adoptionAgency('nobr');
+        this.reconstructFormatting();
+      }
+      this.pushFormatting(this.insertElement(token));
+    } else if (HEAD_ELEMENTS.has(name) && name !== 'noscript') {
+      this.headElement(token);
+    } else if (IGNORED_IN_BODY.has(name) || name === 'html' || name === 'body' || name === 'frameset') {
+      // Attributes of <html>/<body> would be merged into elements that are not serialized
+    } else {
+      this.otherStartTagInBody(token);
+    }
+  }
+
+  private otherStartTagInBody(token: StartTag): void {
+    switch (token.name) {
+      case 'form':
+        if (this.form && this.templates === 0) return;
+        this.closePInButtonScope();
+        this.insertElement(token);
+        if (this.templates === 0) this.form = this.current;
+        return;
+      case 'plaintext':
+        this.closePInButtonScope();
+        this.insertElement(token);
+        this.tokenizer.setState(TokenizerState.PLAINTEXT, 'plaintext');
+        return;
+      case 'button':
+        if (this.inScope('button')) {
+          this.generateImpliedEndTags();
+          this.popUntil('button');
+        }
+        this.reconstructFormatting();
+        this.insertElement(token);
+        return;
+      case 'applet':
+      case 'marquee':
+      case 'object':
+        this.reconstructFormatting();
+        this.insertElement(token);
+        this.formatting.push(MARKER);
+        return;
+      case 'table':
+        if (!this.quirks) this.closePInButtonScope();
+        this.insertElement(token);
+        this.mode = Mode.IN_TABLE;
+        return;
+      case 'hr':
+        this.closePInButtonScope();
+        this.insertVoid(token);
+        return;
+      case 'image':
+        return this.startTagInBody({ ...token, name: 'img' });
+      case 'textarea':
+        this.rawTextElement(token, TokenizerState.RCDATA);
+        this.skipNewline = true;
+        return;
+      case 'xmp':
+        this.closePInButtonScope();
+        this.reconstructFormatting();
+        return this.rawTextElement(token, TokenizerState.RAWTEXT);
+      case 'iframe':
+      case 'noembed':
+        return this.rawTextElement(token, TokenizerState.RAWTEXT);
+      case 'optgroup':
+      case 'option':
+        if (isNamed(this.current, 'option')) this.stack.pop();
+        this.reconstructFormatting();
+        this.insertElement(token);
+        return;
+      case 'rb':
+      case 'rtc':
+      case 'rp':
+      case 'rt':
+        if (this.inScope('ruby')) this.generateImpliedEndTags(token.name === 'rp' || token.name === 'rt' ? 'rtc' : undefined);
+        this.insertElement(token);
+        return;
+      case 'svg':
+      case 'math':
+        this.reconstructFormatting();
+        this.insertElement(token, token.name === 'svg' ? SVG : MATHML);
+        if (token.selfClosing) this.stack.pop();
+        return;
+      default:
+        if (VOID_ELEMENTS.has(token.name)) {
+          if (!['param', 'source', 'track'].includes(token.name)) this.reconstructFormatting();
+          this.insertVoid(token);
+        } else {
+          this.reconstructFormatting();
+          this.insertElement(token);
+        }
+    }
+  }
+
+  private endTagInBody(name: string): void {
+    if (BLOCK_END.has(name)) {
+      if (!this.inScope(name)) return;
+      this.generateImpliedEndTags();
+      this.popUntil(name);
+    } else if (name === 'p') {
+      if (!this.inScope('p', 'button')) this.insertElement({ type: 'start', name: 'p', attrs: [], selfClosing: false });
+      this.closeP();
+    } else if (name === 'li') {
+      if (!this.inScope('li', 'list')) return;
+      this.generateImpliedEndTags('li');
+      this.popUntil('li');
+    } else if (name === 'dd' || name === 'dt') {
+      if (!this.inScope(name)) return;
+      this.generateImpliedEndTags(name);
+      this.popUntil(name);
+    } else if (HEADINGS.has(name)) {
+      if (![...HEADINGS].some((heading) => this.inScope(heading))) return;
+      this.generateImpliedEndTags();
+      while (!is(this.stack.pop()!, HEADINGS));
+    } else if (FORMATTING.has(name)) {
+      this.adoptionAgency(name);
+    } else if (name === 'form') {
+      const form = this.form;
+      this.form = null;
+      if (this.templates > 0) {
+        if (!this.inScope('form')) return;
+        this.generateImpliedEndTags();
+        this.popUntil('form');
+      } else if (form && this.inScope(form)) {
+        this.generateImpliedEndTags();
+        this.stack.splice(this.stack.lastIndexOf(form), 1);
+      }
+    } else if (name === 'applet' || name === 'marquee' || name === 'object') {
+      if (!this.inScope(name)) return;
+      this.generateImpliedEndTags();
+      this.popUntil(name);
+      this.clearFormattingToMarker();
+    } else if (name === 'br') {
+      this.startTagInBody({ type: 'start', name: 'br', attrs: [], selfClosing: false });
+    } else if (name === 'template') {
+      this.endTemplate();
+    } else if (name !== 'body' && name !== 'html') {
+      this.anyOtherEndTag(name);
+    }
+  }
+
+  private anyOtherEndTag(name: string): void {
+    for (let i = this.stack.length - 1; i > 0; i--) {
+      const node = this.stack[i];
+      if (node.ns === HTML && node.name === name) {
+        this.generateImpliedEndTags(name);
+        this.stack.truncate(i);
+        return;
+      }
+      if (isSpecial(node)) return;
+    }
+  }
+
+  // ── Foreign content (SVG, MathML) ──────────────────────────
+
+  private inForeignContent(token: Token): void {
+    if (token.type === 'text') {
+      this.insertText(token.data);
+    } else if (token.type === 'start') {
+      const fontBreakout = token.name === 'font' && token.attrs.some(([name]) => ['color', 'face', 'size'].includes(name));
+      if (BREAKOUT.has(token.name) || fontBreakout) {
+        while (
+          this.current.ns !== HTML
+          && !isHtmlIntegrationPoint(this.current)
+          && !(this.current.ns === MATHML && MATHML_TEXT_INTEGRATION.has(this.current.name))
+        ) {
+          this.stack.pop();
+        }
+        return this.processHtml(token);
+      }
+      this.insertElement(token, this.current.ns);
+      if (token.selfClosing) this.stack.pop();
+    } else if (token.type === 'end') {
+      for (let i = this.stack.length - 1; i > 0; i--) {
+        if (this.stack[i].name === token.name) {
+          this.stack.truncate(i);
+          return;
+        }
+        if (this.stack[i - 1].ns === HTML) return this.processHtml(token);
+      }
+    }
+  }
+
+  // ── Tables ─────────────────────────────────────────────────
+
+  private inTable(token: Token): void {
+    if (token.type === 'text') {
+      if (is(this.current, TABLE_TEXT_TARGETS)) {
+        this.pendingTableText = '';
+        this.originalMode = this.mode;
+        this.mode = Mode.IN_TABLE_TEXT;
+        return this.inTableText(token);
+      }
+    } else if (token.type === 'start') {
+      switch (token.name) {
+        case 'caption':
+          this.clearStackTo(TABLE_CONTEXT);
+          this.formatting.push(MARKER);
+          this.insertElement(token);
+          this.mode = Mode.IN_CAPTION;
+          return;
+        case 'colgroup':
+          this.clearStackTo(TABLE_CONTEXT);
+          this.insertElement(token);
+          this.mode = Mode.IN_COLUMN_GROUP;
+          return;
+        case 'col':
+          this.clearStackTo(TABLE_CONTEXT);
+          this.insertElement({ type: 'start', name: 'colgroup', attrs: [], selfClosing: false });
+          this.mode = Mode.IN_COLUMN_GROUP;
+          return this.inColumnGroup(token);
+        case 'tbody':
+        case 'tfoot':
+        case 'thead':
+          this.clearStackTo(TABLE_CONTEXT);
+          this.insertElement(token);
+          this.mode = Mode.IN_TABLE_BODY;
+          return;
+        case 'td':
+        case 'th':
+        case 'tr':
+          this.clearStackTo(TABLE_CONTEXT);
+          this.insertElement({ type: 'start', name: 'tbody', attrs: [], selfClosing: false });
+          this.mode = Mode.IN_TABLE_BODY;
+          return this.inTableBody(token);
+        case 'table':
+          if (!this.inScope('table', 'table')) return;
+          this.popUntil('table');
+          this.resetInsertionMode();
+          return this.processHtml(token);
+        case 'style':
+        case 'script':
+        case 'template':
+          return this.headElement(token);
+        case 'input':
+          if (token.attrs.find(([name]) => name === 'type')?.[1].toLowerCase() !== 'hidden') break;
+          this.insertVoid(token);
+          return;
+        case 'form':
+          if (this.form || this.templates > 0) return;
+          this.form = this.insertElement(token);
+          this.stack.pop();
+          return;
+      }
+    } else if (token.type === 'end') {
+      switch (token.name) {
+        case 'table':
+          if (!this.inScope('table', 'table')) return;
+          this.popUntil('table');
+          this.resetInsertionMode();
+          return;
+        case 'template':
+          return this.endTemplate();
+        case 'body': case 'caption': case 'col': case 'colgroup': case 'html':
+        case 'tbody': case 'td': case 'tfoot': case 'th': case 'thead': case 'tr':
+          return;
+      }
+    }
+    // Anything else goes into the body rules, with misplaced content moved in front of the table
+    this.fosterParenting = true;
+    this.inBody(token);
+    this.fosterParenting = false;
+  }
+
+  private inTableText(token: Token): void {
+    if (token.type === 'text') {
+      this.pendingTableText += token.data;
+      return;
+    }
+    this.flushTableText();
+    this.processHtml(token);
+  }
+
+  private flushTableText(): void {
+    const text = this.pendingTableText;
+    this.pendingTableText = '';
+    this.mode = this.originalMode;
+    if (text === '') return;
+    if (isWhitespace(text)) {
+      this.insertText(text);
+    } else {
+      this.fosterParenting = true;
+      this.inBody({ type: 'text', data: text });
+      this.fosterParenting = false;
+    }
+  }
+
+  private inCaption(token: Token): void {
+    const closesCaption =
+      (token.type === 'end' && (token.name === 'caption' || token.name === 'table'))
+      || (token.type === 'start' && CELL_CLOSERS.has(token.name));
+    if (closesCaption) {
+      if (!this.inScope('caption', 'table')) return;
+      this.generateImpliedEndTags();
+      this.popUntil('caption');
+      this.clearFormattingToMarker();
+      this.mode = Mode.IN_TABLE;
+      if (token.type === 'end' && token.name === 'caption') return;
+      return this.inTable(token);
+    }
+    if (token.type === 'end' && IGNORED_IN_CAPTION.has(token.name)) return;
+    this.inBody(token);
+  }
+
+  private inColumnGroup(token: Token): void {
+    if (token.type === 'text') {
+      const whitespace = /^[\t\n\f ]*/.exec(token.data)![0];
+      if (whitespace) this.insertText(whitespace);
+      if (whitespace.length === token.data.length) return;
+      token = { type: 'text', data: token.data.slice(whitespace.length) };
+    } else if (token.type === 'start' && token.name === 'col') {
+      return this.insertVoid(token);
+    } else if (token.type === 'start' && token.name === 'template') {
+      return this.headElement(token);
+    } else if (token.type === 'end') {
+      if (token.name === 'col') return;
+      if (token.name === 'template') return this.endTemplate();
+      if (token.name === 'colgroup') {
+        if (!isNamed(this.current, 'colgroup')) return;
+        this.stack.pop();
+        this.mode = Mode.IN_TABLE;
+        return;
+      }
+    }
+    if (!isNamed(this.current, 'colgroup')) return;
+    this.stack.pop();
+    this.mode = Mode.IN_TABLE;
+    this.inTable(token);
+  }
+
+  private inTableBody(token: Token): void {
+    if (token.type === 'start') {
+      if (token.name === 'tr' || token.name === 'td' || token.name === 'th') {
+        this.clearStackTo(TABLE_BODY_CONTEXT);
+        if (token.name === 'tr') {
+          this.insertElement(token);
+          this.mode = Mode.IN_ROW;
+          return;
+        }
+        this.insertElement({ type: 'start', name: 'tr', attrs: [], selfClosing: false });
+        this.mode = Mode.IN_ROW;
+        return this.inRow(token);
+      }
+      if (TABLE_BODY_EXITS.has(token.name)) return this.leaveTableBody(token);
+    } else if (token.type === 'end') {
+      if (TABLE_SECTIONS.has(token.name)) {
+        if (!this.inScope(token.name, 'table')) return;
+        this.clearStackTo(TABLE_BODY_CONTEXT);
+        this.stack.pop();
+        this.mode = Mode.IN_TABLE;
+        return;
+      }
+      if (token.name === 'table') return this.leaveTableBody(token);
+      if (IGNORED_IN_TABLE_BODY.has(token.name)) return;
+    }
+    this.inTable(token);
+  }
+
+  private leaveTableBody(token: Token): void {
+    if (![...TABLE_SECTIONS].some((name) => this.inScope(name, 'table'))) return;
+    this.clearStackTo(TABLE_BODY_CONTEXT);
+    this.stack.pop();
+    this.mode = Mode.IN_TABLE;
+    this.inTable(token);
+  }
+
+  private inRow(token: Token): void {
+    if (token.type === 'start') {
+      if (token.name === 'td' || token.name === 'th') {
+        this.clearStackTo(ROW_CONTEXT);
+        this.insertElement(token);
+        this.mode = Mode.IN_CELL;
+        this.formatting.push(MARKER);
+        return;
+      }
+      if (ROW_EXITS.has(token.name)) return this.leaveRow(token);
+    } else if (token.type === 'end') {
+      if (token.name === 'tr') return this.leaveRow(null);
+      if (token.name === 'table') return this.leaveRow(token);
+      if (TABLE_SECTIONS.has(token.name)) {
+        if (!this.inScope(token.name, 'table')) return;
+        return this.leaveRow(token);
+      }
+      if (IGNORED_IN_ROW.has(token.name)) return;
+    }
+    this.inTable(token);
+  }
+
+  /** Close the row, then reprocess `token` (if any) in "in table body" */
+  private leaveRow(token: Token | null): void {
+    if (!this.inScope('tr', 'table')) return;
+    this.clearStackTo(ROW_CONTEXT);
+    this.stack.pop();
+    this.mode = Mode.IN_TABLE_BODY;
+    if (token) this.inTableBody(token);
+  }
+
+  private inCell(token: Token): void {
+    if (token.type === 'end') {
+      if (token.name === 'td' || token.name === 'th') {
+        if (!this.inScope(token.name, 'table')) return;
+        this.closeCell();
+        return;
+      }
+      if (IGNORED_IN_CELL.has(token.name)) return;
+      if (CELL_TABLE_ENDS.has(token.name)) {
+        if (!this.inScope(token.name, 'table')) return;
+        this.closeCell();
+        return this.inRow(token);
+      }
+    } else if (token.type === 'start' && CELL_CLOSERS.has(token.name)) {
+      if (!this.inScope('td', 'table') && !this.inScope('th', 'table')) return;
+      this.closeCell();
+      return this.inRow(token);
+    }
+    this.inBody(token);
+  }
+
+  private closeCell(): void {
+    this.generateImpliedEndTags();
+    while (!is(this.stack.pop()!, CELLS));
+    this.clearFormattingToMarker();
+    this.mode = Mode.IN_ROW;
+  }
+
+  private clearStackTo(context: Set<string>): void {
+    while (!is(this.current, context)) this.stack.pop();
+  }
+
+  private resetInsertionMode(): void {
+    for (let i = this.stack.length - 1; i >= 0; i--) {
+      const node = this.stack[i];
+      if (node.ns !== HTML) continue;
+      switch (node.name) {
+        case 'td':
+        case 'th':
+          this.mode = Mode.IN_CELL;
+          return;
+        case 'tr':
+          this.mode = Mode.IN_ROW;
+          return;
+        case 'tbody':
+        case 'thead':
+        case 'tfoot':
+          this.mode = Mode.IN_TABLE_BODY;
+          return;
+        case 'caption':
+          this.mode = Mode.IN_CAPTION;
+          return;
+        case 'colgroup':
+          this.mode = Mode.IN_COLUMN_GROUP;
+          return;
+        case 'table':
+          this.mode = Mode.IN_TABLE;
+          return;
+        case 'template':
+        case 'body':
+        case 'html':
+          this.mode = Mode.IN_BODY;
+          return;
+      }
+    }
+    this.mode = Mode.IN_BODY;
+  }
+
+  // ── Stack of open elements ─────────────────────────────────
+
+  /** "has an element in scope"; `target` is a tag name (HTML) or a specific element */
+  private inScope(target: string | HtmlElement, kind: 'default' | 'list' | 'button' | 'table' = 'default'): boolean {
+    if (typeof target === 'string' && !this.stack.has(target)) return false;
+    for (let i = this.stack.length - 1; i >= 0; i--) {
+      const node = this.stack[i];
+      if (typeof target === 'string' ? node.ns === HTML && node.name === target : node === target) return true;
+      if (kind === 'table') {
+        if (is(node, TABLE_SCOPE_BOUNDARY)) return false;
+        continue;
+      }
+      if (node.ns === HTML) {
+        if (SCOPE_BOUNDARY.has(node.name)) return false;
+        if (kind === 'list' && (node.name === 'ol' || node.name === 'ul')) return false;
+        if (kind === 'button' && node.name === 'button') return false;
+      } else if (node.ns === MATHML ? isSpecial(node) : SVG_HTML_INTEGRATION.has(node.name)) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private popUntil(name: string): void {
+    while (this.stack.length > 2) {
+      const node = this.stack.pop()!;
+      if (node.ns === HTML && node.name === name) return;
+    }
+  }
+
+  private generateImpliedEndTags(except?: string, thorough = false): void {
+    const names = thorough ? IMPLIED_END_THOROUGH : IMPLIED_END;
+    while (is(this.current, names) && this.current.name !== except) this.stack.pop();
+  }
+
+  private closePInButtonScope(): void {
+    if (this.inScope('p', 'button')) this.closeP();
+  }
+
+  private closeP(): void {
+    this.generateImpliedEndTags('p');
+    this.popUntil('p');
+  }
+
+  // ── Insertion ──────────────────────────────────────────────
+
+  private insertElement(token: StartTag, ns: HtmlNamespace = HTML): HtmlElement {
+    const element = createElement(token.name, token.attrs, ns);
+    this.insertNode(element);
+    this.stack.push(element);
+    return element;
+  }
+
+  private insertVoid(token: StartTag): void {
+    this.insertElement(token);
+    this.stack.pop();
+  }
+
+  private insertText(text: string): void {
+    if (text !== '') this.insertNode(text);
+  }
+
+  /** Append to the current node, or in front of the table when foster parenting */
+  private insertNode(node: HtmlNode, parent = this.current): void {
+    if (!this.fosterParenting || !is(parent, FOSTER_TARGETS)) {
+      appendChild(parent, node);
+      return;
+    }
+    let table = -1;
+    for (let i = this.stack.length - 1; i >= 0; i--) {
+      const element = this.stack[i];
+      if (element.ns !== HTML) continue;
+      if (element.name === 'template') return appendChild(element, node);
+      if (element.name === 'table') {
+        table = i;
+        break;
+      }
+    }
+    if (table === -1) return appendChild(parent, node);
+    const tableElement = this.stack[table];
+    if (tableElement.parent) insertBefore(tableElement.parent, node, tableElement);
+    else appendChild(this.stack[table - 1], node);
+  }
+
+  // ── Active formatting elements ─────────────────────────────
+
+  private formattingElement(name: string): HtmlElement | null {
+    for (let i = this.formatting.length - 1; i >= 0; i--) {
+      const entry = this.formatting[i];
+      if (entry === MARKER) return null;
+      if (entry.name === name) return entry;
+    }
+    return null;
+  }
+
+  /** Push with the "Noah's Ark" clause: at most three identical entries after the last marker */
+  private pushFormatting(element: HtmlElement): void {
+    let identical = 0;
+    let earliest = -1;
+    for (let i = this.formatting.length - 1; i >= 0; i--) {
+      const entry = this.formatting[i];
+      if (entry === MARKER) break;
+      if (entry.name === element.name && sameAttributes(entry.attrs, element.attrs)) {
+        identical++;
+        earliest = i;
+      }
+    }
+    if (identical >= 3) this.formatting.splice(earliest, 1);
+    this.formatting.push(element);
+  }
+
+  private removeFormatting(element: HtmlElement): void {
+    const index = this.formatting.indexOf(element);
+    if (index !== -1) this.formatting.splice(index, 1);
+  }
+
+  private clearFormattingToMarker(): void {
+    while (this.formatting.length > 0 && this.formatting.pop() !== MARKER);
+  }
+
+  /** Reopen formatting elements closed implicitly (`<p><b>x<p>y` → y is bold too) */
+  private reconstructFormatting(): void {
+    const entries = this.formatting;
+    if (entries.length === 0) return;
+    const last = entries[entries.length - 1];
+    if (last === MARKER || this.stack.includes(last)) return;
+    let i = entries.length - 1;
+    while (i > 0) {
+      const entry = entries[i - 1];
+      if (entry === MARKER || this.stack.includes(entry)) break;
+      i--;
+    }
+    for (; i < entries.length; i++) {
+      const entry = entries[i]!;
+      entries[i] = this.insertElement({ type: 'start', name: entry.name, attrs: entry.attrs, selfClosing: false });
+    }
+  }
+
+  /** The spec's adoption agency algorithm, for end tags of formatting elements */
+  private adoptionAgency(subject: string): void {
+    const { stack } = this;
+    if (isNamed(this.current, subject) && !this.formatting.includes(this.current)) {
+      stack.pop();
+      return;
+    }
+    for (let outer = 0; outer < 8; outer++) {
+      const formattingElement = this.formattingElement(subject);
+      if (!formattingElement) return this.anyOtherEndTag(subject);
+      const formattingIndex = stack.indexOf(formattingElement);
+      if (formattingIndex === -1) return this.removeFormatting(formattingElement);
+      if (!this.inScope(formattingElement)) return;
+
+      let furthestIndex = -1;
+      for (let i = formattingIndex + 1; i < stack.length; i++) {
+        if (isSpecial(stack[i])) {
+          furthestIndex = i;
+          break;
+        }
+      }
+      if (furthestIndex === -1) {
+        stack.truncate(formattingIndex);
+        return this.removeFormatting(formattingElement);
+      }
+      const furthestBlock = stack[furthestIndex];
+      const commonAncestor = stack[formattingIndex - 1];
+      let bookmark = this.formatting.indexOf(formattingElement);
+      let node = furthestBlock;
+      let lastNode = furthestBlock;
+      let nodeIndex = furthestIndex;
+
+      for (let inner = 1; ; inner++) {
+        nodeIndex--;
+        node = stack[nodeIndex];
+        if (node === formattingElement) break;
+        const entryIndex = this.formatting.indexOf(node);
+        if (inner > 3 && entryIndex !== -1) {
+          this.formatting.splice(entryIndex, 1);
+          if (entryIndex < bookmark) bookmark--;
+        }
+        if (!this.formatting.includes(node)) {
+          stack.splice(nodeIndex, 1);
+          continue;
+        }
+        const clone = createElement(node.name, node.attrs);
+        this.formatting[this.formatting.indexOf(node)] = clone;
+        stack.splice(nodeIndex, 1, clone);
+        node = clone;
+        if (lastNode === furthestBlock) bookmark = this.formatting.indexOf(clone) + 1;
+        appendChild(node, lastNode);
+        lastNode = node;
+      }
+
+      if (lastNode.parent) removeChild(lastNode, lastNode.parent);
+      lastNode.parent = null;
+      this.insertNode(lastNode, commonAncestor);
+
+      const replacement = createElement(formattingElement.name, formattingElement.attrs);
+      for (const child of furthestBlock.children) {
+        if (typeof child !== 'string') child.parent = replacement;
+      }
+      replacement.children = furthestBlock.children;
+      furthestBlock.children = [];
+      appendChild(furthestBlock, replacement);
+
+      const formattingEntry = this.formatting.indexOf(formattingElement);
+      this.formatting.splice(formattingEntry, 1);
+      if (formattingEntry < bookmark) bookmark--;
+      this.formatting.splice(bookmark, 0, replacement);
+      stack.splice(stack.indexOf(formattingElement), 1);
+      stack.splice(stack.indexOf(furthestBlock) + 1, 0, replacement);
+    }
+  }
+}
+
+/** Incremental parser: `write()` the document in chunks, `end()` returns its <body> */
+export interface HtmlBodyParser {
+  write(chunk: string): void;
+  end(): HtmlElement;
+}
+
+export function createHtmlBodyParser(): HtmlBodyParser {
+  return new TreeBuilder();
+}
+
+/** Parse an HTML document the way a browser does; returns its <body> */
+export function parseHtmlBody(html: string): HtmlElement {
+  const parser = new TreeBuilder();
+  parser.write(html);
+  return parser.end();
+}
@@ -115,13 +115,19 @@ export function mapAmbientToDto(a: Ambient): AmbientItem {
 
 // ── Chapters ────────────────────────────────────────────────────
 
-export function mapChapterToListItem(ch: Chapter): ChapterListItem {
+/** A chapter row without its HTML (see CHAPTER_LIST_SELECT) */
+type ChapterForList = Omit<Chapter, 'bookId' | 'htmlContent' | 'createdAt' | 'updatedAt'>;
+
+export function mapChapterToListItem(ch: ChapterForList): ChapterListItem {
   return {
     id: ch.id,
     title: ch.title,
     position: ch.position,
     filePath: ch.filePath,
-    hasHtmlContent: ch.htmlContent !== null,
+    hasHtmlContent: ch.hasContent,
+    contentLength: ch.contentLength,
+    contentHash: ch.contentHash,
+    wordCount: ch.wordCount,
     bg: ch.bg,
     bgMobile: ch.bgMobile,
   };
@@ -279,7 +285,7 @@ type BookWithRelations = {
   coverBgMobile: string;
   coverBgMode: string;
   coverBgCustomUrl: string | null;
-  chapters: Chapter[];
+  chapters: ChapterForList[];
   defaultSettings: BookDefaultSettings | null;
   appearance: BookAppearance | null;
   sounds: BookSounds | null;
@@ -1,20 +1,101 @@
 import { getPrisma } from './prisma.js';
+import { getConfig } from '../config.js';
 import { AppError } from '../middleware/errorHandler.js';
+import { cacheLookupsTotal } from '../middleware/metrics.js';
+
+/** Upper bound on cached books; the least recently used are evicted first */
+const MAX_ENTRIES = 20_000;
+
+interface BookAccess {
+  userId: string;
+  /** Visible to other readers (not a draft) */
+  isPublic: boolean;
+}
+
+/**
+ * Owner and visibility of each live book recently checked. A book never
+ * changes owner, so for ownership an entry can only go stale by the book
+ * being deleted — `forgetBookOwnership()` drops it in this process, other
+ * processes notice after OWNERSHIP_CACHE_TTL_MS. Only the owner can reach a
+ * book's sub-resources, so the window exposes nothing to other users.
+ * Visibility goes stale the same way; it only decides whether another reader
+ * may record their own progress in the book.
+ */
+const books = new Map<string, BookAccess & { expiresAt: number }>();
+
+function checkOwner(ownerId: string, userId: string): void {
+  if (ownerId !== userId) throw new AppError(403, 'Access denied');
+}
+
+/** Owner and visibility of a live book; throws 404 if there is none */
+async function getBookAccess(bookId: string): Promise<BookAccess> {
+  const ttlMs = getConfig().OWNERSHIP_CACHE_TTL_MS;
+  const cached = books.get(bookId);
+  if (cached && cached.expiresAt > Date.now()) {
+    books.delete(bookId);
+    books.set(bookId, cached);
+    cacheLookupsTotal.inc({ namespace: 'book_owner', result: 'hit' });
+    return cached;
+  }
+  if (ttlMs > 0) cacheLookupsTotal.inc({ namespace: 'book_owner', result: 'miss' });
+
+  const prisma = getPrisma();
+  const book = await prisma.book.findFirst({
+    where: { id: bookId, deletedAt: null },
+    select: { userId: true, visibility: true },
+  });
+
+  if (!book) throw new AppError(404, 'Book not found');
+  const access = { userId: book.userId, isPublic: book.visibility !== 'draft' };
+  if (ttlMs > 0) {
+    books.delete(bookId);
+    books.set(bookId, { ...access, expiresAt: Date.now() + ttlMs });
+    for (const oldest of books.keys()) {
+      if (books.size <= MAX_ENTRIES) break;
+      books.delete(oldest);
+    }
+  }
+  return access;
+}
 
 /**
  * Verify that a book exists and belongs to the specified user.
  * Throws 404 if not found, 403 if access denied.
+ *
+ * Runs before every request under /books/:bookId/*, so live owners are
+ * cached and the editor's chapter reads and writes cost one query, not two.
  */
 export async function verifyBookOwnership(
   bookId: string,
   userId: string,
 ): Promise<void> {
-  const prisma = getPrisma();
-  const book = await prisma.book.findFirst({
-    where: { id: bookId, deletedAt: null },
-    select: { userId: true },
-  });
+  checkOwner((await getBookAccess(bookId)).userId, userId);
+}
 
-  if (!book) throw new AppError(404, 'Book not found');
-  if (book.userId !== userId) throw new AppError(403, 'Access denied');
+/**
+ * Verify that a user may keep reading state (progress, sessions) for a
+ * book: it exists and is either theirs or not a draft.
+ * Throws 404 if not found, 403 if access denied.
+ */
+export async function verifyBookReadable(
+  bookId: string,
+  userId: string,
+): Promise<void> {
+  const book = await getBookAccess(bookId);
+  if (!book.isPublic) checkOwner(book.userId, userId);
+}
+
+/** Verify that a live book exists; throws 404 otherwise */
+export async function verifyBookExists(bookId: string): Promise<void> {
+  await getBookAccess(bookId);
+}
+
+/** Drop a cached book when it is deleted or its visibility changes */
+export function forgetBookOwnership(bookId: string): void {
+  books.delete(bookId);
+}
+
+/** Empty the owner cache (tests) */
+export function clearBookOwnershipCache(): void {
+  books.clear();
 }
@@ -1,4 +1,6 @@
 import { PrismaClient } from '@prisma/client';
+import { dbQueryDuration } from '../middleware/metrics.js';
+import { withSpan, SpanKind } from './tracing.js';
 
 let prisma: PrismaClient | null = null;
 
@@ -10,11 +12,15 @@ let prisma: PrismaClient | null = null;
  * - pool_timeout: seconds to wait for available connection (default: 10)
  *
  * Example: DATABASE_URL="postgresql://...?connection_limit=20&pool_timeout=15"
+ *
+ * Every operation (model queries and raw SQL, inside transactions too) is
+ * timed into `db_query_duration_seconds` by model, operation and result,
+ * and traced as a client span when it runs inside a sampled request.
  */
 export function getPrisma(): PrismaClient {
   if (prisma) return prisma;
 
-  prisma = new PrismaClient({
+  const client = new PrismaClient({
     log:
       process.env.NODE_ENV === 'development'
         ? ['warn', 'error']
@@ -24,6 +30,26 @@ export function getPrisma(): PrismaClient {
     //   datasources: { db: { url: process.env.DATABASE_URL } }
   });
 
+  // The extended client has the same query API; callers keep the PrismaClient type
+  prisma = client.$extends({
+    query: {
+      async $allOperations({ model, operation, args, query }) {
+        const attributes = { 'db.system': 'postgresql', 'db.operation': operation, 'db.prisma.model': model };
+        return withSpan(`prisma ${model ?? 'raw'}.${operation}`, attributes, async () => {
+          const end = dbQueryDuration.startTimer({ model: model ?? 'raw', operation });
+          try {
+            const result = await query(args);
+            end({ result: 'success' });
+            return result;
+          } catch (err) {
+            end({ result: 'error' });
+            throw err;
+          }
+        }, SpanKind.CLIENT);
+      },
+    },
+  }) as unknown as PrismaClient;
+
   return prisma;
 }
 
@@ -0,0 +1,222 @@
+import type { Store, Options, IncrementResponse } from 'express-rate-limit';
+import { getPrisma } from './prisma.js';
+import { RespCacheStore } from './respCache.js';
+import { getConfig } from '../config.js';
+import { logger } from './logger.js';
+import { rateLimitStoreErrorsTotal } from '../middleware/metrics.js';
+
+/** How often expired counters are purged (memory and Postgres backends) */
+const SWEEP_INTERVAL_MS = 60_000;
+
+/**
+ * Fixed-window hit counters a sliding window is computed from.
+ * `window` is the window number (`floor(now / windowMs)`).
+ */
+export interface WindowCounter {
+  readonly backend: string;
+  /** Count a hit in `window`; returns it with the count of `window - 1` */
+  hit(key: string, window: number, ttlMs: number): Promise<{ current: number; previous: number }>;
+  /** Take back a hit counted in `window` */
+  undo(key: string, window: number): Promise<void>;
+  reset(key: string, window: number): Promise<void>;
+  close(): Promise<void>;
+}
+
+/** Per-process counters (RATE_LIMIT_STORE=memory) */
+export class MemoryWindowCounter implements WindowCounter {
+  readonly backend = 'memory';
+  private counts = new Map<string, { hits: number; expiresAt: number }>();
+  private timer = setInterval(() => this.sweep(), SWEEP_INTERVAL_MS).unref();
+
+  async hit(key: string, window: number, ttlMs: number) {
+    const id = `${key}:${window}`;
+    const entry = this.counts.get(id);
+    const hits = (entry?.hits ?? 0) + 1;
+    this.counts.set(id, { hits, expiresAt: entry?.expiresAt ?? Date.now() + ttlMs });
+    return { current: hits, previous: this.counts.get(`${key}:${window - 1}`)?.hits ?? 0 };
+  }
+
+  async undo(key: string, window: number) {
+    const entry = this.counts.get(`${key}:${window}`);
+    if (entry && entry.hits > 0) entry.hits--;
+  }
+
+  async reset(key: string, window: number) {
+    this.counts.delete(`${key}:${window}`);
+    this.counts.delete(`${key}:${window - 1}`);
+  }
+
+  async close() {
+    clearInterval(this.timer);
+    this.counts.clear();
+  }
+
+  private sweep() {
+    const now = Date.now();
+    for (const [id, entry] of this.counts) {
+      if (entry.expiresAt <= now) this.counts.delete(id);
+    }
+  }
+}
+
+/**
+ * Counters in the `rate_limit_hits` table, through the Prisma pool
+ * (RATE_LIMIT_STORE=postgres). One statement per request: upsert the
+ * current window and read the previous one.
+ */
+export class PostgresWindowCounter implements WindowCounter {
+  readonly backend = 'postgres';
+  private timer = setInterval(() => { void this.sweep(); }, SWEEP_INTERVAL_MS).unref();
+
+  async hit(key: string, window: number, ttlMs: number) {
+    const [row] = await getPrisma().$queryRaw<{ current: number; previous: number }[]>`
+      WITH hit AS (
+        INSERT INTO "rate_limit_hits" (key, window_start, hits, expires_at)
+        VALUES (${key}, ${window}::bigint, 1, now() + ${ttlMs}::int * interval '1 millisecond')
+        ON CONFLICT (key, window_start) DO UPDATE SET hits = "rate_limit_hits".hits + 1
+        RETURNING hits
+      )
+      SELECT (SELECT hits FROM hit) AS current,
+             COALESCE((
+               SELECT hits FROM "rate_limit_hits"
+               WHERE key = ${key} AND window_start = ${window - 1}::bigint
+             ), 0) AS previous
+    `;
+    return row;
+  }
+
+  async undo(key: string, window: number) {
+    await getPrisma().$executeRaw`
+      UPDATE "rate_limit_hits" SET hits = hits - 1
+      WHERE key = ${key} AND window_start = ${window}::bigint AND hits > 0
+    `;
+  }
+
+  async reset(key: string, window: number) {
+    await getPrisma().$executeRaw`
+      DELETE FROM "rate_limit_hits"
+      WHERE key = ${key} AND window_start IN (${window}::bigint, ${window - 1}::bigint)
+    `;
+  }
+
+  async close() {
+    clearInterval(this.timer);
+  }
+
+  private async sweep() {
+    try {
+      await getPrisma().$executeRaw`DELETE FROM "rate_limit_hits" WHERE expires_at < now()`;
+    } catch (err) {
+      logger.warn({ err }, 'Failed to purge expired rate limit counters');
+    }
+  }
+}
+
+/**
+ * Counters on a Redis-protocol server (RATE_LIMIT_STORE=redis): INCR +
+ * PEXPIRE on the current window's key and GET on the previous one, sent
+ * pipelined on one connection so a hit costs a single round-trip.
+ */
+export class RespWindowCounter implements WindowCounter {
+  readonly backend = 'redis';
+
+  constructor(private readonly client: RespCacheStore) {}
+
+  async hit(key: string, window: number, ttlMs: number) {
+    const id = `${key}:${window}`;
+    const [current, , previous] = await Promise.all([
+      this.client.command(['INCR', id]),
+      this.client.command(['PEXPIRE', id, String(ttlMs)]),
+      this.client.command(['GET', `${key}:${window - 1}`]),
+    ]);
+    return { current: Number(current), previous: Number(previous ?? 0) };
+  }
+
+  async undo(key: string, window: number) {
+    await this.client.command(['DECR', `${key}:${window}`]);
+  }
+
+  async reset(key: string, window: number) {
+    await this.client.command(['DEL', `${key}:${window}`, `${key}:${window - 1}`]);
+  }
+
+  async close() {
+    await this.client.close();
+  }
+}
+
+/**
+ * express-rate-limit store implementing a sliding window over fixed-window
+ * counters: the hits of the previous window are weighted by how much of it
+ * still overlaps the sliding window, so a client cannot burst 2× the limit
+ * across a window boundary. Counters live in a `WindowCounter`, which can
+ * be shared by all replicas.
+ *
+ * A counter failure lets the request through (and is counted): an outage of
+ * the limiter's backend must not take the API down with it.
+ */
+export class SlidingWindowStore implements Store {
+  windowMs = 60_000;
+  readonly localKeys: boolean;
+
+  constructor(
+    readonly prefix: string,
+    private readonly counter: WindowCounter,
+  ) {
+    this.localKeys = counter.backend === 'memory';
+  }
+
+  init(options: Options): void {
+    this.windowMs = options.windowMs;
+  }
+
+  async increment(key: string): Promise<IncrementResponse> {
+    const now = Date.now();
+    const window = Math.floor(now / this.windowMs);
+    const resetTime = new Date((window + 1) * this.windowMs);
+    try {
+      // Counters must outlive the next window, which still reads them as "previous"
+      const { current, previous } = await this.counter.hit(this.prefix + key, window, this.windowMs * 2);
+      const overlap = 1 - (now - window * this.windowMs) / this.windowMs;
+      return { totalHits: current + Math.floor(previous * overlap), resetTime };
+    } catch (err) {
+      rateLimitStoreErrorsTotal.inc({ backend: this.counter.backend });
+      logger.warn({ err, backend: this.counter.backend }, 'Rate limit counter unavailable, request let through');
+      return { totalHits: 0, resetTime };
+    }
+  }
+
+  async decrement(key: string): Promise<void> {
+    await this.counter.undo(this.prefix + key, Math.floor(Date.now() / this.windowMs)).catch(() => {});
+  }
+
+  async resetKey(key: string): Promise<void> {
+    await this.counter.reset(this.prefix + key, Math.floor(Date.now() / this.windowMs));
+  }
+}
+
+let counter: WindowCounter | null = null;
+
+/** Process-wide counter backend, selected by RATE_LIMIT_STORE */
+export function getWindowCounter(): WindowCounter {
+  if (counter) return counter;
+  const config = getConfig();
+  switch (config.RATE_LIMIT_STORE) {
+    case 'postgres':
+      counter = new PostgresWindowCounter();
+      break;
+    case 'redis':
+      counter = new RespWindowCounter(new RespCacheStore(config.REDIS_URL!));
+      break;
+    default:
+      counter = new MemoryWindowCounter();
+  }
+  return counter;
+}
+
+/** Stop the backend (graceful shutdown) */
+export async function closeWindowCounter(): Promise<void> {
+  const current = counter;
+  counter = null;
+  await current?.close();
+}
@@ -0,0 +1,198 @@
+import net from 'node:net';
+import tls from 'node:tls';
+import type { CacheStore } from './cache.js';
+
+export type RespValue = string | number | null | RespValue[];
+
+class RespError extends Error {}
+
+interface PendingReply {
+  resolve: (value: RespValue) => void;
+  reject: (err: Error) => void;
+  /** AUTH / SELECT sent on connect — an error reply kills the connection */
+  handshake?: boolean;
+}
+
+/**
+ * Parse one RESP2 reply from `buf` starting at `offset`.
+ * Returns null when the buffer does not hold a complete reply yet.
+ */
+export function parseReply(buf: Buffer, offset = 0): { value: RespValue | RespError; next: number } | null {
+  const lineEnd = buf.indexOf('\r\n', offset);
+  if (lineEnd === -1) return null;
+  const type = String.fromCharCode(buf[offset]);
+  const line = buf.toString('utf8', offset + 1, lineEnd);
+  const next = lineEnd + 2;
+
+  switch (type) {
+    case '+':
+      return { value: line, next };
+    case '-':
+      return { value: new RespError(line), next };
+    case ':':
+      return { value: Number(line), next };
+    case '$': {
+      const len = Number(line);
+      if (len < 0) return { value: null, next };
+      if (buf.length < next + len + 2) return null;
+      return { value: buf.toString('utf8', next, next + len), next: next + len + 2 };
+    }
+    case '*': {
+      const count = Number(line);
+      if (count < 0) return { value: null, next };
+      const items: RespValue[] = [];
+      let cursor = next;
+      for (let i = 0; i < count; i++) {
+        const item = parseReply(buf, cursor);
+        if (!item) return null;
+        // Nested errors only occur in MULTI/EXEC replies, which are never sent
+        items.push(item.value instanceof RespError ? null : item.value);
+        cursor = item.next;
+      }
+      return { value: items, next: cursor };
+    }
+    default:
+      throw new RespError(`Unexpected RESP reply type "${type}"`);
+  }
+}
+
+export function encodeCommand(args: string[]): string {
+  let out = `*${args.length}\r\n`;
+  for (const arg of args) out += `$${Buffer.byteLength(arg)}\r\n${arg}\r\n`;
+  return out;
+}
+
+/**
+ * Cache backend speaking the Redis protocol (RESP2) over a single pipelined
+ * connection. Works with Redis, Valkey, KeyDB, Dragonfly and similar servers;
+ * the cache uses only MGET / SET [PX] / DEL.
+ *
+ * URL: redis[s]://[[user]:password@]host[:port][/db]
+ *
+ * Every command has a deadline. On timeout or socket error the connection is
+ * dropped, pending commands fail, and reconnects are suppressed for a short
+ * back-off so a dead server costs callers one failed lookup, not a hang.
+ */
+export class RespCacheStore implements CacheStore {
+  private socket: net.Socket | null = null;
+  private pending: PendingReply[] = [];
+  private buffer = Buffer.alloc(0);
+  private downUntil = 0;
+  private readonly url: URL;
+
+  constructor(
+    url: string,
+    private readonly options: { timeoutMs?: number; retryAfterMs?: number } = {},
+  ) {
+    this.url = new URL(url);
+  }
+
+  async mget(keys: string[]): Promise<(string | null)[]> {
+    if (keys.length === 0) return [];
+    return (await this.command(['MGET', ...keys])) as (string | null)[];
+  }
+
+  async set(key: string, value: string, ttlMs?: number): Promise<void> {
+    await this.command(ttlMs ? ['SET', key, value, 'PX', String(Math.ceil(ttlMs))] : ['SET', key, value]);
+  }
+
+  async del(keys: string[]): Promise<void> {
+    if (keys.length > 0) await this.command(['DEL', ...keys]);
+  }
+
+  async close(): Promise<void> {
+    this.teardown(new Error('Cache connection closed'));
+  }
+
+  /** Send one raw command (also used by the rate limiter's counters) */
+  command(args: string[]): Promise<RespValue> {
+    if (Date.now() < this.downUntil) {
+      return Promise.reject(new Error('Cache backend unavailable'));
+    }
+    const socket = this.socket ?? this.connect();
+    const timeoutMs = this.options.timeoutMs ?? 250;
+
+    return new Promise<RespValue>((resolve, reject) => {
+      const timer = setTimeout(() => this.fail(new Error(`Cache command timed out after ${timeoutMs}ms`)), timeoutMs);
+      this.pending.push({
+        resolve: (v) => { clearTimeout(timer); resolve(v); },
+        reject: (e) => { clearTimeout(timer); reject(e); },
+      });
+      socket.write(encodeCommand(args));
+    });
+  }
+
+  private connect(): net.Socket {
+    const { protocol, hostname, port, username, password, pathname } = this.url;
+    const socketOptions = { host: hostname, port: Number(port) || 6379 };
+    const socket = protocol === 'rediss:'
+      ? tls.connect({ ...socketOptions, servername: hostname })
+      : net.connect(socketOptions);
+    socket.setNoDelay(true);
+    this.socket = socket;
+    this.buffer = Buffer.alloc(0);
+
+    // Events from a socket that has since been replaced must be ignored
+    socket.on('data', (chunk) => { if (this.socket === socket) this.onData(chunk); });
+    socket.on('error', (err) => { if (this.socket === socket) this.fail(err); });
+    socket.on('close', () => { if (this.socket === socket) this.fail(new Error('Cache connection closed')); });
+
+    // Handshake commands are queued ahead of the caller's; their replies are
+    // consumed here and a failure tears the connection down
+    const handshake: string[][] = [];
+    if (password) {
+      handshake.push(username
+        ? ['AUTH', decodeURIComponent(username), decodeURIComponent(password)]
+        : ['AUTH', decodeURIComponent(password)]);
+    }
+    const db = pathname.slice(1);
+    if (db) handshake.push(['SELECT', db]);
+    for (const args of handshake) {
+      this.pending.push({ resolve: () => {}, reject: () => {}, handshake: true });
+      socket.write(encodeCommand(args));
+    }
+    return socket;
+  }
+
+  private onData(chunk: Buffer): void {
+    this.buffer = this.buffer.length ? Buffer.concat([this.buffer, chunk]) : chunk;
+    let offset = 0;
+    try {
+      for (;;) {
+        const reply = parseReply(this.buffer, offset);
+        if (!reply) break;
+        offset = reply.next;
+        const waiter = this.pending.shift();
+        if (reply.value instanceof RespError) {
+          waiter?.reject(reply.value);
+          if (!waiter || waiter.handshake) {
+            this.fail(reply.value);
+            return;
+          }
+        } else {
+          waiter?.resolve(reply.value);
+        }
+      }
+    } catch (err) {
+      this.fail(err as Error);
+      return;
+    }
+    this.buffer = this.buffer.subarray(offset);
+  }
+
+  /** Drop the connection and back off before the next attempt */
+  private fail(err: Error): void {
+    if (!this.socket) return;
+    this.downUntil = Date.now() + (this.options.retryAfterMs ?? 1000);
+    this.teardown(err);
+  }
+
+  private teardown(err: Error): void {
+    const socket = this.socket;
+    this.socket = null;
+    const pending = this.pending;
+    this.pending = [];
+    for (const waiter of pending) waiter.reject(err);
+    socket?.destroy();
+  }
+}
@@ -1,4 +1,10 @@
-import type { Response } from 'express';
+import type { Request, Response } from 'express';
+import { once } from 'node:events';
+import { logger } from './logger.js';
+import { getContentCache, type CachedChapterContent, type ContentEncoding } from './contentCache.js';
+
+/** Bodies below this size are sent uncompressed (framing overhead outweighs savings) */
+const MIN_COMPRESS_BYTES = 1024;
 
 /**
  * Send a 200 JSON response wrapped in the standard envelope.
@@ -17,3 +23,127 @@ export function ok<T>(res: Response, data: T, meta?: object): void {
 export function created<T>(res: Response, data: T): void {
   res.status(201).json({ data });
 }
+
+/**
+ * Attach a strong validator and answer `304 Not Modified` when the
+ * client's `If-None-Match` already matches it.
+ *
+ * Returns true if the 304 has been sent and the caller should stop.
+ */
+export function notModified(
+  req: Request,
+  res: Response,
+  etag: string,
+  cacheControl: string,
+): boolean {
+  res.set('ETag', etag);
+  res.set('Cache-Control', cacheControl);
+  if (!req.fresh) return false;
+  res.status(304).end();
+  return true;
+}
+
+/**
+ * Send chapter HTML, negotiating the representation by `Accept`:
+ *
+ * - default: JSON envelope `{ data: { [jsonKey]: html } }` (backward compatible)
+ * - `Accept: text/html`: the raw HTML body with an exact `Content-Length`,
+ *   pre-compressed (br/gzip) per `Accept-Encoding` and cached with the entry,
+ *   so large chapters skip JSON escaping on the server and parsing on the client.
+ *
+ * Each representation carries its own strong ETag.
+ */
+export async function sendChapterContent(
+  req: Request,
+  res: Response,
+  content: CachedChapterContent,
+  options: { jsonKey: 'html' | 'htmlContent'; cacheControl: string },
+): Promise<void> {
+  res.vary('Accept');
+
+  if (req.accepts(['application/json', 'text/html']) !== 'text/html') {
+    if (notModified(req, res, content.etag, options.cacheControl)) return;
+    ok(res, { [options.jsonKey]: content.html });
+    return;
+  }
+
+  res.vary('Accept-Encoding');
+  const negotiated = content.bytes >= MIN_COMPRESS_BYTES
+    ? req.acceptsEncodings('br', 'gzip', 'identity')
+    : 'identity';
+  const encoding = (negotiated || 'identity') as ContentEncoding;
+
+  // Distinct strong validator per representation and content-coding
+  const suffix = encoding === 'identity' ? '-html' : `-html-${encoding}`;
+  const etag = content.etag.replace(/"$/, `${suffix}"`);
+  if (notModified(req, res, etag, options.cacheControl)) return;
+
+  const body = await getContentCache().encode(content, encoding);
+
+  res.status(200);
+  res.set('Content-Type', 'text/html; charset=utf-8');
+  res.set('Content-Length', String(body.length));
+  if (encoding !== 'identity') res.set('Content-Encoding', encoding);
+  res.end(body);
+}
+
+/**
+ * Wait for a backpressured response to drain.
+ *
+ * Resolves false if the connection closes or errors first: a disconnected
+ * client never emits 'drain', and waiting for it would pin the producer
+ * (and whatever cursor or closure it holds) forever.
+ */
+export async function waitForDrain(res: Response): Promise<boolean> {
+  if (res.destroyed) return false;
+
+  const ac = new AbortController();
+  try {
+    return await Promise.race([
+      once(res, 'drain', { signal: ac.signal }).then(() => true),
+      once(res, 'close', { signal: ac.signal }).then(() => false),
+    ]);
+  } catch {
+    // 'error' rejects both waits; the socket is unusable either way
+    return false;
+  } finally {
+    ac.abort();
+  }
+}
+
+/**
+ * Stream records as newline-delimited JSON (`application/x-ndjson`).
+ *
+ * Each record is flushed as soon as it is produced, honouring socket
+ * backpressure. If the client goes away the iterator is closed early
+ * (running its `finally` blocks). Once headers are sent an error can no
+ * longer change the status code, so it is reported as a final
+ * `{ type: 'error' }` record.
+ */
+export async function streamNdjson(
+  res: Response,
+  records: AsyncIterable<object>,
+): Promise<void> {
+  res.status(200);
+  res.set('Content-Type', 'application/x-ndjson; charset=utf-8');
+  res.set('Cache-Control', 'private, no-store');
+  // Disable proxy buffering (Nginx) so early records reach the client immediately
+  res.set('X-Accel-Buffering', 'no');
+  res.flushHeaders();
+
+  try {
+    for await (const record of records) {
+      if (res.destroyed) return;
+      if (!res.write(JSON.stringify(record) + '\n') && !(await waitForDrain(res))) {
+        return;
+      }
+    }
+  } catch (err) {
+    logger.error({ err, requestId: res.req.id }, 'NDJSON stream failed mid-response');
+    if (!res.destroyed) {
+      res.write(JSON.stringify({ type: 'error', data: { message: 'Stream interrupted' } }) + '\n');
+    }
+  }
+
+  res.end();
+}
@@ -1,17 +1,234 @@
-import { JSDOM } from 'jsdom';
-import DOMPurify from 'dompurify';
+import { createRequire } from 'node:module';
+import { getConfig } from '../config.js';
+import { parseHtmlBody, createHtmlBodyParser, Namespace, type HtmlElement } from './htmlTree.js';
 
-const window = new JSDOM('').window;
-const purify = DOMPurify(window as unknown as Parameters<typeof DOMPurify>[0]);
+/**
+ * Chapter HTML sanitizer.
+ *
+ * Same policy and output as DOMPurify with the config below (that is what
+ * this module used to run, over a JSDOM window), without a DOM: the input
+ * is tokenized and nested by htmlTree.ts exactly as a browser would, and the
+ * tree is serialized once, keeping only what DOMPurify would keep:
+ *
+ * - allowed elements, with their allowed attributes;
+ * - the content of other elements, except FORBID_CONTENTS (script, style,
+ *   svg…), which are dropped whole;
+ * - no comments.
+ *
+ * tests/sanitizeDifferential.test.ts compares both on a fixed corpus of
+ * valid, malformed and hostile markup and on a seeded generated one.
+ * HTML_SANITIZER=dompurify switches back to DOMPurify should the two ever
+ * disagree in production.
+ */
+
+export const ALLOWED_TAGS = [
+  'article', 'h1', 'h2', 'h3', 'h4', 'h5', 'h6', 'p', 'br', 'em', 'strong',
+  'b', 'i', 'u', 'a', 'ul', 'ol', 'li', 'blockquote', 'pre', 'code', 'img', 'table',
+  'thead', 'tbody', 'tr', 'th', 'td', 'figure', 'figcaption', 'span', 'div', 'hr', 'sup', 'sub',
+];
+
+export const ALLOWED_ATTR = ['href', 'src', 'srcset', 'loading', 'alt', 'title', 'class', 'id', 'target', 'rel', 'width', 'height'];
+
+const allowedTags = new Set(ALLOWED_TAGS);
+const allowedAttributes = new Set(ALLOWED_ATTR);
+
+/** DOMPurify's defaults, which the policy above does not override */
+const FORBID_CONTENTS = new Set([
+  'annotation-xml', 'audio', 'colgroup', 'desc', 'foreignobject', 'head', 'iframe', 'math', 'mi', 'mn', 'mo', 'ms',
+  'mtext', 'noembed', 'noframes', 'noscript', 'plaintext', 'script', 'style', 'svg', 'template', 'thead', 'title',
+  'video', 'xmp',
+]);
+const URI_SAFE_ATTRIBUTES = new Set([
+  'alt', 'class', 'for', 'id', 'label', 'name', 'pattern', 'placeholder', 'role', 'summary', 'title', 'value', 'style', 'xmlns',
+]);
+const DATA_URI_TAGS = new Set(['audio', 'video', 'img', 'source', 'image', 'track']);
+const IS_ALLOWED_URI = /^(?:(?:(?:f|ht)tps?|mailto|tel|callto|sms|cid|xmpp|matrix):|[^a-z]|[a-z+.\-]+(?:[^a-z+.\-:]|$))/i;
+const ATTR_WHITESPACE = /[\u0000-\u0020\u00A0\u1680\u180E\u2000-\u2029\u205F\u3000]/g;
+const ARIA_ATTR = /^aria-[\-\w]+$/;
+/** SAFE_FOR_XML: values that could close a comment or a raw text element if re-parsed */
+const UNSAFE_VALUE = /((--!?|])>)|<\/(style|title)/i;
+
+/**
+ * SANITIZE_DOM: an `id` equal to a property of `document` or of a <form>
+ * would shadow it (DOM clobbering) once the chapter is in the page.
+ */
+const CLOBBERING_NAMES = new Set(
+  (
+    // Document
+    'activeElement adoptNode alinkColor all anchors append applets bgColor body captureEvents caretRangeFromPoint ' +
+    'characterSet charset childElementCount children clear close compatMode contentType cookie createAttribute ' +
+    'createAttributeNS createCDATASection createComment createDocumentFragment createElement createElementNS ' +
+    'createEvent createExpression createNSResolver createNodeIterator createProcessingInstruction createRange ' +
+    'createTextNode createTreeWalker currentScript defaultView designMode dir doctype documentElement documentURI ' +
+    'domain elementFromPoint elementsFromPoint embeds evaluate execCommand fgColor firstElementChild forms ' +
+    'getElementById getElementsByClassName getElementsByName getElementsByTagName getElementsByTagNameNS ' +
+    'getSelection hasFocus head hidden images implementation importNode inputEncoding lastElementChild ' +
+    'lastModified linkColor links location open origin plugins prepend queryCommandEnabled queryCommandIndeterm ' +
+    'queryCommandState queryCommandSupported queryCommandValue querySelector querySelectorAll readyState referrer ' +
+    'releaseEvents replaceChildren rootElement scripts scrollingElement styleSheets title URL visibilityState ' +
+    'vlinkColor write writeln xmlEncoding xmlStandalone xmlVersion ' +
+    // Node, EventTarget
+    'appendChild baseURI childNodes cloneNode compareDocumentPosition contains firstChild getRootNode hasChildNodes ' +
+    'insertBefore isConnected isDefaultNamespace isEqualNode isSameNode lastChild lookupNamespaceURI lookupPrefix ' +
+    'nextSibling nodeName nodeType nodeValue normalize ownerDocument parentElement parentNode previousSibling ' +
+    'removeChild replaceChild textContent addEventListener dispatchEvent removeEventListener ' +
+    'ELEMENT_NODE ATTRIBUTE_NODE TEXT_NODE CDATA_SECTION_NODE ENTITY_REFERENCE_NODE ENTITY_NODE ' +
+    'PROCESSING_INSTRUCTION_NODE COMMENT_NODE DOCUMENT_NODE DOCUMENT_TYPE_NODE DOCUMENT_FRAGMENT_NODE NOTATION_NODE ' +
+    'DOCUMENT_POSITION_DISCONNECTED DOCUMENT_POSITION_PRECEDING DOCUMENT_POSITION_FOLLOWING ' +
+    'DOCUMENT_POSITION_CONTAINS DOCUMENT_POSITION_CONTAINED_BY DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC ' +
+    // Element, HTMLElement
+    'accessKey after assignedSlot attachShadow attributes autocapitalize autofocus before blur classList className ' +
+    'click clientHeight clientLeft clientTop clientWidth closest contentEditable dataset draggable enterKeyHint ' +
+    'focus getAttribute getAttributeNames getAttributeNode getAttributeNodeNS getAttributeNS getBoundingClientRect ' +
+    'getClientRects hasAttribute hasAttributeNS hasAttributes id inert innerHTML innerText inputMode ' +
+    'insertAdjacentElement insertAdjacentHTML insertAdjacentText isContentEditable lang localName matches ' +
+    'namespaceURI nextElementSibling nonce offsetHeight offsetLeft offsetParent offsetTop offsetWidth outerHTML ' +
+    'outerText prefix previousElementSibling remove removeAttribute removeAttributeNode removeAttributeNS ' +
+    'replaceWith scrollHeight scrollLeft scrollTop scrollWidth setAttribute setAttributeNode setAttributeNodeNS ' +
+    'setAttributeNS shadowRoot slot spellcheck style tabIndex tagName toggleAttribute translate webkitMatchesSelector ' +
+    // HTMLFormElement
+    'acceptCharset action autocomplete checkValidity elements encoding enctype length method name noValidate rel ' +
+    'relList reportValidity requestSubmit reset submit target ' +
+    // Event handler attributes
+    'onabort onafterprint onauxclick onbeforeinput onbeforeprint onbeforeunload onblur oncancel oncanplay ' +
+    'oncanplaythrough onchange onclick onclose oncontextmenu oncopy oncuechange oncut ondblclick ondrag ondragend ' +
+    'ondragenter ondragleave ondragover ondragstart ondrop ondurationchange onemptied onended onerror onfocus ' +
+    'onformdata onhashchange oninput oninvalid onkeydown onkeypress onkeyup onlanguagechange onload onloadeddata ' +
+    'onloadedmetadata onloadend onloadstart onmessage onmessageerror onmousedown onmouseenter onmouseleave ' +
+    'onmousemove onmouseout onmouseover onmouseup onoffline ononline onpagehide onpageshow onpaste onpause onplay ' +
+    'onplaying onpopstate onprogress onratechange onreadystatechange onrejectionhandled onreset onresize onscroll ' +
+    'onsecuritypolicyviolation onseeked onseeking onselect onselectionchange onselectstart onslotchange onstalled ' +
+    'onstorage onsubmit onsuspend ontimeupdate ontoggle ontouchcancel ontouchend ontouchmove ontouchstart ' +
+    'onunhandledrejection onunload onvolumechange onwaiting onwheel ' +
+    // Object.prototype
+    'constructor hasOwnProperty isPrototypeOf propertyIsEnumerable toLocaleString toString valueOf ' +
+    '__defineGetter__ __defineSetter__ __lookupGetter__ __lookupSetter__ __proto__'
+  ).split(' '),
+);
+
+/** DOMPurify's `_isValidAttribute` for an attribute on an allowed element */
+function isValidAttribute(tag: string, name: string, value: string): boolean {
+  if (name === 'id' && CLOBBERING_NAMES.has(value)) return false;
+  if (ARIA_ATTR.test(name)) return true;
+  if (!allowedAttributes.has(name)) return false;
+  if (URI_SAFE_ATTRIBUTES.has(name)) return true;
+  if (IS_ALLOWED_URI.test(value.replace(ATTR_WHITESPACE, ''))) return true;
+  if ((name === 'src' || name === 'href') && value.startsWith('data:') && DATA_URI_TAGS.has(tag)) return true;
+  return value === '';
+}
+
+function escapeText(text: string): string {
+  return /[&<>\u00A0]/.test(text)
+    ? text.replace(/&/g, '&amp;').replace(/\u00A0/g, '&nbsp;').replace(/</g, '&lt;').replace(/>/g, '&gt;')
+    : text;
+}
+
+function escapeAttribute(value: string): string {
+  return /[&"<>\u00A0]/.test(value)
+    ? value.replace(/&/g, '&amp;').replace(/\u00A0/g, '&nbsp;').replace(/"/g, '&quot;').replace(/</g, '&lt;').replace(/>/g, '&gt;')
+    : value;
+}
+
+function startTag(element: HtmlElement): string {
+  let html = `<${element.name}`;
+  for (const [name, raw] of element.attrs) {
+    const value = raw.trim();
+    if (UNSAFE_VALUE.test(value) || value.includes('/>')) continue;
+    if (!isValidAttribute(element.name, name, value)) continue;
+    html += ` ${name}="${escapeAttribute(value)}"`;
+  }
+  return `${html}>`;
+}
+
+const VOID_TAGS = new Set(['br', 'hr', 'img']);
+
+/** Serialize what the policy keeps of `root`'s content (iterative: nesting depth is unbounded) */
+function serialize(root: HtmlElement): string {
+  let html = '';
+  const frames = [{ element: root, next: 0, end: '' }];
+  while (frames.length > 0) {
+    const frame = frames[frames.length - 1];
+    if (frame.next === frame.element.children.length) {
+      html += frame.end;
+      frames.pop();
+      continue;
+    }
+    const child = frame.element.children[frame.next++];
+    if (typeof child === 'string') {
+      html += escapeText(child);
+    } else if (child.ns !== Namespace.HTML) {
+      // Only reachable through <svg>/<math>, which are dropped whole
+    } else if (allowedTags.has(child.name)) {
+      html += startTag(child);
+      if (!VOID_TAGS.has(child.name)) frames.push({ element: child, next: 0, end: `</${child.name}>` });
+    } else if (!FORBID_CONTENTS.has(child.name)) {
+      frames.push({ element: child, next: 0, end: '' });
+    }
+  }
+  return html;
+}
+
+const require = createRequire(import.meta.url);
+let purify: ((html: string) => string) | null = null;
+
+/** The previous implementation (HTML_SANITIZER=dompurify); jsdom is only loaded on first use */
+function sanitizeWithDompurify(html: string): string {
+  if (!purify) {
+    const { JSDOM } = require('jsdom') as typeof import('jsdom');
+    const DOMPurify = require('dompurify') as typeof import('dompurify').default;
+    const instance = DOMPurify(new JSDOM('').window as unknown as Parameters<typeof DOMPurify>[0]);
+    purify = (input) => instance.sanitize(input, { ALLOWED_TAGS, ALLOWED_ATTR, ALLOW_DATA_ATTR: false });
+  }
+  return purify(html);
+}
 
 export function sanitizeHtml(html: string): string {
-  return purify.sanitize(html, {
-    ALLOWED_TAGS: [
-      'article', 'h1', 'h2', 'h3', 'h4', 'h5', 'h6', 'p', 'br', 'em', 'strong',
-      'b', 'i', 'u', 'a', 'ul', 'ol', 'li', 'blockquote', 'pre', 'code', 'img', 'table',
-      'thead', 'tbody', 'tr', 'th', 'td', 'figure', 'figcaption', 'span', 'div', 'hr', 'sup', 'sub',
-    ],
-    ALLOWED_ATTR: ['href', 'src', 'alt', 'title', 'class', 'id', 'target', 'rel', 'width', 'height'],
-    ALLOW_DATA_ATTR: false,
-  });
+  if (getConfig().HTML_SANITIZER === 'dompurify') return sanitizeWithDompurify(html);
+  // DOMPurify returns markup-free input as is (entities and all)
+  if (!html.includes('<')) return html;
+  const body = serialize(parseHtmlBody(html));
+  // DOMPurify puts back the leading whitespace, which the parser drops before <body>
+  const leading = /^[\r\n\t ]+/.exec(html);
+  return leading ? leading[0] + body : body;
+}
+
+export interface HtmlSanitizer {
+  write(chunk: string): void;
+  end(): string;
+}
+
+/**
+ * Sanitize a document that arrives in chunks, with the same output as
+ * `sanitizeHtml()` of the whole. Only the tree and the part of the input
+ * not tokenized yet are held — unless nothing but text has arrived so far,
+ * which is returned as is if it stays that way.
+ */
+export function createHtmlSanitizer(): HtmlSanitizer {
+  if (getConfig().HTML_SANITIZER === 'dompurify') {
+    const chunks: string[] = [];
+    return {
+      write: (chunk) => { chunks.push(chunk); },
+      end: () => sanitizeWithDompurify(chunks.join('')),
+    };
+  }
+
+  const parser = createHtmlBodyParser();
+  let markupFree: string | null = '';
+  let leading = '';
+  let inLeading = true;
+  return {
+    write(chunk) {
+      if (inLeading) {
+        const whitespace = /^[\r\n\t ]*/.exec(chunk)![0];
+        leading += whitespace;
+        inLeading = whitespace.length === chunk.length;
+      }
+      if (markupFree !== null) markupFree = chunk.includes('<') ? null : markupFree + chunk;
+      parser.write(chunk);
+    },
+    end() {
+      const body = serialize(parser.end());
+      return markupFree ?? leading + body;
+    },
+  };
 }
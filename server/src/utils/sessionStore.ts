@@ -0,0 +1,62 @@
+import session from 'express-session';
+import connectPgSimple from 'connect-pg-simple';
+import { getPrisma } from './prisma.js';
+import { dbQueryDuration, setActiveSessionsSource } from '../middleware/metrics.js';
+import type { Config } from '../config.js';
+
+/** Store methods express-session calls per request */
+const TIMED_METHODS = ['get', 'set', 'destroy', 'touch'] as const;
+
+/** Counting sessions scans the table, so scrapes reuse the last count for a while */
+const ACTIVE_SESSIONS_TTL_MS = 60_000;
+
+type Callback = (err?: unknown, ...rest: unknown[]) => void;
+
+/**
+ * Time each store call into `db_query_duration_seconds` (model "session"),
+ * next to the Prisma queries — session lookups run on every authenticated request.
+ */
+export function instrumentSessionStore<T extends session.Store>(store: T): T {
+  const target = store as unknown as Record<string, (...args: unknown[]) => unknown>;
+  for (const operation of TIMED_METHODS) {
+    const original = target[operation];
+    if (typeof original !== 'function') continue;
+    target[operation] = function (this: unknown, ...args: unknown[]) {
+      const last = args.length - 1;
+      const callback = args[last];
+      if (typeof callback !== 'function') return original.apply(this, args);
+      const end = dbQueryDuration.startTimer({ model: 'session', operation });
+      args[last] = (err?: unknown, ...rest: unknown[]) => {
+        end({ result: err ? 'error' : 'success' });
+        (callback as Callback)(err, ...rest);
+      };
+      return original.apply(this, args);
+    };
+  }
+  return store;
+}
+
+/**
+ * PostgreSQL session store (connect-pg-simple), instrumented, with
+ * `active_sessions_total` fed from the number of unexpired sessions.
+ */
+export function createSessionStore(config: Config): session.Store {
+  const PgSession = connectPgSimple(session);
+  const store = new PgSession({
+    conString: config.DATABASE_URL,
+    createTableIfMissing: true,
+    tableName: 'session',
+  });
+
+  let cached: { count: number; at: number } | null = null;
+  setActiveSessionsSource(async () => {
+    if (cached && Date.now() - cached.at < ACTIVE_SESSIONS_TTL_MS) return cached.count;
+    const [row] = await getPrisma().$queryRaw<{ count: number }[]>`
+      SELECT count(*)::int AS count FROM "session" WHERE expire > now()
+    `;
+    cached = { count: row.count, at: Date.now() };
+    return cached.count;
+  });
+
+  return instrumentSessionStore(store);
+}
@@ -0,0 +1,163 @@
+import { createHmac, randomUUID, timingSafeEqual } from 'node:crypto';
+import type { Request, Response, NextFunction, RequestHandler, CookieOptions } from 'express';
+
+/** Cookie carrying the signed session (distinct from express-session's connect.sid) */
+export const STATELESS_SESSION_COOKIE = 'flipbook.session';
+
+interface Payload {
+  /** Stable session id (CSRF tokens are bound to it) */
+  sid: string;
+  /** Issued at, ms — compared against users.sessions_revoked_at */
+  iat: number;
+  /** Expires at, ms */
+  exp: number;
+  data: Record<string, unknown>;
+}
+
+export interface StatelessSessionOptions {
+  secret: string;
+  maxAge: number;
+  secure: boolean;
+}
+
+function sign(body: string, secret: string): string {
+  return createHmac('sha256', secret).update(body).digest('base64url');
+}
+
+export function encodeSession(payload: Payload, secret: string): string {
+  const body = Buffer.from(JSON.stringify(payload)).toString('base64url');
+  return `${body}.${sign(body, secret)}`;
+}
+
+/** Verify and parse a session cookie; null if forged, malformed or expired */
+export function decodeSession(value: string | undefined, secret: string): Payload | null {
+  if (!value) return null;
+  const dot = value.lastIndexOf('.');
+  if (dot <= 0) return null;
+  const body = value.slice(0, dot);
+  const expected = Buffer.from(sign(body, secret));
+  const actual = Buffer.from(value.slice(dot + 1));
+  if (actual.length !== expected.length || !timingSafeEqual(actual, expected)) return null;
+  try {
+    const payload = JSON.parse(Buffer.from(body, 'base64url').toString('utf8')) as Payload;
+    if (typeof payload.sid !== 'string' || typeof payload.exp !== 'number' || payload.exp <= Date.now()) return null;
+    return payload;
+  } catch {
+    return null;
+  }
+}
+
+type Callback = (err?: unknown) => void;
+
+/**
+ * The subset of express-session's Session that Passport and the auth routes
+ * use (`regenerate`, `save`, `destroy`), backed by a signed cookie instead of
+ * a store. Session data lives in the object's own enumerable properties, as
+ * with express-session; the bookkeeping is in private fields.
+ */
+class CookieSession {
+  #req: Request;
+  #res: Response;
+  #options: StatelessSessionOptions;
+  #sid: string;
+  #issuedAt: number;
+
+  constructor(req: Request, res: Response, options: StatelessSessionOptions, payload: Payload | null) {
+    this.#req = req;
+    this.#res = res;
+    this.#options = options;
+    this.#sid = payload?.sid ?? randomUUID();
+    this.#issuedAt = payload?.iat ?? Date.now();
+    if (payload) Object.assign(this, payload.data);
+    req.sessionID = this.#sid;
+  }
+
+  get id(): string {
+    return this.#sid;
+  }
+
+  /** When the session was established (ms) */
+  get issuedAt(): number {
+    return this.#issuedAt;
+  }
+
+  /** Fresh id and empty data (login/logout: prevents session fixation) */
+  regenerate(callback: Callback): this {
+    this.#clear();
+    this.#sid = randomUUID();
+    this.#issuedAt = Date.now();
+    this.#req.sessionID = this.#sid;
+    callback();
+    return this;
+  }
+
+  /** Write the data to the cookie (or drop the cookie when there is none) */
+  save(callback?: Callback): this {
+    const data = { ...this } as Record<string, unknown>;
+    if (Object.keys(data).length === 0) {
+      this.#res.clearCookie(STATELESS_SESSION_COOKIE, this.#cookieOptions());
+    } else {
+      const payload: Payload = {
+        sid: this.#sid,
+        iat: this.#issuedAt,
+        exp: this.#issuedAt + this.#options.maxAge,
+        data,
+      };
+      this.#res.cookie(STATELESS_SESSION_COOKIE, encodeSession(payload, this.#options.secret), {
+        ...this.#cookieOptions(),
+        expires: new Date(payload.exp),
+      });
+    }
+    callback?.();
+    return this;
+  }
+
+  destroy(callback: Callback): this {
+    this.#clear();
+    this.#res.clearCookie(STATELESS_SESSION_COOKIE, this.#cookieOptions());
+    callback();
+    return this;
+  }
+
+  reload(callback: Callback): this {
+    callback();
+    return this;
+  }
+
+  touch(): this {
+    return this;
+  }
+
+  #clear(): void {
+    for (const key of Object.keys(this)) delete (this as Record<string, unknown>)[key];
+  }
+
+  #cookieOptions(): CookieOptions {
+    return { httpOnly: true, secure: this.#options.secure, sameSite: 'lax', path: '/' };
+  }
+}
+
+/**
+ * Session middleware without a session store (SESSION_STORE=cookie).
+ *
+ * The session (in practice just Passport's user id) travels in an
+ * HMAC-signed cookie, so resolving it costs no database round-trip. It
+ * cannot be revoked by deleting a row: logout and a password reset stamp
+ * `users.sessions_revoked_at`, which the user loader compares with
+ * `issuedAt` — so logout ends every cookie session of the user, on all
+ * devices. The user record is cached, so the stamp takes effect everywhere
+ * only when the cache is shared (CACHE_BACKEND=redis); see userCache.ts. Expiry is fixed at login + SESSION_MAX_AGE,
+ * matching the Postgres-backed sessions (which are not rolling either).
+ */
+export function statelessSession(options: StatelessSessionOptions): RequestHandler {
+  return (req: Request, res: Response, next: NextFunction): void => {
+    const payload = decodeSession(req.cookies?.[STATELESS_SESSION_COOKIE], options.secret);
+    req.session = new CookieSession(req, res, options, payload) as unknown as Request['session'];
+    next();
+  };
+}
+
+/** When the request's stateless session was issued; undefined for store-backed sessions */
+export function sessionIssuedAt(req: Request): number | undefined {
+  return req.session instanceof CookieSession ? req.session.issuedAt : undefined;
+}
@@ -8,6 +8,8 @@ import {
 } from '@aws-sdk/client-s3';
 import { getConfig } from '../config.js';
 import { logger } from './logger.js';
+import { s3OperationsTotal, s3OperationDuration, s3BytesTotal } from '../middleware/metrics.js';
+import { withSpan, SpanKind } from './tracing.js';
 
 let s3Client: S3Client | null = null;
 
@@ -29,6 +31,41 @@ export function getS3Client(): S3Client {
   return s3Client;
 }
 
+type S3Operation = 'put' | 'delete' | 'get' | 'head';
+
+/**
+ * Run one S3 call and record its outcome, latency and payload size.
+ * A missing object on HEAD is an expected answer, not an error.
+ * Inside a traced request the call also gets its own client span.
+ */
+async function instrumented<T>(
+  operation: S3Operation,
+  key: string,
+  call: () => Promise<T>,
+  bytes?: (result: T) => number | undefined,
+): Promise<T> {
+  const attributes = { 'rpc.system': 'aws-api', 'rpc.method': operation, 'aws.s3.key': key };
+  return withSpan(`s3 ${operation}`, attributes, async (span) => {
+    const end = s3OperationDuration.startTimer({ operation });
+    try {
+      const result = await call();
+      end({ result: 'success' });
+      s3OperationsTotal.inc({ operation, result: 'success' });
+      const size = bytes?.(result);
+      if (size) s3BytesTotal.inc({ operation }, size);
+      span?.setAttributes({ 's3.bytes': size });
+      return result;
+    } catch (err) {
+      const name = (err as { name?: string }).name;
+      const result = name === 'NotFound' || name === 'NoSuchKey' ? 'not_found' : 'error';
+      end({ result });
+      s3OperationsTotal.inc({ operation, result });
+      span?.setAttributes({ 's3.result': result });
+      throw err;
+    }
+  }, SpanKind.CLIENT);
+}
+
 export interface UploadResult {
   key: string;
   url: string;
@@ -41,18 +78,21 @@ export async function uploadFile(
   buffer: Buffer,
   key: string,
   contentType: string,
+  options: { cacheControl?: string; contentEncoding?: string } = {},
 ): Promise<UploadResult> {
   const config = getConfig();
   const client = getS3Client();
 
-  await client.send(
+  await instrumented('put', key, () => client.send(
     new PutObjectCommand({
       Bucket: config.S3_BUCKET,
       Key: key,
       Body: buffer,
       ContentType: contentType,
+      CacheControl: options.cacheControl,
+      ContentEncoding: options.contentEncoding,
     }),
-  );
+  ), () => buffer.length);
 
   const url = `${config.S3_PUBLIC_URL}/${key}`;
   logger.info({ key, contentType }, 'File uploaded to S3');
@@ -67,12 +107,12 @@ export async function deleteFile(key: string): Promise<void> {
   const config = getConfig();
   const client = getS3Client();
 
-  await client.send(
+  await instrumented('delete', key, () => client.send(
     new DeleteObjectCommand({
       Bucket: config.S3_BUCKET,
       Key: key,
     }),
-  );
+  ));
 
   logger.info({ key }, 'File deleted from S3');
 }
@@ -86,12 +126,12 @@ export async function getFile(
   const config = getConfig();
   const client = getS3Client();
 
-  const response = await client.send(
+  const response = await instrumented('get', key, () => client.send(
     new GetObjectCommand({
       Bucket: config.S3_BUCKET,
       Key: key,
     }),
-  );
+  ), (res) => res.ContentLength);
 
   return {
     body: response.Body as ReadableStream | null,
@@ -99,6 +139,24 @@ export async function getFile(
   };
 }
 
+/**
+ * Read a whole object from S3-compatible storage into memory.
+ */
+export async function getFileBuffer(key: string): Promise<Buffer> {
+  const config = getConfig();
+  const client = getS3Client();
+
+  const response = await instrumented('get', key, () => client.send(
+    new GetObjectCommand({
+      Bucket: config.S3_BUCKET,
+      Key: key,
+    }),
+  ), (res) => res.ContentLength);
+
+  if (!response.Body) return Buffer.alloc(0);
+  return Buffer.from(await response.Body.transformToByteArray());
+}
+
 /**
  * Check if a file exists in S3.
  */
@@ -107,12 +165,12 @@ export async function fileExists(key: string): Promise<boolean> {
   const client = getS3Client();
 
   try {
-    await client.send(
+    await instrumented('head', key, () => client.send(
       new HeadObjectCommand({
         Bucket: config.S3_BUCKET,
         Key: key,
       }),
-    );
+    ));
     return true;
   } catch {
     return false;
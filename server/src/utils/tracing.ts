@@ -0,0 +1,339 @@
+import { AsyncLocalStorage } from 'node:async_hooks';
+import { randomBytes } from 'node:crypto';
+import type { Request, Response, NextFunction, RequestHandler } from 'express';
+import { logger } from './logger.js';
+import { traceSpansDroppedTotal } from '../middleware/metrics.js';
+
+/**
+ * Minimal request tracing in the OpenTelemetry data model.
+ *
+ * A root span is opened per HTTP request (continuing an incoming W3C
+ * `traceparent`), child spans are opened around middleware stages, Prisma
+ * queries and S3 commands, and finished spans are shipped in batches to an
+ * OTLP/HTTP collector as JSON (`POST {endpoint}/v1/traces`).
+ *
+ * Context is carried in AsyncLocalStorage, so instrumented code needs no
+ * access to `req`. Outside a sampled request every helper is a pass-through.
+ */
+
+/** OTLP span kinds (subset) */
+export const SpanKind = { INTERNAL: 1, SERVER: 2, CLIENT: 3 } as const;
+type SpanKindValue = (typeof SpanKind)[keyof typeof SpanKind];
+
+const STATUS_OK = 1;
+const STATUS_ERROR = 2;
+
+/** Spans buffered for export; beyond this new spans are dropped */
+const MAX_QUEUE = 2048;
+const MAX_EXPORT_BATCH = 512;
+const EXPORT_INTERVAL_MS = 5000;
+const EXPORT_TIMEOUT_MS = 10_000;
+/** Tries per batch; network errors, 429 and 5xx are retried, other answers are final */
+const EXPORT_ATTEMPTS = 4;
+/** Delay before the first retry, doubled on each further one */
+const EXPORT_RETRY_BASE_MS = 500;
+
+type AttributeValue = string | number | boolean;
+export type Attributes = Record<string, AttributeValue | undefined>;
+
+export class Span {
+  readonly spanId = randomBytes(8).toString('hex');
+  readonly startNs = process.hrtime.bigint();
+  readonly startUnixNs = BigInt(Date.now()) * 1_000_000n;
+  readonly attributes: Attributes;
+  private endNs: bigint | null = null;
+  private status: { code: number; message?: string } = { code: 0 };
+
+  constructor(
+    public name: string,
+    readonly traceId: string,
+    readonly parentSpanId: string | undefined,
+    readonly kind: SpanKindValue,
+    attributes: Attributes = {},
+  ) {
+    this.attributes = { ...attributes };
+  }
+
+  get ended(): boolean {
+    return this.endNs !== null;
+  }
+
+  setAttributes(attributes: Attributes): void {
+    Object.assign(this.attributes, attributes);
+  }
+
+  recordError(err: unknown): void {
+    this.status = { code: STATUS_ERROR, message: err instanceof Error ? err.message : String(err) };
+    if (err instanceof Error) this.attributes['exception.type'] = err.name;
+  }
+
+  end(): void {
+    if (this.endNs !== null) return;
+    this.endNs = process.hrtime.bigint();
+    if (this.status.code === 0) this.status = { code: STATUS_OK };
+    tracer?.enqueue(this);
+  }
+
+  toOtlp() {
+    const endUnixNs = this.startUnixNs + ((this.endNs ?? process.hrtime.bigint()) - this.startNs);
+    return {
+      traceId: this.traceId,
+      spanId: this.spanId,
+      ...(this.parentSpanId && { parentSpanId: this.parentSpanId }),
+      name: this.name,
+      kind: this.kind,
+      startTimeUnixNano: this.startUnixNs.toString(),
+      endTimeUnixNano: endUnixNs.toString(),
+      attributes: toOtlpAttributes(this.attributes),
+      status: this.status,
+    };
+  }
+}
+
+function toOtlpAttributes(attributes: Attributes) {
+  const out: { key: string; value: Record<string, AttributeValue> }[] = [];
+  for (const [key, value] of Object.entries(attributes)) {
+    if (value === undefined) continue;
+    if (typeof value === 'string') out.push({ key, value: { stringValue: value } });
+    else if (typeof value === 'boolean') out.push({ key, value: { boolValue: value } });
+    else if (Number.isInteger(value)) out.push({ key, value: { intValue: value } });
+    else out.push({ key, value: { doubleValue: value } });
+  }
+  return out;
+}
+
+export interface TracingOptions {
+  /** OTLP/HTTP base URL, e.g. http://otel-collector:4318 */
+  endpoint: string;
+  serviceName: string;
+  /** Fraction of new traces recorded (incoming sampled traceparents are always kept) */
+  sampleRatio: number;
+  /** Spans buffered for export before new ones are dropped (default 2048) */
+  maxQueue?: number;
+  /** Delay before the first export retry in ms (default 500) */
+  retryBaseMs?: number;
+}
+
+class Tracer {
+  private queue: Span[] = [];
+  private timer: ReturnType<typeof setInterval>;
+  private exporting: Promise<void> = Promise.resolve();
+  /** Spans dropped on a full queue since it last drained */
+  private overflow = 0;
+  private closing = false;
+
+  constructor(readonly options: TracingOptions) {
+    this.timer = setInterval(() => { void this.flush(); }, EXPORT_INTERVAL_MS).unref();
+  }
+
+  enqueue(span: Span): void {
+    const maxQueue = this.options.maxQueue ?? MAX_QUEUE;
+    if (this.queue.length >= maxQueue) {
+      traceSpansDroppedTotal.inc({ reason: 'queue_full' });
+      // One warning per overflow; the total is logged once the queue drains
+      if (this.overflow++ === 0) logger.warn({ maxQueue }, 'Trace queue full, dropping spans');
+      return;
+    }
+    this.queue.push(span);
+    if (this.queue.length >= MAX_EXPORT_BATCH) void this.flush();
+  }
+
+  flush(): Promise<void> {
+    this.exporting = this.exporting.then(async () => {
+      while (this.queue.length > 0) {
+        await this.export(this.queue.splice(0, MAX_EXPORT_BATCH));
+      }
+      if (this.overflow > 0) {
+        logger.warn({ dropped: this.overflow }, 'Trace queue drained after dropping spans');
+        this.overflow = 0;
+      }
+    });
+    return this.exporting;
+  }
+
+  async close(): Promise<void> {
+    clearInterval(this.timer);
+    // Shutdown should not wait out backoff for an unreachable collector
+    this.closing = true;
+    await this.flush();
+  }
+
+  private async export(spans: Span[]): Promise<void> {
+    const body = JSON.stringify({
+      resourceSpans: [{
+        resource: { attributes: toOtlpAttributes({ 'service.name': this.options.serviceName }) },
+        scopeSpans: [{ scope: { name: 'flipbook-server' }, spans: spans.map((s) => s.toOtlp()) }],
+      }],
+    });
+    const baseMs = this.options.retryBaseMs ?? EXPORT_RETRY_BASE_MS;
+
+    for (let attempt = 1; ; attempt++) {
+      let err: unknown;
+      let retryable = true;
+      let retryAfterMs = 0;
+      try {
+        const res = await fetch(`${this.options.endpoint.replace(/\/$/, '')}/v1/traces`, {
+          method: 'POST',
+          headers: { 'Content-Type': 'application/json' },
+          body,
+          signal: AbortSignal.timeout(EXPORT_TIMEOUT_MS),
+        });
+        await res.body?.cancel();
+        if (res.ok) return;
+        err = new Error(`OTLP collector answered ${res.status}`);
+        retryable = res.status === 429 || res.status >= 500;
+        retryAfterMs = (Number(res.headers.get('retry-after')) || 0) * 1000;
+      } catch (fetchErr) {
+        // Network error or timeout
+        err = fetchErr;
+      }
+
+      if (!retryable || attempt >= (this.closing ? 1 : EXPORT_ATTEMPTS)) {
+        // Tracing must never affect requests: count, log and drop the batch
+        traceSpansDroppedTotal.inc({ reason: 'export_failed' }, spans.length);
+        logger.warn({ err, spans: spans.length, attempts: attempt }, 'Trace export failed');
+        return;
+      }
+
+      // Exponential backoff with jitter; a collector's Retry-After wins if longer
+      const backoffMs = baseMs * 2 ** (attempt - 1) * (1 + Math.random() / 2);
+      const delayMs = Math.min(Math.max(backoffMs, retryAfterMs), EXPORT_TIMEOUT_MS);
+      await new Promise((resolve) => setTimeout(resolve, delayMs).unref());
+    }
+  }
+}
+
+let tracer: Tracer | null = null;
+const context = new AsyncLocalStorage<Span>();
+
+/** Start exporting spans (no-op without an endpoint) */
+export function initTracing(options: TracingOptions | null): void {
+  if (tracer || !options) return;
+  tracer = new Tracer(options);
+  logger.info({ endpoint: options.endpoint, sampleRatio: options.sampleRatio }, 'Tracing enabled');
+}
+
+/** Export buffered spans and stop (graceful shutdown) */
+export async function closeTracing(): Promise<void> {
+  const current = tracer;
+  tracer = null;
+  await current?.close();
+}
+
+/** Span of the code currently running, if it belongs to a sampled request */
+export function activeSpan(): Span | undefined {
+  return context.getStore();
+}
+
+/**
+ * Run `fn` inside a child span of the active one. Without an active span
+ * (tracing off, unsampled request, background work) `fn` runs untraced.
+ */
+export async function withSpan<T>(
+  name: string,
+  attributes: Attributes,
+  fn: (span: Span | undefined) => Promise<T>,
+  kind: SpanKindValue = SpanKind.INTERNAL,
+): Promise<T> {
+  const parent = context.getStore();
+  if (!parent) return fn(undefined);
+
+  const span = new Span(name, parent.traceId, parent.spanId, kind, attributes);
+  try {
+    return await context.run(span, () => fn(span));
+  } catch (err) {
+    span.recordError(err);
+    throw err;
+  } finally {
+    span.end();
+  }
+}
+
+/** Parse a W3C `traceparent` header: version-traceid-parentid-flags */
+export function parseTraceparent(header: string | undefined): { traceId: string; spanId: string; sampled: boolean } | null {
+  const match = header?.trim().match(/^([0-9a-f]{2})-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})$/);
+  if (!match || match[1] === 'ff' || /^0+$/.test(match[2]) || /^0+$/.test(match[3])) return null;
+  return { traceId: match[2], spanId: match[3], sampled: (parseInt(match[4], 16) & 1) === 1 };
+}
+
+/**
+ * Express middleware opening the root span of each request. Must run first
+ * so every later stage nests under it. The span ends when the response is
+ * sent; its name is filled in from `routeName(req)` at that point (the route
+ * is only known after routing).
+ */
+export function tracingMiddleware(routeName: (req: Request) => string | null): RequestHandler {
+  return (req: Request, res: Response, next: NextFunction): void => {
+    if (!tracer) {
+      next();
+      return;
+    }
+
+    const incoming = parseTraceparent(req.headers.traceparent as string | undefined);
+    const sampled = incoming ? incoming.sampled : Math.random() < tracer.options.sampleRatio;
+    if (!sampled) {
+      next();
+      return;
+    }
+
+    const root = new Span(
+      `${req.method}`,
+      incoming?.traceId ?? randomBytes(16).toString('hex'),
+      incoming?.spanId,
+      SpanKind.SERVER,
+      { 'http.request.method': req.method, 'url.path': req.path },
+    );
+
+    const finish = () => {
+      if (root.ended) return;
+      const route = routeName(req);
+      root.name = route ? `${req.method} ${route}` : req.method;
+      root.setAttributes({
+        'http.route': route ?? undefined,
+        'http.response.status_code': res.statusCode,
+        // Same id as the pino-http request logs
+        'http.request_id': req.id ? String(req.id) : undefined,
+      });
+      if (res.statusCode >= 500) root.recordError(new Error(`HTTP ${res.statusCode}`));
+      root.end();
+    };
+    res.on('finish', finish);
+    res.on('close', finish);
+
+    context.run(root, next);
+  };
+}
+
+/**
+ * Wrap a middleware so its stage shows up as a span: from the call until it
+ * passes control on (`next()`) or, if it answers itself, until the response
+ * is sent. Later middleware runs as a sibling, not a child, of this span.
+ */
+export function traceMiddleware(name: string, middleware: RequestHandler): RequestHandler {
+  return (req, res, next) => {
+    const parent = context.getStore();
+    if (!parent) return middleware(req, res, next);
+
+    const span = new Span(`middleware ${name}`, parent.traceId, parent.spanId, SpanKind.INTERNAL);
+    const endOnResponse = () => span.end();
+    res.once('finish', endOnResponse);
+    res.once('close', endOnResponse);
+
+    const passOn: NextFunction = (err?: unknown) => {
+      res.off('finish', endOnResponse);
+      res.off('close', endOnResponse);
+      if (err && err !== 'route' && err !== 'router') span.recordError(err);
+      span.end();
+      context.run(parent, () => next(err as Parameters<NextFunction>[0]));
+    };
+
+    try {
+      // Express 5 awaits a returned promise, so hand it back
+      return context.run(span, () => middleware(req, res, passOn));
+    } catch (err) {
+      span.recordError(err);
+      span.end();
+      throw err;
+    }
+  };
+}
@@ -0,0 +1,54 @@
+import { getPrisma } from './prisma.js';
+import { getConfig } from '../config.js';
+import { cached, invalidateTags } from './cache.js';
+
+export interface SessionUser {
+  user: Express.User;
+  /** Sessions issued before this moment (ms) are no longer valid */
+  sessionsRevokedAt: number | null;
+}
+
+const userTag = (id: string) => `user:${id}`;
+
+/**
+ * Load the user behind a session, via the tagged cache (CACHE_BACKEND).
+ *
+ * Every authenticated request resolves its user, so without the cache each
+ * one pays a `users` lookup before any business logic. Writes that change
+ * what ends up in `req.user` — including `sessions_revoked_at`, which is what
+ * ends a signed-cookie session — call `invalidateSessionUser()`. With
+ * CACHE_BACKEND=redis that reaches every process at once; with the in-process
+ * `memory` backend other processes may serve the old values for up to
+ * USER_CACHE_TTL_MS.
+ * Resolves null for a user that no longer exists (misses are not cached).
+ */
+export async function loadSessionUser(id: string): Promise<SessionUser | null> {
+  return cached(userTag(id), [userTag(id)], async (): Promise<SessionUser | null> => {
+    const row = await getPrisma().user.findUnique({
+      where: { id },
+      select: {
+        id: true,
+        email: true,
+        displayName: true,
+        avatarUrl: true,
+        username: true,
+        bio: true,
+        googleId: true,
+        passwordHash: true,
+        sessionsRevokedAt: true,
+      },
+    });
+    if (!row) return null;
+
+    const { passwordHash, sessionsRevokedAt, ...user } = row;
+    return {
+      user: { ...user, hasPassword: passwordHash !== null },
+      sessionsRevokedAt: sessionsRevokedAt?.getTime() ?? null,
+    };
+  }, getConfig().USER_CACHE_TTL_MS, 0);
+}
+
+/** Drop a cached user after a write that changes its session fields */
+export async function invalidateSessionUser(id: string): Promise<void> {
+  await invalidateTags([userTag(id)]);
+}
@@ -0,0 +1,203 @@
+import { Worker } from 'node:worker_threads';
+import { logger } from './logger.js';
+
+/** Thrown by `run()` when every worker is busy and the queue is full */
+export class PoolBusyError extends Error {
+  constructor() {
+    super('Worker pool queue is full');
+    this.name = 'PoolBusyError';
+  }
+}
+
+/** Thrown by `run()` when a job outlives its deadline (its worker is terminated) */
+export class PoolTimeoutError extends Error {
+  constructor(ms: number) {
+    super(`Worker job exceeded ${ms}ms`);
+    this.name = 'PoolTimeoutError';
+  }
+}
+
+/**
+ * Message protocol: once its imports have loaded, the worker script posts
+ * `{ ready: true }`. The pool then posts `{ id, job }` and the worker answers
+ * `{ id, ok: true, value }` or `{ id, ok: false, error }`. `error` is a plain
+ * object (class instances do not survive structured cloning).
+ */
+export interface WorkerReply<TResult> {
+  ready?: boolean;
+  id?: number;
+  ok: boolean;
+  value?: TResult;
+  error?: { message: string; statusCode?: number; code?: string };
+}
+
+/** Failure reported by the job itself (as opposed to the pool) */
+export class WorkerJobError extends Error {
+  constructor(
+    message: string,
+    public statusCode?: number,
+    public code?: string,
+  ) {
+    super(message);
+    this.name = 'WorkerJobError';
+  }
+}
+
+export interface WorkerPoolOptions {
+  /** Worker entry module */
+  script: URL;
+  size: number;
+  /** Jobs allowed to wait for a free worker before `run()` rejects */
+  maxQueue: number;
+  /** Per-job deadline, counted from when a worker picks the job up */
+  timeoutMs: number;
+}
+
+interface QueuedJob<TJob, TResult> {
+  id: number;
+  job: TJob;
+  enqueuedAt: number;
+  onStart?: (waitMs: number) => void;
+  resolve: (value: TResult) => void;
+  reject: (err: Error) => void;
+}
+
+interface Slot<TJob, TResult> {
+  worker: Worker;
+  current: QueuedJob<TJob, TResult> | null;
+  timer: ReturnType<typeof setTimeout> | null;
+  /** False until the script reports ready — a worker dying before that is not respawned */
+  online: boolean;
+}
+
+/**
+ * Fixed-size pool of worker threads running one job each.
+ *
+ * CPU-bound work moves off the event loop, and the deadline is enforced by
+ * terminating the worker, so a runaway job actually stops instead of burning
+ * a core after its caller has given up. A replacement worker is spawned in
+ * its place. Workers are started lazily on first use.
+ */
+export class WorkerPool<TJob, TResult> {
+  private slots: Slot<TJob, TResult>[] = [];
+  private queue: QueuedJob<TJob, TResult>[] = [];
+  private nextId = 1;
+  private closed = false;
+
+  constructor(private readonly options: WorkerPoolOptions) {}
+
+  /** Jobs waiting for a free worker */
+  get queued(): number {
+    return this.queue.length;
+  }
+
+  run(job: TJob, onStart?: (waitMs: number) => void): Promise<TResult> {
+    if (this.closed) return Promise.reject(new Error('Worker pool is closed'));
+    if (this.slots.length === 0) this.start();
+
+    const idle = this.slots.find((slot) => !slot.current);
+    if (!idle && this.queue.length >= this.options.maxQueue) {
+      return Promise.reject(new PoolBusyError());
+    }
+
+    return new Promise<TResult>((resolve, reject) => {
+      const queued = { id: this.nextId++, job, enqueuedAt: Date.now(), onStart, resolve, reject };
+      if (idle) this.dispatch(idle, queued);
+      else this.queue.push(queued);
+    });
+  }
+
+  /** Terminate all workers and reject queued and running jobs */
+  async close(): Promise<void> {
+    this.closed = true;
+    const err = new Error('Worker pool is closed');
+    for (const queued of this.queue.splice(0)) queued.reject(err);
+    const slots = this.slots.splice(0);
+    await Promise.all(slots.map((slot) => {
+      this.finish(slot)?.reject(err);
+      return slot.worker.terminate();
+    }));
+  }
+
+  private start(): void {
+    for (let i = 0; i < this.options.size; i++) this.slots.push(this.spawn());
+  }
+
+  private spawn(): Slot<TJob, TResult> {
+    const worker = new Worker(this.options.script);
+    const slot: Slot<TJob, TResult> = { worker, current: null, timer: null, online: false };
+
+    worker.on('message', (reply: WorkerReply<TResult>) => {
+      if (reply.ready) {
+        slot.online = true;
+        return;
+      }
+      const job = slot.current;
+      if (!job || job.id !== reply.id) return;
+      this.finish(slot);
+      if (reply.ok) {
+        job.resolve(reply.value as TResult);
+      } else {
+        const { message, statusCode, code } = reply.error ?? { message: 'Worker job failed' };
+        job.reject(new WorkerJobError(message, statusCode, code));
+      }
+      this.next(slot);
+    });
+    worker.on('error', (err) => {
+      logger.error({ err }, 'Worker thread crashed');
+      this.retire(slot, err);
+    });
+    worker.on('exit', () => this.retire(slot, new Error('Worker thread exited')));
+    // Idle workers must not keep the process alive on shutdown
+    worker.unref();
+    return slot;
+  }
+
+  private dispatch(slot: Slot<TJob, TResult>, queued: QueuedJob<TJob, TResult>): void {
+    slot.current = queued;
+    slot.worker.ref();
+    queued.onStart?.(Date.now() - queued.enqueuedAt);
+    slot.timer = setTimeout(() => {
+      this.retire(slot, new PoolTimeoutError(this.options.timeoutMs));
+    }, this.options.timeoutMs);
+    slot.worker.postMessage({ id: queued.id, job: queued.job });
+  }
+
+  /** Detach the running job from its slot; returns it so the caller can settle it */
+  private finish(slot: Slot<TJob, TResult>): QueuedJob<TJob, TResult> | null {
+    const job = slot.current;
+    if (slot.timer) clearTimeout(slot.timer);
+    slot.current = null;
+    slot.timer = null;
+    slot.worker.unref();
+    return job;
+  }
+
+  private next(slot: Slot<TJob, TResult>): void {
+    const queued = this.queue.shift();
+    if (queued) this.dispatch(slot, queued);
+  }
+
+  /**
+   * Take a worker out of rotation (deadline, crash or exit) and put a fresh
+   * one in its slot right away, so no job is handed to a dying thread.
+   */
+  private retire(slot: Slot<TJob, TResult>, err: Error): void {
+    this.finish(slot)?.reject(err);
+    const index = this.slots.indexOf(slot);
+    if (index === -1) return;
+    slot.worker.terminate().catch(() => {});
+    if (!slot.online) {
+      // Broken script: respawning would spin. Drop the slot; once none are
+      // left, fail the queue — the next run() starts a fresh set.
+      this.slots.splice(index, 1);
+      if (this.slots.length === 0) {
+        for (const queued of this.queue.splice(0)) queued.reject(err);
+      }
+      return;
+    }
+    const fresh = this.spawn();
+    this.slots[index] = fresh;
+    this.next(fresh);
+  }
+}
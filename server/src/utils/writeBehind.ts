@@ -0,0 +1,146 @@
+import { logger } from './logger.js';
+import {
+  writeBehindQueueDepth,
+  writeBehindFlushLagSeconds,
+  writeBehindRowsTotal,
+} from '../middleware/metrics.js';
+
+interface PendingWrite<T> {
+  value: T;
+  /** When the oldest write folded into this entry was accepted */
+  enqueuedAt: number;
+  attempts: number;
+}
+
+export interface WriteBehindOptions {
+  /** Flush at least this often (ms); 0 writes through on every put() */
+  intervalMs: number;
+  /** Rows per write() call; reaching it also triggers an early flush */
+  maxBatch: number;
+  /** Failed flushes a row survives before it is dropped */
+  maxAttempts?: number;
+}
+
+/**
+ * In-process write-behind buffer.
+ *
+ * `put()` records the latest value per key (later puts replace earlier ones,
+ * so a reader hammering the same row costs one write per interval) and
+ * returns immediately. Pending rows are handed to `write()` in batches on a
+ * timer, once `maxBatch` rows are waiting, on `flush()`, and on `close()`.
+ *
+ * Flushes run one at a time. A failed batch is re-queued (unless a newer
+ * value arrived meanwhile) and retried up to `maxAttempts` times. Anything
+ * still pending when the process dies without `close()` is lost — use it
+ * only for data where the last few seconds are acceptable to lose.
+ */
+export class WriteBehindBuffer<T> {
+  private pending = new Map<string, PendingWrite<T>>();
+  private chain: Promise<void> = Promise.resolve();
+  private timer: ReturnType<typeof setInterval> | null = null;
+
+  constructor(
+    private readonly name: string,
+    private readonly write: (rows: T[]) => Promise<void>,
+    private readonly options: WriteBehindOptions,
+  ) {}
+
+  get size(): number {
+    return this.pending.size;
+  }
+
+  /** Latest value accepted for `key` and not yet written */
+  get(key: string): T | undefined {
+    return this.pending.get(key)?.value;
+  }
+
+  has(key: string): boolean {
+    return this.pending.has(key);
+  }
+
+  /** Queue a write; resolves once accepted (or written, in write-through mode) */
+  async put(key: string, value: T): Promise<void> {
+    if (this.options.intervalMs <= 0) {
+      await this.write([value]);
+      writeBehindRowsTotal.inc({ buffer: this.name, result: 'written' }, 1);
+      return;
+    }
+
+    const existing = this.pending.get(key);
+    this.pending.set(key, {
+      value,
+      enqueuedAt: existing?.enqueuedAt ?? Date.now(),
+      attempts: 0,
+    });
+    writeBehindQueueDepth.set({ buffer: this.name }, this.pending.size);
+
+    this.timer ??= setInterval(() => { void this.flush(); }, this.options.intervalMs).unref();
+    if (this.pending.size >= this.options.maxBatch) void this.flush();
+  }
+
+  /**
+   * Write pending rows now (only keys matching `match`, if given).
+   * Waits for any flush already running, so a caller that needs
+   * read-your-writes can flush its own keys and then query the database.
+   */
+  flush(match?: (key: string) => boolean): Promise<void> {
+    const run = this.chain.then(() => this.flushNow(match));
+    this.chain = run.catch(() => {});
+    return run;
+  }
+
+  /** Flush everything and stop the timer (graceful shutdown) */
+  async close(): Promise<void> {
+    if (this.timer) clearInterval(this.timer);
+    this.timer = null;
+    await this.flush();
+    if (this.pending.size > 0) {
+      logger.error({ buffer: this.name, rows: this.pending.size }, 'Write-behind rows lost on shutdown');
+      writeBehindRowsTotal.inc({ buffer: this.name, result: 'dropped' }, this.pending.size);
+      this.pending.clear();
+      writeBehindQueueDepth.set({ buffer: this.name }, 0);
+    }
+  }
+
+  private async flushNow(match?: (key: string) => boolean): Promise<void> {
+    const taken: [string, PendingWrite<T>][] = [];
+    for (const entry of this.pending) {
+      if (!match || match(entry[0])) taken.push(entry);
+    }
+    if (taken.length === 0) return;
+    for (const [key] of taken) this.pending.delete(key);
+    writeBehindQueueDepth.set({ buffer: this.name }, this.pending.size);
+
+    const now = Date.now();
+    for (let i = 0; i < taken.length; i += this.options.maxBatch) {
+      const batch = taken.slice(i, i + this.options.maxBatch);
+      const oldest = Math.min(...batch.map(([, entry]) => entry.enqueuedAt));
+      writeBehindFlushLagSeconds.observe({ buffer: this.name }, (now - oldest) / 1000);
+
+      try {
+        await this.write(batch.map(([, entry]) => entry.value));
+        writeBehindRowsTotal.inc({ buffer: this.name, result: 'written' }, batch.length);
+      } catch (err) {
+        logger.error({ err, buffer: this.name, rows: batch.length }, 'Write-behind flush failed');
+        this.requeue(batch);
+      }
+    }
+  }
+
+  private requeue(batch: [string, PendingWrite<T>][]): void {
+    const maxAttempts = this.options.maxAttempts ?? 3;
+    let dropped = 0;
+    for (const [key, entry] of batch) {
+      // A newer value for the key supersedes the failed one
+      if (this.pending.has(key)) continue;
+      if (entry.attempts + 1 >= maxAttempts) {
+        dropped++;
+        continue;
+      }
+      this.pending.set(key, { ...entry, attempts: entry.attempts + 1 });
+    }
+    if (dropped > 0) writeBehindRowsTotal.inc({ buffer: this.name, result: 'dropped' }, dropped);
+    writeBehindRowsTotal.inc({ buffer: this.name, result: 'retried' }, batch.length - dropped);
+    writeBehindQueueDepth.set({ buffer: this.name }, this.pending.size);
+  }
+}
@@ -0,0 +1,110 @@
+import { describe, it, expect, vi, beforeEach } from 'vitest';
+
+const stored = new Map<string, { body: Buffer; contentType: string; cacheControl?: string }>();
+const failingKeys = new Set<string>();
+
+vi.mock('../src/utils/storage.js', () => ({
+  uploadFile: vi.fn(async (body: Buffer, key: string, contentType: string, options: { cacheControl?: string } = {}) => {
+    if ([...failingKeys].some((k) => key.includes(k))) throw new Error('S3 down');
+    stored.set(key, { body, contentType, cacheControl: options.cacheControl });
+    return { key, url: `http://cdn.test/${key}` };
+  }),
+  getPublicUrl: (key: string) => `http://cdn.test/${key}`,
+}));
+
+vi.mock('../src/utils/logger.js', () => ({
+  logger: { info: vi.fn(), warn: vi.fn(), error: vi.fn() },
+}));
+
+import { ingestBookImages, readImageSize } from '../src/services/bookImages.service.js';
+import { uploadFile } from '../src/utils/storage.js';
+
+/** 1×1 PNG header with the given dimensions (only the IHDR is read) */
+function pngHeader(width: number, height: number): Buffer {
+  const buf = Buffer.alloc(33);
+  buf.writeUInt32BE(0x89504e47, 0);
+  buf.writeUInt32BE(0x0d0a1a0a, 4);
+  buf.writeUInt32BE(13, 8);
+  buf.write('IHDR', 12, 'latin1');
+  buf.writeUInt32BE(width, 16);
+  buf.writeUInt32BE(height, 20);
+  return buf;
+}
+
+const img = (mime: string, data: Buffer) => `<img src="data:${mime};base64,${data.toString('base64')}" alt="">`;
+
+describe('readImageSize', () => {
+  it('should read PNG, GIF and JPEG dimensions', () => {
+    expect(readImageSize(pngHeader(640, 480))).toEqual({ width: 640, height: 480 });
+
+    const gif = Buffer.from('GIF89a\x20\x03\x58\x02', 'latin1');
+    expect(readImageSize(gif)).toEqual({ width: 800, height: 600 });
+
+    // SOI, APP0 (length 4), SOF0 with height 300, width 200
+    const jpeg = Buffer.from([
+      0xff, 0xd8,
+      0xff, 0xe0, 0x00, 0x04, 0x00, 0x00,
+      0xff, 0xc0, 0x00, 0x11, 0x08, 0x01, 0x2c, 0x00, 0xc8, 0x03,
+    ]);
+    expect(readImageSize(jpeg)).toEqual({ width: 200, height: 300 });
+  });
+
+  it('should return null for unknown data', () => {
+    expect(readImageSize(Buffer.from('not an image'))).toBeNull();
+  });
+});
+
+describe('ingestBookImages', () => {
+  beforeEach(() => {
+    stored.clear();
+    failingKeys.clear();
+    vi.mocked(uploadFile).mockClear();
+  });
+
+  it('should upload each distinct image once and rewrite src', async () => {
+    const png = pngHeader(300, 200);
+    const book = {
+      title: 'T',
+      author: '',
+      chapters: [
+        { id: 'chapter_1', title: 'A', html: `<article><p>${img('image/png', png)}</p></article>` },
+        { id: 'chapter_2', title: 'B', html: `<article>${img('image/png', png)}<p>text</p></article>` },
+      ],
+    };
+
+    const result = await ingestBookImages(book);
+
+    expect(uploadFile).toHaveBeenCalledTimes(1);
+    const [key] = [...stored.keys()];
+    expect(key).toMatch(/^images\/content\/[0-9a-f]{64}\.png$/);
+    expect(stored.get(key)!.cacheControl).toContain('immutable');
+    for (const chapter of result.chapters) {
+      expect(chapter.html).toContain(`<img src="http://cdn.test/${key}" alt="" width="300" height="200" loading="lazy">`);
+      expect(chapter.html).not.toContain('data:');
+    }
+  });
+
+  it('should share one key with an earlier import and rewrite it to refresh its age', async () => {
+    const png = pngHeader(10, 10);
+    const book = { title: 'T', author: '', chapters: [{ id: 'c', title: 'C', html: img('image/png', png) }] };
+
+    const first = await ingestBookImages(book);
+    const second = await ingestBookImages(book);
+
+    expect(second.chapters[0].html).toBe(first.chapters[0].html);
+    expect(stored.size).toBe(1);
+    // An old unreferenced copy must look new again to cleanup-s3-orphans.sh
+    expect(uploadFile).toHaveBeenCalledTimes(2);
+  });
+
+  it('should keep SVG and failed uploads inline', async () => {
+    failingKeys.add('.gif');
+    const svg = img('image/svg+xml', Buffer.from('<svg/>'));
+    const gif = img('image/gif', Buffer.from('GIF89a\x01\x00\x01\x00', 'latin1'));
+    const book = { title: 'T', author: '', chapters: [{ id: 'c', title: 'C', html: `${svg}${gif}` }] };
+
+    const result = await ingestBookImages(book);
+
+    expect(result.chapters[0].html).toBe(`${svg}${gif}`);
+  });
+});
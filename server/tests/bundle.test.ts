@@ -0,0 +1,141 @@
+import { describe, it, expect, beforeEach, vi } from 'vitest';
+import request from 'supertest';
+import { createApp } from '../src/app.js';
+import { cleanDatabase, createAuthenticatedAgent } from './helpers.js';
+
+const failures = vi.hoisted(() => ({ settings: false }));
+
+vi.mock('../src/services/settings.service.js', async (importOriginal) => {
+  const actual = await importOriginal<typeof import('../src/services/settings.service.js')>();
+  return {
+    ...actual,
+    getGlobalSettings: async (...args: Parameters<typeof actual.getGlobalSettings>) => {
+      if (failures.settings) throw new Error('settings store down');
+      return actual.getGlobalSettings(...args);
+    },
+  };
+});
+
+const app = createApp();
+
+/** Parse an NDJSON body into its records */
+function parseNdjson(text: string) {
+  return text.split('\n').filter(Boolean).map((line) => JSON.parse(line));
+}
+
+async function createBookWithChapters(visibility?: string) {
+  const { agent } = await createAuthenticatedAgent(app);
+  const bookRes = await agent
+    .post('/api/v1/books')
+    .send({ title: 'Bundle Book', author: 'Author' })
+    .expect(201);
+  const bookId = bookRes.body.data.id;
+
+  for (let i = 1; i <= 4; i++) {
+    await agent
+      .post(`/api/books/${bookId}/chapters`)
+      .send({ title: `Ch ${i}`, htmlContent: `<p>Body ${i}</p>` })
+      .expect(201);
+  }
+
+  if (visibility) {
+    await agent.patch(`/api/books/${bookId}`).send({ visibility }).expect(200);
+  }
+
+  return { agent, bookId };
+}
+
+describe('Reader bundle', () => {
+  beforeEach(async () => {
+    await cleanDatabase();
+    failures.settings = false;
+  });
+
+  describe('GET /api/books/:bookId/bundle', () => {
+    it('should stream book, progress, settings, fonts and first chapters', async () => {
+      const { agent, bookId } = await createBookWithChapters();
+
+      const res = await agent
+        .get(`/api/v1/books/${bookId}/bundle?chapters=2`)
+        .buffer(true)
+        .parse((r, cb) => {
+          let data = '';
+          r.on('data', (chunk: Buffer) => { data += chunk.toString(); });
+          r.on('end', () => cb(null, data));
+        })
+        .expect(200);
+
+      expect(res.headers['content-type']).toContain('application/x-ndjson');
+      const records = parseNdjson(res.body);
+      expect(records.map((r) => r.type)).toEqual([
+        'book', 'progress', 'settings', 'fonts', 'chapter', 'chapter', 'end',
+      ]);
+      expect(records[0].data.id).toBe(bookId);
+      expect(records[1].data).toBeNull();
+      expect(records[4].data.html).toBe('<p>Body 1</p>');
+      expect(records[5].data.html).toBe('<p>Body 2</p>');
+    });
+
+    it('should send a fallback for a failed section and finish the stream', async () => {
+      const { agent, bookId } = await createBookWithChapters();
+      failures.settings = true;
+
+      const res = await agent
+        .get(`/api/v1/books/${bookId}/bundle?chapters=1`)
+        .buffer(true)
+        .parse((r, cb) => {
+          let data = '';
+          r.on('data', (chunk: Buffer) => { data += chunk.toString(); });
+          r.on('end', () => cb(null, data));
+        })
+        .expect(200);
+
+      const records = parseNdjson(res.body);
+      expect(records.map((r) => r.type)).toEqual([
+        'book', 'progress', 'settings', 'fonts', 'chapter', 'end',
+      ]);
+      expect(records[2].data).toBeNull();
+    });
+
+    it('should return 403 for another user\'s book', async () => {
+      const { bookId } = await createBookWithChapters();
+      const { agent: other } = await createAuthenticatedAgent(app);
+
+      await other.get(`/api/v1/books/${bookId}/bundle`).expect(403);
+    });
+  });
+
+  describe('GET /api/public/books/:bookId/bundle', () => {
+    it('should stream a published book without settings for guests', async () => {
+      const { bookId } = await createBookWithChapters('published');
+
+      const res = await request(app)
+        .get(`/api/v1/public/books/${bookId}/bundle`)
+        .buffer(true)
+        .parse((r, cb) => {
+          let data = '';
+          r.on('data', (chunk: Buffer) => { data += chunk.toString(); });
+          r.on('end', () => cb(null, data));
+        })
+        .expect(200);
+
+      const records = parseNdjson(res.body);
+      expect(records.map((r) => r.type)).toEqual([
+        'book', 'progress', 'chapter', 'chapter', 'chapter', 'end',
+      ]);
+      expect(records[0].data.owner).toBeDefined();
+    });
+
+    it('should return 404 for draft books', async () => {
+      const { bookId } = await createBookWithChapters();
+
+      await request(app).get(`/api/v1/public/books/${bookId}/bundle`).expect(404);
+    });
+
+    it('should reject out-of-range chapter counts', async () => {
+      const { bookId } = await createBookWithChapters('published');
+
+      await request(app).get(`/api/v1/public/books/${bookId}/bundle?chapters=500`).expect(400);
+    });
+  });
+});
@@ -0,0 +1,285 @@
+import { describe, it, expect, vi, beforeEach, afterEach, afterAll } from 'vitest';
+import net from 'node:net';
+import {
+  MemoryCacheStore,
+  cached,
+  invalidateTags,
+  setCacheStore,
+  closeCacheStore,
+} from '../src/utils/cache.js';
+import { RespCacheStore, parseReply, encodeCommand } from '../src/utils/respCache.js';
+
+/**
+ * Local stand-in for a Redis server: speaks enough RESP2 for the cache
+ * backend (MGET, SET [PX], DEL, AUTH, SELECT).
+ */
+async function startRespStandIn(options: { password?: string } = {}) {
+  const data = new Map<string, { value: string; expiresAt: number }>();
+  const commands: string[][] = [];
+
+  const bulk = (v: string | null) => (v === null ? '$-1\r\n' : `$${Buffer.byteLength(v)}\r\n${v}\r\n`);
+  const read = (key: string) => {
+    const entry = data.get(key);
+    if (!entry || entry.expiresAt <= Date.now()) return null;
+    return entry.value;
+  };
+
+  const server = net.createServer((socket) => {
+    let buffer = Buffer.alloc(0);
+    let authed = !options.password;
+    socket.on('data', (chunk) => {
+      buffer = Buffer.concat([buffer, chunk]);
+      for (;;) {
+        const parsed = parseReply(buffer);
+        if (!parsed) break;
+        buffer = buffer.subarray(parsed.next);
+        const [name, ...args] = parsed.value as string[];
+        commands.push([name, ...args]);
+        const cmd = name.toUpperCase();
+
+        if (cmd === 'AUTH') {
+          authed = args[args.length - 1] === options.password;
+          socket.write(authed ? '+OK\r\n' : '-WRONGPASS invalid password\r\n');
+        } else if (!authed) {
+          socket.write('-NOAUTH Authentication required.\r\n');
+        } else if (cmd === 'SELECT') {
+          socket.write('+OK\r\n');
+        } else if (cmd === 'MGET') {
+          socket.write(`*${args.length}\r\n${args.map((k) => bulk(read(k))).join('')}`);
+        } else if (cmd === 'SET') {
+          const px = args[2]?.toUpperCase() === 'PX' ? Number(args[3]) : Infinity;
+          data.set(args[0], { value: args[1], expiresAt: Date.now() + px });
+          socket.write('+OK\r\n');
+        } else if (cmd === 'DEL') {
+          socket.write(`:${args.filter((k) => data.delete(k)).length}\r\n`);
+        } else {
+          socket.write(`-ERR unknown command '${name}'\r\n`);
+        }
+      }
+    });
+  });
+
+  await new Promise<void>((resolve) => server.listen(0, '127.0.0.1', resolve));
+  const { port } = server.address() as net.AddressInfo;
+  return {
+    port,
+    data,
+    commands,
+    close: () => new Promise<void>((resolve) => server.close(() => resolve())),
+  };
+}
+
+afterAll(async () => {
+  await closeCacheStore();
+});
+
+describe('MemoryCacheStore', () => {
+  it('should evict the least recently used entry', async () => {
+    const store = new MemoryCacheStore(2);
+    await store.set('a', '1');
+    await store.set('b', '2');
+    await store.mget(['a']); // touch a
+    await store.set('c', '3');
+
+    expect(await store.mget(['a', 'b', 'c'])).toEqual(['1', null, '3']);
+  });
+
+  it('should expire entries after their TTL', async () => {
+    vi.useFakeTimers();
+    try {
+      const store = new MemoryCacheStore();
+      await store.set('k', 'v', 1000);
+      expect(await store.mget(['k'])).toEqual(['v']);
+
+      vi.advanceTimersByTime(1001);
+      expect(await store.mget(['k'])).toEqual([null]);
+      expect(store.size).toBe(0);
+    } finally {
+      vi.useRealTimers();
+    }
+  });
+});
+
+describe('cached()', () => {
+  beforeEach(async () => {
+    await setCacheStore(new MemoryCacheStore());
+  });
+
+  it('should serve repeat reads from the cache', async () => {
+    const load = vi.fn(async () => ({ title: 'A' }));
+
+    expect(await cached('book:1', ['book:1'], load, 60_000)).toEqual({ title: 'A' });
+    expect(await cached('book:1', ['book:1'], load, 60_000)).toEqual({ title: 'A' });
+    expect(load).toHaveBeenCalledTimes(1);
+  });
+
+  it('should reload after one of its tags is invalidated', async () => {
+    let title = 'A';
+    const load = vi.fn(async () => ({ title }));
+
+    await cached('shelf:alice', ['author:alice'], load, 60_000);
+    await cached('book:1', ['book:1'], load, 60_000);
+    title = 'B';
+    await invalidateTags(['author:alice']);
+
+    expect(await cached('shelf:alice', ['author:alice'], load, 60_000)).toEqual({ title: 'B' });
+    // Unrelated tag keeps its entry
+    expect(await cached('book:1', ['book:1'], load, 60_000)).toEqual({ title: 'A' });
+    expect(load).toHaveBeenCalledTimes(3);
+  });
+
+  it('should not keep a value loaded across an invalidation', async () => {
+    let release!: () => void;
+    let started!: () => void;
+    const gate = new Promise<void>((resolve) => { release = resolve; });
+    const loading = new Promise<void>((resolve) => { started = resolve; });
+    const slowLoad = async () => { started(); await gate; return 'stale'; };
+
+    const pending = cached('discover:20:0', ['discover'], slowLoad, 60_000);
+    await loading;
+    await invalidateTags(['discover']); // write lands mid-load
+    release();
+    expect(await pending).toBe('stale');
+
+    const fresh = vi.fn(async () => 'fresh');
+    expect(await cached('discover:20:0', ['discover'], fresh, 60_000)).toBe('fresh');
+    expect(fresh).toHaveBeenCalledTimes(1);
+  });
+
+  it('should not create generation keys on read', async () => {
+    const store = new MemoryCacheStore();
+    await setCacheStore(store);
+    const load = vi.fn(async () => null);
+
+    await cached('og:shelf:nobody', ['author:nobody'], load, 60_000);
+
+    expect(await store.mget(['flipbook:gen:author:nobody'])).toEqual([null]);
+    expect(store.size).toBe(1);
+    expect(await cached('og:shelf:nobody', ['author:nobody'], load, 60_000)).toBeNull();
+    expect(load).toHaveBeenCalledTimes(1);
+  });
+
+  it('should keep null results only for nullTtlMs', async () => {
+    vi.useFakeTimers();
+    try {
+      const load = vi.fn(async () => null);
+
+      await cached('og:book:missing', ['book:missing'], load, 60_000, 1000);
+      await cached('og:book:missing', ['book:missing'], load, 60_000, 1000);
+      expect(load).toHaveBeenCalledTimes(1);
+
+      vi.advanceTimersByTime(1001);
+      await cached('og:book:missing', ['book:missing'], load, 60_000, 1000);
+      expect(load).toHaveBeenCalledTimes(2);
+    } finally {
+      vi.useRealTimers();
+    }
+  });
+
+  it('should share one load between concurrent misses', async () => {
+    const load = vi.fn(async () => 42);
+
+    const results = await Promise.all([
+      cached('k', ['t'], load, 60_000),
+      cached('k', ['t'], load, 60_000),
+      cached('k', ['t'], load, 60_000),
+    ]);
+
+    expect(results).toEqual([42, 42, 42]);
+    expect(load).toHaveBeenCalledTimes(1);
+  });
+
+  it('should not cache loader failures', async () => {
+    const load = vi.fn()
+      .mockRejectedValueOnce(new Error('db down'))
+      .mockResolvedValueOnce('ok');
+
+    await expect(cached('k', ['t'], load, 60_000)).rejects.toThrow('db down');
+    expect(await cached('k', ['t'], load, 60_000)).toBe('ok');
+  });
+
+  it('should fall through to the loader when the backend fails', async () => {
+    const broken = new MemoryCacheStore();
+    broken.mget = vi.fn().mockRejectedValue(new Error('backend down'));
+    await setCacheStore(broken);
+    const load = vi.fn(async () => 'from-db');
+
+    expect(await cached('k', ['t'], load, 60_000)).toBe('from-db');
+    await expect(invalidateTags(['t'])).resolves.toBeUndefined();
+  });
+});
+
+describe('RespCacheStore', () => {
+  let standIn: Awaited<ReturnType<typeof startRespStandIn>>;
+
+  beforeEach(async () => {
+    standIn = await startRespStandIn({ password: 's3cret' });
+  });
+
+  afterEach(async () => {
+    await closeCacheStore();
+    await standIn.close();
+  });
+
+  it('should encode commands as RESP arrays of bulk strings', () => {
+    expect(encodeCommand(['SET', 'k', 'ё'])).toBe('*3\r\n$3\r\nSET\r\n$1\r\nk\r\n$2\r\nё\r\n');
+  });
+
+  it('should authenticate, select the db and round-trip values', async () => {
+    const store = new RespCacheStore(`redis://:s3cret@127.0.0.1:${standIn.port}/2`);
+    await setCacheStore(store);
+
+    await store.set('a', 'привет', 60_000);
+    expect(await store.mget(['a', 'missing'])).toEqual(['привет', null]);
+    await store.del(['a']);
+    expect(await store.mget(['a'])).toEqual([null]);
+
+    expect(standIn.commands.slice(0, 2)).toEqual([['AUTH', 's3cret'], ['SELECT', '2']]);
+    expect(standIn.commands[2]).toEqual(['SET', 'a', 'привет', 'PX', '60000']);
+  });
+
+  it('should back cached() with tag invalidation shared through the server', async () => {
+    const url = `redis://:s3cret@127.0.0.1:${standIn.port}`;
+    await setCacheStore(new RespCacheStore(url));
+    let title = 'A';
+    const load = vi.fn(async () => ({ title }));
+
+    await cached('book:1', ['book:1'], load, 60_000);
+    // Let the fire-and-forget write land
+    await new Promise((resolve) => setTimeout(resolve, 20));
+    // Only the entry, with a TTL: reads never persist generation keys
+    expect([...standIn.data.keys()]).toEqual(['flipbook:c:book:1']);
+
+    // A second instance sees the entry and can invalidate it
+    await setCacheStore(new RespCacheStore(url));
+    expect(await cached('book:1', ['book:1'], load, 60_000)).toEqual({ title: 'A' });
+    expect(load).toHaveBeenCalledTimes(1);
+
+    title = 'B';
+    await invalidateTags(['book:1']);
+    expect(await cached('book:1', ['book:1'], load, 60_000)).toEqual({ title: 'B' });
+  });
+
+  it('should fail fast with a wrong password', async () => {
+    const store = new RespCacheStore(`redis://:wrong@127.0.0.1:${standIn.port}`);
+    await setCacheStore(store);
+
+    await expect(store.mget(['a'])).rejects.toThrow();
+    // Back-off: no reconnect storm while the server is refusing us
+    await expect(store.mget(['a'])).rejects.toThrow('Cache backend unavailable');
+  });
+
+  it('should time out instead of hanging on an unresponsive server', async () => {
+    const silent = net.createServer(() => {});
+    await new Promise<void>((resolve) => silent.listen(0, '127.0.0.1', resolve));
+    const { port } = silent.address() as net.AddressInfo;
+    const store = new RespCacheStore(`redis://127.0.0.1:${port}`, { timeoutMs: 50 });
+
+    try {
+      await expect(store.mget(['a'])).rejects.toThrow('timed out');
+    } finally {
+      await store.close();
+      await new Promise<void>((resolve) => silent.close(() => resolve()));
+    }
+  });
+});
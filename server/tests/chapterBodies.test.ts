@@ -0,0 +1,204 @@
+import { describe, it, expect, vi, beforeEach } from 'vitest';
+
+vi.hoisted(() => {
+  process.env.CHAPTER_CONTENT_STORE = 's3';
+});
+
+const stored = new Map<string, { body: Buffer; contentType: string; contentEncoding?: string }>();
+
+vi.mock('../src/utils/storage.js', async (importOriginal) => ({
+  ...(await importOriginal<typeof import('../src/utils/storage.js')>()),
+  fileExists: vi.fn(async (key: string) => stored.has(key)),
+  uploadFile: vi.fn(async (body: Buffer, key: string, contentType: string, options: { contentEncoding?: string } = {}) => {
+    stored.set(key, { body, contentType, contentEncoding: options.contentEncoding });
+    return { key, url: `http://cdn.test/${key}` };
+  }),
+  getFileBuffer: vi.fn(async (key: string) => {
+    const object = stored.get(key);
+    if (!object) throw Object.assign(new Error('NoSuchKey'), { name: 'NoSuchKey' });
+    return object.body;
+  }),
+}));
+
+import request from 'supertest';
+import { brotliDecompressSync } from 'node:zlib';
+import { createApp } from '../src/app.js';
+import { getPrisma } from '../src/utils/prisma.js';
+import { getContentCache } from '../src/utils/contentCache.js';
+import { computeChapterMetadata } from '../src/utils/chapterMetadata.js';
+import {
+  chapterBodyKey,
+  storeChapterBody,
+  loadChapterBody,
+  moveChapterBodiesToStorage,
+  indexStoredChapterImages,
+} from '../src/utils/chapterBodies.js';
+import { uploadFile } from '../src/utils/storage.js';
+import { cleanDatabase, createAuthenticatedAgent } from './helpers.js';
+
+const app = createApp();
+
+describe('storeChapterBody', () => {
+  beforeEach(() => {
+    stored.clear();
+    vi.mocked(uploadFile).mockClear();
+  });
+
+  it('should keep HTML in the row for the postgres store', async () => {
+    const body = await storeChapterBody('<p>Текст</p>', 'postgres');
+
+    expect(body).toEqual({ htmlContent: '<p>Текст</p>', ...computeChapterMetadata('<p>Текст</p>') });
+    expect(uploadFile).not.toHaveBeenCalled();
+  });
+
+  it('should upload a brotli object keyed by content hash for the s3 store', async () => {
+    const html = '<p>Текст главы</p>'.repeat(50);
+    const body = await storeChapterBody(html, 's3');
+
+    expect(body.htmlContent).toBeNull();
+    expect(body.hasContent).toBe(true);
+    const object = stored.get(chapterBodyKey(body.contentHash!));
+    expect(object?.contentEncoding).toBe('br');
+    expect(object?.contentType).toBe('text/html; charset=utf-8');
+    expect(brotliDecompressSync(object!.body).toString('utf8')).toBe(html);
+  });
+
+  it('should re-upload an identical body to renew its object', async () => {
+    const first = await storeChapterBody('<p>Same</p>', 's3');
+    const second = await storeChapterBody('<p>Same</p>', 's3');
+
+    expect(second.contentHash).toBe(first.contentHash);
+    expect(uploadFile).toHaveBeenCalledTimes(2);
+    expect(vi.mocked(uploadFile).mock.calls[1][1]).toBe(chapterBodyKey(first.contentHash!));
+    expect(stored.size).toBe(1);
+  });
+
+  it('should record the content images the HTML points at', async () => {
+    const hash = 'a'.repeat(64);
+    const html = `<p><img src="http://cdn.test/images/content/${hash}.png" alt=""
+      srcset="http://cdn.test/images/content/${hash}-480w.webp 480w, http://cdn.test/images/content/${hash}.png 900w"></p>
+      <p><img src="http://cdn.test/images/${hash}.png" alt=""></p>`;
+
+    expect((await storeChapterBody(html, 's3')).imageKeys).toEqual([
+      `images/content/${hash}-480w.webp`,
+      `images/content/${hash}.png`,
+    ]);
+  });
+
+  it('should not upload anything for an empty chapter', async () => {
+    expect(await storeChapterBody(null, 's3')).toEqual({ htmlContent: null, ...computeChapterMetadata(null) });
+    expect(uploadFile).not.toHaveBeenCalled();
+  });
+});
+
+describe('loadChapterBody', () => {
+  it('should read HTML still held in the row', async () => {
+    const row = { htmlContent: '<p>db</p>', hasContent: true, contentHash: 'ignored' };
+    expect(await loadChapterBody(row)).toEqual({ html: '<p>db</p>' });
+  });
+
+  it('should read and decompress a stored object', async () => {
+    const body = await storeChapterBody('<p>s3</p>', 's3');
+    const loaded = await loadChapterBody({ htmlContent: null, hasContent: true, contentHash: body.contentHash });
+
+    expect(loaded.html).toBe('<p>s3</p>');
+    expect(loaded.brotli).toBe(stored.get(chapterBodyKey(body.contentHash!))?.body);
+  });
+
+  it('should answer 404 for a row whose object is gone', async () => {
+    const row = { htmlContent: null, hasContent: true, contentHash: 'c'.repeat(64) };
+
+    await expect(loadChapterBody(row)).rejects.toMatchObject({
+      statusCode: 404,
+      code: 'CHAPTER_CONTENT_MISSING',
+    });
+  });
+
+  it('should return null for a chapter without content', async () => {
+    expect(await loadChapterBody({ htmlContent: null, hasContent: false, contentHash: null })).toEqual({ html: null });
+  });
+});
+
+describe('Chapter bodies in object storage', () => {
+  beforeEach(async () => {
+    await cleanDatabase();
+    stored.clear();
+    getContentCache().clear();
+  });
+
+  async function createBook() {
+    const { agent } = await createAuthenticatedAgent(app);
+    const bookRes = await agent.post('/api/v1/books').send({ title: 'Book' }).expect(201);
+    return { agent, bookId: bookRes.body.data.id as string };
+  }
+
+  it('should write new chapters to storage and serve them back', async () => {
+    const { agent, bookId } = await createBook();
+    const created = await agent
+      .post(`/api/books/${bookId}/chapters`)
+      .send({ title: 'Ch', htmlContent: '<p>Hello</p>' })
+      .expect(201);
+    const chapterId = created.body.data.id;
+    expect(created.body.data.htmlContent).toBe('<p>Hello</p>');
+
+    const row = await getPrisma().chapter.findUnique({ where: { id: chapterId } });
+    expect(row?.htmlContent).toBeNull();
+    expect(stored.has(chapterBodyKey(row!.contentHash!))).toBe(true);
+
+    const detail = await agent.get(`/api/books/${bookId}/chapters/${chapterId}`).expect(200);
+    expect(detail.body.data.htmlContent).toBe('<p>Hello</p>');
+
+    const content = await agent.get(`/api/books/${bookId}/chapters/${chapterId}/content`).expect(200);
+    expect(content.body.data.html).toBe('<p>Hello</p>');
+  });
+
+  it('should keep reading rows written before the switch, then move them', async () => {
+    const { agent, bookId } = await createBook();
+    const html = '<p>Legacy</p>';
+    const legacy = await getPrisma().chapter.create({
+      data: { bookId, title: 'Old', position: 0, htmlContent: html, ...computeChapterMetadata(html) },
+    });
+
+    const before = await agent.get(`/api/books/${bookId}/chapters/${legacy.id}/content`).expect(200);
+    expect(before.body.data.html).toBe(html);
+
+    expect(await moveChapterBodiesToStorage({ batchSize: 1 })).toEqual({ moved: 1, skipped: 0 });
+
+    const row = await getPrisma().chapter.findUnique({ where: { id: legacy.id } });
+    expect(row?.htmlContent).toBeNull();
+    expect(row?.updatedAt).toEqual(legacy.updatedAt);
+
+    getContentCache().clear();
+    const after = await agent.get(`/api/books/${bookId}/chapters/${legacy.id}/content`).expect(200);
+    expect(after.body.data.html).toBe(html);
+    expect(after.headers.etag).toBe(before.headers.etag);
+  });
+
+  it('should answer 404 for a chapter whose stored body is gone', async () => {
+    const { agent, bookId } = await createBook();
+    const created = await agent
+      .post(`/api/books/${bookId}/chapters`)
+      .send({ title: 'Ch', htmlContent: '<p>Lost</p>' })
+      .expect(201);
+    stored.clear();
+    getContentCache().clear();
+
+    const res = await agent.get(`/api/books/${bookId}/chapters/${created.body.data.id}/content`).expect(404);
+    expect(res.body.error).toBe('CHAPTER_CONTENT_MISSING');
+  });
+
+  it('should index the images of bodies stored before image_keys existed', async () => {
+    const { bookId } = await createBook();
+    const key = `images/content/${'b'.repeat(64)}.jpg`;
+    const body = await storeChapterBody(`<p><img src="http://cdn.test/${key}" alt=""></p>`, 's3');
+    const legacy = await getPrisma().chapter.create({
+      data: { bookId, title: 'Old', position: 0, ...body, imageKeys: [] },
+    });
+
+    expect(await indexStoredChapterImages({ batchSize: 1 })).toEqual({ indexed: 1 });
+
+    const row = await getPrisma().chapter.findUnique({ where: { id: legacy.id } });
+    expect(row?.imageKeys).toEqual([key]);
+    expect(row?.updatedAt).toEqual(legacy.updatedAt);
+  });
+});
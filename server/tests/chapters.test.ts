@@ -63,6 +63,56 @@ describe('Chapters API', () => {
       expect(page2.body.data.chapters[0].title).toBe('Ch 3');
     });
 
+    it('should support keyset pagination via cursor', async () => {
+      const { agent, bookId } = await createBookWithAgent(app);
+
+      for (const title of ['Ch 1', 'Ch 2', 'Ch 3']) {
+        await agent.post(`/api/books/${bookId}/chapters`).send({ title }).expect(201);
+      }
+
+      const page1 = await agent
+        .get(`/api/books/${bookId}/chapters?limit=2`)
+        .expect(200);
+
+      expect(page1.body.data.nextCursor).toEqual(expect.any(String));
+
+      const page2 = await agent
+        .get(`/api/books/${bookId}/chapters?limit=2&cursor=${page1.body.data.nextCursor}`)
+        .expect(200);
+
+      expect(page2.body.data.chapters.map((c: any) => c.title)).toEqual(['Ch 3']);
+      expect(page2.body.data.nextCursor).toBeNull();
+      expect(page2.body.data.total).toBeUndefined();
+      expect(page2.body.data.offset).toBeUndefined();
+    });
+
+    it('should list content metadata without the content', async () => {
+      const { agent, bookId } = await createBookWithAgent(app);
+
+      const created = await agent
+        .post(`/api/books/${bookId}/chapters`)
+        .send({ title: 'Ch 1', htmlContent: '<p>Hello world</p>' })
+        .expect(201);
+      await agent.post(`/api/books/${bookId}/chapters`).send({ title: 'Ch 2' }).expect(201);
+
+      const before = await agent.get(`/api/books/${bookId}/chapters`).expect(200);
+      const [first, second] = before.body.data.chapters;
+
+      expect(first).not.toHaveProperty('htmlContent');
+      expect(first).toMatchObject({ hasHtmlContent: true, contentLength: 18, wordCount: 2 });
+      expect(first.contentHash).toMatch(/^[0-9a-f]{64}$/);
+      expect(second).toMatchObject({ hasHtmlContent: false, contentLength: 0, wordCount: 0, contentHash: null });
+
+      await agent
+        .patch(`/api/books/${bookId}/chapters/${created.body.data.id}`)
+        .send({ htmlContent: '<p>Hello brave new world</p>' })
+        .expect(200);
+
+      const after = await agent.get(`/api/books/${bookId}/chapters`).expect(200);
+      expect(after.body.data.chapters[0].wordCount).toBe(4);
+      expect(after.body.data.chapters[0].contentHash).not.toBe(first.contentHash);
+    });
+
     it('should require authentication', async () => {
       await request(app)
         .get('/api/v1/books/00000000-0000-0000-0000-000000000000/chapters')
@@ -153,6 +203,84 @@ describe('Chapters API', () => {
 
       expect(res.body.data.html).toBe('<h1>Title</h1><p>Body text</p>');
     });
+
+    it('should return 304 when If-None-Match matches the ETag', async () => {
+      const { agent, bookId } = await createBookWithAgent(app);
+
+      const createRes = await agent
+        .post(`/api/books/${bookId}/chapters`)
+        .send({ title: 'Cached', htmlContent: '<p>Cached body</p>' })
+        .expect(201);
+      const url = `/api/books/${bookId}/chapters/${createRes.body.data.id}/content`;
+
+      const first = await agent.get(url).expect(200);
+      const etag = first.headers.etag;
+      expect(etag).toMatch(/^"/);
+
+      await agent.get(url).set('If-None-Match', etag).expect(304);
+    });
+
+    it('should return raw HTML for Accept: text/html', async () => {
+      const { agent, bookId } = await createBookWithAgent(app);
+
+      const createRes = await agent
+        .post(`/api/books/${bookId}/chapters`)
+        .send({ title: 'Raw', htmlContent: '<p>Привет, мир</p>' })
+        .expect(201);
+
+      const res = await agent
+        .get(`/api/books/${bookId}/chapters/${createRes.body.data.id}/content`)
+        .set('Accept', 'text/html')
+        .set('Accept-Encoding', 'identity')
+        .expect(200);
+
+      expect(res.headers['content-type']).toContain('text/html');
+      expect(res.headers['content-length']).toBe(String(Buffer.byteLength('<p>Привет, мир</p>')));
+      expect(res.headers.vary).toContain('Accept');
+      expect(res.text).toBe('<p>Привет, мир</p>');
+    });
+
+    it('should compress large raw HTML per Accept-Encoding', async () => {
+      const { agent, bookId } = await createBookWithAgent(app);
+      const html = `<p>${'Длинный текст главы. '.repeat(200)}</p>`;
+
+      const createRes = await agent
+        .post(`/api/books/${bookId}/chapters`)
+        .send({ title: 'Large', htmlContent: html })
+        .expect(201);
+
+      const res = await agent
+        .get(`/api/books/${bookId}/chapters/${createRes.body.data.id}/content`)
+        .set('Accept', 'text/html')
+        .set('Accept-Encoding', 'gzip')
+        .expect(200);
+
+      expect(res.headers['content-encoding']).toBe('gzip');
+      expect(Number(res.headers['content-length'])).toBeLessThan(Buffer.byteLength(html));
+      expect(res.text).toBe(html);
+    });
+
+    it('should change the ETag after the chapter is updated', async () => {
+      const { agent, bookId } = await createBookWithAgent(app);
+
+      const createRes = await agent
+        .post(`/api/books/${bookId}/chapters`)
+        .send({ title: 'Versioned', htmlContent: '<p>v1</p>' })
+        .expect(201);
+      const chapterId = createRes.body.data.id;
+      const url = `/api/books/${bookId}/chapters/${chapterId}/content`;
+
+      const first = await agent.get(url).expect(200);
+
+      await agent
+        .patch(`/api/books/${bookId}/chapters/${chapterId}`)
+        .send({ htmlContent: '<p>v2</p>' })
+        .expect(200);
+
+      const second = await agent.get(url).set('If-None-Match', first.headers.etag).expect(200);
+      expect(second.body.data.html).toBe('<p>v2</p>');
+      expect(second.headers.etag).not.toBe(first.headers.etag);
+    });
   });
 
   describe('PATCH /api/books/:bookId/chapters/:chapterId', () => {
@@ -0,0 +1,51 @@
+import { describe, it, expect, vi } from 'vitest';
+import { EventEmitter } from 'node:events';
+
+// Load the metrics module as it would be inside cluster worker #3
+vi.mock('node:cluster', () => ({
+  default: { isWorker: true, isPrimary: false, worker: { id: 3 } },
+}));
+
+const { register, collectMetrics, httpRequestsTotal, CLUSTER_METRICS_MESSAGE } = await import('../src/middleware/metrics.js');
+
+/** Stand-in for the IPC channel to the primary, replying with `answer` */
+function createPrimary(answer: (id: number) => Record<string, unknown>) {
+  const channel = new EventEmitter();
+  const send = vi.fn((message: { type: string; id: number }) => {
+    setImmediate(() => channel.emit('message', { type: CLUSTER_METRICS_MESSAGE, id: message.id, ...answer(message.id) }));
+    return true;
+  });
+  return Object.assign(channel, { send });
+}
+
+describe('metrics in a cluster worker', () => {
+  it('should label every series with the worker id', async () => {
+    httpRequestsTotal.inc({ method: 'GET', route: '/api/v1/books', status_code: '200' });
+    expect(await register.metrics()).toMatch(/http_requests_total\{[^}]*worker="3"/);
+  });
+
+  it('should answer scrapes with the cluster-wide metrics from the primary', async () => {
+    const primary = createPrimary(() => ({
+      contentType: 'text/plain; version=0.0.4; charset=utf-8',
+      body: 'up{worker="1"} 1\nup{worker="3"} 1\n',
+    }));
+
+    const result = await collectMetrics(primary);
+
+    expect(primary.send).toHaveBeenCalledWith(expect.objectContaining({ type: CLUSTER_METRICS_MESSAGE }));
+    expect(result.body).toContain('up{worker="1"} 1');
+    expect(result.contentType).toContain('text/plain');
+    expect(primary.listenerCount('message')).toBe(0);
+  });
+
+  it('should ignore replies meant for another scrape', async () => {
+    const primary = createPrimary((id) => ({ body: `scrape ${id}` }));
+    const [a, b] = await Promise.all([collectMetrics(primary), collectMetrics(primary)]);
+    expect(a.body).not.toBe(b.body);
+  });
+
+  it('should fail the scrape when the primary reports an error', async () => {
+    const primary = createPrimary(() => ({ error: 'Operation timed out.' }));
+    await expect(collectMetrics(primary)).rejects.toThrow('Operation timed out.');
+  });
+});
@@ -0,0 +1,110 @@
+import { describe, it, expect, beforeEach } from 'vitest';
+import { gunzipSync, brotliDecompressSync } from 'node:zlib';
+import { ChapterContentCache, computeContentEtag } from '../src/utils/contentCache.js';
+import { register } from '../src/middleware/metrics.js';
+
+const T1 = new Date('2026-03-01T00:00:00Z');
+const T2 = new Date('2026-03-02T00:00:00Z');
+
+describe('ChapterContentCache', () => {
+  beforeEach(() => {
+    register.resetMetrics();
+  });
+
+  it('should return cached entry for the same version', () => {
+    const cache = new ChapterContentCache(1024);
+    cache.set('ch1', T1, '<p>Hello</p>');
+
+    const entry = cache.get('ch1', T1);
+    expect(entry?.html).toBe('<p>Hello</p>');
+    expect(entry?.etag).toBe(computeContentEtag('<p>Hello</p>'));
+  });
+
+  it('should miss and drop the entry when updatedAt changed', () => {
+    const cache = new ChapterContentCache(1024);
+    cache.set('ch1', T1, '<p>Old</p>');
+
+    expect(cache.get('ch1', T2)).toBeNull();
+    expect(cache.size).toBe(0);
+    expect(cache.bytes).toBe(0);
+  });
+
+  it('should account size in UTF-8 bytes', () => {
+    const cache = new ChapterContentCache(1024);
+    cache.set('ch1', T1, 'Привет'); // 6 Cyrillic chars = 12 bytes
+    expect(cache.bytes).toBe(12);
+  });
+
+  it('should evict least recently used entries when over budget', () => {
+    const cache = new ChapterContentCache(10);
+    cache.set('a', T1, 'aaaa');
+    cache.set('b', T1, 'bbbb');
+    cache.get('a', T1); // touch "a" so "b" becomes the oldest
+    cache.set('c', T1, 'cccc');
+
+    expect(cache.get('b', T1)).toBeNull();
+    expect(cache.get('a', T1)).not.toBeNull();
+    expect(cache.get('c', T1)).not.toBeNull();
+    expect(cache.bytes).toBe(8);
+  });
+
+  it('should not retain entries larger than the whole budget', () => {
+    const cache = new ChapterContentCache(4);
+    const entry = cache.set('big', T1, 'too large');
+
+    expect(entry.html).toBe('too large');
+    expect(cache.size).toBe(0);
+  });
+
+  it('should release memory on invalidate', () => {
+    const cache = new ChapterContentCache(1024);
+    cache.set('ch1', T1, '<p>x</p>');
+    cache.invalidate('ch1');
+
+    expect(cache.size).toBe(0);
+    expect(cache.bytes).toBe(0);
+  });
+
+  it('should build and retain compressed variants', async () => {
+    const cache = new ChapterContentCache(1024 * 1024);
+    const html = '<p>текст</p>'.repeat(100);
+    const entry = cache.set('ch1', T1, html);
+
+    const gz = await cache.encode(entry, 'gzip');
+    const br = await cache.encode(entry, 'br');
+
+    expect(gunzipSync(gz).toString('utf8')).toBe(html);
+    expect(brotliDecompressSync(br).toString('utf8')).toBe(html);
+    expect(await cache.encode(entry, 'gzip')).toBe(gz);
+    expect(cache.bytes).toBe(entry.bytes + gz.length + br.length);
+  });
+
+  it('should reuse and count variants passed in with the content', async () => {
+    const cache = new ChapterContentCache(1024 * 1024);
+    const stored = Buffer.from('stored brotli body');
+    const entry = cache.set('ch1', T1, '<p>x</p>', { br: stored });
+
+    expect(await cache.encode(entry, 'br')).toBe(stored);
+    expect(cache.bytes).toBe(entry.bytes + stored.length);
+  });
+
+  it('should cache null content as an empty representation', () => {
+    const cache = new ChapterContentCache(1024);
+    cache.set('empty', T1, null);
+
+    const entry = cache.get('empty', T1);
+    expect(entry).not.toBeNull();
+    expect(entry?.html).toBeNull();
+    expect(entry?.bytes).toBe(0);
+  });
+});
+
+describe('computeContentEtag', () => {
+  it('should produce a quoted strong validator', () => {
+    expect(computeContentEtag('<p>x</p>')).toMatch(/^"[A-Za-z0-9_-]+"$/);
+  });
+
+  it('should differ for different content', () => {
+    expect(computeContentEtag('<p>a</p>')).not.toBe(computeContentEtag('<p>b</p>'));
+  });
+});
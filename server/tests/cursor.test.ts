@@ -0,0 +1,52 @@
+import { describe, it, expect, vi } from 'vitest';
+import {
+  encodeCursor,
+  decodeDateCursor,
+  decodeIntCursor,
+  cachedCount,
+} from '../src/utils/cursor.js';
+
+const ID = '123e4567-e89b-12d3-a456-426614174000';
+
+describe('pagination cursors', () => {
+  it('should round-trip a date cursor', () => {
+    const at = new Date('2026-03-01T12:00:00.000Z');
+    const { key, id } = decodeDateCursor(encodeCursor(at, ID));
+
+    expect(key.getTime()).toBe(at.getTime());
+    expect(id).toBe(ID);
+  });
+
+  it('should round-trip an integer cursor', () => {
+    expect(decodeIntCursor(encodeCursor(7, ID))).toEqual({ key: 7, id: ID });
+  });
+
+  it('should produce URL-safe tokens', () => {
+    expect(encodeCursor(new Date(), ID)).toMatch(/^[A-Za-z0-9_-]+$/);
+  });
+
+  it('should reject garbage and mismatched key types', () => {
+    expect(() => decodeIntCursor('not-a-cursor')).toThrow('Invalid pagination cursor');
+    expect(() => decodeIntCursor(encodeCursor(new Date(), ID))).toThrow('Invalid pagination cursor');
+    expect(() => decodeDateCursor(encodeCursor(3, ID))).toThrow('Invalid pagination cursor');
+    expect(() => decodeDateCursor(encodeCursor(new Date(), 'nope'))).toThrow('Invalid pagination cursor');
+  });
+});
+
+describe('cachedCount', () => {
+  it('should reuse a count within its TTL', async () => {
+    const count = vi.fn(async () => 42);
+
+    expect(await cachedCount('test:reuse', 60_000, count)).toBe(42);
+    expect(await cachedCount('test:reuse', 60_000, count)).toBe(42);
+    expect(count).toHaveBeenCalledTimes(1);
+  });
+
+  it('should recount after expiry', async () => {
+    const count = vi.fn(async () => 1);
+
+    await cachedCount('test:expiry', 0, count);
+    await cachedCount('test:expiry', 0, count);
+    expect(count).toHaveBeenCalledTimes(2);
+  });
+});
@@ -0,0 +1,19 @@
+// Worker script for tests/workerPool.test.ts — follows the WorkerPool protocol
+import { parentPort } from 'node:worker_threads';
+
+parentPort.on('message', ({ id, job }) => {
+  if (job.op === 'echo') {
+    parentPort.postMessage({ id, ok: true, value: job.value });
+  } else if (job.op === 'fail') {
+    parentPort.postMessage({ id, ok: false, error: { message: 'bad input', statusCode: 422, code: 'PARSE_ERROR' } });
+  } else if (job.op === 'spin') {
+    // Blocks this thread for good; only terminate() can stop it
+    for (;;) { /* busy */ }
+  } else if (job.op === 'delay') {
+    setTimeout(() => parentPort.postMessage({ id, ok: true, value: job.value }), job.ms);
+  } else if (job.op === 'crash') {
+    throw new Error('boom');
+  }
+});
+
+parentPort.postMessage({ ready: true });
@@ -1,6 +1,8 @@
 import { type Express } from 'express';
 import request from 'supertest';
 import { getPrisma } from '../src/utils/prisma.js';
+import { closeCacheStore } from '../src/utils/cache.js';
+import { clearBookOwnershipCache } from '../src/utils/ownership.js';
 
 type TestAgent = ReturnType<typeof request.agent>;
 
@@ -64,8 +66,11 @@ export async function createAuthenticatedAgent(
  */
 export async function cleanDatabase() {
   const prisma = getPrisma();
+  clearBookOwnershipCache();
 
   // Delete in order respecting foreign key constraints
+  await prisma.readingStatsDaily.deleteMany();
+  await prisma.readingStats.deleteMany();
   await prisma.readingSession.deleteMany();
   await prisma.readingPreferences.deleteMany();
   await prisma.readingProgress.deleteMany();
@@ -82,4 +87,6 @@ export async function cleanDatabase() {
   // Clean session table (managed by connect-pg-simple, not Prisma)
   // Table may not exist in test environments where the session store hasn't initialized
   await prisma.$executeRawUnsafe('DELETE FROM "session"').catch(() => {});
+  // Recreated users/books reuse usernames and slugs across tests
+  await closeCacheStore();
 }
@@ -16,6 +16,7 @@ import {
   mapBookToPublicCard,
   mapBookToListItem,
 } from '../src/utils/mappers.js';
+import { computeChapterMetadata } from '../src/utils/chapterMetadata.js';
 
 describe('Mappers', () => {
   // ── mapAppearanceToDto ───────────────────────────────────────
@@ -156,34 +157,38 @@ describe('Mappers', () => {
   describe('mapChapterToListItem', () => {
     it('should map chapter to list item with hasHtmlContent', () => {
       const chapter = {
-        id: 'c1', bookId: 'b1', title: 'Chapter 1',
+        id: 'c1', title: 'Chapter 1',
         position: 0, filePath: null,
-        htmlContent: '<p>Content</p>',
+        ...computeChapterMetadata('<p>Some content</p>'),
         bg: '/images/bg.jpg', bgMobile: '/images/bg-m.jpg',
       };
 
-      const dto = mapChapterToListItem(chapter as any);
+      const dto = mapChapterToListItem(chapter);
 
       expect(dto.id).toBe('c1');
       expect(dto.title).toBe('Chapter 1');
       expect(dto.position).toBe(0);
       expect(dto.filePath).toBeNull();
       expect(dto.hasHtmlContent).toBe(true);
+      expect(dto.contentLength).toBe(19);
+      expect(dto.contentHash).toMatch(/^[0-9a-f]{64}$/);
+      expect(dto.wordCount).toBe(2);
       expect(dto.bg).toBe('/images/bg.jpg');
       expect(dto.bgMobile).toBe('/images/bg-m.jpg');
     });
 
     it('should set hasHtmlContent to false when htmlContent is null', () => {
       const chapter = {
-        id: 'c2', bookId: 'b1', title: 'Chapter 2',
+        id: 'c2', title: 'Chapter 2',
         position: 1, filePath: '/content/ch2.html',
-        htmlContent: null,
+        ...computeChapterMetadata(null),
         bg: '', bgMobile: '',
       };
 
-      const dto = mapChapterToListItem(chapter as any);
+      const dto = mapChapterToListItem(chapter);
 
       expect(dto.hasHtmlContent).toBe(false);
+      expect(dto.contentHash).toBeNull();
     });
   });
 
@@ -193,6 +198,7 @@ describe('Mappers', () => {
         id: 'c1', bookId: 'b1', title: 'Chapter 1',
         position: 0, filePath: null,
         htmlContent: '<p>Full content here</p>',
+        ...computeChapterMetadata('<p>Full content here</p>'),
         bg: '', bgMobile: '',
       };
 
@@ -6,7 +6,12 @@ import {
   httpRequestDuration,
   httpRequestsTotal,
   httpRequestsInFlight,
+  dbQueryDuration,
+  activeSessionsGauge,
+  setActiveSessionsSource,
 } from '../src/middleware/metrics.js';
+import { instrumentSessionStore } from '../src/utils/sessionStore.js';
+import session from 'express-session';
 
 function createMockReqRes(path = '/api/v1/books', method = 'GET') {
   const finishHandlers: Array<() => void> = [];
@@ -14,6 +19,8 @@ function createMockReqRes(path = '/api/v1/books', method = 'GET') {
   const req = {
     path,
     method,
+    baseUrl: '',
+    params: {},
   } as unknown as Request;
 
   const res = {
@@ -87,29 +94,67 @@ describe('Metrics Middleware', () => {
     expect(metric.values.length).toBeGreaterThan(0);
   });
 
-  it('should normalize UUIDs in route paths', async () => {
-    const { req, res, next, triggerFinish } = createMockReqRes(
-      '/api/v1/books/550e8400-e29b-41d4-a716-446655440000/chapters',
-    );
+  it('should label by the matched route template', async () => {
+    const bookId = '550e8400-e29b-41d4-a716-446655440000';
+    const { req, res, next, triggerFinish } = createMockReqRes(`/api/v1/books/${bookId}/chapters/7`);
 
     metricsMiddleware(req, res, next);
+    // What Express does when a router mounted at /api/v1/books/:bookId/chapters matches
+    Object.assign(req, { baseUrl: `/api/v1/books/${bookId}/chapters`, params: { bookId, chapterId: '7' } });
+    (req as unknown as { route: { path: string } }).route = { path: '/:chapterId' };
+    // An error handler outside the router sees a different baseUrl; the label must not change
+    Object.assign(req, { baseUrl: '' });
     triggerFinish();
 
     const metric = await httpRequestsTotal.get();
-    const entry = metric.values.find((v) => v.labels.route?.includes('/:id/'));
-    expect(entry).toBeDefined();
-    expect(entry!.labels.route).toBe('/api/v1/books/:id/chapters');
+    expect(metric.values.map((v) => v.labels.route)).toEqual(['/api/v1/books/:bookId/chapters/:chapterId']);
+  });
+
+  it('should keep one series per public shelf route regardless of username', async () => {
+    for (const username of ['alice', 'bob']) {
+      const { req, res, next, triggerFinish } = createMockReqRes(`/api/v1/public/shelves/${username}`);
+      metricsMiddleware(req, res, next);
+      Object.assign(req, { baseUrl: '/api/v1/public', params: { username } });
+      (req as unknown as { route: { path: string } }).route = { path: '/shelves/:username' };
+      triggerFinish();
+    }
+
+    const metric = await httpRequestsTotal.get();
+    expect(metric.values).toHaveLength(1);
+    expect(metric.values[0]).toMatchObject({ labels: { route: '/api/v1/public/shelves/:username' }, value: 2 });
   });
 
-  it('should normalize numeric IDs in route paths', async () => {
+  it('should fall back to :id for ids missing from req.params', async () => {
     const { req, res, next, triggerFinish } = createMockReqRes('/api/v1/items/42');
 
     metricsMiddleware(req, res, next);
+    Object.assign(req, { baseUrl: '/api/v1/items/42' });
+    (req as unknown as { route: { path: string } }).route = { path: '/' };
     triggerFinish();
 
     const metric = await httpRequestsTotal.get();
-    const entry = metric.values.find((v) => v.labels.route === '/api/v1/items/:id');
-    expect(entry).toBeDefined();
+    expect(metric.values[0].labels.route).toBe('/api/v1/items/:id');
+  });
+
+  it('should label requests no route handled as unmatched', async () => {
+    const { req, res, next, triggerFinish } = createMockReqRes('/wp-login.php');
+    res.statusCode = 404;
+
+    metricsMiddleware(req, res, next);
+    triggerFinish();
+
+    const metric = await httpRequestsTotal.get();
+    expect(metric.values[0].labels.route).toBe('unmatched');
+  });
+
+  it('should attach the request id as an exemplar', async () => {
+    const { req, res, next, triggerFinish } = createMockReqRes();
+    metricsMiddleware(req, res, next);
+    Object.assign(req, { id: 'req-123' });
+    triggerFinish();
+
+    const text = await register.metrics();
+    expect(text).toMatch(/http_request_duration_seconds_bucket\{[^}]*\} 1 # \{request_id="req-123"\}/);
   });
 
   it('should track status code label', async () => {
@@ -133,3 +178,35 @@ describe('Metrics Middleware', () => {
     expect(names).toContain('http_requests_in_flight');
   });
 });
+
+describe('Session store instrumentation', () => {
+  beforeEach(() => {
+    register.resetMetrics();
+  });
+
+  it('should time store calls and pass results through', async () => {
+    const store = new session.MemoryStore();
+    instrumentSessionStore(store);
+
+    const sess = { cookie: { originalMaxAge: 60_000 } } as session.SessionData;
+    await new Promise<void>((resolve, reject) => store.set('sid', sess, (err) => (err ? reject(err) : resolve())));
+    const loaded = await new Promise((resolve, reject) => store.get('sid', (err, s) => (err ? reject(err) : resolve(s))));
+
+    expect(loaded).toMatchObject({ cookie: { originalMaxAge: 60_000 } });
+    const values = (await dbQueryDuration.get()).values
+      .filter((v) => v.metricName === 'db_query_duration_seconds_count' && v.labels.model === 'session');
+    expect(values.map((v) => [v.labels.operation, v.labels.result, v.value])).toEqual(
+      expect.arrayContaining([['set', 'success', 1], ['get', 'success', 1]]),
+    );
+  });
+
+  it('should report active sessions from the configured source', async () => {
+    setActiveSessionsSource(async () => 7);
+    try {
+      const metric = await activeSessionsGauge.get();
+      expect(metric.values[0].value).toBe(7);
+    } finally {
+      setActiveSessionsSource(null);
+    }
+  });
+});
@@ -1,5 +1,10 @@
 import { describe, it, expect, vi, beforeEach } from 'vitest';
-import { verifyBookOwnership } from '../src/utils/ownership.js';
+import {
+  verifyBookOwnership,
+  verifyBookReadable,
+  forgetBookOwnership,
+  clearBookOwnershipCache,
+} from '../src/utils/ownership.js';
 import { AppError } from '../src/middleware/errorHandler.js';
 
 vi.mock('../src/utils/prisma.js', () => ({
@@ -17,6 +22,7 @@ describe('verifyBookOwnership', () => {
 
   beforeEach(() => {
     vi.clearAllMocks();
+    clearBookOwnershipCache();
     mockFindFirst = vi.fn();
     vi.mocked(getPrisma).mockReturnValue({
       book: { findFirst: mockFindFirst },
@@ -30,7 +36,7 @@ describe('verifyBookOwnership', () => {
 
     expect(mockFindFirst).toHaveBeenCalledWith({
       where: { id: 'book-1', deletedAt: null },
-      select: { userId: true },
+      select: { userId: true, visibility: true },
     });
   });
 
@@ -65,4 +71,44 @@ describe('verifyBookOwnership', () => {
       }),
     );
   });
+
+  it('should answer repeat checks from the cache', async () => {
+    mockFindFirst.mockResolvedValue({ userId: 'user-1' });
+
+    await verifyBookOwnership('book-1', 'user-1');
+    await verifyBookOwnership('book-1', 'user-1');
+    await expect(verifyBookOwnership('book-1', 'user-2')).rejects.toMatchObject({ statusCode: 403 });
+
+    expect(mockFindFirst).toHaveBeenCalledTimes(1);
+  });
+
+  it('should not cache missing books', async () => {
+    mockFindFirst.mockResolvedValue(null);
+    await expect(verifyBookOwnership('book-1', 'user-1')).rejects.toMatchObject({ statusCode: 404 });
+
+    mockFindFirst.mockResolvedValue({ userId: 'user-1' });
+    await expect(verifyBookOwnership('book-1', 'user-1')).resolves.toBeUndefined();
+  });
+
+  it('should query again after the book is forgotten', async () => {
+    mockFindFirst.mockResolvedValue({ userId: 'user-1' });
+    await verifyBookOwnership('book-1', 'user-1');
+
+    forgetBookOwnership('book-1');
+    mockFindFirst.mockResolvedValue(null);
+
+    await expect(verifyBookOwnership('book-1', 'user-1')).rejects.toMatchObject({ statusCode: 404 });
+    expect(mockFindFirst).toHaveBeenCalledTimes(2);
+  });
+
+  it('should let other readers reach a book that is not a draft', async () => {
+    mockFindFirst.mockResolvedValue({ userId: 'user-2', visibility: 'published' });
+    await expect(verifyBookReadable('book-1', 'user-1')).resolves.toBeUndefined();
+    // Still not theirs to edit
+    await expect(verifyBookOwnership('book-1', 'user-1')).rejects.toMatchObject({ statusCode: 403 });
+
+    mockFindFirst.mockResolvedValue({ userId: 'user-2', visibility: 'draft' });
+    await expect(verifyBookReadable('book-2', 'user-1')).rejects.toMatchObject({ statusCode: 403 });
+    await expect(verifyBookReadable('book-2', 'user-2')).resolves.toBeUndefined();
+  });
 });
@@ -1,13 +1,15 @@
 import { describe, it, expect } from 'vitest';
-import { readFileSync } from 'node:fs';
+import { readFileSync, writeFileSync, mkdtempSync, rmSync } from 'node:fs';
+import { tmpdir } from 'node:os';
 import { join, dirname } from 'node:path';
 import { fileURLToPath } from 'node:url';
 import JSZip from 'jszip';
-import { parseBook } from '../src/parsers/BookParser.js';
+import { parseBook, parseBookFromFile } from '../src/parsers/BookParser.js';
 import { parseTxt } from '../src/parsers/TxtParser.js';
 import { parseFb2 } from '../src/parsers/Fb2Parser.js';
 import { parseDocx } from '../src/parsers/DocxParser.js';
-import { parseEpub } from '../src/parsers/EpubParser.js';
+import { parseEpub, parseEpubFile } from '../src/parsers/EpubParser.js';
+import { ZipFileReader } from '../src/parsers/ZipFileReader.js';
 import { parseDoc } from '../src/parsers/DocParser.js';
 import { escapeHtml, parseXml, parseHtml, getTextContent } from '../src/parsers/parserUtils.js';
 import {
@@ -21,6 +23,38 @@ import {
 const __dirname = dirname(fileURLToPath(import.meta.url));
 const fixturesDir = join(__dirname, 'fixtures');
 
+/** Write a buffer to a temp file (disk-based parsers read what multer leaves on disk) */
+function writeTemp(buf: Buffer, name: string): { path: string; cleanup: () => void } {
+  const dir = mkdtempSync(join(tmpdir(), 'parsers-test-'));
+  const path = join(dir, name);
+  writeFileSync(path, buf);
+  return { path, cleanup: () => rmSync(dir, { recursive: true, force: true }) };
+}
+
+/** Minimal EPUB with two spine documents; the second references an image */
+async function buildIllustratedEpub(): Promise<Buffer> {
+  const zip = new JSZip();
+  zip.file('mimetype', 'application/epub+zip');
+  zip.file('META-INF/container.xml', `<?xml version="1.0"?>
+<container xmlns="urn:oasis:names:tc:opendocument:xmlns:container">
+  <rootfiles><rootfile full-path="OEBPS/content.opf" media-type="application/oebps-package+xml"/></rootfiles>
+</container>`);
+  zip.file('OEBPS/content.opf', `<?xml version="1.0"?>
+<package xmlns="http://www.idpf.org/2007/opf" version="3.0">
+  <metadata xmlns:dc="http://purl.org/dc/elements/1.1/"><dc:title>Illustrated</dc:title></metadata>
+  <manifest>
+    <item id="c1" href="text/one.xhtml" media-type="application/xhtml+xml"/>
+    <item id="c2" href="text/two.xhtml" media-type="application/xhtml+xml"/>
+    <item id="img" href="images/pic.png" media-type="image/png"/>
+  </manifest>
+  <spine><itemref idref="c1"/><itemref idref="c2"/></spine>
+</package>`);
+  zip.file('OEBPS/text/one.xhtml', '<html><body><h1>One</h1><p>First text</p></body></html>');
+  zip.file('OEBPS/text/two.xhtml', '<html><body><h1>Two</h1><p>Look <img src="../images/pic.png"/></p></body></html>');
+  zip.file('OEBPS/images/pic.png', Buffer.from([0x89, 0x50, 0x4e, 0x47, 1, 2, 3]));
+  return zip.generateAsync({ type: 'nodebuffer', compression: 'DEFLATE' });
+}
+
 // ══════════════════════════════════════════════════════════════════
 // parserUtils
 // ══════════════════════════════════════════════════════════════════
@@ -493,6 +527,83 @@ describe('EpubParser', () => {
   });
 });
 
+describe('parseEpubFile', () => {
+  it('should produce the same book as the in-memory parser', async () => {
+    const buf = readFileSync(join(fixturesDir, 'sample.epub'));
+    const fromFile = await parseEpubFile(join(fixturesDir, 'sample.epub'), 'sample.epub');
+
+    expect(fromFile).toEqual(await parseEpub(buf, 'sample.epub'));
+  });
+
+  it('should inline images referenced by a chapter', async () => {
+    const buf = await buildIllustratedEpub();
+    const tmp = writeTemp(buf, 'illustrated.epub');
+    try {
+      const result = await parseEpubFile(tmp.path, 'illustrated.epub');
+
+      expect(result.title).toBe('Illustrated');
+      expect(result.chapters.map(c => c.id)).toEqual(['chapter_1', 'chapter_2']);
+      const pngDataUrl = `data:image/png;base64,${Buffer.from([0x89, 0x50, 0x4e, 0x47, 1, 2, 3]).toString('base64')}`;
+      expect(result.chapters[1].html).toContain(`<img src="${pngDataUrl}"`);
+      expect(result).toEqual(await parseEpub(buf, 'illustrated.epub'));
+    } finally {
+      tmp.cleanup();
+    }
+  });
+
+  it('should be used by parseBookFromFile for .epub', async () => {
+    const result = await parseBookFromFile(join(fixturesDir, 'sample.epub'), 'sample.epub');
+    expect(result.title).toBe('Test EPUB Book');
+  });
+
+  it('should wrap non-ZIP input as AppError 422', async () => {
+    const tmp = writeTemp(Buffer.from('definitely not a zip archive'), 'broken.epub');
+    try {
+      await expect(parseBookFromFile(tmp.path, 'broken.epub')).rejects.toMatchObject({
+        statusCode: 422,
+        code: 'PARSE_ERROR',
+      });
+    } finally {
+      tmp.cleanup();
+    }
+  });
+});
+
+describe('ZipFileReader', () => {
+  it('should list entries and inflate them one at a time', async () => {
+    const zip = new JSZip();
+    zip.file('a.txt', 'привет '.repeat(1000));
+    zip.file('dir/b.bin', Buffer.from([1, 2, 3]));
+    const tmp = writeTemp(await zip.generateAsync({ type: 'nodebuffer', compression: 'DEFLATE' }), 'a.zip');
+    const reader = await ZipFileReader.open(tmp.path);
+    try {
+      expect(reader.file('a.txt')).not.toBeNull();
+      expect(reader.file('dir/')).toBeNull();
+      expect(await reader.file('a.txt')!.async('string')).toBe('привет '.repeat(1000));
+      expect(await reader.file('dir/b.bin')!.async('base64')).toBe('AQID');
+      expect(findZipFile(reader, 'A.TXT')?.name).toBe('a.txt');
+    } finally {
+      await reader.close();
+      tmp.cleanup();
+    }
+  });
+
+  it('should reject archives whose declared size exceeds the limit', async () => {
+    const zip = new JSZip();
+    zip.file('a.txt', 'x');
+    const buf = await zip.generateAsync({ type: 'nodebuffer' });
+    // Patch the central directory's uncompressed size to ~4 GB
+    const cd = buf.lastIndexOf(Buffer.from([0x50, 0x4b, 0x01, 0x02]));
+    buf.writeUInt32LE(0xfffffffe, cd + 24);
+    const tmp = writeTemp(buf, 'bomb.zip');
+    try {
+      await expect(ZipFileReader.open(tmp.path)).rejects.toThrow(/превышает лимит/);
+    } finally {
+      tmp.cleanup();
+    }
+  });
+});
+
 // ══════════════════════════════════════════════════════════════════
 // DocParser
 // ══════════════════════════════════════════════════════════════════
@@ -53,6 +53,17 @@ describe('Profile API', () => {
       expect(res.body.data.displayName).toBe('New Name');
     });
 
+    it('should show the update in the session user right away', async () => {
+      const { agent } = await createAuthenticatedAgent(app, { username: 'cached-name' });
+      // Warm the session user cache
+      await agent.get('/api/v1/auth/me').expect(200);
+
+      await agent.put('/api/v1/profile').send({ displayName: 'Renamed' }).expect(200);
+
+      const res = await agent.get('/api/v1/auth/me').expect(200);
+      expect(res.body.data.user.displayName).toBe('Renamed');
+    });
+
     it('should update username', async () => {
       const { agent } = await createAuthenticatedAgent(app, { username: 'old-name' });
 
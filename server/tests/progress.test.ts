@@ -2,6 +2,7 @@ import { describe, it, expect, beforeEach } from 'vitest';
 import request from 'supertest';
 import { createApp } from '../src/app.js';
 import { cleanDatabase, createAuthenticatedAgent } from './helpers.js';
+import { getPrisma } from '../src/utils/prisma.js';
 
 const app = createApp();
 const progressData = { page: 42, font: 'georgia', fontSize: 18, theme: 'dark', soundEnabled: true, soundVolume: 0.5, ambientType: 'rain', ambientVolume: 0.3 };
@@ -46,6 +47,24 @@ describe('Reading Progress API', () => {
     expect(res.body.data.progress.page).toBe(42);
   });
 
+  it('should reject a stale write against a queued update', async () => {
+    const { agent, bookId } = await createBookWithAgent();
+    const before = new Date(Date.now() - 60_000).toUTCString();
+    await agent.put(`/api/books/${bookId}/progress`).send(progressData).expect(200);
+    const res = await agent.put(`/api/books/${bookId}/progress`)
+      .set('If-Unmodified-Since', before)
+      .send({ ...progressData, page: 7 })
+      .expect(409);
+    expect(res.body.error).toBe('CONFLICT_DETECTED');
+  });
+
+  it('should show queued progress on the bookshelf', async () => {
+    const { agent, bookId } = await createBookWithAgent();
+    await agent.put(`/api/books/${bookId}/progress`).send({ ...progressData, page: 12 }).expect(200);
+    const res = await agent.get('/api/v1/books').expect(200);
+    expect(res.body.data.books[0].readingProgress.page).toBe(12);
+  });
+
   it('should validate required fields', async () => {
     const { agent, bookId } = await createBookWithAgent();
     await agent.put(`/api/books/${bookId}/progress`).send({ page: 0 }).expect(400);
@@ -56,4 +75,31 @@ describe('Reading Progress API', () => {
     const { agent: agent2 } = await createAuthenticatedAgent(app, { email: 'other@example.com' });
     await agent2.put(`/api/books/${bookId}/progress`).send(progressData).expect(403);
   });
+
+  it('should return 404 for a missing book instead of queueing the write', async () => {
+    const { agent } = await createAuthenticatedAgent(app);
+    await agent.put('/api/books/00000000-0000-0000-0000-000000000000/progress').send(progressData).expect(404);
+  });
+
+  it('should let another reader keep progress in a published book', async () => {
+    const { agent, bookId } = await createBookWithAgent();
+    await agent.patch(`/api/v1/books/${bookId}`).send({ visibility: 'published' }).expect(200);
+    const { agent: reader } = await createAuthenticatedAgent(app, { email: 'reader@example.com' });
+
+    await reader.put(`/api/books/${bookId}/progress`).send(progressData).expect(200);
+    const res = await reader.get(`/api/books/${bookId}/progress`).expect(200);
+    expect(res.body.data.progress.page).toBe(42);
+  });
+
+  it('should write a conditional update straight to the database', async () => {
+    const { agent, bookId } = await createBookWithAgent();
+    const res = await agent.put(`/api/books/${bookId}/progress`)
+      .set('If-Unmodified-Since', new Date().toUTCString())
+      .send({ ...progressData, page: 9 })
+      .expect(200);
+
+    const row = await getPrisma().readingProgress.findFirst({ where: { bookId } });
+    expect(row?.page).toBe(9);
+    expect(row?.updatedAt.toISOString()).toBe(res.body.data.updatedAt);
+  });
 });
@@ -2,6 +2,7 @@ import { describe, it, expect, beforeEach } from 'vitest';
 import request from 'supertest';
 import { createApp } from '../src/app.js';
 import { cleanDatabase, createAuthenticatedAgent } from './helpers.js';
+import { MemoryCacheStore, setCacheStore } from '../src/utils/cache.js';
 
 const app = createApp();
 
@@ -170,6 +171,23 @@ describe('Public API', () => {
       expect(res.body.data.htmlContent).toContain('Hello world');
     });
 
+    it('should return 304 when If-None-Match matches the ETag', async () => {
+      const { bookId } = await createUserWithBook({
+        username: 'etag-author',
+        visibility: 'published',
+      });
+
+      const chaptersRes = await request(app)
+        .get(`/api/public/books/${bookId}/chapters`)
+        .expect(200);
+      const url = `/api/public/books/${bookId}/chapters/${chaptersRes.body.data[0].id}/content`;
+
+      const first = await request(app).get(url).expect(200);
+      expect(first.headers['cache-control']).toContain('public');
+
+      await request(app).get(url).set('If-None-Match', first.headers.etag).expect(304);
+    });
+
     it('should return 404 for draft book chapters', async () => {
       const { bookId, agent } = await createUserWithBook({
         username: 'draft-chapter-author',
@@ -244,6 +262,110 @@ describe('Public API', () => {
 
       expect(res.body.data.books).toHaveLength(1);
     });
+
+    it('should page with nextCursor without repeating books', async () => {
+      for (let i = 0; i < 3; i++) {
+        await createUserWithBook({
+          username: `cursor-author${i}`,
+          bookTitle: `Cursor Book ${i}`,
+          visibility: 'published',
+        });
+      }
+
+      const first = await request(app)
+        .get('/api/v1/public/discover?limit=2')
+        .expect(200);
+
+      expect(first.body.data.total).toBe(3);
+      expect(first.body.data.nextCursor).toEqual(expect.any(String));
+
+      const second = await request(app)
+        .get(`/api/v1/public/discover?limit=2&cursor=${first.body.data.nextCursor}&withTotal=true`)
+        .expect(200);
+
+      expect(second.body.data.books).toHaveLength(1);
+      expect(second.body.data.nextCursor).toBeNull();
+      expect(second.body.data.total).toBe(3);
+
+      const titles = [...first.body.data.books, ...second.body.data.books].map((b: any) => b.title);
+      expect(new Set(titles).size).toBe(3);
+    });
+
+    it('should reject a malformed cursor', async () => {
+      await request(app)
+        .get('/api/v1/public/discover?cursor=%7Bbad')
+        .expect(400);
+    });
+  });
+});
+
+describe('Public catalogue cache invalidation', () => {
+  beforeEach(async () => {
+    await cleanDatabase();
+  });
+
+  it('should reflect book and chapter edits on the next public read', async () => {
+    const { agent, bookId } = await createUserWithBook({
+      username: 'cache-author',
+      bookTitle: 'Before',
+      visibility: 'published',
+    });
+
+    await request(app).get(`/api/v1/public/books/${bookId}`).expect(200);
+    await agent.patch(`/api/v1/books/${bookId}`).send({ title: 'After' }).expect(200);
+    await agent.post(`/api/v1/books/${bookId}/chapters`).send({ title: 'Chapter 2' }).expect(201);
+
+    const res = await request(app).get(`/api/v1/public/books/${bookId}`).expect(200);
+    expect(res.body.data.title).toBe('After');
+    expect(res.body.data.chapters).toHaveLength(2);
+  });
+
+  it('should drop a book from shelf and discover once it is unpublished', async () => {
+    const { agent, username, bookId } = await createUserWithBook({
+      username: 'cache-unpublish',
+      visibility: 'published',
+    });
+
+    await request(app).get(`/api/v1/public/shelves/${username}`).expect(200);
+    await request(app).get('/api/v1/public/discover').expect(200);
+    await agent.patch(`/api/v1/books/${bookId}`).send({ visibility: 'draft' }).expect(200);
+
+    const shelf = await request(app).get(`/api/v1/public/shelves/${username}`).expect(200);
+    const discover = await request(app).get('/api/v1/public/discover').expect(200);
+    expect(shelf.body.data.books).toHaveLength(0);
+    expect(discover.body.data.books.map((b: any) => b.id)).not.toContain(bookId);
+    await request(app).get(`/api/v1/public/books/${bookId}`).expect(404);
+  });
+
+  it('should not flush discover or the shelf for edits to a draft', async () => {
+    const store = new MemoryCacheStore();
+    await setCacheStore(store);
+    const { agent, bookId } = await createUserWithBook({ username: 'cache-draft' });
+    const generations = () => store.mget(['flipbook:gen:discover', 'flipbook:gen:author:cache-draft']);
+    const before = await generations();
+
+    await agent.patch(`/api/v1/books/${bookId}`).send({ title: 'Still a draft' }).expect(200);
+    await agent.post(`/api/v1/books/${bookId}/chapters`).send({ title: 'Chapter 2' }).expect(201);
+
+    expect(await generations()).toEqual(before);
+
+    await agent.patch(`/api/v1/books/${bookId}`).send({ visibility: 'published' }).expect(200);
+    const [discover, author] = await generations();
+    expect(discover).not.toBe(before[0]);
+    expect(author).not.toBe(before[1]);
+  });
+
+  it('should reflect profile edits on the shelf', async () => {
+    const { agent, username } = await createUserWithBook({
+      username: 'cache-profile',
+      visibility: 'published',
+    });
+
+    await request(app).get(`/api/v1/public/shelves/${username}`).expect(200);
+    await agent.put('/api/v1/profile').send({ displayName: 'Renamed Author' }).expect(200);
+
+    const res = await request(app).get(`/api/v1/public/shelves/${username}`).expect(200);
+    expect(res.body.data.author.displayName).toBe('Renamed Author');
   });
 });
 
@@ -1,5 +1,60 @@
 import { describe, it, expect, vi, beforeEach, afterEach } from 'vitest';
+import net from 'node:net';
+import { randomUUID } from 'node:crypto';
+import type { Options } from 'express-rate-limit';
 import { createRateLimiter, createAuthRateLimiter, createPublicRateLimiter } from '../src/middleware/rateLimit.js';
+import {
+  SlidingWindowStore,
+  MemoryWindowCounter,
+  PostgresWindowCounter,
+  RespWindowCounter,
+  type WindowCounter,
+} from '../src/utils/rateLimitStore.js';
+import { RespCacheStore, parseReply } from '../src/utils/respCache.js';
+import { register } from '../src/middleware/metrics.js';
+
+const WINDOW_MS = 60_000;
+
+/** Local stand-in for a Redis server: INCR, DECR, GET, PEXPIRE, DEL */
+async function startRespStandIn() {
+  const data = new Map<string, string>();
+  const server = net.createServer((socket) => {
+    let buffer = Buffer.alloc(0);
+    socket.on('data', (chunk) => {
+      buffer = Buffer.concat([buffer, chunk]);
+      for (;;) {
+        const parsed = parseReply(buffer);
+        if (!parsed) break;
+        buffer = buffer.subarray(parsed.next);
+        const [name, ...args] = parsed.value as string[];
+        const cmd = name.toUpperCase();
+        if (cmd === 'INCR' || cmd === 'DECR') {
+          const value = Number(data.get(args[0]) ?? 0) + (cmd === 'INCR' ? 1 : -1);
+          data.set(args[0], String(value));
+          socket.write(`:${value}\r\n`);
+        } else if (cmd === 'GET') {
+          const value = data.get(args[0]);
+          socket.write(value === undefined ? '$-1\r\n' : `$${value.length}\r\n${value}\r\n`);
+        } else if (cmd === 'PEXPIRE') {
+          socket.write(`:${data.has(args[0]) ? 1 : 0}\r\n`);
+        } else if (cmd === 'DEL') {
+          socket.write(`:${args.filter((k) => data.delete(k)).length}\r\n`);
+        } else {
+          socket.write(`-ERR unknown command '${name}'\r\n`);
+        }
+      }
+    });
+  });
+  await new Promise<void>((resolve) => server.listen(0, '127.0.0.1', resolve));
+  const { port } = server.address() as net.AddressInfo;
+  return { port, data, close: () => new Promise<void>((resolve) => server.close(() => resolve())) };
+}
+
+function createStore(counter: WindowCounter, prefix = `rl:test-${randomUUID()}:`) {
+  const store = new SlidingWindowStore(prefix, counter);
+  store.init({ windowMs: WINDOW_MS } as Options);
+  return store;
+}
 
 describe('Rate Limiter Middleware', () => {
   const originalEnv = process.env.NODE_ENV;
@@ -58,3 +113,111 @@ describe('Rate Limiter Middleware', () => {
     });
   });
 });
+
+describe('SlidingWindowStore', () => {
+  afterEach(() => {
+    vi.useRealTimers();
+  });
+
+  it('should count hits within a window', async () => {
+    const counter = new MemoryWindowCounter();
+    const store = createStore(counter);
+
+    expect((await store.increment('1.2.3.4')).totalHits).toBe(1);
+    expect((await store.increment('1.2.3.4')).totalHits).toBe(2);
+    expect((await store.increment('5.6.7.8')).totalHits).toBe(1);
+    await counter.close();
+  });
+
+  it('should weight the previous window by its remaining overlap', async () => {
+    vi.useFakeTimers({ toFake: ['Date'] });
+    const start = Math.ceil(Date.now() / WINDOW_MS) * WINDOW_MS;
+    vi.setSystemTime(start + 1000);
+    const counter = new MemoryWindowCounter();
+    const store = createStore(counter);
+
+    for (let i = 0; i < 10; i++) await store.increment('ip');
+
+    // A quarter into the next window, three quarters of the old hits still count
+    vi.setSystemTime(start + WINDOW_MS + WINDOW_MS / 4);
+    expect((await store.increment('ip')).totalHits).toBe(1 + Math.floor(10 * 0.75));
+
+    // Two windows later the old hits no longer count
+    vi.setSystemTime(start + 3 * WINDOW_MS);
+    expect((await store.increment('ip')).totalHits).toBe(1);
+    await counter.close();
+  });
+
+  it('should take back a hit on decrement and forget a key on reset', async () => {
+    const counter = new MemoryWindowCounter();
+    const store = createStore(counter);
+
+    await store.increment('ip');
+    await store.increment('ip');
+    await store.decrement('ip');
+    expect((await store.increment('ip')).totalHits).toBe(2);
+
+    await store.resetKey('ip');
+    expect((await store.increment('ip')).totalHits).toBe(1);
+    await counter.close();
+  });
+
+  it('should let requests through and count the failure when the counter is down', async () => {
+    const broken: WindowCounter = {
+      backend: 'redis',
+      hit: vi.fn().mockRejectedValue(new Error('down')),
+      undo: vi.fn(),
+      reset: vi.fn(),
+      close: vi.fn(),
+    };
+    const store = createStore(broken);
+
+    expect((await store.increment('ip')).totalHits).toBe(0);
+    const metrics = await register.metrics();
+    expect(metrics).toMatch(/rate_limit_store_errors_total\{backend="redis"\} [1-9]/);
+  });
+
+  it('should share counters between replicas through a Redis-protocol server', async () => {
+    const standIn = await startRespStandIn();
+    const url = `redis://127.0.0.1:${standIn.port}`;
+    const replicaA = new RespWindowCounter(new RespCacheStore(url));
+    const replicaB = new RespWindowCounter(new RespCacheStore(url));
+    const prefix = 'rl:shared:';
+
+    try {
+      await createStore(replicaA, prefix).increment('ip');
+      await createStore(replicaB, prefix).increment('ip');
+      expect((await createStore(replicaA, prefix).increment('ip')).totalHits).toBe(3);
+
+      await createStore(replicaB, prefix).resetKey('ip');
+      expect((await createStore(replicaA, prefix).increment('ip')).totalHits).toBe(1);
+    } finally {
+      await replicaA.close();
+      await replicaB.close();
+      await standIn.close();
+    }
+  });
+
+  it('should share counters between replicas through Postgres', async () => {
+    const replicaA = new PostgresWindowCounter();
+    const replicaB = new PostgresWindowCounter();
+    const prefix = `rl:pg-${randomUUID()}:`;
+
+    try {
+      await createStore(replicaA, prefix).increment('ip');
+      await createStore(replicaB, prefix).increment('ip');
+      expect((await createStore(replicaA, prefix).increment('ip')).totalHits).toBe(3);
+
+      await createStore(replicaB, prefix).decrement('ip');
+      expect((await createStore(replicaA, prefix).increment('ip')).totalHits).toBe(3);
+
+      await createStore(replicaB, prefix).resetKey('ip');
+      expect((await createStore(replicaA, prefix).increment('ip')).totalHits).toBe(1);
+    } finally {
+      await createStore(replicaA, prefix).resetKey('ip');
+      await replicaA.close();
+      await replicaB.close();
+    }
+  });
+});
+
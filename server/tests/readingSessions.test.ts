@@ -2,6 +2,8 @@ import { describe, it, expect, beforeEach } from 'vitest';
 import request from 'supertest';
 import { createApp } from '../src/app.js';
 import { cleanDatabase, createAuthenticatedAgent } from './helpers.js';
+import { getPrisma } from '../src/utils/prisma.js';
+import { rebuildReadingStats } from '../src/services/readingSessions.service.js';
 
 const app = createApp();
 
@@ -65,6 +67,15 @@ describe('Reading Sessions API', () => {
         .expect(400);
     });
 
+    it('should return 404 for a missing book instead of queueing the session', async () => {
+      const { agent } = await createBookWithAgent();
+
+      await agent
+        .post('/api/v1/books/00000000-0000-0000-0000-000000000000/reading-sessions')
+        .send(sessionData)
+        .expect(404);
+    });
+
     it('should validate durationSec max (86400)', async () => {
       const { agent, bookId } = await createBookWithAgent();
 
@@ -160,6 +171,45 @@ describe('Reading Sessions API', () => {
       expect(res2.body.data.total).toBe(3);
     });
 
+    it('should page through sessions with a cursor', async () => {
+      const { agent, bookId } = await createBookWithAgent();
+
+      for (let i = 0; i < 3; i++) {
+        await agent
+          .post(`/api/v1/books/${bookId}/reading-sessions`)
+          .send({ ...sessionData, pagesRead: i + 1 })
+          .expect(201);
+      }
+
+      const first = await agent
+        .get(`/api/v1/books/${bookId}/reading-sessions?limit=2`)
+        .expect(200);
+
+      expect(first.body.data.sessions).toHaveLength(2);
+      expect(first.body.data.nextCursor).toEqual(expect.any(String));
+
+      const second = await agent
+        .get(`/api/v1/books/${bookId}/reading-sessions?limit=2&cursor=${first.body.data.nextCursor}`)
+        .expect(200);
+
+      expect(second.body.data.sessions).toHaveLength(1);
+      expect(second.body.data.nextCursor).toBeNull();
+      expect(second.body.data.total).toBeUndefined();
+
+      const ids = [...first.body.data.sessions, ...second.body.data.sessions].map((s: any) => s.id);
+      expect(new Set(ids).size).toBe(3);
+    });
+
+    it('should reject a malformed cursor', async () => {
+      const { agent, bookId } = await createBookWithAgent();
+
+      const res = await agent
+        .get(`/api/v1/books/${bookId}/reading-sessions?cursor=not-a-cursor`)
+        .expect(400);
+
+      expect(res.body.error).toBe('INVALID_CURSOR');
+    });
+
     it('should order sessions by endedAt desc', async () => {
       const { agent, bookId } = await createBookWithAgent();
 
@@ -318,4 +368,82 @@ describe('Reading Sessions API', () => {
       expect(res.body.data.totalPages).toBe(10);
     });
   });
+
+  // ── GET /api/v1/books/:bookId/reading-sessions/stats/history ─
+
+  describe('GET /api/v1/books/:bookId/reading-sessions/stats/history', () => {
+    async function postSession(agent: Awaited<ReturnType<typeof createBookWithAgent>>['agent'], bookId: string, startedAt: string, pagesRead: number, durationSec: number) {
+      await agent
+        .post(`/api/v1/books/${bookId}/reading-sessions`)
+        .send({ ...sessionData, startedAt, pagesRead, durationSec })
+        .expect(201);
+    }
+
+    it('should return daily pages and minutes with empty days filled', async () => {
+      const { agent, bookId } = await createBookWithAgent();
+      await postSession(agent, bookId, '2026-03-02T08:00:00.000Z', 10, 600);
+      await postSession(agent, bookId, '2026-03-02T21:00:00.000Z', 5, 300);
+      await postSession(agent, bookId, '2026-03-04T12:00:00.000Z', 7, 120);
+
+      const res = await agent
+        .get(`/api/v1/books/${bookId}/reading-sessions/stats/history?from=2026-03-01&to=2026-03-04`)
+        .expect(200);
+
+      expect(res.body.data.bucket).toBe('day');
+      expect(res.body.data.points).toEqual([
+        { date: '2026-03-01', sessions: 0, pages: 0, minutes: 0 },
+        { date: '2026-03-02', sessions: 2, pages: 15, minutes: 15 },
+        { date: '2026-03-03', sessions: 0, pages: 0, minutes: 0 },
+        { date: '2026-03-04', sessions: 1, pages: 7, minutes: 2 },
+      ]);
+    });
+
+    it('should group by ISO week', async () => {
+      const { agent, bookId } = await createBookWithAgent();
+      await postSession(agent, bookId, '2026-03-01T10:00:00.000Z', 3, 60); // Sunday
+      await postSession(agent, bookId, '2026-03-02T10:00:00.000Z', 4, 60); // Monday
+
+      const res = await agent
+        .get(`/api/v1/books/${bookId}/reading-sessions/stats/history?from=2026-03-01&to=2026-03-08&bucket=week`)
+        .expect(200);
+
+      expect(res.body.data.points).toEqual([
+        { date: '2026-02-23', sessions: 1, pages: 3, minutes: 1 },
+        { date: '2026-03-02', sessions: 1, pages: 4, minutes: 1 },
+      ]);
+    });
+
+    it('should reject an invalid or oversized range', async () => {
+      const { agent, bookId } = await createBookWithAgent();
+      const base = `/api/v1/books/${bookId}/reading-sessions/stats/history`;
+
+      await agent.get(`${base}?from=2026-03-01`).expect(400);
+      await agent.get(`${base}?from=2026-03-05&to=2026-03-01`).expect(400);
+      await agent.get(`${base}?from=2024-01-01&to=2026-01-01`).expect(400);
+    });
+  });
+
+  // ── Rollup backfill ───────────────────────────────────────────
+
+  describe('rebuildReadingStats', () => {
+    it('should rebuild rollups from sessions', async () => {
+      const { agent, bookId } = await createBookWithAgent();
+      await agent
+        .post(`/api/v1/books/${bookId}/reading-sessions`)
+        .send({ ...sessionData, pagesRead: 12, durationSec: 240 })
+        .expect(201);
+      // Flush the write-behind buffer, then corrupt the rollups
+      await agent.get(`/api/v1/books/${bookId}/reading-sessions/stats`).expect(200);
+      const prisma = getPrisma();
+      await prisma.readingStats.deleteMany();
+      await prisma.readingStatsDaily.updateMany({ data: { pages: 999 } });
+
+      expect(await rebuildReadingStats({ batchSize: 1 })).toEqual({ users: 1 });
+
+      const res = await agent.get(`/api/v1/books/${bookId}/reading-sessions/stats`).expect(200);
+      expect(res.body.data).toEqual({ totalSessions: 1, totalPages: 12, totalDurationSec: 240 });
+      const daily = await prisma.readingStatsDaily.findMany();
+      expect(daily.map((d) => d.pages)).toEqual([12]);
+    });
+  });
 });
@@ -1,6 +1,7 @@
 import { describe, it, expect, vi } from 'vitest';
+import { Writable } from 'node:stream';
 import type { Response } from 'express';
-import { ok, created } from '../src/utils/response.js';
+import { ok, created, streamNdjson } from '../src/utils/response.js';
 
 function createMockRes() {
   const res = {
@@ -65,4 +66,42 @@ describe('Response helpers', () => {
       expect(res.json).toHaveBeenCalledWith({ data: {} });
     });
   });
+
+  describe('streamNdjson()', () => {
+    /** A socket that accepts one chunk and then never drains */
+    function createStalledRes() {
+      const socket = new Writable({ highWaterMark: 1, write() { /* never calls back */ } });
+      return Object.assign(socket, {
+        status: vi.fn().mockReturnThis(),
+        set: vi.fn().mockReturnThis(),
+        flushHeaders: vi.fn(),
+        req: { id: 'req-1' },
+      }) as unknown as Response & Writable;
+    }
+
+    it('should stop and close the iterator when the client disconnects under backpressure', async () => {
+      const res = createStalledRes();
+      let produced = 0;
+      let closed = false;
+
+      async function* records() {
+        try {
+          while (true) {
+            produced++;
+            yield { type: 'chunk', n: produced };
+          }
+        } finally {
+          closed = true;
+        }
+      }
+
+      const streaming = streamNdjson(res, records());
+      await new Promise((resolve) => setImmediate(resolve));
+      res.destroy();
+
+      await streaming;
+      expect(closed).toBe(true);
+      expect(produced).toBe(1);
+    });
+  });
 });
@@ -1,5 +1,5 @@
 import { describe, it, expect } from 'vitest';
-import { sanitizeHtml } from '../src/utils/sanitize.js';
+import { sanitizeHtml, createHtmlSanitizer } from '../src/utils/sanitize.js';
 
 describe('sanitizeHtml', () => {
   // ── Allowed tags ─────────────────────────────────────────────
@@ -170,5 +170,63 @@ describe('sanitizeHtml', () => {
       const html = '<div><p><span><strong><em>Deep</em></strong></span></p></div>';
       expect(sanitizeHtml(html)).toBe(html);
     });
+
+    it('should not overflow the stack on very deep nesting', () => {
+      const html = '<div>'.repeat(100_000) + 'x';
+      expect(sanitizeHtml(html)).toBe('<div>'.repeat(100_000) + 'x' + '</div>'.repeat(100_000));
+    });
+
+    it('should return markup-free text unchanged', () => {
+      expect(sanitizeHtml('  Tom &amp; Jerry &copy;')).toBe('  Tom &amp; Jerry &copy;');
+    });
+
+    it('should decode entities and escape the output', () => {
+      expect(sanitizeHtml('<p>&laquo;A&nbsp;&amp;&#160;B&raquo; &lt;tag&gt;</p>')).toBe('<p>«A&nbsp;&amp;&nbsp;B» &lt;tag&gt;</p>');
+    });
+
+    it('should decode HTML5 named references', () => {
+      expect(sanitizeHtml('<p>&frac13; &NotEqualTilde; &fjlig; &bigstar; &copy 2024</p>')).toBe('<p>⅓ ≂̸ fj ★ © 2024</p>');
+      expect(sanitizeHtml('<a title="&frac13;" href="?a=1&not=2&amp;b">x</a>')).toBe('<a title="⅓" href="?a=1&amp;not=2&amp;b">x</a>');
+    });
+
+    it('should escape markup characters in attribute values', () => {
+      expect(sanitizeHtml('<img alt="a < b &amp; &quot;c&quot;">')).toBe('<img alt="a &lt; b &amp; &quot;c&quot;">');
+    });
+
+    it('should repair misnested and unclosed tags like a browser', () => {
+      expect(sanitizeHtml('<p>1<b>2<i>3</b>4</i>5')).toBe('<p>1<b>2<i>3</i></b><i>4</i>5</p>');
+      expect(sanitizeHtml('<table><tr><td>a<td>b</table>')).toBe('<table><tbody><tr><td>a</td><td>b</td></tr></tbody></table>');
+    });
+
+    it('should keep the content of unknown tags but not of script-like ones', () => {
+      expect(sanitizeHtml('<section><font>kept</font><svg><text>dropped</text></svg></section>')).toBe('kept');
+    });
+  });
+
+  describe('createHtmlSanitizer', () => {
+    const inputs = [
+      '\r\n  <p class="a">Tom &amp; Jerry &copy 2024 &frac13;\r\n<b>bold</p>',
+      '<table><tr><td>a<!-- note --><td>b</table><textarea>&lt;x&gt;</textarea><p title="a > b">t</p>',
+      '<style>p { x: "</sty" }</style><p>after<![CDATA[x]]></p><svg><![CDATA[<b>]]></svg>',
+      '<!DOCTYPE html><p>unclosed <a href="?q=1&amp=2">link',
+      'Plain text &amp; no markup',
+    ];
+
+    function sanitizeInChunks(html: string, size: number): string {
+      const sanitizer = createHtmlSanitizer();
+      for (let i = 0; i < html.length; i += size) sanitizer.write(html.slice(i, i + size));
+      return sanitizer.end();
+    }
+
+    it.each(inputs)('should match sanitizeHtml when fed in pieces: %s', (html) => {
+      const expected = sanitizeHtml(html);
+      for (const size of [1, 2, 3, 7]) expect(sanitizeInChunks(html, size)).toBe(expected);
+      for (let cut = 1; cut < html.length; cut++) {
+        const sanitizer = createHtmlSanitizer();
+        sanitizer.write(html.slice(0, cut));
+        sanitizer.write(html.slice(cut));
+        expect(sanitizer.end()).toBe(expected);
+      }
+    });
   });
 });
@@ -0,0 +1,271 @@
+import { describe, it, expect, vi, afterEach } from 'vitest';
+import { JSDOM } from 'jsdom';
+import DOMPurify from 'dompurify';
+
+const sanitizer = vi.hoisted(() => ({ current: 'builtin' as 'builtin' | 'dompurify' }));
+
+vi.mock('../src/config.js', async (importOriginal) => {
+  const actual = await importOriginal<typeof import('../src/config.js')>();
+  return { ...actual, getConfig: () => ({ ...actual.getConfig(), HTML_SANITIZER: sanitizer.current }) };
+});
+
+vi.mock('../src/utils/htmlTree.js', async (importOriginal) => {
+  const actual = await importOriginal<typeof import('../src/utils/htmlTree.js')>();
+  return { ...actual, parseHtmlBody: vi.fn(actual.parseHtmlBody) };
+});
+
+import { sanitizeHtml, ALLOWED_TAGS, ALLOWED_ATTR } from '../src/utils/sanitize.js';
+import { parseHtmlBody } from '../src/utils/htmlTree.js';
+import { NAMED_REFERENCES, LEGACY_REFERENCES } from '../src/utils/htmlEntityTable.js';
+
+/** The previous implementation: DOMPurify over a JSDOM window, same policy */
+const purify = DOMPurify(new JSDOM('').window as unknown as Parameters<typeof DOMPurify>[0]);
+function reference(html: string): string {
+  return purify.sanitize(html, { ALLOWED_TAGS, ALLOWED_ATTR, ALLOW_DATA_ATTR: false });
+}
+
+/**
+ * Inputs on which both must agree. Left out on purpose: <select>, <template>
+ * and <frameset> content (see htmlTree.ts).
+ */
+const CORPUS: Record<string, string[]> = {
+  'chapter markup': [
+    '<article><h1>Chapter 1</h1><p>It was a <em>dark</em> and <strong>stormy</strong> night.</p></article>',
+    '<p class="text" id="p1">Text with <a href="#note-1" id="ref-1"><sup>1</sup></a> a note</p>',
+    '<figure><img src="images/cover.jpg" alt="Cover" loading="lazy" width="600" height="800"><figcaption>Cover</figcaption></figure>',
+    '<img srcset="a.jpg 1x, b.jpg 2x" src="a.jpg">',
+    '<table><thead><tr><th>A</th><th>B</th></tr></thead><tbody><tr><td>1</td><td>2</td></tr></tbody></table>',
+    '<blockquote><p>Quote</p></blockquote><hr><pre><code>let x = 1;\nlet y = 2;</code></pre>',
+    '\n\n  <p>Leading whitespace</p>\n',
+    '<section epub:type="chapter"><h2 class="title">Title</h2><p>Body</p></section>',
+    '<?xml version="1.0"?><!DOCTYPE html><html xmlns="http://www.w3.org/1999/xhtml"><head><title>T</title></head><body><p>x</p></body></html>',
+    '<p>Dashes &mdash; quotes &laquo;&raquo; &ldquo;&rdquo; &hellip; &nbsp;&copy; 2024 &#8212; &#x2014; &amp;&lt;&gt;&quot;</p>',
+    '<p>&copy 2024, AT&T, a&b, &#128512;, &#0;, &#x110000;, &#150;, &unknown;</p>',
+    '<a href="?a=1&copy=2&amp;b=3">Query</a>',
+    '<p>Line<br/>break<br />and <span class="a b">span</span></p>',
+    '<ul><li>One<li>Two<li>Three</ul><ol><li>a<div><li>b</div></ol>',
+    '<dl><dt>Term<dd>Definition<dt>Term 2</dl>',
+    '<h1><h2>Nested headings</h1>after',
+    '<p>Unclosed paragraph<p>Another<div>Block</div>',
+  ],
+  'malformed markup': [
+    '<a><p>X<a>Y</a>Z</p></a>',
+    '<b>1<p>2</b>3</p>',
+    '<p>1<b>2<i>3</b>4</i>5</p>',
+    '<div><a><b><div><div><div><div>x</a>y',
+    '<b><em><foo><foo><aside></b>',
+    '<a X>0<b>1<a Y>2',
+    '<b class=x><b class=x><b class=x><b class=x>x</b></b></b></b><p>y',
+    '<nobr>a<nobr>b',
+    '<table><tr><td>1<td>2</table>after',
+    '<table>x<tr> y</tr>z</table>',
+    '<table><b>bold<tr><td>cell</b></table>',
+    '<table><caption>Cap<table><tr><td>x</table></caption></table>',
+    '<table><td>no row</td><tr>row</table>',
+    '<table><table>nested</table>',
+    '<table><input type=hidden><input></table>',
+    '<table><form><tr><td>x</form></table>',
+    '<table><colgroup><col><tr><td>c</table>',
+    '<p><table><tr><td>in p</table>',
+    '<!DOCTYPE html PUBLIC "-//W3C//DTD HTML 4.01 Transitional//EN"><p><table><tr><td>quirks</table>',
+    '</p>x',
+    '</br>x',
+    '<li>a<li>b',
+    '<p>a<address>b</address>',
+    '<form><form>x</form>y</form>z',
+    '<pre>\n\nx</pre>',
+    '<h1>a<h2>b</h2>',
+    '<p>unclosed <b>bold <i>italic',
+    '<div>a</span>b</div>',
+    '<p>text</p></div></body></html>trailing',
+    '<img src="a.jpg"/><p/>x',
+    '<p id="a" id="b" class=c class=d>dup</p>',
+    '<p>tag at the end <b',
+    '<p>bad markup < b > a<>b </ p> &</p>',
+    '<p title=\'single\' class=unquoted alt="a"b>x</p>',
+    '<P CLASS="Upper">Case</P>',
+    '<p>\r\nCRLF\rCR</p>',
+    '<isindex>x<image src=a.jpg><math><mi>y',
+  ],
+  'hostile markup': [
+    '<script>alert(1)</script><p>x</p>',
+    '<img src=x onerror=alert(1)>',
+    '<a href="javascript:alert(1)">a</a>',
+    '<a href=" jav&#x09;ascript:alert(1)">a</a>',
+    '<a href="JaVaScRiPt:alert(1)">a</a>',
+    '<a href="data:text/html,<script>alert(1)</script>">a</a>',
+    '<img src="data:image/png;base64,AAAA">',
+    '<a href="vbscript:x">a</a><a href="mailto:a@b.c">m</a><a href="tel:+1">t</a><a href="/rel">r</a>',
+    '<style>@import "x";</style><b>b</b>',
+    '<p>x</p><noscript><p title="</noscript><img src=x onerror=alert(1)>">',
+    '<svg><style><img src=x onerror=alert(1)></style></svg>',
+    '<svg><p><style><img src=x onerror=alert(1)>',
+    '<math><mtext><table><mglyph><style><img src=x onerror=alert(1)>',
+    '<svg><desc><p>in desc</p></desc><p>breakout</svg>after',
+    '<svg><![CDATA[<b>cdata</b>]]></svg><p><![CDATA[x]]>y',
+    '<p><!-- comment --><!--> <!---> x<!-- a --!> y<!- bogus > z</p>',
+    '<p title="--><img src=x onerror=alert(1)>">x</p>',
+    '<p title="</style><img src=x>">x</p>',
+    '<p title="a/>b">x</p><p title="]]>">y</p>',
+    '<p id="cookie">x</p><p id="getElementById">y</p><p id="__proto__">z</p><p id="chapter">ok</p>',
+    '<p aria-label="x" aria-hidden="true">aria</p>',
+    '<p data-x="1" style="color:red" onclick="x" name="n">attrs</p>',
+    '<iframe src="x"><p>inside</p></iframe>after',
+    '<xmp><b>raw</b></xmp><noembed><b>raw</b></noembed>',
+    '<textarea><b>rcdata &amp;</b></textarea><title>t &lt;</title>',
+    '<plaintext><b>everything</b>',
+    '<scr<script>ipt>alert(1)</scr</script>ipt>',
+    '<object data="x.swf"><embed src="x.swf"><param name=a></object>',
+    '<a href="https://example.com" target="_blank" rel="noopener noreferrer">ok</a>',
+    '<img src="   https://example.com/a.png   " alt="  trimmed  ">',
+    '<div \u0000 class="nul\u0000">nul\u0000text</div>',
+    '<p title="a < b > c">x</p><img alt="<script>" src="a.jpg">',
+  ],
+  'named references': [
+    '<p>&frac13; &NotEqualTilde; &fjlig; &bigstar; &CounterClockwiseContourIntegral; &nbsp;&NewLine;x</p>',
+    '<p>&frac13 &notin; &notit; &ampx; &AMP &lt3 &Aacute; &aacute &Afr;</p>',
+    '<a title="&frac13;&amp;&bigstar" href="?a=1&not=2&copy;&lt=3&amp;b">x</a>',
+    '<textarea>&frac13; &notit;</textarea><p>&#x1D504; &#128512 &#65533;</p>',
+  ],
+};
+
+/** Deterministic PRNG (mulberry32), so every run generates the same corpus */
+function random(seed: number): () => number {
+  let state = seed >>> 0;
+  return () => {
+    state = (state + 0x6d2b79f5) >>> 0;
+    let t = state;
+    t = Math.imul(t ^ (t >>> 15), t | 1);
+    t ^= t + Math.imul(t ^ (t >>> 7), t | 61);
+    return ((t ^ (t >>> 14)) >>> 0) / 4294967296;
+  };
+}
+
+const NAMES = NAMED_REFERENCES.split(' ').map((entry) => entry.split(':')[0]);
+const LEGACY = LEGACY_REFERENCES.split(' ');
+
+/** Building blocks of the generated inputs, by what they exercise */
+const PIECES: Record<string, string[]> = {
+  mxss: [
+    '<svg></p><style><a id="</style><img src=1 onerror=alert(1)>">',
+    '<math><mtext><table><mglyph><style><!--</style><img title="--&gt;&lt;/mglyph&gt;&lt;img src=1 onerror=alert(1)&gt;">',
+    '<form><math><mtext></form><form><mglyph><style></math><img src onerror=alert(1)>',
+    '<math><annotation-xml encoding="text/html"><style><img src=x onerror=alert(1)></style></annotation-xml></math>',
+    '<svg><foreignObject><p>fo</foreignObject><style>s</style></svg>',
+    '<svg><title><p>t</title></svg>',
+    '<math><mi><b>mi</b></mi><p>break</math>',
+    '<svg><font color="red">out</font></svg>',
+    '<p title="</p><img src=x onerror=alert(1)>">',
+    '<a href="&#106;avascript:alert(1)">j</a>',
+    '<a href="java&Tab;script:alert(1)">tab</a>',
+    '<img src="x" alt="`"><p title="&lt;/p&gt;">',
+    '<!--><img src=x onerror=alert(1)>-->',
+    '<noembed><img title="</noembed><img src=x onerror=alert(1)>"></noembed>',
+    '<xmp></xmp><img src=x onerror=alert(1)></xmp>',
+  ],
+  tables: [
+    '<table>', '</table>', '<tr>', '</tr>', '<td>', '</td>', '<th>', '</th>', '<tbody>', '</tbody>', '<thead>',
+    '<tfoot>', '<caption>', '</caption>', '<colgroup>', '<col>', '<table><tr><td>', 'cell', ' ', '<b>',
+    '</b>', '<p>', '<div>', '</div>',
+  ],
+  forms: [
+    '<form>', '</form>', '<form id="f">', '<input type="hidden">', '<input>', '<button>', '</button>',
+    '<fieldset>', '</fieldset>', '<label>', '</label>', '<textarea>t</textarea>', '<table><form><tr><td>',
+  ],
+  foreign: [
+    '<svg>', '</svg>', '<math>', '</math>', '<mi>', '</mi>', '<mtext>', '</mtext>', '<desc>', '</desc>',
+    '<foreignObject>', '</foreignObject>', '<path d="M0"/>', '<svg/>', '<font size=2>', '<font>', '<b>', '<p>',
+    '<![CDATA[<i>c</i>]]>', '<annotation-xml encoding="application/xhtml+xml">',
+  ],
+  formatting: [
+    '<b>', '</b>', '<i>', '</i>', '<a href="#n">', '</a>', '<em>', '</em>', '<nobr>', '<p>', '</p>', '<div>',
+    '</div>', '<li>', '<ul>', '</ul>', '<h2>', '</h2>', '<pre>', '<br>', '</br>', '<hr>', '<span class="s">',
+    '</span>', '<blockquote>', '<figure>', '<img src="a.jpg" alt="a">',
+  ],
+  text: ['text', ' ', '\n', 'a < b', '>', '&', 'x&y', '\u00A0', '"q"', '<!-- c -->', '</>', '<?pi?>'],
+};
+
+/** A character reference: any name, with or without its semicolon, or numeric */
+function characterReference(next: () => number): string {
+  const roll = next();
+  if (roll < 0.6) return `&${NAMES[Math.floor(next() * NAMES.length)]};`;
+  if (roll < 0.85) return `&${LEGACY[Math.floor(next() * LEGACY.length)]}${next() < 0.5 ? '' : 'x'}`;
+  return next() < 0.5 ? `&#${Math.floor(next() * 0x11000)};` : `&#x${Math.floor(next() * 0x3000).toString(16)}`;
+}
+
+/** Documents of 4–24 pieces, mostly from `groups`, with character references mixed in */
+function generate(seed: number, groups: string[], count: number): string[] {
+  const next = random(seed);
+  const pick = (list: string[]) => list[Math.floor(next() * list.length)];
+  const documents: string[] = [];
+  for (let n = 0; n < count; n++) {
+    const parts: string[] = [];
+    const length = 4 + Math.floor(next() * 21);
+    for (let i = 0; i < length; i++) {
+      const roll = next();
+      if (roll < 0.15) parts.push(characterReference(next));
+      else if (roll < 0.22) parts.push(`<p title="${characterReference(next)}">`, `<a href="?q=1${characterReference(next)}=2">`);
+      else if (roll < 0.35) parts.push(pick(PIECES[pick(Object.keys(PIECES))]));
+      else parts.push(pick(PIECES[pick(groups)]));
+    }
+    documents.push(parts.join(''));
+  }
+  return documents;
+}
+
+const GENERATED: Record<string, { seed: number; groups: string[] }> = {
+  'mXSS vectors': { seed: 0x5eed01, groups: ['mxss', 'foreign', 'text'] },
+  'nested tables and forms': { seed: 0x5eed02, groups: ['tables', 'forms', 'text'] },
+  'foreign content': { seed: 0x5eed03, groups: ['foreign', 'formatting', 'text'] },
+  'misnested formatting and entities': { seed: 0x5eed04, groups: ['formatting', 'text'] },
+};
+
+describe('sanitizeHtml matches DOMPurify', () => {
+  for (const [group, inputs] of Object.entries(CORPUS)) {
+    describe(group, () => {
+      it.each(inputs)('%s', (html) => {
+        expect(sanitizeHtml(html)).toBe(reference(html));
+      });
+    });
+  }
+
+  describe('generated', () => {
+    for (const [group, { seed, groups }] of Object.entries(GENERATED)) {
+      it(`${group} (seed ${seed.toString(16)})`, () => {
+        for (const html of generate(seed, groups, 250)) {
+          expect(sanitizeHtml(html), html).toBe(reference(html));
+        }
+      });
+    }
+  });
+
+  it('should match on a large generated chapter', () => {
+    const parts: string[] = ['<article>'];
+    for (let i = 0; i < 2000; i++) {
+      parts.push(
+        `<h2 id="s${i}">Section ${i}</h2>`,
+        `<p class="text">Paragraph ${i} with <em>emphasis</em>, <a href="#n${i}">a note</a> &mdash; and&nbsp;more.`,
+        i % 7 === 0 ? '<table><tr><td>a<td>b</table>' : '<ul><li>one<li>two</ul>',
+        i % 11 === 0 ? '<script>x()</script><span onclick="x">unwrap <font>me</font></span>' : '',
+        i % 13 === 0 ? '<b>misnested <i>formatting</b> here</i>' : '',
+      );
+    }
+    const html = parts.join('\n');
+    expect(sanitizeHtml(html)).toBe(reference(html));
+  });
+});
+
+describe('HTML_SANITIZER=dompurify', () => {
+  afterEach(() => {
+    sanitizer.current = 'builtin';
+  });
+
+  it('should run DOMPurify instead of the built-in parser', () => {
+    sanitizer.current = 'dompurify';
+    vi.mocked(parseHtmlBody).mockClear();
+
+    const html = '<p onclick="x">&frac13;<script>y</script><b>1<i>2</b>3</i></p>';
+    expect(sanitizeHtml(html)).toBe(reference(html));
+    expect(parseHtmlBody).not.toHaveBeenCalled();
+  });
+});
@@ -1,7 +1,20 @@
-import { describe, it, expect, beforeEach } from 'vitest';
+import { describe, it, expect, beforeEach, afterEach } from 'vitest';
+import request from 'supertest';
 import { createApp } from '../src/app.js';
 import { cleanDatabase, createAuthenticatedAgent } from './helpers.js';
-import { buildOgTags, getBookOgMeta, getShelfOgMeta, injectOgTags, generateSitemap } from '../src/services/seo.service.js';
+import {
+  buildOgTags,
+  buildShellHead,
+  buildHreflangTags,
+  compileShell,
+  getBookOgMeta,
+  getBookShellHead,
+  getShelfOgMeta,
+  injectOgTags,
+  generateSitemap,
+  setSitemapShardSize,
+  SITEMAP_SHARD_SIZE,
+} from '../src/services/seo.service.js';
 
 const app = createApp();
 
@@ -331,6 +344,88 @@ describe('SEO Service', () => {
     });
   });
 
+  // ── compileShell ─────────────────────────────────────────────
+
+  describe('compileShell', () => {
+    const indexHtml = `<!DOCTYPE html>
+<html>
+<head>
+  <title>Flipbook</title>
+  <meta name="description" content="Default description">
+  <link rel="canonical" href="http://localhost:3000/">
+
+  <!-- Open Graph -->
+  <meta property="og:title" content="Default OG">
+
+  <!-- Twitter Card -->
+  <meta name="twitter:card" content="summary">
+</head>
+<body></body>
+</html>`;
+    const meta = {
+      title: 'Shell <Book>',
+      description: 'About the book',
+      url: 'http://localhost:3000/book/abc',
+      image: null,
+      type: 'book',
+    };
+
+    it('should keep the original head and append hreflang when there is no page meta', () => {
+      const hreflang = buildHreflangTags('/');
+      const result = compileShell(indexHtml).render(null, hreflang);
+
+      expect(result).toBe(indexHtml.replace('</head>', `    ${hreflang}\n  </head>`));
+    });
+
+    it('should render the same document as injectOgTags', () => {
+      const result = compileShell(indexHtml).render(buildShellHead(meta), '');
+
+      expect(result).toBe(injectOgTags(indexHtml, meta));
+      expect(result).toContain('<title>Shell &lt;Book&gt;</title>');
+      expect(result).toContain('<link rel="canonical" href="http://localhost:3000/book/abc">');
+      expect(result).not.toContain('Default OG');
+      expect(result).not.toContain('twitter:card" content="summary"');
+    });
+
+    it('should place OG tags and hreflang before </head>', () => {
+      const hreflang = buildHreflangTags('/book/abc');
+      const result = compileShell(indexHtml).render(buildShellHead(meta), hreflang);
+      const headEnd = result.indexOf('</head>');
+
+      expect(result.indexOf('og:title')).toBeLessThan(headEnd);
+      expect(result.indexOf('hreflang="x-default"')).toBeLessThan(headEnd);
+      expect(result.indexOf('og:title')).toBeLessThan(result.indexOf('hreflang="ru"'));
+    });
+
+    it('should tolerate documents missing some slots', () => {
+      const result = compileShell('<html><head></head><body></body></html>').render(buildShellHead(meta), '');
+
+      expect(result).toContain('og:title');
+      expect(result).not.toContain('<title>');
+    });
+  });
+
+  describe('getBookShellHead', () => {
+    it('should serve the cached head until the book changes', async () => {
+      const { agent } = await createAuthenticatedAgent(app);
+      const bookRes = await agent
+        .post('/api/v1/books')
+        .send({ title: 'Shell Book', author: 'Author' })
+        .expect(201);
+      const bookId = bookRes.body.data.id;
+
+      expect(await getBookShellHead(bookId, '')).toBeNull();
+
+      await agent.patch(`/api/v1/books/${bookId}`).send({ visibility: 'published' }).expect(200);
+      const head = await getBookShellHead(bookId, 'en');
+      expect(head!.title).toContain('Shell Book');
+      expect(head!.tags).toContain('content="en_US"');
+
+      await agent.patch(`/api/v1/books/${bookId}`).send({ title: 'Renamed' }).expect(200);
+      expect((await getBookShellHead(bookId, 'en'))!.title).toContain('Renamed');
+    });
+  });
+
   // ── generateSitemap ──────────────────────────────────────────
 
   describe('generateSitemap', () => {
@@ -420,4 +515,106 @@ describe('SEO Service', () => {
       expect(xml).not.toContain(`/book/${bookId}`);
     });
   });
+
+  // ── /sitemap.xml & /sitemaps/* ───────────────────────────────
+
+  describe('sitemap routes', () => {
+    async function publishBook(agent: Awaited<ReturnType<typeof createAuthenticatedAgent>>['agent'], title: string) {
+      const res = await agent.post('/api/v1/books').send({ title }).expect(201);
+      await agent
+        .patch(`/api/v1/books/${res.body.data.id}`)
+        .send({ visibility: 'published' })
+        .expect(200);
+      return res.body.data.id as string;
+    }
+
+    afterEach(() => {
+      setSitemapShardSize(SITEMAP_SHARD_SIZE);
+    });
+
+    it('should serve a single sitemap with Last-Modified and honour If-Modified-Since', async () => {
+      const res = await request(app).get('/sitemap.xml').expect(200);
+
+      expect(res.headers['content-type']).toContain('application/xml');
+      expect(res.text).toContain('<urlset');
+      expect(res.headers['last-modified']).toBeDefined();
+
+      await request(app)
+        .get('/sitemap.xml')
+        .set('If-Modified-Since', res.headers['last-modified'])
+        .expect(304);
+    });
+
+    it('should pick up newly published books', async () => {
+      const { agent } = await createAuthenticatedAgent(app);
+      await request(app).get('/sitemap.xml').expect(200);
+
+      const bookId = await publishBook(agent, 'Fresh Book');
+      const res = await request(app).get('/sitemap.xml').expect(200);
+
+      expect(res.text).toContain(`/book/${bookId}`);
+    });
+
+    it('should switch to a sitemap index when the catalogue outgrows one file', async () => {
+      setSitemapShardSize(2);
+      const username = `shardauthor-${Date.now()}`;
+      const { agent } = await createAuthenticatedAgent(app, { username });
+      const ids = [await publishBook(agent, 'One'), await publishBook(agent, 'Two')].sort();
+
+      const index = await request(app).get('/sitemap.xml').expect(200);
+      expect(index.text).toContain('<sitemapindex');
+      expect(index.text).toContain('/sitemaps/books-1.xml');
+      expect(index.text).toContain('/sitemaps/books-2.xml');
+      expect(index.text).toContain('/sitemaps/authors-1.xml');
+
+      // books-1: home page + first book; books-2: the rest
+      const first = await request(app).get('/sitemaps/books-1.xml').expect(200);
+      expect(first.text).toContain('<priority>1.0</priority>');
+      expect(first.text).toContain(`/book/${ids[0]}`);
+      expect(first.text).not.toContain(`/book/${ids[1]}`);
+
+      const second = await request(app).get('/sitemaps/books-2.xml').expect(200);
+      expect(second.text).toContain(`/book/${ids[1]}`);
+      expect(second.text).not.toContain('<priority>1.0</priority>');
+
+      const authors = await request(app).get('/sitemaps/authors-1.xml').expect(200);
+      expect(authors.text).toContain(`/${username}</loc>`);
+
+      // Served again from memory, byte for byte
+      const again = await request(app).get('/sitemaps/books-1.xml').expect(200);
+      expect(again.text).toBe(first.text);
+    });
+
+    it('should date each shard by its own rows', async () => {
+      setSitemapShardSize(2);
+      const { agent } = await createAuthenticatedAgent(app);
+      const ids = [await publishBook(agent, 'One'), await publishBook(agent, 'Two')].sort();
+
+      const first = await request(app).get('/sitemaps/books-1.xml').expect(200);
+      const second = await request(app).get('/sitemaps/books-2.xml').expect(200);
+
+      // Last-Modified has one-second resolution
+      await new Promise((resolve) => setTimeout(resolve, 1100));
+      await agent.patch(`/api/v1/books/${ids[1]}`).send({ title: 'Two, revised' }).expect(200);
+
+      await request(app)
+        .get('/sitemaps/books-1.xml')
+        .set('If-Modified-Since', first.headers['last-modified'])
+        .expect(304);
+      const changed = await request(app)
+        .get('/sitemaps/books-2.xml')
+        .set('If-Modified-Since', second.headers['last-modified'])
+        .expect(200);
+      expect(Date.parse(changed.headers['last-modified'])).toBeGreaterThan(Date.parse(second.headers['last-modified']));
+
+      const index = await request(app).get('/sitemap.xml').expect(200);
+      expect(index.text).toContain(`<lastmod>${new Date(Date.parse(changed.headers['last-modified'])).toISOString().slice(0, 19)}`);
+    });
+
+    it('should return 404 for shards the index does not list', async () => {
+      await request(app).get('/sitemaps/books-9.xml').expect(404);
+      await request(app).get('/sitemaps/all.xml').expect(404);
+      await request(app).get('/sitemaps/evil.xml').expect(404);
+    });
+  });
 });
@@ -0,0 +1,59 @@
+import { describe, it, expect, vi, beforeEach } from 'vitest';
+
+vi.hoisted(() => {
+  process.env.SESSION_STORE = 'cookie';
+});
+
+import request from 'supertest';
+import { createApp } from '../src/app.js';
+import { STATELESS_SESSION_COOKIE } from '../src/utils/statelessSession.js';
+import { cleanDatabase, createAuthenticatedAgent } from './helpers.js';
+
+const app = createApp();
+
+const EMAIL = 'revoke@example.com';
+const PASSWORD = 'Password123!';
+
+/** Log in on a fresh agent; returns it with its session cookie and a CSRF token for it */
+async function login() {
+  const agent = request.agent(app);
+  const anonymous = await agent.get('/api/v1/auth/csrf-token').expect(200);
+  const res = await agent
+    .post('/api/v1/auth/login')
+    .set('x-csrf-token', anonymous.body.data.token)
+    .send({ email: EMAIL, password: PASSWORD })
+    .expect(200);
+  const cookie = (res.headers['set-cookie'] as unknown as string[])
+    .find((c) => c.startsWith(`${STATELESS_SESSION_COOKIE}=`))!
+    .split(';')[0];
+  const csrf = await agent.get('/api/v1/auth/csrf-token').expect(200);
+  return { agent, cookie, csrfToken: csrf.body.data.token as string };
+}
+
+describe('Signed-cookie session revocation', () => {
+  beforeEach(async () => {
+    await cleanDatabase();
+  });
+
+  it('should reject a copy of the cookie after logout', async () => {
+    await createAuthenticatedAgent(app, { email: EMAIL, password: PASSWORD });
+    const { agent, cookie, csrfToken } = await login();
+    await request(app).get('/api/v1/books').set('Cookie', cookie).expect(200);
+
+    await agent.post('/api/v1/auth/logout').set('x-csrf-token', csrfToken).expect(200);
+
+    await request(app).get('/api/v1/books').set('Cookie', cookie).expect(401);
+  });
+
+  it('should end the other cookie sessions of the user on logout', async () => {
+    const { agent: other } = await createAuthenticatedAgent(app, { email: EMAIL, password: PASSWORD });
+    const { agent, csrfToken } = await login();
+    await other.get('/api/v1/books').expect(200);
+
+    await agent.post('/api/v1/auth/logout').set('x-csrf-token', csrfToken).expect(200);
+
+    await other.get('/api/v1/books').expect(401);
+    const again = await login();
+    await again.agent.get('/api/v1/books').expect(200);
+  });
+});
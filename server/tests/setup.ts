@@ -15,6 +15,8 @@ process.env.S3_ACCESS_KEY = 'minioadmin';
 process.env.S3_SECRET_KEY = 'minioadmin';
 process.env.S3_FORCE_PATH_STYLE = 'true';
 process.env.S3_PUBLIC_URL = 'http://localhost:9000/flipbook-test';
+// Workers cannot load .ts sources under vitest; parse inline (pool has its own tests)
+process.env.PARSE_WORKERS = '0';
 
 import { getPrisma, disconnectPrisma } from '../src/utils/prisma.js';
 
@@ -0,0 +1,95 @@
+import { describe, it, expect } from 'vitest';
+import express from 'express';
+import cookieParser from 'cookie-parser';
+import request from 'supertest';
+import {
+  statelessSession,
+  encodeSession,
+  decodeSession,
+  sessionIssuedAt,
+  STATELESS_SESSION_COOKIE,
+} from '../src/utils/statelessSession.js';
+
+const SECRET = 'test-session-secret-at-least-32-characters-long';
+
+function payload(overrides: Partial<{ sid: string; iat: number; exp: number; data: Record<string, unknown> }> = {}) {
+  return { sid: 'sid-1', iat: Date.now(), exp: Date.now() + 60_000, data: { passport: { user: 'u1' } }, ...overrides };
+}
+
+describe('encodeSession / decodeSession', () => {
+  it('should round-trip a signed payload', () => {
+    const value = encodeSession(payload(), SECRET);
+    expect(decodeSession(value, SECRET)?.data).toEqual({ passport: { user: 'u1' } });
+  });
+
+  it('should reject a tampered payload', () => {
+    const [, signature] = encodeSession(payload(), SECRET).split('.');
+    const forged = Buffer.from(JSON.stringify(payload({ data: { passport: { user: 'admin' } } }))).toString('base64url');
+    expect(decodeSession(`${forged}.${signature}`, SECRET)).toBeNull();
+  });
+
+  it('should reject a payload signed with another secret', () => {
+    expect(decodeSession(encodeSession(payload(), `${SECRET}-other`), SECRET)).toBeNull();
+  });
+
+  it('should reject an expired payload', () => {
+    expect(decodeSession(encodeSession(payload({ exp: Date.now() - 1 }), SECRET), SECRET)).toBeNull();
+  });
+
+  it('should reject garbage', () => {
+    expect(decodeSession(undefined, SECRET)).toBeNull();
+    expect(decodeSession('no-dot', SECRET)).toBeNull();
+    expect(decodeSession('.sig', SECRET)).toBeNull();
+  });
+});
+
+describe('statelessSession', () => {
+  function createApp() {
+    const app = express();
+    app.use(cookieParser());
+    app.use(statelessSession({ secret: SECRET, maxAge: 60_000, secure: false }));
+    app.post('/login', (req, res, next) => {
+      req.session.regenerate((err) => {
+        if (err) return next(err);
+        (req.session as unknown as Record<string, unknown>).passport = { user: 'u1' };
+        req.session.save(() => res.json({ sid: req.sessionID }));
+      });
+    });
+    app.get('/whoami', (req, res) => {
+      const data = req.session as unknown as Record<string, { user?: string } | undefined>;
+      res.json({ user: data.passport?.user ?? null, sid: req.sessionID, issuedAt: sessionIssuedAt(req) ?? null });
+    });
+    app.post('/logout', (req, res) => {
+      req.session.destroy(() => res.json({}));
+    });
+    return app;
+  }
+
+  it('should keep session data and id across requests in the cookie', async () => {
+    const agent = request.agent(createApp());
+    const login = await agent.post('/login').expect(200);
+    expect(login.headers['set-cookie'][0]).toContain(`${STATELESS_SESSION_COOKIE}=`);
+    expect(login.headers['set-cookie'][0]).toContain('HttpOnly');
+
+    const res = await agent.get('/whoami').expect(200);
+    expect(res.body.user).toBe('u1');
+    expect(res.body.sid).toBe(login.body.sid);
+    expect(res.body.issuedAt).toBeGreaterThan(0);
+  });
+
+  it('should not set a cookie for anonymous requests', async () => {
+    const res = await request(createApp()).get('/whoami').expect(200);
+    expect(res.body.user).toBeNull();
+    expect(res.headers['set-cookie']).toBeUndefined();
+  });
+
+  it('should clear the cookie on destroy', async () => {
+    const agent = request.agent(createApp());
+    await agent.post('/login').expect(200);
+    const logout = await agent.post('/logout').expect(200);
+    expect(logout.headers['set-cookie'][0]).toMatch(new RegExp(`^${STATELESS_SESSION_COOKIE}=;`));
+
+    const res = await agent.get('/whoami').expect(200);
+    expect(res.body.user).toBeNull();
+  });
+});
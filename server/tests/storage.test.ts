@@ -41,6 +41,7 @@ import {
   fileExists,
   deleteFileByUrl,
 } from '../src/utils/storage.js';
+import { register, s3OperationsTotal, s3BytesTotal } from '../src/middleware/metrics.js';
 
 describe('Storage utilities', () => {
   describe('generateFileKey', () => {
@@ -155,6 +156,33 @@ describe('Storage utilities', () => {
     });
   });
 
+  describe('metrics', () => {
+    beforeEach(() => {
+      mockSend.mockReset();
+      register.resetMetrics();
+    });
+
+    it('should count operations by result and bytes uploaded', async () => {
+      mockSend.mockResolvedValueOnce({});
+      mockSend.mockRejectedValueOnce(Object.assign(new Error('Not Found'), { name: 'NotFound' }));
+      mockSend.mockRejectedValueOnce(new Error('connection reset'));
+
+      await uploadFile(Buffer.from('12345'), 'test/file.txt', 'text/plain');
+      await fileExists('missing/file.txt');
+      await expect(deleteFile('test/file.txt')).rejects.toThrow('connection reset');
+
+      const ops = (await s3OperationsTotal.get()).values.map((v) => [v.labels.operation, v.labels.result, v.value]);
+      expect(ops).toEqual(expect.arrayContaining([
+        ['put', 'success', 1],
+        ['head', 'not_found', 1],
+        ['delete', 'error', 1],
+      ]));
+      expect((await s3BytesTotal.get()).values).toEqual([
+        expect.objectContaining({ labels: { operation: 'put' }, value: 5 }),
+      ]);
+    });
+  });
+
   describe('deleteFileByUrl', () => {
     beforeEach(() => {
       mockSend.mockReset();
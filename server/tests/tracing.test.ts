@@ -0,0 +1,290 @@
+import { describe, it, expect, vi, beforeEach, afterEach } from 'vitest';
+import http from 'node:http';
+import type { AddressInfo } from 'node:net';
+import express from 'express';
+import request from 'supertest';
+import {
+  initTracing,
+  closeTracing,
+  withSpan,
+  activeSpan,
+  parseTraceparent,
+  tracingMiddleware,
+  traceMiddleware,
+  Span,
+  SpanKind,
+} from '../src/utils/tracing.js';
+import { traceSpansDroppedTotal } from '../src/middleware/metrics.js';
+import { logger } from '../src/utils/logger.js';
+
+vi.mock('../src/utils/logger.js', () => ({
+  logger: { error: vi.fn(), warn: vi.fn(), info: vi.fn() },
+}));
+
+interface ExportedSpan {
+  traceId: string;
+  spanId: string;
+  parentSpanId?: string;
+  name: string;
+  kind: number;
+  attributes: { key: string; value: Record<string, unknown> }[];
+  status: { code: number };
+}
+
+/**
+ * Local stand-in for the OTLP/HTTP collector. Answers with the queued
+ * `statuses` first, then 200; spans are only kept from accepted batches.
+ */
+function startCollector(statuses: number[] = []) {
+  const spans: ExportedSpan[] = [];
+  const paths: string[] = [];
+  const batches: number[] = [];
+  const answered: number[] = [];
+  const server = http.createServer((req, res) => {
+    let body = '';
+    req.on('data', (chunk) => { body += chunk; });
+    req.on('end', () => {
+      paths.push(req.url ?? '');
+      const status = statuses.shift() ?? 200;
+      answered.push(status);
+      if (status === 200) {
+        const payload = JSON.parse(body);
+        for (const resource of payload.resourceSpans) {
+          for (const scope of resource.scopeSpans) {
+            spans.push(...scope.spans);
+            batches.push(scope.spans.length);
+          }
+        }
+      }
+      res.writeHead(status, { 'Content-Type': 'application/json' }).end('{}');
+    });
+  });
+  return new Promise<{
+    server: http.Server;
+    endpoint: string;
+    spans: ExportedSpan[];
+    paths: string[];
+    batches: number[];
+    answered: number[];
+  }>((resolve) => {
+    server.listen(0, '127.0.0.1', () => {
+      const { port } = server.address() as AddressInfo;
+      resolve({ server, endpoint: `http://127.0.0.1:${port}`, spans, paths, batches, answered });
+    });
+  });
+}
+
+function attribute(span: ExportedSpan, key: string) {
+  const value = span.attributes.find((a) => a.key === key)?.value;
+  return value && Object.values(value)[0];
+}
+
+describe('parseTraceparent', () => {
+  it('should parse a sampled traceparent', () => {
+    expect(parseTraceparent('00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01')).toEqual({
+      traceId: '4bf92f3577b34da6a3ce929d0e0e4736',
+      spanId: '00f067aa0ba902b7',
+      sampled: true,
+    });
+  });
+
+  it('should read the sampled flag', () => {
+    expect(parseTraceparent('00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00')?.sampled).toBe(false);
+  });
+
+  it('should reject malformed or all-zero ids', () => {
+    expect(parseTraceparent(undefined)).toBeNull();
+    expect(parseTraceparent('garbage')).toBeNull();
+    expect(parseTraceparent('00-00000000000000000000000000000000-00f067aa0ba902b7-01')).toBeNull();
+    expect(parseTraceparent('00-4bf92f3577b34da6a3ce929d0e0e4736-0000000000000000-01')).toBeNull();
+    expect(parseTraceparent('ff-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01')).toBeNull();
+  });
+});
+
+describe('withSpan', () => {
+  it('should run untraced outside a request', async () => {
+    const result = await withSpan('orphan', {}, async (span) => {
+      expect(span).toBeUndefined();
+      expect(activeSpan()).toBeUndefined();
+      return 42;
+    });
+    expect(result).toBe(42);
+  });
+});
+
+describe('request tracing', () => {
+  let collector: Awaited<ReturnType<typeof startCollector>>;
+
+  beforeEach(async () => {
+    collector = await startCollector();
+    initTracing({ endpoint: collector.endpoint, serviceName: 'flipbook-test', sampleRatio: 1 });
+  });
+
+  afterEach(async () => {
+    await closeTracing();
+    await new Promise((resolve) => collector.server.close(resolve));
+  });
+
+  function createApp() {
+    const app = express();
+    app.use(tracingMiddleware((req) => (req.route ? `/items/:id` : null)));
+    app.use(traceMiddleware('stage', (_req, _res, next) => next()));
+    app.get('/items/:id', async (req, res) => {
+      await withSpan('prisma Item.findUnique', { 'db.operation': 'findUnique' }, async () => {
+        await withSpan('s3 get', {}, async () => {});
+      });
+      res.json({ id: req.params.id });
+    });
+    app.get('/fail', async () => {
+      await withSpan('broken', {}, async () => {
+        throw new Error('boom');
+      });
+    });
+    return app;
+  }
+
+  it('should export a root span with nested child spans over OTLP/HTTP', async () => {
+    await request(createApp()).get('/items/7').expect(200);
+    await closeTracing();
+
+    expect(collector.paths).toContain('/v1/traces');
+    const byName = Object.fromEntries(collector.spans.map((s) => [s.name, s]));
+    const root = byName['GET /items/:id'];
+    expect(root).toBeDefined();
+    expect(root.parentSpanId).toBeUndefined();
+    expect(attribute(root, 'http.response.status_code')).toBe(200);
+
+    const stage = byName['middleware stage'];
+    const query = byName['prisma Item.findUnique'];
+    const s3 = byName['s3 get'];
+    expect(stage.parentSpanId).toBe(root.spanId);
+    expect(query.parentSpanId).toBe(root.spanId);
+    expect(s3.parentSpanId).toBe(query.spanId);
+    expect(new Set(collector.spans.map((s) => s.traceId))).toEqual(new Set([root.traceId]));
+  });
+
+  it('should continue an incoming traceparent', async () => {
+    await request(createApp())
+      .get('/items/7')
+      .set('traceparent', '00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01')
+      .expect(200);
+    await closeTracing();
+
+    const root = collector.spans.find((s) => s.name === 'GET /items/:id')!;
+    expect(root.traceId).toBe('4bf92f3577b34da6a3ce929d0e0e4736');
+    expect(root.parentSpanId).toBe('00f067aa0ba902b7');
+  });
+
+  it('should not record requests whose traceparent is unsampled', async () => {
+    await request(createApp())
+      .get('/items/7')
+      .set('traceparent', '00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00')
+      .expect(200);
+    await closeTracing();
+
+    expect(collector.spans).toHaveLength(0);
+  });
+
+  it('should mark failed spans and 5xx roots as errors', async () => {
+    await request(createApp()).get('/fail').expect(500);
+    await closeTracing();
+
+    const broken = collector.spans.find((s) => s.name === 'broken')!;
+    expect(broken.status.code).toBe(2);
+    expect(attribute(broken, 'exception.type')).toBe('Error');
+    const root = collector.spans.find((s) => s.parentSpanId === undefined)!;
+    expect(root.status.code).toBe(2);
+  });
+});
+
+describe('span export', () => {
+  let collector: Awaited<ReturnType<typeof startCollector>>;
+
+  beforeEach(() => {
+    vi.clearAllMocks();
+  });
+
+  afterEach(async () => {
+    await closeTracing();
+    await new Promise((resolve) => collector.server.close(resolve));
+  });
+
+  function endSpans(count: number) {
+    for (let i = 0; i < count; i++) {
+      new Span(`span ${i}`, '4bf92f3577b34da6a3ce929d0e0e4736', undefined, SpanKind.INTERNAL).end();
+    }
+  }
+
+  async function dropped(reason: string) {
+    const { values } = await traceSpansDroppedTotal.get();
+    return values.find((v) => v.labels.reason === reason)?.value ?? 0;
+  }
+
+  it('should export in batches of at most 512 spans', async () => {
+    collector = await startCollector();
+    initTracing({ endpoint: collector.endpoint, serviceName: 'flipbook-test', sampleRatio: 1 });
+
+    endSpans(600);
+    await closeTracing();
+
+    expect(collector.batches).toEqual([512, 88]);
+    expect(new Set(collector.spans.map((s) => s.name)).size).toBe(600);
+  });
+
+  it('should retry a batch the collector could not take', async () => {
+    collector = await startCollector([503, 429]);
+    initTracing({ endpoint: collector.endpoint, serviceName: 'flipbook-test', sampleRatio: 1, retryBaseMs: 1 });
+    const before = await dropped('export_failed');
+
+    // A full batch starts the export without waiting for the interval
+    endSpans(512);
+
+    await vi.waitFor(() => expect(collector.spans).toHaveLength(512));
+    expect(collector.answered).toEqual([503, 429, 200]);
+    expect(await dropped('export_failed')).toBe(before);
+  });
+
+  it('should drop and count a batch the collector rejects', async () => {
+    collector = await startCollector([400]);
+    initTracing({ endpoint: collector.endpoint, serviceName: 'flipbook-test', sampleRatio: 1, retryBaseMs: 1 });
+    const before = await dropped('export_failed');
+
+    endSpans(512);
+
+    await vi.waitFor(async () => expect(await dropped('export_failed')).toBe(before + 512));
+    expect(collector.answered).toEqual([400]);
+    expect(vi.mocked(logger.warn)).toHaveBeenCalledWith(
+      expect.objectContaining({ spans: 512, attempts: 1 }),
+      'Trace export failed',
+    );
+  });
+
+  it('should give up after the last attempt', async () => {
+    collector = await startCollector([503, 503, 503, 503]);
+    initTracing({ endpoint: collector.endpoint, serviceName: 'flipbook-test', sampleRatio: 1, retryBaseMs: 1 });
+    const before = await dropped('export_failed');
+
+    endSpans(512);
+
+    await vi.waitFor(async () => expect(await dropped('export_failed')).toBe(before + 512));
+    expect(collector.answered).toEqual([503, 503, 503, 503]);
+    expect(collector.spans).toHaveLength(0);
+  });
+
+  it('should count and report spans dropped on a full queue', async () => {
+    collector = await startCollector();
+    initTracing({ endpoint: collector.endpoint, serviceName: 'flipbook-test', sampleRatio: 1, maxQueue: 10 });
+    const before = await dropped('queue_full');
+
+    endSpans(15);
+
+    expect(await dropped('queue_full')).toBe(before + 5);
+    expect(vi.mocked(logger.warn)).toHaveBeenCalledTimes(1);
+    expect(vi.mocked(logger.warn)).toHaveBeenCalledWith({ maxQueue: 10 }, 'Trace queue full, dropping spans');
+
+    await closeTracing();
+
+    expect(collector.spans).toHaveLength(10);
+    expect(vi.mocked(logger.warn)).toHaveBeenLastCalledWith({ dropped: 5 }, 'Trace queue drained after dropping spans');
+  });
+});
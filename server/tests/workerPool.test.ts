@@ -0,0 +1,83 @@
+import { describe, it, expect, afterEach } from 'vitest';
+import {
+  WorkerPool,
+  PoolBusyError,
+  PoolTimeoutError,
+  WorkerJobError,
+} from '../src/utils/workerPool.js';
+
+type Job =
+  | { op: 'echo'; value: string }
+  | { op: 'delay'; value: string; ms: number }
+  | { op: 'fail' | 'spin' | 'crash' };
+
+const script = new URL('./fixtures/poolWorker.mjs', import.meta.url);
+
+describe('WorkerPool', () => {
+  let pool: WorkerPool<Job, string>;
+
+  function createPool(options: { size?: number; maxQueue?: number; timeoutMs?: number } = {}) {
+    pool = new WorkerPool<Job, string>({
+      script,
+      size: options.size ?? 1,
+      maxQueue: options.maxQueue ?? 4,
+      timeoutMs: options.timeoutMs ?? 5000,
+    });
+    return pool;
+  }
+
+  afterEach(async () => {
+    await pool?.close();
+  });
+
+  it('should run jobs in a worker and return their results', async () => {
+    createPool({ size: 2 });
+    const results = await Promise.all(['a', 'b', 'c'].map((value) => pool.run({ op: 'echo', value })));
+    expect(results).toEqual(['a', 'b', 'c']);
+  });
+
+  it('should surface job errors with their status and code', async () => {
+    createPool();
+    const err = await pool.run({ op: 'fail' }).catch((e) => e);
+    expect(err).toBeInstanceOf(WorkerJobError);
+    expect(err).toMatchObject({ message: 'bad input', statusCode: 422, code: 'PARSE_ERROR' });
+  });
+
+  it('should terminate a job past its deadline and keep serving', async () => {
+    createPool({ timeoutMs: 200 });
+    const started = Date.now();
+
+    await expect(pool.run({ op: 'spin' })).rejects.toBeInstanceOf(PoolTimeoutError);
+    expect(Date.now() - started).toBeLessThan(2000);
+
+    // The spinning worker was replaced, not left burning a core
+    expect(await pool.run({ op: 'echo', value: 'after' })).toBe('after');
+  });
+
+  it('should reject with PoolBusyError once the queue is full', async () => {
+    createPool({ maxQueue: 1 });
+    const running = pool.run({ op: 'delay', value: 'first', ms: 200 });
+    const queued = pool.run({ op: 'echo', value: 'second' });
+
+    await expect(pool.run({ op: 'echo', value: 'third' })).rejects.toBeInstanceOf(PoolBusyError);
+    expect(await running).toBe('first');
+    expect(await queued).toBe('second');
+  });
+
+  it('should report how long a job waited for a worker', async () => {
+    createPool();
+    const waits: number[] = [];
+    await Promise.all([
+      pool.run({ op: 'delay', value: 'a', ms: 100 }, (ms) => waits.push(ms)),
+      pool.run({ op: 'echo', value: 'b' }, (ms) => waits.push(ms)),
+    ]);
+    expect(waits).toHaveLength(2);
+    expect(waits[1]).toBeGreaterThanOrEqual(90);
+  });
+
+  it('should replace a crashed worker', async () => {
+    createPool();
+    await expect(pool.run({ op: 'crash' })).rejects.toThrow('boom');
+    expect(await pool.run({ op: 'echo', value: 'ok' })).toBe('ok');
+  });
+});
@@ -0,0 +1,129 @@
+import { describe, it, expect, vi, afterEach } from 'vitest';
+import { WriteBehindBuffer } from '../src/utils/writeBehind.js';
+
+vi.mock('../src/utils/logger.js', () => ({
+  logger: { error: vi.fn(), warn: vi.fn(), info: vi.fn() },
+}));
+
+interface Row {
+  key: string;
+  value: number;
+}
+
+describe('WriteBehindBuffer', () => {
+  let buffer: WriteBehindBuffer<Row>;
+
+  function createBuffer(write: (rows: Row[]) => Promise<void>, options: { intervalMs?: number; maxBatch?: number } = {}) {
+    buffer = new WriteBehindBuffer('test', write, {
+      intervalMs: options.intervalMs ?? 60_000,
+      maxBatch: options.maxBatch ?? 100,
+    });
+    return buffer;
+  }
+
+  afterEach(async () => {
+    vi.useRealTimers();
+    await buffer?.close();
+  });
+
+  it('should coalesce updates to the same key', async () => {
+    const write = vi.fn(async (_rows: Row[]) => {});
+    const b = createBuffer(write);
+
+    await b.put('a', { key: 'a', value: 1 });
+    await b.put('a', { key: 'a', value: 2 });
+    await b.put('b', { key: 'b', value: 3 });
+    expect(b.get('a')).toEqual({ key: 'a', value: 2 });
+    expect(write).not.toHaveBeenCalled();
+
+    await b.flush();
+    expect(write).toHaveBeenCalledTimes(1);
+    expect(write.mock.calls[0][0]).toEqual([{ key: 'a', value: 2 }, { key: 'b', value: 3 }]);
+    expect(b.size).toBe(0);
+  });
+
+  it('should flush on the interval', async () => {
+    vi.useFakeTimers();
+    const write = vi.fn(async (_rows: Row[]) => {});
+    const b = createBuffer(write, { intervalMs: 1000 });
+
+    await b.put('a', { key: 'a', value: 1 });
+    await vi.advanceTimersByTimeAsync(1000);
+    expect(write).toHaveBeenCalledWith([{ key: 'a', value: 1 }]);
+  });
+
+  it('should flush early and split into batches of maxBatch', async () => {
+    const write = vi.fn(async (_rows: Row[]) => {});
+    const b = createBuffer(write, { maxBatch: 2 });
+
+    await b.put('a', { key: 'a', value: 1 });
+    await b.put('b', { key: 'b', value: 2 });
+    await b.flush();
+    expect(write).toHaveBeenCalledTimes(1);
+    expect(write.mock.calls[0][0]).toHaveLength(2);
+  });
+
+  it('should flush only matching keys', async () => {
+    const write = vi.fn(async (_rows: Row[]) => {});
+    const b = createBuffer(write);
+
+    await b.put('u1:a', { key: 'u1:a', value: 1 });
+    await b.put('u2:a', { key: 'u2:a', value: 2 });
+    await b.flush((key) => key.startsWith('u1:'));
+
+    expect(write).toHaveBeenCalledWith([{ key: 'u1:a', value: 1 }]);
+    expect(b.has('u2:a')).toBe(true);
+  });
+
+  it('should write through when the interval is 0', async () => {
+    const write = vi.fn(async (_rows: Row[]) => {});
+    const b = createBuffer(write, { intervalMs: 0 });
+
+    await b.put('a', { key: 'a', value: 1 });
+    expect(write).toHaveBeenCalledWith([{ key: 'a', value: 1 }]);
+    expect(b.size).toBe(0);
+  });
+
+  it('should retry a failed batch without overwriting newer values', async () => {
+    let fail!: () => void;
+    const write = vi.fn()
+      .mockImplementationOnce(() => new Promise((_resolve, reject) => { fail = () => reject(new Error('db down')); }))
+      .mockResolvedValue(undefined);
+    const b = createBuffer(write);
+
+    await b.put('a', { key: 'a', value: 1 });
+    await b.put('b', { key: 'b', value: 1 });
+    const failing = b.flush();
+    await vi.waitFor(() => expect(write).toHaveBeenCalledTimes(1));
+    await b.put('a', { key: 'a', value: 2 }); // arrives while the batch is in flight
+    fail();
+    await failing;
+
+    expect(b.get('a')).toEqual({ key: 'a', value: 2 });
+    expect(b.get('b')).toEqual({ key: 'b', value: 1 });
+    await b.flush();
+    expect(write).toHaveBeenLastCalledWith([{ key: 'a', value: 2 }, { key: 'b', value: 1 }]);
+  });
+
+  it('should drop rows after repeated failures', async () => {
+    const write = vi.fn().mockRejectedValue(new Error('db down'));
+    const b = createBuffer(write);
+
+    await b.put('a', { key: 'a', value: 1 });
+    await b.flush();
+    await b.flush();
+    expect(b.size).toBe(1);
+    await b.flush();
+    expect(b.size).toBe(0);
+    expect(write).toHaveBeenCalledTimes(3);
+  });
+
+  it('should drain pending rows on close', async () => {
+    const write = vi.fn(async (_rows: Row[]) => {});
+    const b = createBuffer(write);
+
+    await b.put('a', { key: 'a', value: 1 });
+    await b.close();
+    expect(write).toHaveBeenCalledWith([{ key: 'a', value: 1 }]);
+  });
+});
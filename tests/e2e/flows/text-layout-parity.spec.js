@@ -0,0 +1,78 @@
+/**
+ * E2E ТЕСТЫ: ПАРИТЕТ РАСКЛАДКИ
+ * Раскладка TextLayoutPaginator (метрики canvas в воркере) должна совпадать
+ * с DOM-пагинацией AsyncPaginator. Сравнение делает LifecycleDelegate при
+ * перепроверке и оставляет performance mark text-layout:match или
+ * text-layout:drift с обеими раскладками.
+ */
+
+import { test, expect, setStoredSettings } from '../fixtures/book.fixture.js';
+
+// Service worker отдал бы главы из кэша мимо page.route
+test.use({ serviceWorkers: 'block' });
+
+const PARAGRAPH = 'Рассказ у&nbsp;нас пойдет в&nbsp;особенности о&nbsp;хоббитах, и&nbsp;любознательный '
+  + 'читатель многое узнает об&nbsp;их&nbsp;нравах и&nbsp;кое-что из&nbsp;их&nbsp;истории — '
+  + 'самых любознательных отсылаем к&nbsp;повести «Хоббит», где пересказаны начальные главы.';
+
+/**
+ * Глава из поддерживаемой разметки
+ * @param {number} n
+ * @returns {string}
+ */
+function chapter(n) {
+  const paragraphs = (count) => Array.from({ length: count }, (_, i) =>
+    `<p>${i % 3 === 0 ? `<em>${n}.${i}</em> ` : ''}${PARAGRAPH}${i % 4 === 0 ? '<br><strong>Конец абзаца.</strong>' : ''}</p>`,
+  ).join('\n');
+
+  return `<article>
+<h2>Глава ${n}</h2>
+${paragraphs(6)}
+<h3>Раздел</h3>
+<ul><li>Первый пункт</li><li>Второй пункт, подлиннее, чтобы перенестись на новую строку</li></ul>
+<blockquote><p>${PARAGRAPH}</p></blockquote>
+${paragraphs(4)}
+<img src="images/illustrations/1.webp" width="600" height="800" alt="">
+${paragraphs(8 + n * 3)}
+<ol><li>Раз</li><li>Два</li></ol>
+${paragraphs(3)}
+</article>`;
+}
+
+/**
+ * Дождаться отметки о сравнении раскладок
+ * @param {import('@playwright/test').Page} page
+ * @returns {Promise<{name: string, detail: {estimated: Object, measured: Object}}|null>}
+ *   null — раскладка в воркере не использовалась (нет OffscreenCanvas или шрифт недоступен воркеру)
+ */
+async function waitForParityMark(page) {
+  const handle = await page.waitForFunction(() => {
+    const mark = performance.getEntriesByType('mark').find(entry => entry.name.startsWith('text-layout:'));
+    return mark ? { name: mark.name, detail: mark.detail } : null;
+  }, null, { timeout: 15000 }).catch(() => null);
+
+  return handle ? handle.jsonValue() : null;
+}
+
+test.describe('Text layout parity', () => {
+  test.beforeEach(async ({ page }) => {
+    await page.route('**/content/part_*.html', (route) => {
+      const n = Number(/part_(\d+)\.html/.exec(route.request().url())[1]);
+      return route.fulfill({ contentType: 'text/html; charset=utf-8', body: chapter(n) });
+    });
+  });
+
+  for (const fontSize of [14, 18, 22]) {
+    test(`worker layout matches DOM pagination at ${fontSize}px`, async ({ bookPage, page }) => {
+      await setStoredSettings(page, { font: 'georgia', fontSize });
+      await bookPage.goto();
+      await bookPage.openByCover();
+
+      const mark = await waitForParityMark(page);
+      test.skip(!mark, 'Раскладка в воркере недоступна в этом браузере');
+
+      expect(mark.detail.estimated).toEqual(mark.detail.measured);
+      expect(mark.name).toBe('text-layout:match');
+    });
+  }
+});
@@ -72,6 +72,21 @@ describe('Public Discovery API Integration', () => {
         expect(url).toContain('limit=10');
       });
 
+      it('should pass cursor for keyset paging', async () => {
+        fetchMock.mockResolvedValue({
+          ok: true,
+          status: 200,
+          headers: new Headers({ 'content-type': 'application/json' }),
+          json: () => Promise.resolve({ data: [] }),
+        });
+
+        await api.getPublicDiscover(6, 'eyJrIjoiMjAyNiJ9');
+
+        const url = fetchMock.mock.calls[0][0];
+        expect(url).toContain('limit=6');
+        expect(url).toContain('cursor=eyJrIjoiMjAyNiJ9');
+      });
+
       it('should handle server error gracefully', async () => {
         fetchMock.mockResolvedValue({
           ok: false,
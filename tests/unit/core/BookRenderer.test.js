@@ -227,6 +227,47 @@ describe('BookRenderer', () => {
     });
   });
 
+  describe('partial source (progressive pagination)', () => {
+    let container;
+
+    beforeEach(() => {
+      container = document.createElement('div');
+      renderer.setPaginationData({ ...createMockPageData(3, 300, 500), pageCount: 20, firstPage: 8, sourcePages: 3 });
+    });
+
+    it('should report the provisional total', () => {
+      expect(renderer.totalPages).toBe(20);
+    });
+
+    it('should offset pages inside the source', () => {
+      renderer.fill(container, 9);
+      const inner = container.firstChild.firstChild;
+      expect(inner.style.transform).toBe('translate3d(-300px, 0px, 0px)');
+      expect(inner.style.width).toBe('900px'); // 3 * 300
+    });
+
+    it('should show a placeholder on pages outside the source', () => {
+      renderer.fill(container, 7);
+      expect(container.children.length).toBe(1);
+      expect(container.firstChild.className).toBe('page-placeholder');
+      expect(container.firstChild.getAttribute('aria-busy')).toBe('true');
+
+      renderer.fill(container, 11);
+      expect(container.firstChild.className).toBe('page-placeholder');
+    });
+
+    it('should replace the placeholder once the page is in the source', () => {
+      renderer.fill(container, 7);
+      renderer.fill(container, 8);
+      expect(container.firstChild._isBookViewport).toBe(true);
+    });
+
+    it('should leave pages past the end empty', () => {
+      renderer.fill(container, 20);
+      expect(container.children.length).toBe(0);
+    });
+  });
+
   describe('_clearAllViewports', () => {
     it('should clear all containers', () => {
       renderer.setPaginationData(createMockPageData(4));
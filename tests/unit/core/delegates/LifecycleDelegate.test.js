@@ -46,6 +46,7 @@ vi.mock('../../../../js/config.js', () => ({
 }));
 
 const { LifecycleDelegate } = await import('../../../../js/core/delegates/LifecycleDelegate.js');
+const { AsyncPaginator } = await import('../../../../js/managers/AsyncPaginator.js');
 const { DelegateEvents } = await import('../../../../js/core/delegates/BaseDelegate.js');
 
 describe('LifecycleDelegate', () => {
@@ -91,6 +92,15 @@ describe('LifecycleDelegate', () => {
           pageData: { sourceElement: document.createElement('div'), pageCount: 1, pageWidth: 400, pageHeight: 600 },
           chapterStarts: [0],
         }),
+        paginateProgressive: vi.fn(async (html, el, { startPage }) => ({
+          first: {
+            pageData: { sourceElement: document.createElement('div'), pageCount: 1, pageWidth: 400, pageHeight: 600 },
+            chapterStarts: [0],
+            startIndex: startPage,
+          },
+          rest: new Promise(() => {}),
+        })),
+        abort: vi.fn(),
       },
       renderer: {
         renderSpread: vi.fn(),
@@ -531,6 +541,389 @@ describe('LifecycleDelegate', () => {
     });
   });
 
+  describe('pagination layout cache', () => {
+    const cachedLayout = { pageCount: 10, chapterStarts: [0, 4], spacers: [1] };
+    let validatePaginate;
+
+    beforeEach(() => {
+      mockDeps.paginationCache = {
+        keyFor: vi.fn().mockResolvedValue('layout-key'),
+        get: vi.fn().mockResolvedValue(null),
+        put: vi.fn().mockResolvedValue(undefined),
+        hasTextLayoutParity: vi.fn().mockResolvedValue(false),
+        recordTextLayoutParity: vi.fn().mockResolvedValue(undefined),
+      };
+      mockDeps.paginator.restore = vi.fn().mockResolvedValue({
+        pageData: { sourceElement: document.createElement('div'), pageCount: 10, pageWidth: 400, pageHeight: 600 },
+        chapterStarts: [0, 4],
+        layout: cachedLayout,
+      });
+      mockDeps.paginator.paginate.mockResolvedValue({
+        pageData: { sourceElement: document.createElement('div'), pageCount: 10, pageWidth: 400, pageHeight: 600 },
+        chapterStarts: [0, 4],
+        layout: cachedLayout,
+      });
+      validatePaginate = vi.spyOn(AsyncPaginator.prototype, 'paginate');
+
+      delegate.destroy();
+      delegate = new LifecycleDelegate(mockDeps);
+      delegate.on(DelegateEvents.PAGINATION_COMPLETE, eventHandlers.onPaginationComplete);
+      delegate.on(DelegateEvents.INDEX_CHANGE, (index) => {
+        mockDeps.state.index = index;
+        eventHandlers.onIndexChange(index);
+      });
+    });
+
+    afterEach(() => {
+      validatePaginate.mockRestore();
+    });
+
+    it('should paginate and save the layout on a cache miss', async () => {
+      const openPromise = delegate.open();
+      await vi.runAllTimersAsync();
+      await openPromise;
+
+      expect(mockDeps.paginator.paginate).toHaveBeenCalled();
+      expect(mockDeps.paginator.restore).not.toHaveBeenCalled();
+      expect(mockDeps.paginationCache.put).toHaveBeenCalledWith('layout-key', cachedLayout);
+    });
+
+    it('should build the key from content and layout settings', async () => {
+      const openPromise = delegate.open();
+      await vi.runAllTimersAsync();
+      await openPromise;
+
+      expect(mockDeps.paginationCache.keyFor).toHaveBeenCalledWith(
+        '<html><body>Content</body></html>',
+        expect.objectContaining({ font: null, fontSize: null, theme: null, isMobile: false }),
+      );
+    });
+
+    it('should render from the cached layout and keep it when validation agrees', async () => {
+      mockDeps.paginationCache.get.mockResolvedValue(cachedLayout);
+      validatePaginate.mockResolvedValue({ pageData: {}, chapterStarts: [0, 4], layout: { ...cachedLayout } });
+
+      const openPromise = delegate.open(4);
+      await vi.runAllTimersAsync();
+      await openPromise;
+
+      expect(mockDeps.paginator.restore).toHaveBeenCalled();
+      expect(mockDeps.paginator.paginate).not.toHaveBeenCalled();
+      expect(mockDeps.renderer.renderSpread).toHaveBeenCalledWith(4, false);
+      expect(validatePaginate).toHaveBeenCalled();
+      expect(mockDeps.paginationCache.put).not.toHaveBeenCalled();
+      expect(eventHandlers.onPaginationComplete).toHaveBeenCalledTimes(1);
+    });
+
+    it('should apply and save a corrected layout, keeping the position in the chapter', async () => {
+      const corrected = { pageCount: 12, chapterStarts: [0, 6], spacers: [] };
+      mockDeps.paginationCache.get.mockResolvedValue(cachedLayout);
+      validatePaginate.mockResolvedValue({ pageData: { pageCount: 12 }, chapterStarts: [0, 6], layout: corrected });
+
+      const openPromise = delegate.open(4);
+      await vi.runAllTimersAsync();
+      await openPromise;
+
+      expect(mockDeps.paginationCache.put).toHaveBeenCalledWith('layout-key', corrected);
+      expect(eventHandlers.onPaginationComplete).toHaveBeenLastCalledWith({ pageData: { pageCount: 12 }, chapterStarts: [0, 6] });
+      expect(mockDeps.renderer.renderSpread).toHaveBeenLastCalledWith(6, false);
+      expect(eventHandlers.onIndexChange).toHaveBeenLastCalledWith(6);
+    });
+
+    it('should show the current chapter first and apply the full layout later', async () => {
+      let finishRest;
+      const full = { pageCount: 12, chapterStarts: [0, 6], spacers: [] };
+      validatePaginate.mockResolvedValue({ pageData: { pageCount: 12 }, chapterStarts: [0, 6], layout: { ...full } });
+      mockDeps.paginator.paginateProgressive.mockResolvedValue({
+        first: {
+          pageData: { sourceElement: document.createElement('div'), pageCount: 10, pageWidth: 400, pageHeight: 600 },
+          chapterStarts: [0, 4],
+          startIndex: 4,
+        },
+        rest: new Promise((resolve) => { finishRest = resolve; }),
+      });
+
+      const openPromise = delegate.open(4);
+      await vi.runAllTimersAsync();
+      await openPromise;
+
+      expect(mockDeps.paginator.paginate).not.toHaveBeenCalled();
+      expect(mockDeps.paginator.paginateProgressive).toHaveBeenCalledWith(
+        '<html><body>Content</body></html>',
+        expect.anything(),
+        expect.objectContaining({ startPage: 4 }),
+      );
+      expect(mockDeps.renderer.renderSpread).toHaveBeenLastCalledWith(4, false);
+
+      finishRest({ pageData: { pageCount: 12 }, chapterStarts: [0, 6], layout: full });
+      await vi.runAllTimersAsync();
+
+      expect(validatePaginate).toHaveBeenCalled();
+      expect(mockDeps.paginationCache.put).toHaveBeenCalledWith('layout-key', { ...full });
+      expect(eventHandlers.onPaginationComplete).toHaveBeenLastCalledWith({ pageData: { pageCount: 12 }, chapterStarts: [0, 6] });
+      expect(mockDeps.renderer.renderSpread).toHaveBeenLastCalledWith(4, false);
+    });
+
+    it('should return to the saved page when the estimate put it in the wrong chapter', async () => {
+      let finishRest;
+      const full = { pageCount: 16, chapterStarts: [0, 8, 12], spacers: [] };
+      validatePaginate.mockResolvedValue({ pageData: { pageCount: 16 }, chapterStarts: [0, 8, 12], layout: { ...full } });
+      // Оценка по объёму текста: страница 6 — во второй главе, хотя на самом деле — в первой
+      mockDeps.paginator.paginateProgressive.mockResolvedValue({
+        first: {
+          pageData: { sourceElement: document.createElement('div'), pageCount: 12, pageWidth: 400, pageHeight: 600 },
+          chapterStarts: [0, 4, 8],
+          startIndex: 6,
+        },
+        rest: new Promise((resolve) => { finishRest = resolve; }),
+      });
+
+      const openPromise = delegate.open(6);
+      await vi.runAllTimersAsync();
+      await openPromise;
+      finishRest({ pageData: { pageCount: 16 }, chapterStarts: [0, 8, 12], layout: full });
+      await vi.runAllTimersAsync();
+
+      expect(mockDeps.renderer.renderSpread).toHaveBeenLastCalledWith(6, false);
+      expect(eventHandlers.onIndexChange).toHaveBeenLastCalledWith(6);
+    });
+
+    it('should keep the chapter and offset once the reader has moved from the saved page', async () => {
+      let finishRest;
+      const full = { pageCount: 16, chapterStarts: [0, 8, 12], spacers: [] };
+      validatePaginate.mockResolvedValue({ pageData: { pageCount: 16 }, chapterStarts: [0, 8, 12], layout: { ...full } });
+      mockDeps.paginator.paginateProgressive.mockResolvedValue({
+        first: {
+          pageData: { sourceElement: document.createElement('div'), pageCount: 12, pageWidth: 400, pageHeight: 600 },
+          chapterStarts: [0, 4, 8],
+          startIndex: 6,
+        },
+        rest: new Promise((resolve) => { finishRest = resolve; }),
+      });
+
+      const openPromise = delegate.open(6);
+      await vi.runAllTimersAsync();
+      await openPromise;
+      // Читатель перелистнул на начало третьей главы
+      mockDeps.state.index = 8;
+      finishRest({ pageData: { pageCount: 16 }, chapterStarts: [0, 8, 12], layout: full });
+      await vi.runAllTimersAsync();
+
+      expect(mockDeps.renderer.renderSpread).toHaveBeenLastCalledWith(12, false);
+    });
+
+    it('should cache the full pagination, not the progressive result, when they differ', async () => {
+      let finishRest;
+      const assembled = { pageCount: 12, chapterStarts: [0, 6], spacers: [] };
+      const measured = { pageCount: 13, chapterStarts: [0, 7], spacers: [] };
+      validatePaginate.mockResolvedValue({ pageData: { pageCount: 13 }, chapterStarts: [0, 7], layout: measured });
+      mockDeps.paginator.paginateProgressive.mockResolvedValue({
+        first: {
+          pageData: { sourceElement: document.createElement('div'), pageCount: 10, pageWidth: 400, pageHeight: 600 },
+          chapterStarts: [0, 4],
+          startIndex: 4,
+        },
+        rest: new Promise((resolve) => { finishRest = resolve; }),
+      });
+
+      const openPromise = delegate.open(4);
+      await vi.runAllTimersAsync();
+      await openPromise;
+      finishRest({ pageData: { pageCount: 12 }, chapterStarts: [0, 6], layout: assembled });
+      await vi.runAllTimersAsync();
+
+      expect(mockDeps.paginationCache.put).toHaveBeenCalledTimes(1);
+      expect(mockDeps.paginationCache.put).toHaveBeenCalledWith('layout-key', measured);
+      expect(eventHandlers.onPaginationComplete).toHaveBeenLastCalledWith({ pageData: { pageCount: 13 }, chapterStarts: [0, 7] });
+      expect(mockDeps.renderer.renderSpread).toHaveBeenLastCalledWith(4, false);
+    });
+
+    it('should pass the previous layout when repaginating in the middle of the book', async () => {
+      mockDeps.state.index = 4;
+      mockDeps.state.chapterStarts = [0, 4];
+      mockDeps.renderer.totalPages = 10;
+
+      const promise = delegate.repaginate(true);
+      await vi.runAllTimersAsync();
+      await promise;
+
+      expect(mockDeps.paginator.paginateProgressive).toHaveBeenCalledWith(
+        expect.any(String),
+        expect.anything(),
+        expect.objectContaining({ startPage: 4, previous: { chapterStarts: [0, 4], pageCount: 10 } }),
+      );
+    });
+
+    it('should drop a validation overtaken by a newer pagination', async () => {
+      delegate._paginationGeneration = 2;
+
+      await delegate._validateLayout({
+        html: '<article></article>',
+        measureElement: document.createElement('div'),
+        chapterTitles: [],
+        key: 'layout-key',
+        layout: cachedLayout,
+        generation: 1,
+      });
+
+      expect(validatePaginate).not.toHaveBeenCalled();
+      expect(mockDeps.paginationCache.put).not.toHaveBeenCalled();
+    });
+  });
+
+  describe('text layout', () => {
+    const estimated = { pageCount: 10, chapterStarts: [0, 4], spacers: [1] };
+    let validatePaginate;
+    let markSpy;
+
+    beforeEach(() => {
+      mockDeps.paginationCache = {
+        keyFor: vi.fn().mockResolvedValue('layout-key'),
+        get: vi.fn().mockResolvedValue(null),
+        put: vi.fn().mockResolvedValue(undefined),
+        hasTextLayoutParity: vi.fn().mockResolvedValue(false),
+        recordTextLayoutParity: vi.fn().mockResolvedValue(undefined),
+      };
+      mockDeps.textLayout = { layout: vi.fn().mockResolvedValue(estimated) };
+      mockDeps.paginator.restore = vi.fn().mockResolvedValue({
+        pageData: { sourceElement: document.createElement('div'), pageCount: 10, pageWidth: 400, pageHeight: 600 },
+        chapterStarts: [0, 4],
+        layout: estimated,
+      });
+      validatePaginate = vi.spyOn(AsyncPaginator.prototype, 'paginate');
+      markSpy = vi.fn();
+      vi.stubGlobal('performance', { now: () => Date.now(), mark: markSpy });
+
+      delegate.destroy();
+      delegate = new LifecycleDelegate(mockDeps);
+      delegate.on(DelegateEvents.PAGINATION_COMPLETE, eventHandlers.onPaginationComplete);
+      delegate.on(DelegateEvents.INDEX_CHANGE, (index) => {
+        mockDeps.state.index = index;
+        eventHandlers.onIndexChange(index);
+      });
+    });
+
+    afterEach(() => {
+      vi.unstubAllGlobals();
+    });
+
+    it('should render the estimated layout and save it once validation agrees', async () => {
+      validatePaginate.mockResolvedValue({ pageData: {}, chapterStarts: [0, 4], layout: { ...estimated } });
+
+      const openPromise = delegate.open();
+      await vi.runAllTimersAsync();
+      await openPromise;
+
+      expect(mockDeps.textLayout.layout).toHaveBeenCalledWith(
+        '<html><body>Content</body></html>',
+        expect.anything(),
+        expect.objectContaining({ isMobile: false }),
+      );
+      expect(mockDeps.paginator.restore).toHaveBeenCalledWith(
+        expect.any(String), expect.anything(), estimated, expect.anything(),
+      );
+      expect(mockDeps.paginator.paginate).not.toHaveBeenCalled();
+      expect(mockDeps.paginator.paginateProgressive).not.toHaveBeenCalled();
+      expect(mockDeps.renderer.renderSpread).toHaveBeenCalledWith(0, false);
+      expect(mockDeps.paginationCache.put).toHaveBeenCalledWith('layout-key', { ...estimated });
+      expect(markSpy).toHaveBeenCalledWith('text-layout:match', expect.anything());
+      expect(mockDeps.paginationCache.recordTextLayoutParity).toHaveBeenCalledWith(
+        expect.objectContaining({ isMobile: false }), true,
+      );
+      expect(eventHandlers.onPaginationComplete).toHaveBeenCalledTimes(1);
+    });
+
+    it('should apply the measured layout when the estimate drifts', async () => {
+      const measured = { pageCount: 12, chapterStarts: [0, 6], spacers: [] };
+      validatePaginate.mockResolvedValue({ pageData: { pageCount: 12 }, chapterStarts: [0, 6], layout: measured });
+
+      const openPromise = delegate.open();
+      await vi.runAllTimersAsync();
+      await openPromise;
+
+      expect(markSpy).toHaveBeenCalledWith('text-layout:drift', { detail: { estimated, measured } });
+      expect(mockDeps.paginationCache.recordTextLayoutParity).toHaveBeenCalledWith(expect.anything(), false);
+      expect(mockDeps.paginationCache.put).toHaveBeenCalledWith('layout-key', measured);
+      expect(eventHandlers.onPaginationComplete).toHaveBeenLastCalledWith({ pageData: { pageCount: 12 }, chapterStarts: [0, 6] });
+    });
+
+    it('should skip validation once parity is confirmed for the settings', async () => {
+      mockDeps.paginationCache.hasTextLayoutParity.mockResolvedValue(true);
+
+      const openPromise = delegate.open(4);
+      await vi.runAllTimersAsync();
+      await openPromise;
+
+      expect(mockDeps.paginator.restore).toHaveBeenCalledWith(
+        expect.any(String), expect.anything(), estimated, expect.anything(),
+      );
+      expect(mockDeps.paginator.paginateProgressive).not.toHaveBeenCalled();
+      expect(validatePaginate).not.toHaveBeenCalled();
+      expect(mockDeps.paginationCache.put).toHaveBeenCalledWith('layout-key', estimated);
+      expect(mockDeps.renderer.renderSpread).toHaveBeenCalledWith(4, false);
+    });
+
+    it('should open in the middle progressively until parity is confirmed, checking the estimate', async () => {
+      let finishRest;
+      const measured = { pageCount: 10, chapterStarts: [0, 4], spacers: [1] };
+      validatePaginate.mockResolvedValue({ pageData: {}, chapterStarts: [0, 4], layout: { ...measured } });
+      mockDeps.paginator.paginateProgressive.mockResolvedValue({
+        first: {
+          pageData: { sourceElement: document.createElement('div'), pageCount: 10, pageWidth: 400, pageHeight: 600 },
+          chapterStarts: [0, 4],
+          startIndex: 4,
+        },
+        rest: new Promise((resolve) => { finishRest = resolve; }),
+      });
+
+      const openPromise = delegate.open(4);
+      await vi.runAllTimersAsync();
+      await openPromise;
+
+      expect(mockDeps.paginator.restore).not.toHaveBeenCalled();
+      expect(mockDeps.paginator.paginateProgressive).toHaveBeenCalledWith(
+        expect.any(String),
+        expect.anything(),
+        expect.objectContaining({ startPage: 4, previous: estimated }),
+      );
+      expect(mockDeps.renderer.renderSpread).toHaveBeenLastCalledWith(4, false);
+
+      finishRest({ pageData: {}, chapterStarts: [0, 4], layout: { ...measured } });
+      await vi.runAllTimersAsync();
+
+      expect(markSpy).toHaveBeenCalledWith('text-layout:match', { detail: { estimated, measured } });
+      expect(mockDeps.paginationCache.recordTextLayoutParity).toHaveBeenCalledWith(expect.anything(), true);
+      expect(mockDeps.paginationCache.put).toHaveBeenCalledWith('layout-key', measured);
+    });
+
+    it('should prefer the cached layout', async () => {
+      mockDeps.paginationCache.get.mockResolvedValue(estimated);
+      validatePaginate.mockResolvedValue({ pageData: {}, chapterStarts: [0, 4], layout: { ...estimated } });
+
+      const openPromise = delegate.open();
+      await vi.runAllTimersAsync();
+      await openPromise;
+
+      expect(mockDeps.textLayout.layout).not.toHaveBeenCalled();
+      expect(markSpy).not.toHaveBeenCalledWith('text-layout:match', expect.anything());
+    });
+
+    it('should fall back to DOM pagination for unsupported content', async () => {
+      mockDeps.textLayout.layout.mockResolvedValue(null);
+
+      const openPromise = delegate.open(4);
+      await vi.runAllTimersAsync();
+      await openPromise;
+
+      expect(mockDeps.paginator.restore).not.toHaveBeenCalled();
+      expect(mockDeps.paginator.paginateProgressive).toHaveBeenCalledWith(
+        expect.any(String),
+        expect.anything(),
+        expect.objectContaining({ startPage: 4, previous: null }),
+      );
+    });
+  });
+
   describe('destroy', () => {
     it('should clear all references', () => {
       delegate.destroy();
@@ -3,9 +3,11 @@
  * Тесты для группы сервисов рендеринга и анимации
  */
 
-import { describe, it, expect, beforeEach, vi } from 'vitest';
+import { describe, it, expect, beforeEach, afterEach, vi } from 'vitest';
 
-const { MockBookRenderer, MockBookAnimator, MockLoadingIndicator, MockAsyncPaginator } = vi.hoisted(() => {
+const {
+  MockBookRenderer, MockBookAnimator, MockLoadingIndicator, MockAsyncPaginator, MockTextLayoutPaginator,
+} = vi.hoisted(() => {
   const MockBookRenderer = vi.fn(function () {
     this.renderSpread = vi.fn();
     this.renderSingle = vi.fn();
@@ -29,13 +31,18 @@ const { MockBookRenderer, MockBookAnimator, MockLoadingIndicator, MockAsyncPagin
     this.on = vi.fn();
     this.off = vi.fn();
   });
-  return { MockBookRenderer, MockBookAnimator, MockLoadingIndicator, MockAsyncPaginator };
+  const MockTextLayoutPaginator = vi.fn(function () {
+    this.layout = vi.fn();
+    this.destroy = vi.fn();
+  });
+  return { MockBookRenderer, MockBookAnimator, MockLoadingIndicator, MockAsyncPaginator, MockTextLayoutPaginator };
 });
 
 vi.mock('@core/BookRenderer.js', () => ({ BookRenderer: MockBookRenderer }));
 vi.mock('@core/BookAnimator.js', () => ({ BookAnimator: MockBookAnimator }));
 vi.mock('@core/LoadingIndicator.js', () => ({ LoadingIndicator: MockLoadingIndicator }));
 vi.mock('@managers/AsyncPaginator.js', () => ({ AsyncPaginator: MockAsyncPaginator }));
+vi.mock('@managers/TextLayoutPaginator.js', () => ({ TextLayoutPaginator: MockTextLayoutPaginator }));
 vi.mock('@utils/HTMLSanitizer.js', () => ({
   sanitizer: { sanitize: vi.fn((html) => html) },
 }));
@@ -154,6 +161,31 @@ describe('RenderServices', () => {
     });
   });
 
+  // ═══════════════════════════════════════════════════════════════════════════
+  // _createTextLayout
+  // ═══════════════════════════════════════════════════════════════════════════
+
+  describe('_createTextLayout()', () => {
+    afterEach(() => {
+      vi.unstubAllGlobals();
+    });
+
+    it('should be null without Worker or OffscreenCanvas', () => {
+      vi.stubGlobal('OffscreenCanvas', undefined);
+      expect(new RenderServices(mockCore).textLayout).toBeNull();
+    });
+
+    it('should create TextLayoutPaginator with sanitizer when supported', () => {
+      vi.stubGlobal('Worker', vi.fn());
+      vi.stubGlobal('OffscreenCanvas', vi.fn());
+
+      const created = new RenderServices(mockCore);
+
+      expect(created.textLayout).toBeInstanceOf(MockTextLayoutPaginator);
+      expect(MockTextLayoutPaginator.mock.calls[0][0]).toHaveProperty('sanitizer');
+    });
+  });
+
   // ═══════════════════════════════════════════════════════════════════════════
   // _createLoadingIndicator
   // ═══════════════════════════════════════════════════════════════════════════
@@ -190,6 +222,14 @@ describe('RenderServices', () => {
       expect(destroySpy).toHaveBeenCalledOnce();
     });
 
+    it('should destroy text layout', () => {
+      const textLayout = { destroy: vi.fn() };
+      services.textLayout = textLayout;
+      services.destroy();
+      expect(textLayout.destroy).toHaveBeenCalledOnce();
+      expect(services.textLayout).toBeNull();
+    });
+
     it('should nullify all references', () => {
       services.destroy();
       expect(services.renderer).toBeNull();
@@ -464,6 +464,115 @@ describe('AsyncPaginator', () => {
 
       expect(removeChildSpy).toHaveBeenCalled();
     });
+
+    it('should return measured layout with the result', async () => {
+      const html = '<article><h2>A</h2></article><article><h2>B</h2></article>';
+      const paginatePromise = paginator.paginate(html, mockMeasureElement);
+      await advancePagination();
+      const result = await paginatePromise;
+
+      expect(result.layout).toEqual({
+        pageCount: result.pageData.pageCount,
+        chapterStarts: result.chapterStarts,
+        spacers: expect.any(Array),
+      });
+    });
+  });
+
+  describe('restore', () => {
+    const html = '<article><h2>A</h2><p>1</p></article><article><h2>B</h2><p>2</p></article>';
+
+    it('should rebuild pages from a saved layout without measuring', async () => {
+      const appendSpy = vi.spyOn(document.body, 'appendChild');
+      const layout = { pageCount: 6, chapterStarts: [1, 4], spacers: [1] };
+
+      const result = await paginator.restore(html, mockMeasureElement, layout, { chapterTitles: ['Первая', 'Вторая'] });
+
+      expect(appendSpy).not.toHaveBeenCalled();
+      expect(result.chapterStarts).toEqual([1, 4]);
+      expect(result.pageData).toMatchObject({ pageCount: 6, pageWidth: 400, pageHeight: 600, hasTOC: true });
+
+      const source = result.pageData.sourceElement;
+      expect(source.parentNode).toBeNull();
+      expect(source.querySelector('.toc li').textContent).toBe('Первая');
+      const markers = source.querySelectorAll('[data-chapter-start]');
+      expect(markers[0].previousElementSibling.className).toBe('toc');
+      expect(markers[1].previousElementSibling.style.breakBefore).toBe('column');
+    });
+
+    it('should return null when the layout does not match the content', async () => {
+      const layout = { pageCount: 3, chapterStarts: [0], spacers: [] };
+      expect(await paginator.restore(html, mockMeasureElement, layout)).toBeNull();
+    });
+  });
+
+  describe('_computeLayout', () => {
+    it('should place chapters after the TOC with spacers on desktop', () => {
+      expect(paginator._computeLayout(1, [3, 2, 4], false)).toEqual({
+        pageCount: 12,
+        chapterStarts: [2, 6, 8],
+        spacers: [0, 1],
+      });
+    });
+
+    it('should not align chapters on mobile', () => {
+      expect(paginator._computeLayout(1, [3, 2, 4], true)).toEqual({
+        pageCount: 10,
+        chapterStarts: [1, 4, 6],
+        spacers: [],
+      });
+    });
+  });
+
+  describe('paginateProgressive', () => {
+    const html = '<article><h2>A</h2><p>1</p></article><article><h2>B</h2><p>2</p></article><article><h2>C</h2><p>3</p></article>';
+    const measured = [4, 6, 2];
+
+    beforeEach(() => {
+      vi.spyOn(paginator, '_measureColumns').mockReturnValue(1);
+      vi.spyOn(paginator, '_measureChapter').mockImplementation((page, article, index) => measured[index]);
+    });
+
+    it('should measure only the chapter with the reading position first', async () => {
+      const previous = { pageCount: 14, chapterStarts: [2, 6, 12], spacers: [0] };
+
+      const { first } = await paginator.paginateProgressive(html, mockMeasureElement, { startPage: 8, previous });
+
+      expect(paginator._measureChapter).toHaveBeenCalledTimes(1);
+      expect(paginator._measureChapter.mock.calls[0][2]).toBe(1);
+      expect(first.pageData.sourceElement.querySelectorAll('[data-chapter-start]')).toHaveLength(1);
+      expect(first.pageData).toMatchObject({ firstPage: first.chapterStarts[1], sourcePages: 6, hasTOC: false });
+      expect(first.startIndex).toBeGreaterThanOrEqual(first.chapterStarts[1]);
+      expect(first.startIndex % 2).toBe(0);
+    });
+
+    it('should resolve rest with the full layout', async () => {
+      const previous = { pageCount: 14, chapterStarts: [2, 6, 12], spacers: [0] };
+
+      const { rest } = await paginator.paginateProgressive(html, mockMeasureElement, { startPage: 8, previous });
+      await advancePagination();
+      const result = await rest;
+
+      expect(paginator._measureChapter).toHaveBeenCalledTimes(3);
+      expect(result.layout).toEqual(paginator._computeLayout(1, measured, false));
+      expect(result.chapterStarts).toEqual(result.layout.chapterStarts);
+      expect(result.pageData.sourceElement.querySelectorAll('[data-chapter-start]')).toHaveLength(3);
+    });
+
+    it('should calibrate on the first chapter without a previous layout', async () => {
+      const { first } = await paginator.paginateProgressive(html, mockMeasureElement, { startPage: 2 });
+
+      expect(paginator._measureChapter.mock.calls[0][2]).toBe(0);
+      expect(first.chapterStarts[0]).toBe(2);
+    });
+
+    it('should return an empty rest when aborted', async () => {
+      const { rest } = await paginator.paginateProgressive(html, mockMeasureElement, { startPage: 8 });
+      paginator.abort();
+      await advancePagination();
+
+      expect(await rest).toEqual({ pageData: null, chapterStarts: [] });
+    });
   });
 
   describe('destroy', () => {
@@ -0,0 +1,172 @@
+/**
+ * Тесты для PaginationCache
+ * Кэш раскладки страниц в IndexedDB
+ */
+import { describe, it, expect, beforeEach, vi } from 'vitest';
+import { PaginationCache } from '../../../js/managers/PaginationCache.js';
+
+/** In-memory замена IdbStorage; update() атомарен, как readwrite-транзакция */
+function createStorage() {
+  const data = new Map();
+  const store = {
+    put: (value, key) => { data.set(key, value); },
+    delete: (key) => { data.delete(key); },
+  };
+  return {
+    data,
+    get: vi.fn(async (key) => data.get(key) ?? null),
+    put: vi.fn(async (key, value) => { data.set(key, value); }),
+    delete: vi.fn(async (key) => { data.delete(key); }),
+    update: vi.fn(async (key, updater) => {
+      await Promise.resolve();
+      const value = updater(data.get(key) ?? null, store);
+      if (value !== undefined) data.set(key, value);
+    }),
+    destroy: vi.fn(),
+  };
+}
+
+const params = {
+  chapterTitles: ['Глава 1', 'Глава 2'],
+  font: 'georgia',
+  fontSize: 18,
+  pageWidth: 400,
+  pageHeight: 600,
+  theme: 'light',
+  isMobile: false,
+};
+
+const layout = { pageCount: 12, chapterStarts: [2, 6], spacers: [1] };
+
+describe('PaginationCache', () => {
+  let storage;
+  let cache;
+
+  beforeEach(() => {
+    storage = createStorage();
+    cache = new PaginationCache(storage);
+  });
+
+  describe('keyFor', () => {
+    it('should be stable for the same content and settings', async () => {
+      expect(await cache.keyFor('<article>x</article>', params))
+        .toBe(await cache.keyFor('<article>x</article>', { ...params }));
+    });
+
+    it('should change with content, titles and every layout setting', async () => {
+      const base = await cache.keyFor('<article>x</article>', params);
+      const variants = await Promise.all([
+        cache.keyFor('<article>y</article>', params),
+        cache.keyFor('<article>x</article>', { ...params, chapterTitles: ['Другая', 'Глава 2'] }),
+        cache.keyFor('<article>x</article>', { ...params, font: 'inter' }),
+        cache.keyFor('<article>x</article>', { ...params, fontSize: 20 }),
+        cache.keyFor('<article>x</article>', { ...params, pageWidth: 401 }),
+        cache.keyFor('<article>x</article>', { ...params, pageHeight: 599 }),
+        cache.keyFor('<article>x</article>', { ...params, theme: 'dark' }),
+        cache.keyFor('<article>x</article>', { ...params, isMobile: true }),
+      ]);
+
+      expect(new Set([base, ...variants]).size).toBe(variants.length + 1);
+    });
+  });
+
+  describe('get/put', () => {
+    it('should round-trip a layout', async () => {
+      await cache.put('k', layout);
+      expect(await cache.get('k')).toEqual(layout);
+    });
+
+    it('should return null for missing or malformed entries', async () => {
+      expect(await cache.get('missing')).toBeNull();
+
+      storage.data.set('bad', { pageCount: 0, chapterStarts: [] });
+      expect(await cache.get('bad')).toBeNull();
+    });
+
+    it('should return null when IndexedDB fails', async () => {
+      storage.get.mockRejectedValue(new Error('blocked'));
+      expect(await cache.get('k')).toBeNull();
+    });
+
+    it('should not throw when saving fails', async () => {
+      vi.spyOn(console, 'warn').mockImplementation(() => {});
+      storage.update.mockRejectedValue(new Error('quota'));
+
+      await expect(cache.put('k', layout)).resolves.toBeUndefined();
+      expect(console.warn).toHaveBeenCalled();
+    });
+
+    it('should evict the oldest layouts beyond the limit', async () => {
+      for (let i = 0; i < 31; i++) {
+        await cache.put(`k${i}`, layout);
+      }
+
+      expect(await cache.get('k0')).toBeNull();
+      expect(await cache.get('k1')).toEqual(layout);
+      expect(await cache.get('k30')).toEqual(layout);
+    });
+
+    it('should keep every concurrent write in the index', async () => {
+      await Promise.all(Array.from({ length: 31 }, (_, i) => cache.put(`k${i}`, layout)));
+
+      expect(storage.data.get('__index')).toHaveLength(30);
+      expect(await cache.get('k0')).toBeNull();
+      for (let i = 1; i <= 30; i++) {
+        expect(await cache.get(`k${i}`)).toEqual(layout);
+      }
+    });
+
+    it('should refresh the position of a rewritten key', async () => {
+      await cache.put('k0', layout);
+      for (let i = 1; i < 30; i++) {
+        await cache.put(`k${i}`, layout);
+      }
+      await cache.put('k0', layout);
+      await cache.put('k30', layout);
+
+      expect(await cache.get('k0')).toEqual(layout);
+      expect(await cache.get('k1')).toBeNull();
+    });
+  });
+
+  describe('text layout parity', () => {
+    it('should be confirmed after three matches in a row', async () => {
+      for (let i = 0; i < 2; i++) {
+        await cache.recordTextLayoutParity(params, true);
+      }
+      expect(await cache.hasTextLayoutParity(params)).toBe(false);
+
+      await cache.recordTextLayoutParity(params, true);
+      expect(await cache.hasTextLayoutParity(params)).toBe(true);
+    });
+
+    it('should start over after a drift', async () => {
+      for (let i = 0; i < 3; i++) {
+        await cache.recordTextLayoutParity(params, true);
+      }
+      await cache.recordTextLayoutParity(params, false);
+
+      expect(await cache.hasTextLayoutParity(params)).toBe(false);
+    });
+
+    it('should be tracked per font, size and page, whatever the book', async () => {
+      for (let i = 0; i < 3; i++) {
+        await cache.recordTextLayoutParity(params, true);
+      }
+
+      expect(await cache.hasTextLayoutParity({ ...params, chapterTitles: ['Другая'] })).toBe(true);
+      expect(await cache.hasTextLayoutParity({ ...params, fontSize: 20 })).toBe(false);
+      expect(await cache.hasTextLayoutParity({ ...params, pageWidth: 401 })).toBe(false);
+    });
+
+    it('should not count as confirmed when IndexedDB fails', async () => {
+      storage.get.mockRejectedValue(new Error('blocked'));
+      expect(await cache.hasTextLayoutParity(params)).toBe(false);
+    });
+  });
+
+  it('should close storage on destroy', () => {
+    cache.destroy();
+    expect(storage.destroy).toHaveBeenCalled();
+  });
+});
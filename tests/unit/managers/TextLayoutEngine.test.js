@@ -0,0 +1,217 @@
+/**
+ * Тесты для TextLayoutEngine
+ * Раскладка глав по колонкам без DOM (подставные метрики: моноширинный шрифт)
+ */
+import { describe, it, expect } from 'vitest';
+import {
+  fontString,
+  countLines,
+  layoutChapters,
+  computeChapterLayout,
+} from '../../../js/managers/TextLayoutEngine.js';
+
+/** Каждый символ шириной в размер шрифта, прописная — 0.7 размера */
+const measurer = {
+  width: (text, font) => text.length * fontSize(font),
+  capHeight: (font) => fontSize(font) * 0.7,
+  lineHeight: (font) => fontSize(font) * 1.2,
+};
+
+function fontSize(font) {
+  return Number(/([\d.]+)px/.exec(font)[1]);
+}
+
+const FONT = { style: 'normal', weight: 400, size: 10, family: 'serif' };
+
+/** Стиль блока: строка 20px, без отступов, orphans/widows = 1 */
+function style(overrides = {}) {
+  return {
+    font: FONT,
+    lineHeight: 20,
+    margin: [0, 0, 0, 0],
+    padding: [0, 0, 0, 0],
+    border: [0, 0, 0, 0],
+    textIndent: 0,
+    orphans: 1,
+    widows: 1,
+    fixedHeight: null,
+    ...overrides,
+  };
+}
+
+/** Абзац из lines строк по 4 символа (при ширине 40px — слово на строку) */
+function paragraph(lines, extra = {}) {
+  return { type: 'text', style: 'p', runs: [{ text: Array(lines).fill('aaaa').join(' ') }], ...extra };
+}
+
+function layout(chapters, typography, { width = 40, height = 100, toc = null } = {}) {
+  return layoutChapters({ page: { width, height }, typography, toc, chapters }, measurer);
+}
+
+describe('TextLayoutEngine', () => {
+  describe('fontString', () => {
+    it('should build a canvas font with bolder weight and italic', () => {
+      const font = { style: 'normal', weight: 400, size: 16, family: 'Georgia, serif' };
+
+      expect(fontString(font)).toBe('normal 400 16px Georgia, serif');
+      expect(fontString(font, { bold: true, italic: true })).toBe('italic 700 16px Georgia, serif');
+    });
+  });
+
+  describe('countLines', () => {
+    const typography = { p: style() };
+    const text = (runs, extra = {}) => ({ type: 'text', style: 'p', runs, ...extra });
+
+    it('should wrap words greedily', () => {
+      expect(countLines(text([{ text: 'aaaa bbbb' }]), 90, typography, measurer)).toBe(1);
+      expect(countLines(text([{ text: 'aaaa bbbb cccc' }]), 90, typography, measurer)).toBe(2);
+    });
+
+    it('should collapse whitespace', () => {
+      expect(countLines(text([{ text: '  aaaa \n\t bbbb  ' }]), 90, typography, measurer)).toBe(1);
+    });
+
+    it('should account for text-indent on the first line', () => {
+      const indented = { p: style({ textIndent: 20 }) };
+      expect(countLines(text([{ text: 'aaaa bbbb' }]), 90, indented, measurer)).toBe(2);
+    });
+
+    it('should break after a hyphen but not at a no-break space', () => {
+      expect(countLines(text([{ text: 'ab-cd' }]), 30, typography, measurer)).toBe(2);
+      expect(countLines(text([{ text: 'ab\u00A0cd' }]), 30, typography, measurer)).toBe(1);
+    });
+
+    it('should keep a word split across runs together', () => {
+      const runs = [{ text: 'aa' }, { text: 'bb', bold: true }];
+      expect(countLines(text(runs), 30, typography, measurer)).toBe(1);
+    });
+
+    it('should break at a hyphen or dash on the boundary of runs', () => {
+      expect(countLines(text([{ text: 'ab-' }, { text: 'cd', bold: true }]), 30, typography, measurer)).toBe(2);
+      expect(countLines(text([{ text: 'ab' }, { text: '—cd', italic: true }]), 20, typography, measurer)).toBe(3);
+    });
+
+    it('should start a new line at <br> but not after a trailing one', () => {
+      expect(countLines(text([{ text: 'aa' }, { br: true }, { text: 'bb' }]), 100, typography, measurer)).toBe(2);
+      expect(countLines(text([{ text: 'aa' }, { br: true }]), 100, typography, measurer)).toBe(1);
+    });
+
+    it('should count no lines for an empty block', () => {
+      expect(countLines(text([{ text: '  ' }]), 100, typography, measurer)).toBe(0);
+    });
+
+    it('should reserve lines for an initial-letter drop cap', () => {
+      const withCap = {
+        p: style(),
+        dropCap: { font: FONT, lineHeight: null, padding: [0, 0, 0, 0], initialLetter: 2 },
+      };
+
+      expect(countLines(text([{ text: 'Ab' }]), 1000, withCap, measurer)).toBe(1);
+      expect(countLines(text([{ text: 'Ab' }], { dropCap: true }), 1000, withCap, measurer)).toBe(2);
+    });
+
+    it('should narrow the lines beside a floated drop cap', () => {
+      const floated = {
+        p: style(),
+        dropCap: { font: { ...FONT, size: 30 }, lineHeight: 30, padding: [0, 0, 0, 0], initialLetter: 0 },
+      };
+
+      // Буквица 30px шириной на две строки сужает их
+      expect(countLines(text([{ text: 'Abbb bbbb bbbb' }], { dropCap: true }), 90, floated, measurer)).toBe(3);
+      expect(countLines(text([{ text: 'Abbb bbbb bbbb' }]), 90, floated, measurer)).toBe(2);
+    });
+  });
+
+  describe('layoutChapters', () => {
+    it('should count columns of each chapter independently', () => {
+      const { counts } = layout([[paragraph(5)], [paragraph(6)], [paragraph(11)]], { p: style() });
+      expect(counts).toEqual([1, 2, 3]);
+    });
+
+    it('should collapse adjacent margins', () => {
+      const typography = { p: style({ margin: [10, 0, 10, 0] }) };
+      const chapter = [paragraph(1), paragraph(1), paragraph(1)];
+
+      // 10 + 20 + 10 + 20 + 10 + 20 = 90: без схлопывания не поместилось бы
+      expect(layout([chapter], typography, { height: 90 }).counts).toEqual([1]);
+      expect(layout([chapter], typography, { height: 89 }).counts).toEqual([2]);
+    });
+
+    it('should truncate margins after an unforced column break', () => {
+      const typography = { p: style({ margin: [10, 0, 10, 0] }) };
+      const chapter = Array.from({ length: 5 }, () => paragraph(1));
+
+      // Колонка 1: 10 + 20 + 10 + 20; колонка 2: 20 + 10 + 20 + 10 + 20
+      expect(layout([chapter], typography, { height: 80 }).counts).toEqual([2]);
+    });
+
+    it('should not collapse margins through padding', () => {
+      const typography = {
+        article: style({ padding: [5, 0, 5, 0] }),
+        p: style({ margin: [10, 0, 10, 0] }),
+      };
+      const chapter = [{ type: 'box', style: 'article', children: [paragraph(1), paragraph(1)] }];
+
+      // Строки второго абзаца заканчиваются на 5 + 10 + 20 + 10 + 20
+      expect(layout([chapter], typography, { height: 65 }).counts).toEqual([1]);
+      expect(layout([chapter], typography, { height: 64 }).counts).toEqual([2]);
+    });
+
+    it('should move a paragraph that would leave fewer lines than orphans', () => {
+      // 4 строки, затем абзац из 6: в первой колонке остаётся место на 1 строку
+      const chapter = [paragraph(4), paragraph(6)];
+
+      expect(layout([chapter], { p: style() }).counts).toEqual([2]);
+      expect(layout([chapter], { p: style({ orphans: 2 }) }).counts).toEqual([3]);
+    });
+
+    it('should carry enough lines to satisfy widows', () => {
+      const typography = (widows) => ({ p: style({ widows }), img: style() });
+      const image = { type: 'image', style: 'img', width: 40, height: 50 };
+      const chapter = [paragraph(1), paragraph(5), image];
+
+      // widows 1: 4 + 1 строка, картинка во второй колонке помещается
+      expect(layout([chapter], typography(1)).counts).toEqual([2]);
+      // widows 3: 2 + 3 строки, картинка уходит в третью колонку
+      expect(layout([chapter], typography(3)).counts).toEqual([3]);
+    });
+
+    it('should put at least one line in an empty column', () => {
+      const chapter = [paragraph(6)];
+      expect(layout([chapter], { p: style({ orphans: 10, widows: 10 }) }).counts).toEqual([2]);
+    });
+
+    it('should move an image that does not fit to the next column', () => {
+      const image = { type: 'image', style: 'img', width: 40, height: 50 };
+      const chapter = [paragraph(4), image];
+
+      expect(layout([chapter], { p: style(), img: style() }).counts).toEqual([2]);
+      expect(layout([chapter], { p: style(), img: style({ fixedHeight: 20 }) }).counts).toEqual([1]);
+    });
+
+    it('should lay out the table of contents separately', () => {
+      const typography = { p: style() };
+
+      expect(layout([[paragraph(1)]], typography).tocPages).toBe(0);
+      expect(layout([[paragraph(1)]], typography, { toc: [paragraph(7)] }).tocPages).toBe(2);
+    });
+  });
+
+  describe('computeChapterLayout', () => {
+    it('should align chapters to even pages on desktop', () => {
+      expect(computeChapterLayout(1, [3, 2], false)).toEqual({
+        pageCount: 8,
+        chapterStarts: [2, 6],
+        spacers: [0, 1],
+      });
+    });
+
+    it('should place chapters back to back on mobile', () => {
+      expect(computeChapterLayout(1, [3, 2], true)).toEqual({
+        pageCount: 6,
+        chapterStarts: [1, 4],
+        spacers: [],
+      });
+    });
+  });
+});
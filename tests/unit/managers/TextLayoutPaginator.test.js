@@ -0,0 +1,166 @@
+/**
+ * Тесты для TextLayoutPaginator
+ * Разбор HTML в блоки движка и обмен с воркером раскладки
+ */
+import { describe, it, expect, beforeEach, afterEach, vi } from 'vitest';
+import { TextLayoutPaginator, extractChapter } from '../../../js/managers/TextLayoutPaginator.js';
+
+const sanitizer = { sanitize: (html) => html };
+
+const BOOK = `
+  <article><h2>Первая</h2><p>Текст</p></article>
+  <article><h2>Вторая</h2><p>Текст</p></article>
+`;
+
+const typography = {
+  page: { width: 400, height: 600 },
+  styles: { p: { font: { style: 'normal', weight: 400, size: 18, family: 'Georgia, serif' } } },
+};
+
+/** Воркер, отвечающий через respond(message) */
+function createFakeWorker(respond) {
+  const worker = {
+    postMessage: vi.fn((message) => {
+      const reply = respond(message);
+      if (reply) queueMicrotask(() => worker.onmessage({ data: { id: message.id, ...reply } }));
+    }),
+    terminate: vi.fn(),
+    onmessage: null,
+    onerror: null,
+  };
+  return worker;
+}
+
+function parseArticle(html) {
+  return new DOMParser().parseFromString(`<article>${html}</article>`, 'text/html').querySelector('article');
+}
+
+describe('TextLayoutPaginator', () => {
+  describe('extractChapter', () => {
+    it('should convert supported markup to layout blocks', () => {
+      const article = parseArticle(`
+        <h2>Глава</h2>
+        <p>Текст <b>жирный</b><br><em>курсив</em></p>
+        <ul><li>пункт</li></ul>
+        <blockquote><p>цитата</p></blockquote>
+        <img src="a.webp" width="400" height="300" alt="">
+      `);
+
+      const [box] = extractChapter(article);
+
+      expect(box.style).toBe('article');
+      expect(box.children.map(block => block.style)).toEqual(['h2', 'p', 'ul', 'blockquote', 'img']);
+      expect(box.children[1]).toEqual({
+        type: 'text',
+        style: 'p',
+        dropCap: true,
+        runs: [{ text: 'Текст ' }, { text: 'жирный', bold: true }, { br: true }, { text: 'курсив', italic: true }],
+      });
+      expect(box.children[4]).toEqual({ type: 'image', style: 'img', width: 400, height: 300, float: false });
+    });
+
+    it('should mark an image between paragraphs as floated', () => {
+      const [box] = extractChapter(parseArticle(
+        '<p>a</p><img width="4" height="3" alt=""><p>b</p>',
+      ));
+      expect(box.children[1].float).toBe(true);
+    });
+
+    it.each([
+      ['a class attribute', '<p class="note">a</p>'],
+      ['an unsupported element', '<table><tr><td>a</td></tr></table>'],
+      ['an image without dimensions', '<img src="a.webp" alt="">'],
+      ['a heading after the chapter start', '<p>a</p><h2>b</h2>'],
+      ['a soft hyphen', '<p>пере\u00ADнос</p>'],
+      ['an h1 with markup', '<h1><span>a</span></h1>'],
+      ['bare text in the article', 'текст'],
+    ])('should reject %s', (_, html) => {
+      expect(extractChapter(parseArticle(html))).toBeNull();
+    });
+  });
+
+  describe('layout', () => {
+    let paginator;
+    let worker;
+
+    beforeEach(() => {
+      worker = createFakeWorker(() => ({ tocPages: 1, counts: [3, 2] }));
+      paginator = new TextLayoutPaginator({ sanitizer, createWorker: () => worker });
+      vi.spyOn(paginator, '_readTypography').mockReturnValue(typography);
+      vi.spyOn(console, 'warn').mockImplementation(() => {});
+    });
+
+    afterEach(() => {
+      paginator.destroy();
+      vi.useRealTimers();
+      vi.restoreAllMocks();
+    });
+
+    it('should compute the layout from page counts of the worker', async () => {
+      const layout = await paginator.layout(BOOK, document.createElement('div'), { chapterTitles: ['Один', 'Два'] });
+
+      expect(layout).toEqual({ pageCount: 8, chapterStarts: [2, 6], spacers: [0, 1] });
+
+      const message = worker.postMessage.mock.calls[0][0];
+      expect(message.page).toEqual(typography.page);
+      expect(message.fonts).toEqual([]);
+      expect(message.chapters).toHaveLength(2);
+      expect(message.toc[0].children[1].children.map(item => item.runs[0].text)).toEqual(['Один', 'Два']);
+    });
+
+    it('should not align chapters in mobile mode', async () => {
+      const layout = await paginator.layout(BOOK, document.createElement('div'), { isMobile: true });
+      expect(layout).toEqual({ pageCount: 6, chapterStarts: [1, 4], spacers: [] });
+    });
+
+    it('should skip the table of contents for a single chapter', async () => {
+      await paginator.layout('<article><p>Текст</p></article>', document.createElement('div'));
+      expect(worker.postMessage.mock.calls[0][0].toc).toBeNull();
+    });
+
+    it('should return null for unsupported content without asking the worker', async () => {
+      const layout = await paginator.layout('<article><table></table></article>', document.createElement('div'));
+
+      expect(layout).toBeNull();
+      expect(worker.postMessage).not.toHaveBeenCalled();
+    });
+
+    it('should return null when the worker reports an error', async () => {
+      worker = createFakeWorker(() => ({ error: 'boom' }));
+      expect(await paginator.layout(BOOK, document.createElement('div'))).toBeNull();
+    });
+
+    it('should give up when the worker does not answer in time', async () => {
+      vi.useFakeTimers();
+      worker = createFakeWorker(() => null);
+
+      const promise = paginator.layout(BOOK, document.createElement('div'));
+      await vi.advanceTimersByTimeAsync(5000);
+
+      expect(await promise).toBeNull();
+    });
+
+    it('should stop using a crashed worker', async () => {
+      worker = createFakeWorker(() => null);
+
+      const promise = paginator.layout(BOOK, document.createElement('div'));
+      await vi.waitFor(() => expect(worker.postMessage).toHaveBeenCalled());
+      worker.onerror({ message: 'crash' });
+
+      expect(await promise).toBeNull();
+      expect(worker.terminate).toHaveBeenCalled();
+      expect(await paginator.layout(BOOK, document.createElement('div'))).toBeNull();
+      expect(worker.postMessage).toHaveBeenCalledTimes(1);
+    });
+
+    it('should return null when a worker cannot be created', async () => {
+      paginator = new TextLayoutPaginator({
+        sanitizer,
+        createWorker: () => { throw new Error('no workers'); },
+      });
+      vi.spyOn(paginator, '_readTypography').mockReturnValue(typography);
+
+      expect(await paginator.layout(BOOK, document.createElement('div'))).toBeNull();
+    });
+  });
+});
@@ -0,0 +1,400 @@
+/**
+ * Тесты паритета раскладки: TextLayoutPaginator + TextLayoutEngine против AsyncPaginator
+ *
+ * В jsdom нет layout, поэтому геометрию для AsyncPaginator (offsetLeft
+ * маркеров глав и scrollWidth колонок) даёт эталонная модель колонок. Она
+ * раскладывает то, что AsyncPaginator действительно построил в DOM, —
+ * оглавление, маркеры, спейсеры, клоны статей — по правилам CSS-раскладки
+ * для стилей ниже (без margin и padding, orphans/widows = 1) и с теми же
+ * моноширинными метриками, что в тестах TextLayoutEngine. Обтекание картинок
+ * не моделируется: без отступов картинка занимает строку во всю ширину.
+ *
+ * Метрики настоящих шрифтов здесь не проверяются — это делает e2e
+ * text-layout-parity.spec.js. Здесь проверяется, что обе стороны видят один
+ * и тот же текст (буквица, дефисы и тире, неразрывные пробелы, заголовки,
+ * картинки) и одинаково собирают из глав раскладку книги.
+ */
+import { describe, it, expect, beforeEach, afterEach, vi } from 'vitest';
+import { AsyncPaginator } from '../../../js/managers/AsyncPaginator.js';
+import { TextLayoutPaginator } from '../../../js/managers/TextLayoutPaginator.js';
+import { layoutChapters } from '../../../js/managers/TextLayoutEngine.js';
+
+vi.mock('../../../js/utils/MediaQueryManager.js', () => ({
+  mediaQueries: { isMobile: false, get: vi.fn().mockReturnValue(false) },
+}));
+
+const sanitizer = { sanitize: (html) => html };
+
+/** Каждый символ шириной в размер шрифта, прописная — 0.7 размера */
+const measurer = {
+  width: (text, font) => text.length * fontSize(font),
+  capHeight: (font) => fontSize(font) * 0.7,
+  lineHeight: (font) => fontSize(font) * 1.2,
+};
+
+function fontSize(font) {
+  return Number(/([\d.]+)px/.exec(font)[1]);
+}
+
+/** Колонка (страница) и область текста в ней */
+const COLUMN = { clientWidth: 240, clientHeight: 200 };
+const PAGE = { width: 200, height: 200 };
+
+function style(size, lineHeight) {
+  return {
+    font: { style: 'normal', weight: 400, size, family: 'serif' },
+    lineHeight,
+    margin: [0, 0, 0, 0],
+    padding: [0, 0, 0, 0],
+    border: [0, 0, 0, 0],
+    textIndent: 0,
+    orphans: 1,
+    widows: 1,
+    fixedHeight: null,
+  };
+}
+
+const TYPOGRAPHY = {
+  toc: style(10, 20),
+  'toc h2': style(15, 30),
+  'toc ol': style(10, 20),
+  'toc li': style(10, 20),
+  article: style(10, 20),
+  p: style(10, 20),
+  h1: style(20, 40),
+  h2: style(15, 30),
+  h3: style(12, 24),
+  h4: style(10, 20),
+  h5: style(10, 20),
+  h6: style(10, 20),
+  ul: style(10, 20),
+  ol: style(10, 20),
+  li: style(10, 20),
+  blockquote: style(10, 20),
+  img: style(10, 20),
+  // Запасной вариант буквицы (float): 20px, строка 30px — две строки абзаца
+  dropCap: { font: { style: 'normal', weight: 700, size: 20, family: 'serif' }, lineHeight: 30, padding: [0, 5, 0, 0], initialLetter: 0 },
+};
+
+// ═══════════════════════════════════════════════════════════════════════════
+// ЭТАЛОННАЯ МОДЕЛЬ КОЛОНОК
+// ═══════════════════════════════════════════════════════════════════════════
+
+/** Перенос строки из <br> (схлопываемые пробелы его не трогают) */
+const LINE_BREAK = '\u2028';
+
+/** Места переноса внутри слова: после дефиса или тире перед буквой, перед тире после буквы */
+const WORD_BREAK = /(?<=[-\u2010\u2013\u2014])(?=[\p{L}\p{N}])|(?<=[\p{L}\p{N}])(?=\u2014)/u;
+
+/**
+ * Текст блока, как его видит строчная раскладка
+ * @param {Node} node
+ * @returns {string}
+ */
+function blockText(node) {
+  let text = '';
+  for (const child of node.childNodes) {
+    if (child.nodeType === Node.TEXT_NODE) text += child.data;
+    else if (child.nodeName === 'BR') text += LINE_BREAK;
+    else if (child.nodeType === Node.ELEMENT_NODE) text += blockText(child);
+  }
+  return text;
+}
+
+/**
+ * Число строк блока: жадный перенос по пробелам и местам WORD_BREAK
+ * @param {string} text
+ * @param {number} charWidth - Ширина символа шрифта блока
+ * @param {{width: number, lines: number}|null} cap - Буквица
+ * @returns {number}
+ */
+function referenceLines(text, charWidth, cap) {
+  const lines = text.replace(/[ \t\n\r\f]+/g, ' ').split(LINE_BREAK);
+  if (lines.length === 1 && !lines[0].replaceAll(' ', '') && !cap) return 0;
+  // <br> в конце блока не открывает новую строку
+  if (lines.length > 1 && !lines[lines.length - 1].replaceAll(' ', '')) lines.pop();
+
+  let count = 0;
+  for (const line of lines) {
+    const lineStart = () => (cap && count < cap.lines ? cap.width : 0);
+    let x = lineStart();
+    let hasContent = false;
+
+    for (const word of line.split(' ').filter(Boolean)) {
+      word.split(WORD_BREAK).forEach((piece, i) => {
+        const gap = i === 0 && hasContent ? charWidth : 0;
+        const width = piece.length * charWidth;
+        if (hasContent && x + gap + width > PAGE.width) {
+          count++;
+          x = lineStart() + width;
+        } else {
+          x += gap + width;
+        }
+        hasContent = true;
+      });
+    }
+    count++;
+  }
+
+  return cap ? Math.max(count, cap.lines) : count;
+}
+
+/**
+ * Первая буква абзаца под буквицу (с предшествующей пунктуацией)
+ * @param {string} text
+ * @returns {{capText: string, rest: string}|null}
+ */
+function splitDropCap(text) {
+  const match = /^[ \t\n\r\f]*([^\p{L}\p{N} \t\n\r\f]*[\p{L}\p{N}])/u.exec(text);
+  return match ? { capText: match[1], rest: text.slice(match[0].length) } : null;
+}
+
+/**
+ * Разложить page-content по колонкам
+ *
+ * Разрывы: после оглавления, перед маркером главы, перед спейсером (он
+ * занимает колонку целиком) и перед probe-колонкой. Разрыв перед первым
+ * содержимым не создаёт пустую колонку, соседние разрывы не складываются.
+ *
+ * @param {HTMLElement} pageContent
+ * @returns {{columns: number, positions: Map<Element, number>}}
+ */
+function layoutColumns(pageContent) {
+  const positions = new Map();
+  let column = 0;
+  let y = 0;
+  let started = false;
+  let pendingBreak = false;
+
+  const forceBreak = () => {
+    if (started) pendingBreak = true;
+  };
+  const place = (el) => {
+    if (pendingBreak) {
+      column++;
+      y = 0;
+      pendingBreak = false;
+    }
+    positions.set(el, column);
+    started = true;
+  };
+  const placeLines = (count, lineHeight) => {
+    let remaining = count;
+    while (remaining > 0) {
+      const fit = Math.floor((PAGE.height - y) / lineHeight);
+      if (fit >= remaining) {
+        y += remaining * lineHeight;
+        return;
+      }
+      if (fit > 0) remaining -= fit;
+      else if (y === 0) remaining -= 1;
+      column++;
+      y = 0;
+    }
+  };
+
+  const walk = (el, scope) => {
+    place(el);
+    const tag = el.tagName;
+
+    if (tag === 'IMG') {
+      const height = PAGE.width * (Number(el.getAttribute('height')) / Number(el.getAttribute('width')));
+      if (y > 0 && y + height > PAGE.height) {
+        column++;
+        y = 0;
+      }
+      y += height;
+      return;
+    }
+
+    const key = scope ? `${scope} ${tag.toLowerCase()}` : tag.toLowerCase();
+    const hasBlocks = [...el.children].some(child => !['B', 'STRONG', 'I', 'EM', 'U', 'S', 'MARK', 'SPAN', 'A', 'BR'].includes(child.tagName));
+
+    if (/^(P|H[1-6]|LI)$/.test(tag) && !hasBlocks) {
+      const { size } = TYPOGRAPHY[key].font;
+      let text = blockText(el);
+      let cap = null;
+      // h2 + p::first-letter
+      if (tag === 'P' && el.previousElementSibling?.tagName === 'H2') {
+        const split = splitDropCap(text);
+        if (split) {
+          const { dropCap } = TYPOGRAPHY;
+          cap = {
+            width: split.capText.length * dropCap.font.size + dropCap.padding[1],
+            lines: Math.ceil(dropCap.lineHeight / TYPOGRAPHY[key].lineHeight),
+          };
+          text = split.rest;
+        }
+      }
+      placeLines(referenceLines(text, size, cap), TYPOGRAPHY[key].lineHeight);
+      return;
+    }
+
+    for (const child of el.children) {
+      walk(child, el.classList.contains('toc') ? 'toc' : scope);
+    }
+  };
+
+  for (const el of pageContent.children) {
+    if (el.classList.contains('toc')) {
+      walk(el, null);
+      forceBreak();
+    } else if (el.dataset.chapterStart !== undefined) {
+      forceBreak();
+      place(el);
+    } else if (el.tagName === 'DIV') {
+      // Спейсер выравнивания или probe-колонка: разрыв и колонка целиком
+      forceBreak();
+      place(el);
+      y = PAGE.height;
+    } else {
+      walk(el, null);
+    }
+  }
+
+  return { columns: column + 1, positions };
+}
+
+/**
+ * Подставить геометрию эталонной модели в jsdom
+ * @returns {function(): void} Вернуть jsdom как было
+ */
+function installReferenceGeometry() {
+  const geometry = (el) => {
+    const cols = el.closest('.cols');
+    return cols ? layoutColumns(cols.querySelector('.page-content')) : null;
+  };
+
+  const offsetLeft = vi.spyOn(HTMLElement.prototype, 'offsetLeft', 'get').mockImplementation(function () {
+    const column = geometry(this)?.positions.get(this) ?? 0;
+    return column * COLUMN.clientWidth;
+  });
+  const scrollWidth = vi.spyOn(Element.prototype, 'scrollWidth', 'get').mockImplementation(function () {
+    return this.classList.contains('cols') ? geometry(this).columns * COLUMN.clientWidth : 0;
+  });
+
+  return () => {
+    offsetLeft.mockRestore();
+    scrollWidth.mockRestore();
+  };
+}
+
+// ═══════════════════════════════════════════════════════════════════════════
+// FIXTURES
+// ═══════════════════════════════════════════════════════════════════════════
+
+const TEXT = 'Рассказ у нас пойдет в особенности о хоббитах, и любознательный читатель '
+  + 'многое узнает об их нравах и кое-что из их истории.';
+
+const FIXTURES = {
+  'drop cap': `<article><h2>Буквица</h2><p>«Вот» ${TEXT} ${TEXT}</p><p>${TEXT}</p>
+    <h3>Без буквицы</h3><p>${TEXT}</p></article>`,
+
+  dashes: `<article><h2>Тире</h2>
+    <p>Северо-западный ветер — и снова северо-западный; Москва – Петербург, 1941–1945,
+      слово—слово—слово, <i>слово</i>—слово, <b>из-</b>за, по-моему, из-за, крупноблочно-панельно-кирпичный.</p>
+    <p>— Реплика, — сказал он, — с тире в начале, в середине и в конце —</p>
+    <p>${TEXT.replace(/ и /g, ' — ')} ${TEXT}</p></article>`,
+
+  'no-break spaces': `<article><h2>Пробелы</h2>
+    <p>${TEXT.replace(/ (\p{L}{1,2}) /gu, ' $1&nbsp;')} ${TEXT.slice(0, 18).replace(/ /g, '&nbsp;')}</p>
+    <p>в&nbsp;особенности о&nbsp;хоббитах, 12&nbsp;345&nbsp;678, т.&nbsp;е.&nbsp;так</p></article>`,
+
+  headings: `<article><h2>Заголовок главы, достаточно длинный, чтобы перенестись</h2>
+    <p>${TEXT}</p><h3>Раздел первый с длинным названием раздела</h3><p>${TEXT} ${TEXT}</p>
+    <h4>Подраздел</h4><p>${TEXT}</p><h3>Раздел второй</h3><p>Короткий <b>жирный</b> <em>абзац</em><br>со строкой</p>
+    <ul><li>Первый пункт</li><li>Второй пункт, подлиннее, чтобы перенестись</li></ul>
+    <blockquote><p>${TEXT}</p></blockquote></article>`,
+
+  images: `<article><h2>Картинки</h2><p>${TEXT}</p>
+    <img src="a.webp" width="400" height="300" alt=""><p>${TEXT} ${TEXT}</p>
+    <img src="b.webp" width="400" height="360" alt=""><p>${TEXT}</p>
+    <img src="c.webp" width="800" height="200" alt=""></article>`,
+};
+
+// ═══════════════════════════════════════════════════════════════════════════
+// TESTS
+// ═══════════════════════════════════════════════════════════════════════════
+
+describe('Text layout parity', () => {
+  let textLayout;
+  let paginator;
+  let restoreGeometry;
+
+  beforeEach(() => {
+    const worker = {
+      postMessage: ({ id, fonts: _fonts, ...input }) => {
+        const { tocPages, counts } = layoutChapters(input, measurer);
+        queueMicrotask(() => worker.onmessage({ data: { id, tocPages, counts } }));
+      },
+      terminate: () => {},
+      onmessage: null,
+      onerror: null,
+    };
+    textLayout = new TextLayoutPaginator({ sanitizer, createWorker: () => worker });
+    vi.spyOn(textLayout, '_readTypography').mockReturnValue({ page: PAGE, styles: TYPOGRAPHY });
+    paginator = new AsyncPaginator({ sanitizer, yieldInterval: 1 });
+    restoreGeometry = installReferenceGeometry();
+  });
+
+  afterEach(() => {
+    restoreGeometry();
+    textLayout.destroy();
+    vi.restoreAllMocks();
+  });
+
+  /** Раскладка обоими движками */
+  async function layoutBoth(html, chapterTitles) {
+    const estimated = await textLayout.layout(html, COLUMN, { chapterTitles });
+    const measured = (await paginator.paginate(html, COLUMN, { chapterTitles })).layout;
+    return { estimated, measured };
+  }
+
+  describe('reference model', () => {
+    it('should wrap at spaces, after hyphens and around dashes, but not at no-break spaces', () => {
+      // 20 символов в строке
+      expect(referenceLines('aaaa bbbb cccc dddd eeee', 10, null)).toBe(2);
+      expect(referenceLines('aaaaaaaaaaaaaaaaaa-bbbb', 10, null)).toBe(2);
+      expect(referenceLines('aaaaaaaaaaaaaaaaaa\u2014bbbb', 10, null)).toBe(2);
+      expect(referenceLines('aaaa\u00A0bbbb\u00A0cccc\u00A0dddd\u00A0eeee', 10, null)).toBe(1);
+      expect(referenceLines(`aaaa${LINE_BREAK}bbbb${LINE_BREAK}`, 10, null)).toBe(2);
+    });
+
+    it('should take the first letter and its punctuation for the drop cap', () => {
+      expect(splitDropCap(' «Вот» текст')).toEqual({ capText: '«В', rest: 'от» текст' });
+    });
+  });
+
+  for (const [name, article] of Object.entries(FIXTURES)) {
+    it(`should match DOM pagination: ${name}`, async () => {
+      const { estimated, measured } = await layoutBoth(article);
+
+      expect(estimated).not.toBeNull();
+      expect(measured.pageCount).toBeGreaterThan(1);
+      expect(estimated).toEqual(measured);
+    });
+  }
+
+  it('should match DOM pagination for the whole book with a table of contents', async () => {
+    const book = Object.values(FIXTURES).join('\n');
+    const titles = Object.keys(FIXTURES);
+
+    const { estimated, measured } = await layoutBoth(book, titles);
+
+    expect(measured.chapterStarts).toHaveLength(titles.length);
+    expect(estimated).toEqual(measured);
+  });
+
+  it('should see a dropped no-break space as a drift', async () => {
+    // 21 символ: с неразрывным пробелом — строка (с выходом за край), без него — две
+    const line = `${'а'.repeat(10)}&nbsp;${'б'.repeat(10)}`;
+    const html = `<article><h2>x</h2>${`<p>${line}</p>`.repeat(12)}</article>`;
+
+    const estimated = await textLayout.layout(html, COLUMN);
+    const measured = (await paginator.paginate(html.replace(/&nbsp;/g, ' '), COLUMN)).layout;
+
+    expect(estimated.pageCount).toBe(2);
+
+    expect(estimated).not.toEqual(measured);
+  });
+});
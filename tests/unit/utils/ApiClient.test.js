@@ -4,7 +4,7 @@
  */
 
 import { describe, it, expect, vi, beforeEach, afterEach } from 'vitest';
-import { ApiClient, ApiError } from '@utils/ApiClient.js';
+import { ApiClient, ApiError, parseReaderBundle } from '@utils/ApiClient.js';
 
 // Хелпер для создания мок-ответа
 function mockResponse(status, body = null, contentType = 'application/json') {
@@ -431,6 +431,15 @@ describe('ApiClient', () => {
       await client.getChapterContent('b1', 'c1');
       expect(global.fetch).toHaveBeenCalledWith('/api/v1/books/b1/chapters/c1/content', expect.anything());
     });
+
+    it('getChapterContent should request raw HTML and return it as text', async () => {
+      global.fetch = vi.fn().mockResolvedValue(mockResponse(200, '<p>Raw</p>', 'text/html; charset=utf-8'));
+      const html = await client.getChapterContent('b1', 'c1');
+      expect(global.fetch).toHaveBeenCalledWith('/api/v1/books/b1/chapters/c1/content', expect.objectContaining({
+        headers: expect.objectContaining({ Accept: 'text/html' }),
+      }));
+      expect(html).toBe('<p>Raw</p>');
+    });
   });
 
   // ═══════════════════════════════════════════════════════════════════════════
@@ -720,4 +729,43 @@ describe('ApiClient', () => {
       expect(result).toEqual({ status: 'ok' });
     });
   });
+
+  // ═══════════════════════════════════════════════════════════════════════════
+  // Reader bundle
+  // ═══════════════════════════════════════════════════════════════════════════
+
+  describe('reader bundle', () => {
+    const ndjson = [
+      { type: 'book', data: { id: 'b1', chapters: [] } },
+      { type: 'progress', data: { page: 5 } },
+      { type: 'chapter', data: { id: 'c1', html: '<p>1</p>' } },
+      { type: 'end' },
+    ].map(r => JSON.stringify(r)).join('\n') + '\n';
+
+    it('getReaderBundle should request owner bundle and parse records', async () => {
+      global.fetch = vi.fn().mockResolvedValue(mockResponse(200, ndjson, 'application/x-ndjson'));
+      const bundle = await client.getReaderBundle('b1', { chapters: 2 });
+
+      expect(global.fetch).toHaveBeenCalledWith('/api/v1/books/b1/bundle?chapters=2', expect.anything());
+      expect(bundle.book.id).toBe('b1');
+      expect(bundle.progress.page).toBe(5);
+      expect(bundle.chapters.get('c1')).toBe('<p>1</p>');
+    });
+
+    it('getReaderBundle should use public endpoint in publicMode', async () => {
+      global.fetch = vi.fn().mockResolvedValue(mockResponse(200, ndjson, 'application/x-ndjson'));
+      await client.getReaderBundle('b1', { publicMode: true });
+      expect(global.fetch).toHaveBeenCalledWith('/api/v1/public/books/b1/bundle', expect.anything());
+    });
+
+    it('parseReaderBundle should throw on truncated stream', () => {
+      const truncated = JSON.stringify({ type: 'book', data: { id: 'b1' } }) + '\n';
+      expect(() => parseReaderBundle(truncated)).toThrow(ApiError);
+    });
+
+    it('parseReaderBundle should throw on error record', () => {
+      const failed = JSON.stringify({ type: 'error', data: { message: 'boom' } }) + '\n';
+      expect(() => parseReaderBundle(failed)).toThrow('boom');
+    });
+  });
 });
@@ -344,6 +344,45 @@ describe('IdbStorage', () => {
     });
   });
 
+  describe('update', () => {
+    it('should pass the current value and write the returned one', async () => {
+      storeData['list'] = ['a'];
+      storage = new IdbStorage('test-db', 'test-store');
+
+      const promise = storage.update('list', (value, store) => {
+        store.put('payload', 'b');
+        return [...value, 'b'];
+      });
+      await vi.advanceTimersByTimeAsync(10);
+      await promise;
+
+      expect(storeData['list']).toEqual(['a', 'b']);
+      expect(storeData['b']).toBe('payload');
+    });
+
+    it('should pass null for a missing key and keep it when undefined is returned', async () => {
+      storage = new IdbStorage('test-db', 'test-store');
+      const updater = vi.fn(() => undefined);
+
+      const promise = storage.update('missing', updater);
+      await vi.advanceTimersByTimeAsync(10);
+      await promise;
+
+      expect(updater).toHaveBeenCalledWith(null, expect.anything());
+      expect('missing' in storeData).toBe(false);
+    });
+
+    it('should reject when the updater throws', async () => {
+      storage = new IdbStorage('test-db', 'test-store');
+
+      const promise = storage.update('key', () => { throw new Error('bad'); });
+      const assertion = expect(promise).rejects.toThrow('bad');
+      await vi.advanceTimersByTimeAsync(10);
+
+      await assertion;
+    });
+  });
+
   describe('destroy', () => {
     it('should close connection and clear idle timer', async () => {
       storage = new IdbStorage('test-db', 'test-store');